@@ -19,6 +19,11 @@ package com.alibaba.rocketmq.broker;
 import com.alibaba.rocketmq.broker.client.*;
 import com.alibaba.rocketmq.broker.client.net.Broker2Client;
 import com.alibaba.rocketmq.broker.client.rebalance.RebalanceLockManager;
+import com.alibaba.rocketmq.broker.dedup.CommitLogDispatcherDedup;
+import com.alibaba.rocketmq.broker.dedup.MessageIdWindow;
+import com.alibaba.rocketmq.broker.filter.CommitLogDispatcherCalcBitMap;
+import com.alibaba.rocketmq.broker.filter.ConsumerFilterManager;
+import com.alibaba.rocketmq.broker.filter.ExpressionMessageFilter;
 import com.alibaba.rocketmq.broker.filtersrv.FilterServerManager;
 import com.alibaba.rocketmq.broker.latency.BrokerFastFailure;
 import com.alibaba.rocketmq.broker.latency.BrokerFixedThreadPoolExecutor;
@@ -41,6 +46,7 @@ import com.alibaba.rocketmq.common.constant.PermName;
 import com.alibaba.rocketmq.common.namesrv.RegisterBrokerResult;
 import com.alibaba.rocketmq.common.protocol.RequestCode;
 import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
+import com.alibaba.rocketmq.common.protocol.header.RequestHeaderCodecs;
 import com.alibaba.rocketmq.common.stats.MomentStatsItem;
 import com.alibaba.rocketmq.remoting.RPCHook;
 import com.alibaba.rocketmq.remoting.RemotingServer;
@@ -75,6 +81,7 @@ public class BrokerController {
     private final DataVersion configDataVersion = new DataVersion();
     private final ConsumerOffsetManager consumerOffsetManager;
     private final ConsumerManager consumerManager;
+    private final ConsumerFilterManager consumerFilterManager;
     private final ProducerManager producerManager;
     private final ClientHousekeepingService clientHousekeepingService;
     private final DefaultTransactionCheckExecuter defaultTransactionCheckExecuter;
@@ -101,12 +108,16 @@ public class BrokerController {
     private TopicConfigManager topicConfigManager;
     private ExecutorService sendMessageExecutor;
     private ExecutorService pullMessageExecutor;
+    private ExecutorService coldPullMessageExecutor;
     private ExecutorService adminBrokerExecutor;
     private ExecutorService clientManageExecutor;
     private boolean updateMasterHAServerAddrPeriodically = false;
     private BrokerStats brokerStats;
     private InetSocketAddress storeHost;
     private BrokerFastFailure brokerFastFailure;
+    // null when sendDedupEnable is off
+    private MessageIdWindow messageIdWindow;
+    private CommitLogDispatcherDedup commitLogDispatcherDedup;
 
     public BrokerController(//
                             final BrokerConfig brokerConfig, //
@@ -126,6 +137,7 @@ public class BrokerController {
         this.messageArrivingListener = new NotifyMessageArrivingListener(this.pullRequestHoldService);
         this.consumerIdsChangeListener = new DefaultConsumerIdsChangeListener(this);
         this.consumerManager = new ConsumerManager(this.consumerIdsChangeListener);
+        this.consumerFilterManager = new ConsumerFilterManager(this.brokerConfig);
         this.producerManager = new ProducerManager();
         this.clientHousekeepingService = new ClientHousekeepingService(this);
         this.broker2Client = new Broker2Client(this);
@@ -176,6 +188,21 @@ public class BrokerController {
                         new DefaultMessageStore(this.messageStoreConfig, this.brokerStatsManager, this.messageArrivingListener, this.defaultTransactionCheckExecuter,
                                 this.brokerConfig);
                 this.brokerStats = new BrokerStats((DefaultMessageStore) this.messageStore);
+                ((DefaultMessageStore) this.messageStore).setMessageFilter(new ExpressionMessageFilter(this.consumerFilterManager));
+                if (this.brokerConfig.isEnableCalcFilterBitMap()) {
+                    if (!this.messageStoreConfig.isEnableConsumeQueueExt()) {
+                        log.warn("enableCalcFilterBitMap takes no effect without enableConsumeQueueExt");
+                    }
+                    this.messageStore.getDispatcherList().addFirst(
+                            new CommitLogDispatcherCalcBitMap(this.brokerConfig, this.consumerFilterManager));
+                }
+                if (this.brokerConfig.isSendDedupEnable()) {
+                    this.messageIdWindow =
+                            new MessageIdWindow(this.brokerConfig.getSendDedupSlotNums(), this.brokerConfig.getSendDedupWindowMs());
+                    this.commitLogDispatcherDedup = new CommitLogDispatcherDedup(this.messageIdWindow,
+                            ((DefaultMessageStore) this.messageStore).getCommitLog());
+                    this.messageStore.getDispatcherList().addLast(this.commitLogDispatcherDedup);
+                }
                 //load plugin
                 MessageStorePluginContext context = new MessageStorePluginContext(messageStoreConfig, brokerStatsManager, messageArrivingListener, brokerConfig);
                 this.messageStore = MessageStoreFactory.build(context, this.messageStore);
@@ -186,6 +213,13 @@ public class BrokerController {
         }
 
         result = result && this.messageStore.load();
+        if (result) {
+            this.messageStore.updateCompactionTopics(this.topicConfigManager.buildCompactionTopics());
+            this.messageStore.updateTopicRetentionTimes(this.topicConfigManager.buildTopicRetentionTimes());
+            if (this.commitLogDispatcherDedup != null) {
+                this.commitLogDispatcherDedup.rebuild();
+            }
+        }
 
         if (result) {
             this.remotingServer = new NettyRemotingServer(this.nettyServerConfig, this.clientHousekeepingService);
@@ -208,6 +242,16 @@ public class BrokerController {
                     this.pullThreadPoolQueue,//
                     new ThreadFactoryImpl("PullMessageThread_"));
 
+            if (this.messageStoreConfig.isColdReadEnable()) {
+                this.coldPullMessageExecutor = new BrokerFixedThreadPoolExecutor(//
+                        this.brokerConfig.getColdPullMessageThreadPoolNums(),//
+                        this.brokerConfig.getColdPullMessageThreadPoolNums(),//
+                        1000 * 60,//
+                        TimeUnit.MILLISECONDS,//
+                        new LinkedBlockingQueue<Runnable>(this.brokerConfig.getColdPullThreadPoolQueueCapacity()),//
+                        new ThreadFactoryImpl("ColdPullMessageThread_"));
+            }
+
             this.adminBrokerExecutor =
                     Executors.newFixedThreadPool(this.brokerConfig.getAdminBrokerThreadPoolNums(), new ThreadFactoryImpl(
                             "AdminBrokerThread_"));
@@ -279,6 +323,27 @@ public class BrokerController {
                 }
             }, 1000 * 10, 1000 * 60, TimeUnit.MILLISECONDS);
 
+            if (this.messageIdWindow != null) {
+                this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+                    private long lastEarlyEvictedCount = 0;
+
+                    @Override
+                    public void run() {
+                        try {
+                            long earlyEvictedCount = BrokerController.this.messageIdWindow.getEarlyEvictedCount();
+                            long evicted = earlyEvictedCount - this.lastEarlyEvictedCount;
+                            if (evicted > 0) {
+                                log.warn("{} message ids evicted within the send dedup window in the last minute, "
+                                        + "sendDedupSlotNums may be too small", evicted);
+                            }
+                            this.lastEarlyEvictedCount = earlyEvictedCount;
+                        } catch (Throwable e) {
+                            log.error("schedule earlyEvictedCount error.", e);
+                        }
+                    }
+                }, 1000 * 60, 1000 * 60, TimeUnit.MILLISECONDS);
+            }
+
             if (this.brokerConfig.getNamesrvAddr() != null) {
                 this.brokerOuterAPI.updateNameServerAddressList(this.brokerConfig.getNamesrvAddr());
             } else if (this.brokerConfig.isFetchNamesrvAddrByAddressServer()) {
@@ -333,6 +398,8 @@ public class BrokerController {
     }
 
     public void registerProcessor() {
+        RequestHeaderCodecs.registerAll();
+
         /**
          * SendMessageProcessor
          */
@@ -342,9 +409,11 @@ public class BrokerController {
 
         this.remotingServer.registerProcessor(RequestCode.SEND_MESSAGE, sendProcessor, this.sendMessageExecutor);
         this.remotingServer.registerProcessor(RequestCode.SEND_MESSAGE_V2, sendProcessor, this.sendMessageExecutor);
+        this.remotingServer.registerProcessor(RequestCode.SEND_BATCH_MESSAGE, sendProcessor, this.sendMessageExecutor);
         this.remotingServer.registerProcessor(RequestCode.CONSUMER_SEND_MSG_BACK, sendProcessor, this.sendMessageExecutor);
         this.fastRemotingServer.registerProcessor(RequestCode.SEND_MESSAGE, sendProcessor, this.sendMessageExecutor);
         this.fastRemotingServer.registerProcessor(RequestCode.SEND_MESSAGE_V2, sendProcessor, this.sendMessageExecutor);
+        this.fastRemotingServer.registerProcessor(RequestCode.SEND_BATCH_MESSAGE, sendProcessor, this.sendMessageExecutor);
         this.fastRemotingServer.registerProcessor(RequestCode.CONSUMER_SEND_MSG_BACK, sendProcessor, this.sendMessageExecutor);
         /**
          * PullMessageProcessor
@@ -439,6 +508,17 @@ public class BrokerController {
         return this.headSlowTimeMills(this.pullThreadPoolQueue);
     }
 
+    /**
+     * Pull requests waiting for a thread, cold ones included, advertised to consumers choosing a replica.
+     */
+    public int pullLoad() {
+        int load = this.pullThreadPoolQueue.size();
+        if (this.coldPullMessageExecutor instanceof ThreadPoolExecutor) {
+            load += ((ThreadPoolExecutor) this.coldPullMessageExecutor).getQueue().size();
+        }
+        return load;
+    }
+
     public void printWaterMark() {
         logWaterMark.info("[WATERMARK] Send Queue Size: {} SlowTimeMills: {}", this.sendThreadPoolQueue.size(), headSlowTimeMills4SendThreadPoolQueue());
         logWaterMark.info("[WATERMARK] Pull Queue Size: {} SlowTimeMills: {}", this.pullThreadPoolQueue.size(), headSlowTimeMills4PullThreadPoolQueue());
@@ -471,6 +551,15 @@ public class BrokerController {
         return consumerManager;
     }
 
+
+    public ConsumerFilterManager getConsumerFilterManager() {
+        return consumerFilterManager;
+    }
+
+    public MessageIdWindow getMessageIdWindow() {
+        return messageIdWindow;
+    }
+
     public ConsumerOffsetManager getConsumerOffsetManager() {
         return consumerOffsetManager;
     }
@@ -540,6 +629,10 @@ public class BrokerController {
             this.pullMessageExecutor.shutdown();
         }
 
+        if (this.coldPullMessageExecutor != null) {
+            this.coldPullMessageExecutor.shutdown();
+        }
+
         if (this.adminBrokerExecutor != null) {
             this.adminBrokerExecutor.shutdown();
         }
@@ -751,6 +844,11 @@ public class BrokerController {
         this.pullMessageExecutor = pullMessageExecutor;
     }
 
+
+    public ExecutorService getColdPullMessageExecutor() {
+        return coldPullMessageExecutor;
+    }
+
     public BlockingQueue<Runnable> getSendThreadPoolQueue() {
         return sendThreadPoolQueue;
     }
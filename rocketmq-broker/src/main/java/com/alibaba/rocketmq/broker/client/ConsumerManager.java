@@ -169,6 +169,7 @@ public class ConsumerManager {
                         "SCAN: remove expired channel from ConsumerManager consumerTable, all clear, consumerGroup={}",
                         group);
                 it.remove();
+                this.consumerIdsChangeListener.consumerIdsChanged(group, consumerGroupInfo.getAllChannel());
             }
         }
     }
@@ -36,6 +36,10 @@ public class DefaultConsumerIdsChangeListener implements ConsumerIdsChangeListen
 
     @Override
     public void consumerIdsChanged(String group, List<Channel> channels) {
+        if (null == channels || channels.isEmpty()) {
+            this.brokerController.getConsumerFilterManager().unRegister(group);
+        }
+
         if (channels != null && brokerController.getBrokerConfig().isNotifyConsumerIdsChangedEnable()) {
             for (Channel chl : channels) {
                 this.brokerController.getBroker2Client().notifyConsumerIdsChanged(chl, group);
@@ -97,6 +97,42 @@ public class Broker2Client {
     }
 
 
+    /**
+     * Writes the check requests of a batch to the producer, and flushes them once
+     */
+    public void checkProducerTransactionStates(//
+                                               final Channel channel,//
+                                               final List<CheckTransactionStateRequestHeader> requestHeaders,//
+                                               final List<SelectMapedBufferResult> selectMapedBufferResults//
+    ) {
+        for (int i = 0; i < requestHeaders.size(); i++) {
+            final SelectMapedBufferResult selectMapedBufferResult = selectMapedBufferResults.get(i);
+            RemotingCommand request =
+                    RemotingCommand.createRequestCommand(RequestCode.CHECK_TRANSACTION_STATE, requestHeaders.get(i));
+            request.markOnewayRPC();
+
+            try {
+                FileRegion fileRegion =
+                        new OneMessageTransfer(request.encodeHeader(selectMapedBufferResult.getSize()),
+                                selectMapedBufferResult);
+                channel.write(fileRegion).addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        selectMapedBufferResult.release();
+                        if (!future.isSuccess()) {
+                            log.error("invokeProducer failed,", future.cause());
+                        }
+                    }
+                });
+            } catch (Throwable e) {
+                log.error("invokeProducer exception", e);
+                selectMapedBufferResult.release();
+            }
+        }
+        channel.flush();
+    }
+
+
     public RemotingCommand callClient(//
                                       final Channel channel,//
                                       final RemotingCommand request//
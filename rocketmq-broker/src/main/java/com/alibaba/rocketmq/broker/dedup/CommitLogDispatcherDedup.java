@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.dedup;
+
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+import com.alibaba.rocketmq.store.CommitLog;
+import com.alibaba.rocketmq.store.CommitLogDispatcher;
+import com.alibaba.rocketmq.store.DispatchRequest;
+
+import java.util.Map;
+
+
+/**
+ * Keeps the unique id of every message dispatched in the {@link MessageIdWindow}. Delayed messages are kept
+ * under their real topic and queue, as the producer sent them.
+ */
+public class CommitLogDispatcherDedup implements CommitLogDispatcher {
+    private final MessageIdWindow messageIdWindow;
+    private final CommitLog commitLog;
+
+
+    public CommitLogDispatcherDedup(final MessageIdWindow messageIdWindow, final CommitLog commitLog) {
+        this.messageIdWindow = messageIdWindow;
+        this.commitLog = commitLog;
+    }
+
+
+    @Override
+    public void dispatch(DispatchRequest request) {
+        if (null == request.getUniqKey()
+                || MessageSysFlag.getTransactionValue(request.getSysFlag()) != MessageSysFlag.TransactionNotType) {
+            return;
+        }
+
+        String topic = request.getTopic();
+        int queueId = request.getQueueId();
+        Map<String, String> properties = request.getPropertiesMap();
+        if (properties != null && properties.containsKey(MessageConst.PROPERTY_REAL_TOPIC)) {
+            topic = properties.get(MessageConst.PROPERTY_REAL_TOPIC);
+            queueId = Integer.parseInt(properties.get(MessageConst.PROPERTY_REAL_QUEUE_ID));
+        }
+
+        this.messageIdWindow.put(topic, request.getUniqKey(), queueId, request.getConsumeQueueOffset(),
+                request.getCommitLogOffset(), request.getStoreTimestamp());
+    }
+
+
+    /**
+     * The window is kept in memory only, so it is filled again from the tail of CommitLog once the store is
+     * loaded.
+     */
+    public int rebuild() {
+        return this.commitLog.replay(System.currentTimeMillis() - this.messageIdWindow.getWindowMs(), this);
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.dedup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Off heap hash of the unique ids of messages stored within the window, per topic. A key is kept as two
+ * independent 64 bit hashes, so no message has to be read to tell a retry from another message. The table is
+ * bounded, a full probe sequence drops the oldest message in it.
+ *
+ * The table is split into segments picked by the fingerprint, each probed within itself under its own lock.
+ */
+public class MessageIdWindow {
+    // hash, fingerprint, storeTimestamp, commitLogOffset, queueOffset, queueId
+    public static final int SlotSize = 8 + 8 + 8 + 8 + 8 + 4;
+    private static final int MaxProbeTimes = 8;
+    private static final int MaxSegmentNums = 64;
+    private static final int MinSegmentSlotNums = 1024;
+
+    private final int segmentSlotNums;
+    private final long windowMs;
+    private final ByteBuffer table;
+    private final Object[] segmentLocks;
+    // messages dropped by newer ones while still within the window, sends retried after that are not deduplicated
+    private final AtomicLong earlyEvictedCount = new AtomicLong(0);
+
+
+    public MessageIdWindow(final int slotNums, final long windowMs) {
+        int segmentNums = 1;
+        while (segmentNums < MaxSegmentNums && slotNums / (segmentNums * 2) >= MinSegmentSlotNums) {
+            segmentNums *= 2;
+        }
+        this.segmentSlotNums = slotNums / segmentNums;
+        this.windowMs = windowMs;
+        this.table = ByteBuffer.allocateDirect(this.segmentSlotNums * segmentNums * SlotSize);
+        this.segmentLocks = new Object[segmentNums];
+        for (int i = 0; i < segmentNums; i++) {
+            this.segmentLocks[i] = new Object();
+        }
+    }
+
+
+    public void put(final String topic, final String uniqKey, final int queueId, final long queueOffset,
+                    final long commitLogOffset, final long storeTimestamp) {
+        final long hash = hash(topic, uniqKey);
+        final long fingerprint = fingerprint(topic, uniqKey);
+        final long expiredBefore = System.currentTimeMillis() - this.windowMs;
+        final int segment = this.segment(fingerprint);
+
+        synchronized (this.segmentLocks[segment]) {
+            int target = -1;
+            boolean sameKey = false;
+            long oldestTimestamp = Long.MAX_VALUE;
+            for (int i = 0; i < MaxProbeTimes; i++) {
+                int pos = this.slotPos(segment, hash, i);
+                long slotTimestamp = this.table.getLong(pos + 16);
+                if (this.table.getLong(pos) == hash && this.table.getLong(pos + 8) == fingerprint) {
+                    target = pos;
+                    sameKey = true;
+                    break;
+                }
+                if (slotTimestamp < oldestTimestamp) {
+                    oldestTimestamp = slotTimestamp;
+                    target = pos;
+                }
+                if (slotTimestamp < expiredBefore) {
+                    break;
+                }
+            }
+
+            if (!sameKey && oldestTimestamp >= expiredBefore) {
+                this.earlyEvictedCount.incrementAndGet();
+            }
+            this.table.putLong(target, hash);
+            this.table.putLong(target + 8, fingerprint);
+            this.table.putLong(target + 16, storeTimestamp);
+            this.table.putLong(target + 24, commitLogOffset);
+            this.table.putLong(target + 32, queueOffset);
+            this.table.putInt(target + 40, queueId);
+        }
+    }
+
+
+    /**
+     * @return null if no such message is stored within the window
+     */
+    public StoredMessage get(final String topic, final String uniqKey) {
+        final long hash = hash(topic, uniqKey);
+        final long fingerprint = fingerprint(topic, uniqKey);
+        final long expiredBefore = System.currentTimeMillis() - this.windowMs;
+        final int segment = this.segment(fingerprint);
+
+        synchronized (this.segmentLocks[segment]) {
+            for (int i = 0; i < MaxProbeTimes; i++) {
+                int pos = this.slotPos(segment, hash, i);
+                if (this.table.getLong(pos) == hash && this.table.getLong(pos + 8) == fingerprint) {
+                    long storeTimestamp = this.table.getLong(pos + 16);
+                    if (storeTimestamp < expiredBefore) {
+                        return null;
+                    }
+                    return new StoredMessage(this.table.getInt(pos + 40), this.table.getLong(pos + 32),
+                            this.table.getLong(pos + 24), storeTimestamp);
+                }
+            }
+        }
+        return null;
+    }
+
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+
+    /**
+     * Messages evicted before their window ended since startup, a growing count means too few slots for the traffic
+     */
+    public long getEarlyEvictedCount() {
+        return earlyEvictedCount.get();
+    }
+
+
+    private int segment(final long fingerprint) {
+        return (int) (fingerprint >>> 1) & (this.segmentLocks.length - 1);
+    }
+
+
+    private int slotPos(final int segment, final long hash, final int probeTimes) {
+        long slot = (long) segment * this.segmentSlotNums + ((hash >>> 1) + probeTimes) % this.segmentSlotNums;
+        return (int) (slot * SlotSize);
+    }
+
+
+    // FNV-1a
+    private static long hash(final String topic, final String uniqKey) {
+        long h = 0xcbf29ce484222325L;
+        h = fnv(h, topic);
+        h = (h ^ 1) * 0x100000001b3L;
+        return fnv(h, uniqKey);
+    }
+
+
+    private static long fnv(long h, final String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+
+    private static long fingerprint(final String topic, final String uniqKey) {
+        long h = 1125899906842597L;
+        h = polynomial(h, topic);
+        h = 31 * h + 1;
+        return polynomial(h, uniqKey);
+    }
+
+
+    private static long polynomial(long h, final String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h = 0x9E3779B97F4A7C15L * h + s.charAt(i);
+        }
+        return h;
+    }
+
+
+    public static class StoredMessage {
+        private final int queueId;
+        private final long queueOffset;
+        private final long commitLogOffset;
+        private final long storeTimestamp;
+
+
+        public StoredMessage(int queueId, long queueOffset, long commitLogOffset, long storeTimestamp) {
+            this.queueId = queueId;
+            this.queueOffset = queueOffset;
+            this.commitLogOffset = commitLogOffset;
+            this.storeTimestamp = storeTimestamp;
+        }
+
+
+        public int getQueueId() {
+            return queueId;
+        }
+
+
+        public long getQueueOffset() {
+            return queueOffset;
+        }
+
+
+        public long getCommitLogOffset() {
+            return commitLogOffset;
+        }
+
+
+        public long getStoreTimestamp() {
+            return storeTimestamp;
+        }
+    }
+}
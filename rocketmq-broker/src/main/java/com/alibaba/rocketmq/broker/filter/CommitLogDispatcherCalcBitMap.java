@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.filter;
+
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.filter.BloomFilter;
+import com.alibaba.rocketmq.store.CommitLogDispatcher;
+import com.alibaba.rocketmq.store.DispatchRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+
+
+/**
+ * Evaluates the property filters of a topic once when the message is dispatched and records the matched
+ * groups in a bloom filter bit map, which goes into the extended ConsumeQueue. Must be placed before the
+ * ConsumeQueue dispatcher.
+ */
+public class CommitLogDispatcherCalcBitMap implements CommitLogDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
+
+    private final BrokerConfig brokerConfig;
+    private final ConsumerFilterManager consumerFilterManager;
+
+
+    public CommitLogDispatcherCalcBitMap(final BrokerConfig brokerConfig, final ConsumerFilterManager consumerFilterManager) {
+        this.brokerConfig = brokerConfig;
+        this.consumerFilterManager = consumerFilterManager;
+    }
+
+
+    @Override
+    public void dispatch(DispatchRequest request) {
+        if (!this.brokerConfig.isEnableCalcFilterBitMap()) {
+            return;
+        }
+
+        Collection<ConsumerFilterData> filterDatas = this.consumerFilterManager.get(request.getTopic());
+        if (null == filterDatas || filterDatas.isEmpty()) {
+            return;
+        }
+
+        final BloomFilter bloomFilter = this.consumerFilterManager.getBloomFilter();
+        byte[] bitMap = new byte[bloomFilter.getBitMapLength()];
+        for (ConsumerFilterData filterData : filterDatas) {
+            boolean matched;
+            try {
+                matched = filterData.getCompiledExpression().evaluate(request.getPropertiesMap());
+            } catch (Throwable e) {
+                // let the pull decide
+                matched = true;
+                log.error("calc filter bit map exception, " + filterData, e);
+            }
+
+            if (matched) {
+                bloomFilter.hashTo(filterData.getBitPositions(), bitMap);
+            }
+        }
+
+        request.setBitMap(bitMap);
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.filter;
+
+import com.alibaba.rocketmq.common.filter.Sql92Expression;
+
+
+/**
+ * Compiled property filter of one consumer group on one topic.
+ */
+public class ConsumerFilterData {
+    private final String consumerGroup;
+    private final String topic;
+    private final String expression;
+    private final String expressionType;
+    private final Sql92Expression compiledExpression;
+    // bloom filter bits of the group, set in the bit map of matched messages
+    private final int[] bitPositions;
+    // bit maps of messages stored earlier may miss this group
+    private volatile long bornTime = Long.MAX_VALUE;
+
+
+    public ConsumerFilterData(String consumerGroup, String topic, String expression, String expressionType,
+                              Sql92Expression compiledExpression, int[] bitPositions) {
+        this.consumerGroup = consumerGroup;
+        this.topic = topic;
+        this.expression = expression;
+        this.expressionType = expressionType;
+        this.compiledExpression = compiledExpression;
+        this.bitPositions = bitPositions;
+    }
+
+
+    /**
+     * @return whether the bit map of a message stored at the time has been calculated with this group
+     */
+    public boolean isBitMapCalculated(final long msgStoreTime) {
+        return msgStoreTime >= this.bornTime;
+    }
+
+
+    public String getConsumerGroup() {
+        return consumerGroup;
+    }
+
+
+    public String getTopic() {
+        return topic;
+    }
+
+
+    public String getExpression() {
+        return expression;
+    }
+
+
+    public String getExpressionType() {
+        return expressionType;
+    }
+
+
+    public Sql92Expression getCompiledExpression() {
+        return compiledExpression;
+    }
+
+
+    public int[] getBitPositions() {
+        return bitPositions;
+    }
+
+
+    public long getBornTime() {
+        return bornTime;
+    }
+
+
+    public void setBornTime(long bornTime) {
+        this.bornTime = bornTime;
+    }
+
+
+    @Override
+    public String toString() {
+        return "ConsumerFilterData [consumerGroup=" + consumerGroup + ", topic=" + topic + ", expression=" + expression
+                + ", expressionType=" + expressionType + ", bornTime=" + bornTime + "]";
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.filter;
+
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.filter.BloomFilter;
+import com.alibaba.rocketmq.common.filter.ExpressionType;
+import com.alibaba.rocketmq.common.filter.Sql92Expression;
+import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Cache of compiled property filters, registered by heartbeats and pulls, so an expression is compiled once
+ * per subscription instead of once per message.
+ */
+public class ConsumerFilterManager {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
+
+    private final ConcurrentHashMap<String/* Topic */, ConcurrentHashMap<String/* Group */, ConsumerFilterData>> filterDataByTopic =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, ConsumerFilterData>>(256);
+
+    private final BloomFilter bloomFilter;
+
+
+    public ConsumerFilterManager(final BrokerConfig brokerConfig) {
+        this.bloomFilter = BloomFilter.createByFn(brokerConfig.getMaxErrorRateOfBloomFilter(),
+                brokerConfig.getExpectConsumerNumUseFilter());
+    }
+
+
+    /**
+     * @return null for tag subscriptions
+     * @throws IllegalArgumentException when the expression is malformed
+     */
+    public ConsumerFilterData register(final String topic, final String consumerGroup, final String expression,
+                                       final String type) {
+        if (ExpressionType.isTagType(type)) {
+            return null;
+        }
+
+        ConsumerFilterData old = this.get(topic, consumerGroup);
+        if (old != null && old.getExpression().equals(expression) && old.getExpressionType().equals(type)) {
+            return old;
+        }
+
+        ConsumerFilterData filterData = new ConsumerFilterData(consumerGroup, topic, expression, type,
+                Sql92Expression.compile(expression), this.bloomFilter.calcBitPositions(topic + "@" + consumerGroup));
+
+        ConcurrentHashMap<String, ConsumerFilterData> groupTable = this.filterDataByTopic.get(topic);
+        if (null == groupTable) {
+            groupTable = new ConcurrentHashMap<String, ConsumerFilterData>();
+            ConcurrentHashMap<String, ConsumerFilterData> prev = this.filterDataByTopic.putIfAbsent(topic, groupTable);
+            if (prev != null) {
+                groupTable = prev;
+            }
+        }
+        groupTable.put(consumerGroup, filterData);
+        // visible to the bit map dispatcher from now on
+        filterData.setBornTime(System.currentTimeMillis());
+
+        log.info("register consumer filter, {}", filterData);
+        return filterData;
+    }
+
+
+    /**
+     * Registers the subscriptions of a heartbeat, filters of topics the group no longer filters are dropped.
+     */
+    public void register(final String consumerGroup, final Set<SubscriptionData> subList) {
+        Set<String> topics = new HashSet<String>();
+        for (SubscriptionData sub : subList) {
+            if (ExpressionType.isTagType(sub.getExpressionType())) {
+                continue;
+            }
+
+            try {
+                this.register(sub.getTopic(), consumerGroup, sub.getSubString(), sub.getExpressionType());
+                topics.add(sub.getTopic());
+            } catch (Exception e) {
+                log.warn("register consumer filter failed, group: {} {}", consumerGroup, sub);
+            }
+        }
+
+        for (Entry<String, ConcurrentHashMap<String, ConsumerFilterData>> entry : this.filterDataByTopic.entrySet()) {
+            if (!topics.contains(entry.getKey()) && entry.getValue().remove(consumerGroup) != null) {
+                log.info("unregister consumer filter, group: {} topic: {}", consumerGroup, entry.getKey());
+            }
+        }
+    }
+
+
+    public void unRegister(final String consumerGroup) {
+        for (Entry<String, ConcurrentHashMap<String, ConsumerFilterData>> entry : this.filterDataByTopic.entrySet()) {
+            if (entry.getValue().remove(consumerGroup) != null) {
+                log.info("unregister consumer filter, group: {} topic: {}", consumerGroup, entry.getKey());
+            }
+        }
+    }
+
+
+    public ConsumerFilterData get(final String topic, final String consumerGroup) {
+        ConcurrentHashMap<String, ConsumerFilterData> groupTable = this.filterDataByTopic.get(topic);
+        if (null == groupTable) {
+            return null;
+        }
+        return groupTable.get(consumerGroup);
+    }
+
+
+    public Collection<ConsumerFilterData> get(final String topic) {
+        ConcurrentHashMap<String, ConsumerFilterData> groupTable = this.filterDataByTopic.get(topic);
+        if (null == groupTable) {
+            return null;
+        }
+        return groupTable.values();
+    }
+
+
+    public BloomFilter getBloomFilter() {
+        return bloomFilter;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.filter;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.filter.ExpressionType;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import com.alibaba.rocketmq.store.ConsumeQueueExt;
+import com.alibaba.rocketmq.store.DefaultMessageFilter;
+import com.alibaba.rocketmq.store.MessageFilterExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+
+/**
+ * Message filter of the broker, tag subscriptions are matched as before, SQL92 ones by the bit map of the
+ * extended ConsumeQueue if present and then by the properties of the message.
+ */
+public class ExpressionMessageFilter extends DefaultMessageFilter implements MessageFilterExt {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
+
+    private final ConsumerFilterManager consumerFilterManager;
+
+
+    public ExpressionMessageFilter(final ConsumerFilterManager consumerFilterManager) {
+        this.consumerFilterManager = consumerFilterManager;
+    }
+
+
+    @Override
+    public boolean isMessageMatched(SubscriptionData subscriptionData, Long tagsCode) {
+        if (subscriptionData != null && !ExpressionType.isTagType(subscriptionData.getExpressionType())) {
+            return true;
+        }
+        return super.isMessageMatched(subscriptionData, tagsCode);
+    }
+
+
+    @Override
+    public boolean isMatchedByConsumeQueueExt(String group, SubscriptionData subscriptionData,
+                                              ConsumeQueueExt.CqExtUnit cqExtUnit) {
+        if (null == subscriptionData || ExpressionType.isTagType(subscriptionData.getExpressionType())) {
+            return true;
+        }
+
+        ConsumerFilterData filterData = this.consumerFilterManager.get(subscriptionData.getTopic(), group);
+        if (null == filterData || !filterData.getExpression().equals(subscriptionData.getSubString())) {
+            return true;
+        }
+
+        byte[] bitMap = cqExtUnit.getFilterBitMap();
+        if (null == bitMap || !filterData.isBitMapCalculated(cqExtUnit.getMsgStoreTime())
+                || bitMap.length < this.consumerFilterManager.getBloomFilter().getBitMapLength()) {
+            return true;
+        }
+
+        return this.consumerFilterManager.getBloomFilter().isHit(filterData.getBitPositions(), bitMap);
+    }
+
+
+    @Override
+    public boolean isMatchedByCommitLog(String group, SubscriptionData subscriptionData, ByteBuffer msgBuffer) {
+        if (null == subscriptionData || ExpressionType.isTagType(subscriptionData.getExpressionType())) {
+            return true;
+        }
+
+        ConsumerFilterData filterData = this.consumerFilterManager.get(subscriptionData.getTopic(), group);
+        if (null == filterData || !filterData.getExpression().equals(subscriptionData.getSubString())) {
+            try {
+                filterData = this.consumerFilterManager.register(subscriptionData.getTopic(), group,
+                        subscriptionData.getSubString(), subscriptionData.getExpressionType());
+            } catch (Exception e) {
+                log.warn("compile consumer filter failed, group: {} {}", group, subscriptionData);
+                return true;
+            }
+        }
+
+        Map<String, String> properties = MessageDecoder.decodeProperties(msgBuffer);
+        if (null == properties) {
+            return true;
+        }
+        return filterData.getCompiledExpression().evaluate(properties);
+    }
+}
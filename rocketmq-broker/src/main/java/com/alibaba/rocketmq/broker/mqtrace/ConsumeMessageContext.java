@@ -27,6 +27,7 @@ public class ConsumeMessageContext {
     private Integer queueId;
     private String clientHost;
     private String storeHost;
+    // unique client message id to queue offset
     private Map<String, Long> messageIds;
     private int bodyLength;
     private boolean success;
@@ -25,6 +25,8 @@ import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import com.alibaba.rocketmq.store.*;
 
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
 
 public abstract class AbstractPluginMessageStore implements MessageStore {
@@ -76,6 +78,21 @@ public abstract class AbstractPluginMessageStore implements MessageStore {
         return next.putMessage(msg);
     }
 
+    @Override
+    public PutMessageResult putMessages(MessageExtBatch messageExtBatch) {
+        return next.putMessages(messageExtBatch);
+    }
+
+    @Override
+    public void asyncPutMessage(MessageExtBrokerInner msg, PutMessageCallback callback) {
+        next.asyncPutMessage(msg, callback);
+    }
+
+    @Override
+    public void asyncPutMessages(MessageExtBatch messageExtBatch, PutMessageCallback callback) {
+        next.asyncPutMessages(messageExtBatch, callback);
+    }
+
     @Override
     public GetMessageResult getMessage(String group, String topic, int queueId, long offset,
                                        int maxMsgNums, SubscriptionData subscriptionData) {
@@ -183,6 +200,11 @@ public abstract class AbstractPluginMessageStore implements MessageStore {
         return next.slaveFallBehindMuch();
     }
 
+    @Override
+    public long fallBehindMaster() {
+        return next.fallBehindMaster();
+    }
+
     @Override
     public long now() {
         return next.now();
@@ -228,4 +250,18 @@ public abstract class AbstractPluginMessageStore implements MessageStore {
         next.setConfirmOffset(phyOffset);
     }
 
+    @Override
+    public LinkedList<CommitLogDispatcher> getDispatcherList() {
+        return next.getDispatcherList();
+    }
+
+    @Override
+    public void updateCompactionTopics(Set<String> topics) {
+        next.updateCompactionTopics(topics);
+    }
+
+    @Override
+    public void updateTopicRetentionTimes(Map<String, Long> retentionTimes) {
+        next.updateTopicRetentionTimes(retentionTimes);
+    }
 }
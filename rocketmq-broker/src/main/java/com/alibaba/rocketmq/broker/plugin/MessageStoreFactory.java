@@ -45,6 +45,7 @@ public final class MessageStoreFactory {
                 }
             }
         }
+        messageStore.getDispatcherList().addAll(context.getCommitLogDispatchers());
         return messageStore;
     }
 }
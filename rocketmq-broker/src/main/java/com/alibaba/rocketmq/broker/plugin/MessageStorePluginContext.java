@@ -21,15 +21,20 @@
 package com.alibaba.rocketmq.broker.plugin;
 
 import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.store.CommitLogDispatcher;
 import com.alibaba.rocketmq.store.MessageArrivingListener;
 import com.alibaba.rocketmq.store.config.MessageStoreConfig;
 import com.alibaba.rocketmq.store.stats.BrokerStatsManager;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class MessageStorePluginContext {
     private MessageStoreConfig messageStoreConfig;
     private BrokerStatsManager brokerStatsManager;
     private MessageArrivingListener messageArrivingListener;
     private BrokerConfig brokerConfig;
+    private final List<CommitLogDispatcher> commitLogDispatchers = new ArrayList<CommitLogDispatcher>();
 
     public MessageStorePluginContext(MessageStoreConfig messageStoreConfig,
                                      BrokerStatsManager brokerStatsManager, MessageArrivingListener messageArrivingListener,
@@ -57,5 +62,14 @@ public class MessageStorePluginContext {
         return brokerConfig;
     }
 
+    /**
+     * Plugins call this in constructor, the dispatchers run after the built in ones in the order registered.
+     */
+    public void registerCommitLogDispatcher(CommitLogDispatcher dispatcher) {
+        this.commitLogDispatchers.add(dispatcher);
+    }
 
+    public List<CommitLogDispatcher> getCommitLogDispatchers() {
+        return commitLogDispatchers;
+    }
 }
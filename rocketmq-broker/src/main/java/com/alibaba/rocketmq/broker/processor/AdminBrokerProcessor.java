@@ -224,6 +224,7 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
         topicConfig.setTopicFilterType(requestHeader.getTopicFilterTypeEnum());
         topicConfig.setPerm(requestHeader.getPerm());
         topicConfig.setTopicSysFlag(requestHeader.getTopicSysFlag() == null ? 0 : requestHeader.getTopicSysFlag());
+        topicConfig.setRetentionTime(requestHeader.getRetentionTime() == null ? 0 : requestHeader.getRetentionTime());
 
         this.brokerController.getTopicConfigManager().updateTopicConfig(topicConfig);
         this.brokerController.registerBrokerAll(false, true);
@@ -80,7 +80,10 @@ public class ClientManageProcessor implements NettyRequestProcessor {
     }
 
     public RemotingCommand heartBeat(ChannelHandlerContext ctx, RemotingCommand request) {
-        RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        RemotingCommand response = RemotingCommand.createResponseCommand(HeartbeatResponseHeader.class);
+        HeartbeatResponseHeader responseHeader = (HeartbeatResponseHeader) response.readCustomHeader();
+        responseHeader.setReplicaLag(this.brokerController.getMessageStore().fallBehindMaster());
+        responseHeader.setPullLoad(this.brokerController.pullLoad());
 
         HeartbeatData heartbeatData = HeartbeatData.decode(request.getBody(), HeartbeatData.class);
 
@@ -117,6 +120,10 @@ public class ClientManageProcessor implements NettyRequestProcessor {
                     data.getSubscriptionDataSet()//
             );
 
+            if (this.brokerController.getBrokerConfig().isEnablePropertyFilter()) {
+                this.brokerController.getConsumerFilterManager().register(data.getGroupName(), data.getSubscriptionDataSet());
+            }
+
             if (changed) {
                 log.info("registerConsumer info changed {} {}",//
                         data.toString(),//
@@ -27,8 +27,10 @@ import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.TopicFilterType;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.constant.PermName;
+import com.alibaba.rocketmq.common.filter.ExpressionType;
 import com.alibaba.rocketmq.common.filter.FilterAPI;
 import com.alibaba.rocketmq.common.help.FAQUrl;
+import com.alibaba.rocketmq.common.message.MessageConst;
 import com.alibaba.rocketmq.common.message.MessageDecoder;
 import com.alibaba.rocketmq.common.message.MessageQueue;
 import com.alibaba.rocketmq.common.protocol.ResponseCode;
@@ -54,7 +56,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 
 /**
@@ -73,7 +79,28 @@ public class PullMessageProcessor implements NettyRequestProcessor {
 
     @Override
     public RemotingCommand processRequest(final ChannelHandlerContext ctx, RemotingCommand request) throws RemotingCommandException {
-        return this.processRequest(ctx.channel(), request, true);
+        final PullMessageRequestHeader requestHeader =
+                (PullMessageRequestHeader) request.decodeCommandCustomHeader(PullMessageRequestHeader.class);
+        ExecutorService coldPullMessageExecutor = this.brokerController.getColdPullMessageExecutor();
+        if (coldPullMessageExecutor != null && this.isPullingFromDisk(requestHeader)) {
+            // pulls of old data wait on disk, they are served by threads of their own to not hold up recent ones
+            try {
+                this.submitRequest(ctx.channel(), request, requestHeader, true, coldPullMessageExecutor);
+                return null;
+            } catch (RejectedExecutionException e) {
+                RemotingCommand response = RemotingCommand.createResponseCommand(ResponseCode.SYSTEM_BUSY,
+                        "too many pulls from disk, cold pull thread pool is busy");
+                response.setOpaque(request.getOpaque());
+                return response;
+            }
+        }
+        return this.processRequest(ctx.channel(), request, requestHeader, true);
+    }
+
+
+    private boolean isPullingFromDisk(final PullMessageRequestHeader requestHeader) {
+        return this.brokerController.getMessageStore().checkInDiskByConsumeOffset(requestHeader.getTopic(),
+                requestHeader.getQueueId(), requestHeader.getQueueOffset());
     }
 
     @Override
@@ -81,12 +108,10 @@ public class PullMessageProcessor implements NettyRequestProcessor {
         return false;
     }
 
-    private RemotingCommand processRequest(final Channel channel, RemotingCommand request, boolean brokerAllowSuspend)
-            throws RemotingCommandException {
+    private RemotingCommand processRequest(final Channel channel, RemotingCommand request,
+            final PullMessageRequestHeader requestHeader, boolean brokerAllowSuspend) throws RemotingCommandException {
         RemotingCommand response = RemotingCommand.createResponseCommand(PullMessageResponseHeader.class);
         final PullMessageResponseHeader responseHeader = (PullMessageResponseHeader) response.readCustomHeader();
-        final PullMessageRequestHeader requestHeader =
-                (PullMessageRequestHeader) request.decodeCommandCustomHeader(PullMessageRequestHeader.class);
 
 
         response.setOpaque(request.getOpaque());
@@ -156,8 +181,13 @@ public class PullMessageProcessor implements NettyRequestProcessor {
         SubscriptionData subscriptionData = null;
         if (hasSubscriptionFlag) {
             try {
-                subscriptionData = FilterAPI.buildSubscriptionData(requestHeader.getConsumerGroup(), requestHeader.getTopic(),
-                        requestHeader.getSubscription());
+                if (ExpressionType.isTagType(requestHeader.getExpressionType())) {
+                    subscriptionData = FilterAPI.buildSubscriptionData(requestHeader.getConsumerGroup(), requestHeader.getTopic(),
+                            requestHeader.getSubscription());
+                } else {
+                    subscriptionData = FilterAPI.build(requestHeader.getTopic(), requestHeader.getSubscription(),
+                            requestHeader.getExpressionType());
+                }
             } catch (Exception e) {
                 log.warn("parse the consumer's subscription[{}] failed, group: {}", requestHeader.getSubscription(), //
                         requestHeader.getConsumerGroup());
@@ -200,6 +230,26 @@ public class PullMessageProcessor implements NettyRequestProcessor {
             }
         }
 
+        if (!ExpressionType.isTagType(subscriptionData.getExpressionType())) {
+            if (!this.brokerController.getBrokerConfig().isEnablePropertyFilter()) {
+                response.setCode(ResponseCode.SYSTEM_ERROR);
+                response.setRemark("the broker does not support property filter, " + subscriptionData.getExpressionType());
+                return response;
+            }
+
+            try {
+                // compiled once and cached for the message filter of the store
+                this.brokerController.getConsumerFilterManager().register(requestHeader.getTopic(),
+                        requestHeader.getConsumerGroup(), subscriptionData.getSubString(), subscriptionData.getExpressionType());
+            } catch (Exception e) {
+                log.warn("compile the consumer's filter[{}] failed, group: {}", subscriptionData.getSubString(), //
+                        requestHeader.getConsumerGroup());
+                response.setCode(ResponseCode.SUBSCRIPTION_PARSE_FAILED);
+                response.setRemark("compile the consumer's filter failed, " + e.getMessage());
+                return response;
+            }
+        }
+
         final GetMessageResult getMessageResult =
                 this.brokerController.getMessageStore().getMessage(requestHeader.getConsumerGroup(), requestHeader.getTopic(),
                         requestHeader.getQueueId(), requestHeader.getQueueOffset(), requestHeader.getMaxMsgNums(), subscriptionData);
@@ -208,6 +258,8 @@ public class PullMessageProcessor implements NettyRequestProcessor {
             responseHeader.setNextBeginOffset(getMessageResult.getNextBeginOffset());
             responseHeader.setMinOffset(getMessageResult.getMinOffset());
             responseHeader.setMaxOffset(getMessageResult.getMaxOffset());
+            responseHeader.setReplicaLag(this.brokerController.getMessageStore().fallBehindMaster());
+            responseHeader.setPullLoad(this.brokerController.pullLoad());
 
 
             if (getMessageResult.isSuggestPullingFromSlave()) {
@@ -306,6 +358,8 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                         context.setCommercialRcvTimes(getMessageResult.getMsgCount4Commercial());
                         context.setCommercialRcvSize(getMessageResult.getBufferTotalSize());
                         context.setCommercialOwner(owner);
+                        context.setMessageIds(this.peekMessageIds(getMessageResult));
+                        context.setBodyLength(getMessageResult.getBufferTotalSize());
 
                         break;
                     case ResponseCode.PULL_NOT_FOUND:
@@ -455,6 +509,20 @@ public class PullMessageProcessor implements NettyRequestProcessor {
         }
     }
 
+    /**
+     * Unique ids of the pulled messages read in place, so hooks do not force the heap transfer.
+     */
+    private Map<String, Long> peekMessageIds(final GetMessageResult getMessageResult) {
+        Map<String, Long> messageIds = new LinkedHashMap<String, Long>();
+        for (ByteBuffer bb : getMessageResult.getMessageBufferList()) {
+            String uniqId = MessageDecoder.peekProperty(bb, MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX);
+            if (uniqId != null) {
+                messageIds.put(uniqId, bb.getLong(bb.position() + MessageDecoder.MessageQueueOffsetPostion));
+            }
+        }
+        return messageIds;
+    }
+
     private byte[] readGetMessageResult(final GetMessageResult getMessageResult, final String group, final String topic, final int queueId) {
         final ByteBuffer byteBuffer = ByteBuffer.allocate(getMessageResult.getBufferTotalSize());
 
@@ -501,11 +569,21 @@ public class PullMessageProcessor implements NettyRequestProcessor {
     }
 
     public void excuteRequestWhenWakeup(final Channel channel, final RemotingCommand request) throws RemotingCommandException {
+        final PullMessageRequestHeader requestHeader =
+                (PullMessageRequestHeader) request.decodeCommandCustomHeader(PullMessageRequestHeader.class);
+        this.submitRequest(channel, request, requestHeader, false, this.brokerController.getPullMessageExecutor());
+    }
+
+
+    private void submitRequest(final Channel channel, final RemotingCommand request,
+                               final PullMessageRequestHeader requestHeader, final boolean brokerAllowSuspend,
+                               final ExecutorService executor) {
         Runnable run = new Runnable() {
             @Override
             public void run() {
                 try {
-                    final RemotingCommand response = PullMessageProcessor.this.processRequest(channel, request, false);
+                    final RemotingCommand response =
+                            PullMessageProcessor.this.processRequest(channel, request, requestHeader, brokerAllowSuspend);
 
                     if (response != null) {
                         response.setOpaque(request.getOpaque());
@@ -534,7 +612,7 @@ public class PullMessageProcessor implements NettyRequestProcessor {
             }
         };
 
-        this.brokerController.getPullMessageExecutor().submit(run);
+        executor.submit(run);
     }
 
     public void registerConsumeMessageHook(List<ConsumeMessageHook> sendMessageHookList) {
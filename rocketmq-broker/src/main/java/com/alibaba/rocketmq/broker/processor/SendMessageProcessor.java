@@ -17,6 +17,7 @@
 package com.alibaba.rocketmq.broker.processor;
 
 import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.broker.dedup.MessageIdWindow;
 import com.alibaba.rocketmq.broker.mqtrace.ConsumeMessageContext;
 import com.alibaba.rocketmq.broker.mqtrace.ConsumeMessageHook;
 import com.alibaba.rocketmq.broker.mqtrace.SendMessageContext;
@@ -38,7 +39,9 @@ import com.alibaba.rocketmq.common.sysflag.TopicSysFlag;
 import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
 import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
 import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.store.MessageExtBatch;
 import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageCallback;
 import com.alibaba.rocketmq.store.PutMessageResult;
 import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
 import com.alibaba.rocketmq.store.stats.BrokerStatsManager;
@@ -74,9 +77,17 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
 
                 mqtraceContext = buildMsgContext(ctx, requestHeader);
                 this.executeSendMessageHookBefore(ctx, request, mqtraceContext);
-                final RemotingCommand response = this.sendMessage(ctx, request, mqtraceContext, requestHeader);
+                RemotingCommand response;
+                if (request.getCode() == RequestCode.SEND_BATCH_MESSAGE) {
+                    response = this.sendBatchMessage(ctx, request, mqtraceContext, requestHeader);
+                } else {
+                    response = this.sendMessage(ctx, request, mqtraceContext, requestHeader);
+                }
 
-                this.executeSendMessageHookAfter(response, mqtraceContext);
+                // null when the put is pending, the store callback responds and runs the hooks then
+                if (response != null) {
+                    this.executeSendMessageHookAfter(response, mqtraceContext);
+                }
                 return response;
         }
     }
@@ -357,7 +368,141 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
             }
         }
 
-        PutMessageResult putMessageResult = this.brokerController.getMessageStore().putMessage(msgInner);
+        if (this.answerDuplicatedMessage(msgInner, response, responseHeader)) {
+            return response;
+        }
+
+        this.brokerController.getMessageStore().asyncPutMessage(msgInner, this.newPutMessageCallback(response, request,
+                msgInner.getTopic(), responseHeader, sendMessageContext, ctx, queueIdInt));
+        return null;
+    }
+
+    /**
+     * A producer retrying after a timeout gets the result of the message stored before, not another copy.
+     *
+     * @return true if the response is ready
+     */
+    private boolean answerDuplicatedMessage(final MessageExtBrokerInner msgInner, final RemotingCommand response,
+                                            final SendMessageResponseHeader responseHeader) {
+        MessageIdWindow messageIdWindow = this.brokerController.getMessageIdWindow();
+        String uniqKey = msgInner.getProperty(MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX);
+        if (null == messageIdWindow || null == uniqKey
+                || msgInner.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)
+                || MessageSysFlag.getTransactionValue(msgInner.getSysFlag()) != MessageSysFlag.TransactionNotType) {
+            return false;
+        }
+
+        MessageIdWindow.StoredMessage stored = messageIdWindow.get(msgInner.getTopic(), uniqKey);
+        if (null == stored) {
+            return false;
+        }
+
+        log.info("message {} of topic {} is stored already at {}, answer the retry with it", uniqKey,
+                msgInner.getTopic(), stored.getCommitLogOffset());
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+        responseHeader.setMsgId(MessageDecoder.createMessageId(this.getStoreHost(), stored.getCommitLogOffset()));
+        responseHeader.setQueueId(stored.getQueueId());
+        responseHeader.setQueueOffset(stored.getQueueOffset());
+        return true;
+    }
+
+    private RemotingCommand sendBatchMessage(final ChannelHandlerContext ctx, //
+                                             final RemotingCommand request, //
+                                             final SendMessageContext sendMessageContext, //
+                                             final SendMessageRequestHeader requestHeader) throws RemotingCommandException {
+
+        final RemotingCommand response = RemotingCommand.createResponseCommand(SendMessageResponseHeader.class);
+        final SendMessageResponseHeader responseHeader = (SendMessageResponseHeader) response.readCustomHeader();
+
+
+        response.setOpaque(request.getOpaque());
+
+        response.addExtField(MessageConst.PROPERTY_MSG_REGION, this.brokerController.getBrokerConfig().getRegionId());
+
+        if (log.isDebugEnabled()) {
+            log.debug("receive SendBatchMessage request command, " + request);
+        }
+
+        final long startTimstamp = this.brokerController.getBrokerConfig().getStartAcceptSendRequestTimeStamp();
+        if (this.brokerController.getMessageStore().now() < startTimstamp) {
+            response.setCode(ResponseCode.SYSTEM_ERROR);
+            response.setRemark(String.format("broker unable to service, until %s", UtilAll.timeMillisToHumanString2(startTimstamp)));
+            return response;
+        }
+
+        response.setCode(-1);
+        super.msgCheck(ctx, requestHeader, response);
+        if (response.getCode() != -1) {
+            return response;
+        }
+
+        int queueIdInt = requestHeader.getQueueId();
+        TopicConfig topicConfig = this.brokerController.getTopicConfigManager().selectTopicConfig(requestHeader.getTopic());
+
+        if (queueIdInt < 0) {
+            queueIdInt = Math.abs(this.random.nextInt() % 99999999) % topicConfig.getWriteQueueNums();
+        }
+
+        if (requestHeader.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
+            response.setCode(ResponseCode.MESSAGE_ILLEGAL);
+            response.setRemark("batch request does not support retry group " + requestHeader.getTopic());
+            return response;
+        }
+
+        int sysFlag = requestHeader.getSysFlag();
+        if (TopicFilterType.MULTI_TAG == topicConfig.getTopicFilterType()) {
+            sysFlag |= MessageSysFlag.MultiTagsFlag;
+        }
+
+        MessageExtBatch messageExtBatch = new MessageExtBatch();
+        messageExtBatch.setTopic(requestHeader.getTopic());
+        messageExtBatch.setQueueId(queueIdInt);
+        messageExtBatch.setSysFlag(sysFlag);
+        messageExtBatch.setFlag(requestHeader.getFlag());
+        MessageAccessor.setProperties(messageExtBatch, MessageDecoder.string2messageProperties(requestHeader.getProperties()));
+        messageExtBatch.setBody(request.getBody());
+        messageExtBatch.setBornTimestamp(requestHeader.getBornTimestamp());
+        messageExtBatch.setBornHost(ctx.channel().remoteAddress());
+        messageExtBatch.setStoreHost(this.getStoreHost());
+        messageExtBatch.setReconsumeTimes(requestHeader.getReconsumeTimes() == null ? 0 : requestHeader.getReconsumeTimes());
+
+        this.brokerController.getMessageStore().asyncPutMessages(messageExtBatch, this.newPutMessageCallback(response,
+                request, messageExtBatch.getTopic(), responseHeader, sendMessageContext, ctx, queueIdInt));
+        return null;
+    }
+
+    /**
+     * Responds once the store completes the put, so sync flush and sync master waits do not hold the send thread.
+     */
+    private PutMessageCallback newPutMessageCallback(final RemotingCommand response, //
+                                                     final RemotingCommand request, //
+                                                     final String topic, //
+                                                     final SendMessageResponseHeader responseHeader, //
+                                                     final SendMessageContext sendMessageContext, //
+                                                     final ChannelHandlerContext ctx, //
+                                                     final int queueIdInt) {
+        return new PutMessageCallback() {
+            @Override
+            public void operationComplete(PutMessageResult putMessageResult) {
+                RemotingCommand ret = SendMessageProcessor.this.handlePutMessageResult(putMessageResult, response, request,
+                        topic, responseHeader, sendMessageContext, ctx, queueIdInt);
+                if (ret != null) {
+                    SendMessageProcessor.this.doResponse(ctx, request, ret);
+                }
+                SendMessageProcessor.this.executeSendMessageHookAfter(ret, sendMessageContext);
+            }
+        };
+    }
+
+    private RemotingCommand handlePutMessageResult(final PutMessageResult putMessageResult, //
+                                                   final RemotingCommand response, //
+                                                   final RemotingCommand request, //
+                                                   final String topic, //
+                                                   final SendMessageResponseHeader responseHeader, //
+                                                   final SendMessageContext sendMessageContext, //
+                                                   final ChannelHandlerContext ctx, //
+                                                   final int queueIdInt) {
         if (putMessageResult != null) {
             boolean sendOK = false;
 
@@ -410,13 +555,15 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
                     break;
             }
 
-            String owner = request.getExtFields().get(BrokerStatsManager.COMMERCIAL_OWNER);
+            // read by hooks only, it would rebuild the extFields of a binary header
+            String owner = hasSendMessageHook() ? request.getExtFields().get(BrokerStatsManager.COMMERCIAL_OWNER) : null;
             if (sendOK) {
 
-                this.brokerController.getBrokerStatsManager().incTopicPutNums(msgInner.getTopic());
-                this.brokerController.getBrokerStatsManager().incTopicPutSize(msgInner.getTopic(),
+                this.brokerController.getBrokerStatsManager().incTopicPutNums(topic,
+                        putMessageResult.getAppendMessageResult().getMsgNum(), 1);
+                this.brokerController.getBrokerStatsManager().incTopicPutSize(topic,
                         putMessageResult.getAppendMessageResult().getWroteBytes());
-                this.brokerController.getBrokerStatsManager().incBrokerPutNums();
+                this.brokerController.getBrokerStatsManager().incBrokerPutNums(putMessageResult.getAppendMessageResult().getMsgNum());
 
                 response.setRemark(null);
 
@@ -482,7 +629,7 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
 
     private String diskUtil() {
         String storePathPhysic = this.brokerController.getMessageStoreConfig().getStorePathCommitLog();
-        double physicRatio = UtilAll.getDiskPartitionSpaceUsedPercent(storePathPhysic);
+        double physicRatio = StorePathConfigHelper.getMaxDiskPartitionSpaceUsedPercent(storePathPhysic);
 
         String storePathLogis =
                 StorePathConfigHelper.getStorePathConsumeQueue(this.brokerController.getMessageStoreConfig().getStorePathRootDir());
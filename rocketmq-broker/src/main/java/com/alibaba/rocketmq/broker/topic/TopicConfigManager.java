@@ -31,6 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
@@ -329,6 +330,8 @@ public class TopicConfigManager extends ConfigManager {
         this.dataVersion.nextVersion();
 
         this.persist();
+        this.updateCompactionTopics();
+        this.updateTopicRetentionTimes();
     }
 
 
@@ -382,12 +385,50 @@ public class TopicConfigManager extends ConfigManager {
             log.info("delete topic config OK, topic: " + old);
             this.dataVersion.nextVersion();
             this.persist();
+            this.updateCompactionTopics();
+            this.updateTopicRetentionTimes();
         } else {
             log.warn("delete topic config failed, topic: " + topic + " not exist");
         }
     }
 
 
+    public Set<String> buildCompactionTopics() {
+        Set<String> topics = new HashSet<String>();
+        for (TopicConfig topicConfig : this.topicConfigTable.values()) {
+            if (TopicSysFlag.hasCompactionFlag(topicConfig.getTopicSysFlag())) {
+                topics.add(topicConfig.getTopicName());
+            }
+        }
+        return topics;
+    }
+
+
+    private void updateCompactionTopics() {
+        if (this.brokerController != null && this.brokerController.getMessageStore() != null) {
+            this.brokerController.getMessageStore().updateCompactionTopics(this.buildCompactionTopics());
+        }
+    }
+
+
+    public Map<String, Long> buildTopicRetentionTimes() {
+        Map<String, Long> retentionTimes = new HashMap<String, Long>();
+        for (TopicConfig topicConfig : this.topicConfigTable.values()) {
+            if (topicConfig.getRetentionTime() > 0) {
+                retentionTimes.put(topicConfig.getTopicName(), topicConfig.getRetentionTime());
+            }
+        }
+        return retentionTimes;
+    }
+
+
+    private void updateTopicRetentionTimes() {
+        if (this.brokerController != null && this.brokerController.getMessageStore() != null) {
+            this.brokerController.getMessageStore().updateTopicRetentionTimes(this.buildTopicRetentionTimes());
+        }
+    }
+
+
     public TopicConfigSerializeWrapper buildTopicConfigSerializeWrapper() {
         TopicConfigSerializeWrapper topicConfigSerializeWrapper = new TopicConfigSerializeWrapper();
         topicConfigSerializeWrapper.setTopicConfigTable(this.topicConfigTable);
@@ -31,6 +31,9 @@ package com.alibaba.rocketmq.broker.transaction;
  *  See the License for the specific language governing permissions and
  *  limitations under the License.
  */
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,13 +42,14 @@ import com.alibaba.rocketmq.broker.client.ClientChannelInfo;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.protocol.header.CheckTransactionStateRequestHeader;
 import com.alibaba.rocketmq.store.SelectMapedBufferResult;
-import com.alibaba.rocketmq.store.transaction.TransactionCheckExecuter;
+import com.alibaba.rocketmq.store.transaction.BatchTransactionCheckExecuter;
+import com.alibaba.rocketmq.store.transaction.PreparedTransaction;
 
 
 /**
  * @author shijia.wxr
  */
-public class DefaultTransactionCheckExecuter implements TransactionCheckExecuter {
+public class DefaultTransactionCheckExecuter implements BatchTransactionCheckExecuter {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
     private final BrokerController brokerController;
 
@@ -81,4 +85,40 @@ public class DefaultTransactionCheckExecuter implements TransactionCheckExecuter
         this.brokerController.getBroker2Client().checkProducerTransactionState(
             clientChannelInfo.getChannel(), requestHeader, selectMapedBufferResult);
     }
+
+
+    @Override
+    public void gotoCheck(int producerGroupHashCode, List<PreparedTransaction> transactions) {
+        final ClientChannelInfo clientChannelInfo =
+                this.brokerController.getProducerManager().pickProducerChannelRandomly(producerGroupHashCode);
+        if (null == clientChannelInfo) {
+            log.warn("check {} producer transaction states, but not find any channel of this group[{}]",
+                transactions.size(), producerGroupHashCode);
+            return;
+        }
+
+        List<CheckTransactionStateRequestHeader> requestHeaders =
+                new ArrayList<CheckTransactionStateRequestHeader>(transactions.size());
+        List<SelectMapedBufferResult> selectMapedBufferResults =
+                new ArrayList<SelectMapedBufferResult>(transactions.size());
+        for (PreparedTransaction transaction : transactions) {
+            SelectMapedBufferResult selectMapedBufferResult = this.brokerController.getMessageStore()
+                .selectOneMessageByOffset(transaction.getCommitLogOffset(), transaction.getMsgSize());
+            if (null == selectMapedBufferResult) {
+                log.warn("check a producer transaction state, but not find message, {}", transaction);
+                continue;
+            }
+
+            final CheckTransactionStateRequestHeader requestHeader = new CheckTransactionStateRequestHeader();
+            requestHeader.setCommitLogOffset(transaction.getCommitLogOffset());
+            requestHeader.setTranStateTableOffset(transaction.getTranStateTableOffset());
+            requestHeaders.add(requestHeader);
+            selectMapedBufferResults.add(selectMapedBufferResult);
+        }
+
+        if (!requestHeaders.isEmpty()) {
+            this.brokerController.getBroker2Client().checkProducerTransactionStates(
+                clientChannelInfo.getChannel(), requestHeaders, selectMapedBufferResults);
+        }
+    }
 }
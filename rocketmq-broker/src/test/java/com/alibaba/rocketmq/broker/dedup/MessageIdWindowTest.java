@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.dedup;
+
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+import com.alibaba.rocketmq.store.DispatchRequest;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+
+public class MessageIdWindowTest {
+    private static final String Topic = "TopicTest";
+
+
+    private DispatchRequest buildDispatchRequest(String topic, int queueId, long commitLogOffset, long queueOffset,
+                                                 String uniqKey, int sysFlag, long storeTime) {
+        return new DispatchRequest(topic, queueId, commitLogOffset, 100, 0, storeTime, queueOffset, null, uniqKey,
+                sysFlag, 0, 0, null);
+    }
+
+
+    @Test
+    public void test_dispatch() {
+        MessageIdWindow window = new MessageIdWindow(16, 1000 * 60);
+        CommitLogDispatcherDedup dispatcher = new CommitLogDispatcherDedup(window, null);
+        long now = System.currentTimeMillis();
+
+        dispatcher.dispatch(buildDispatchRequest(Topic, 3, 1000, 7, "A", 0, now));
+        MessageIdWindow.StoredMessage stored = window.get(Topic, "A");
+        assertNotNull(stored);
+        assertEquals(3, stored.getQueueId());
+        assertEquals(7, stored.getQueueOffset());
+        assertEquals(1000, stored.getCommitLogOffset());
+        assertNull(window.get("OtherTopic", "A"));
+        assertNull(window.get(Topic, "B"));
+
+        // delayed messages are kept under the topic they are sent to
+        DispatchRequest delayed = buildDispatchRequest("SCHEDULE_TOPIC_XXXX", 2, 2000, 0, "C", 0, now);
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(MessageConst.PROPERTY_REAL_TOPIC, Topic);
+        properties.put(MessageConst.PROPERTY_REAL_QUEUE_ID, "1");
+        delayed.setPropertiesMap(properties);
+        dispatcher.dispatch(delayed);
+        assertEquals(1, window.get(Topic, "C").getQueueId());
+
+        // the commit of a transaction has the unique id of the prepared message
+        dispatcher.dispatch(buildDispatchRequest(Topic, 0, 3000, 0, "D", MessageSysFlag.TransactionPreparedType, now));
+        dispatcher.dispatch(buildDispatchRequest(Topic, 0, 4000, 1, "D", MessageSysFlag.TransactionCommitType, now));
+        assertNull(window.get(Topic, "D"));
+
+        // out of the window
+        dispatcher.dispatch(buildDispatchRequest(Topic, 0, 5000, 2, "E", 0, now - 1000 * 61));
+        assertNull(window.get(Topic, "E"));
+    }
+
+
+    @Test
+    public void test_bounded() {
+        MessageIdWindow window = new MessageIdWindow(4, 1000 * 60);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            window.put(Topic, "K" + i, 0, i, i * 100, now + i);
+        }
+
+        // older ones make room for the newest
+        assertNotNull(window.get(Topic, "K99"));
+        int found = 0;
+        for (int i = 0; i < 100; i++) {
+            if (window.get(Topic, "K" + i) != null) {
+                found++;
+            }
+        }
+        assertEquals(4, found);
+        assertEquals(96, window.getEarlyEvictedCount());
+    }
+
+
+    @Test
+    public void test_concurrent_put() throws Exception {
+        final MessageIdWindow window = new MessageIdWindow(1024 * 64, 1000 * 60);
+        final long now = System.currentTimeMillis();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int queueId = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        window.put(Topic, queueId + "-" + i, queueId, i, i * 100, now);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int t = 0; t < threads.length; t++) {
+            for (int i = 0; i < 1000; i++) {
+                MessageIdWindow.StoredMessage stored = window.get(Topic, t + "-" + i);
+                assertNotNull(stored);
+                assertEquals(t, stored.getQueueId());
+                assertEquals(i, stored.getQueueOffset());
+            }
+        }
+        assertEquals(0, window.getEarlyEvictedCount());
+    }
+}
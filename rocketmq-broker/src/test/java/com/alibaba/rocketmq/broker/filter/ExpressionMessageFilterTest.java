@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.filter;
+
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.filter.ExpressionType;
+import com.alibaba.rocketmq.common.filter.FilterAPI;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import com.alibaba.rocketmq.store.ConsumeQueueExt;
+import com.alibaba.rocketmq.store.DispatchRequest;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class ExpressionMessageFilterTest {
+    private static final String Topic = "TopicTest";
+
+
+    private DispatchRequest buildDispatchRequest(String region, long storeTime) {
+        DispatchRequest request = new DispatchRequest(Topic, 0, 0, 100, 0, storeTime, 0, null, null, 0, 0, 0, null);
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("region", region);
+        request.setPropertiesMap(properties);
+        return request;
+    }
+
+
+    private ByteBuffer buildMessageBuffer(String region) throws Exception {
+        MessageExt msg = new MessageExt();
+        msg.setTopic(Topic);
+        msg.setBody("body".getBytes());
+        msg.putUserProperty("region", region);
+        msg.setBornHost(new InetSocketAddress("127.0.0.1", 8000));
+        msg.setStoreHost(new InetSocketAddress("127.0.0.1", 10911));
+        return ByteBuffer.wrap(MessageDecoder.encode(msg, false));
+    }
+
+
+    @Test
+    public void test_match() throws Exception {
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setEnableCalcFilterBitMap(true);
+        ConsumerFilterManager consumerFilterManager = new ConsumerFilterManager(brokerConfig);
+        ExpressionMessageFilter filter = new ExpressionMessageFilter(consumerFilterManager);
+        CommitLogDispatcherCalcBitMap dispatcher = new CommitLogDispatcherCalcBitMap(brokerConfig, consumerFilterManager);
+
+        SubscriptionData sqlSub = FilterAPI.build(Topic, "region IN ('eu', 'us')", ExpressionType.SQL92);
+        SubscriptionData tagSub = FilterAPI.build(Topic, "TagA", ExpressionType.TAG);
+        ConsumerFilterData filterData = consumerFilterManager.register(Topic, "GroupA", sqlSub.getSubString(),
+                sqlSub.getExpressionType());
+        assertTrue(filterData == consumerFilterManager.get(Topic, "GroupA"));
+        assertEquals(1, consumerFilterManager.get(Topic).size());
+
+        // tags are not checked for SQL92 subscriptions
+        assertTrue(filter.isMessageMatched(sqlSub, (long) "TagB".hashCode()));
+        assertFalse(filter.isMessageMatched(tagSub, (long) "TagB".hashCode()));
+
+        long storeTime = filterData.getBornTime();
+        DispatchRequest eu = this.buildDispatchRequest("eu", storeTime);
+        DispatchRequest cn = this.buildDispatchRequest("cn", storeTime);
+        dispatcher.dispatch(eu);
+        dispatcher.dispatch(cn);
+        assertTrue(filter.isMatchedByConsumeQueueExt("GroupA", sqlSub,
+                new ConsumeQueueExt.CqExtUnit(0L, storeTime, eu.getBitMap())));
+        assertFalse(filter.isMatchedByConsumeQueueExt("GroupA", sqlSub,
+                new ConsumeQueueExt.CqExtUnit(0L, storeTime, cn.getBitMap())));
+        // bit map calculated before the group registered can not tell
+        assertTrue(filter.isMatchedByConsumeQueueExt("GroupA", sqlSub,
+                new ConsumeQueueExt.CqExtUnit(0L, storeTime - 1, cn.getBitMap())));
+
+        ByteBuffer euBuffer = this.buildMessageBuffer("eu");
+        assertTrue(filter.isMatchedByCommitLog("GroupA", sqlSub, euBuffer));
+        assertEquals(0, euBuffer.position());
+        assertFalse(filter.isMatchedByCommitLog("GroupA", sqlSub, this.buildMessageBuffer("cn")));
+        // compiled on demand for a group not registered by heartbeat
+        assertTrue(filter.isMatchedByCommitLog("GroupB", sqlSub, this.buildMessageBuffer("us")));
+        assertTrue(consumerFilterManager.get(Topic, "GroupB") != null);
+
+        consumerFilterManager.unRegister("GroupA");
+        assertTrue(consumerFilterManager.get(Topic, "GroupA") == null);
+    }
+}
@@ -25,6 +25,8 @@ import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import com.alibaba.rocketmq.store.*;
 
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
 
 
@@ -33,6 +35,8 @@ import java.util.Set;
  */
 public class MockMessageStore implements MessageStore {
 
+    private final LinkedList<CommitLogDispatcher> dispatcherList = new LinkedList<CommitLogDispatcher>();
+
     @Override
     public boolean load() {
         return false;
@@ -68,6 +72,25 @@ public class MockMessageStore implements MessageStore {
     }
 
 
+    @Override
+    public PutMessageResult putMessages(MessageExtBatch messageExtBatch) {
+
+        return null;
+    }
+
+
+    @Override
+    public void asyncPutMessage(MessageExtBrokerInner msg, PutMessageCallback callback) {
+
+    }
+
+
+    @Override
+    public void asyncPutMessages(MessageExtBatch messageExtBatch, PutMessageCallback callback) {
+
+    }
+
+
     @Override
     public GetMessageResult getMessage(String group, String topic, int queueId, long offset, int maxMsgNums,
                                        SubscriptionData subscriptionData) {
@@ -214,6 +237,13 @@ public class MockMessageStore implements MessageStore {
     }
 
 
+    @Override
+    public long fallBehindMaster() {
+
+        return 0;
+    }
+
+
     @Override
     public long now() {
 
@@ -277,4 +307,19 @@ public class MockMessageStore implements MessageStore {
     public long lockTimeMills() {
         return 0;
     }
+
+    @Override
+    public LinkedList<CommitLogDispatcher> getDispatcherList() {
+        return dispatcherList;
+    }
+
+    @Override
+    public void updateCompactionTopics(Set<String> topics) {
+
+    }
+
+    @Override
+    public void updateTopicRetentionTimes(Map<String, Long> retentionTimes) {
+
+    }
 }
@@ -16,6 +16,8 @@
  */
 package com.alibaba.rocketmq.broker.plugin;
 
+import com.alibaba.rocketmq.store.CommitLogDispatcher;
+import com.alibaba.rocketmq.store.DispatchRequest;
 import com.alibaba.rocketmq.store.MessageStore;
 
 /**
@@ -55,6 +57,11 @@ class MockMessageStorePlugin2 extends AbstractPluginMessageStore {
      */
     public MockMessageStorePlugin2(MessageStorePluginContext context, MessageStore next) {
         super(context, next);
+        context.registerCommitLogDispatcher(new CommitLogDispatcher() {
+            @Override
+            public void dispatch(DispatchRequest request) {
+            }
+        });
     }
 
     @Override
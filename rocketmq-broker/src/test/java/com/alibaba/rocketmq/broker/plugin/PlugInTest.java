@@ -78,6 +78,7 @@ public class PlugInTest {
         assertTrue(m.next instanceof MockMessageStorePlugin2);
         m = (AbstractPluginMessageStore) m.next;
         assertTrue(m.next instanceof MockMessageStore);
+        assertEquals(1, messageStore.getDispatcherList().size());
 
         //�׳��쳣����
         brokerConfig.setMessageStorePlugIn("aaaaaa");
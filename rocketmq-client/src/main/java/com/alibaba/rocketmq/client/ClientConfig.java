@@ -48,6 +48,10 @@ public class ClientConfig {
     private boolean unitMode = false;
     private String unitName;
     private boolean vipChannelEnabled = Boolean.parseBoolean(System.getProperty(SendMessageWithVIPChannelProperty, "true"));
+    /**
+     * Slaves further behind their master in bytes are not pulled from when master suggests a slave
+     */
+    private long pullReplicaLagMax = 1024 * 1024 * 64;
     ;
 
 
@@ -98,6 +102,7 @@ public class ClientConfig {
         this.unitMode = cc.unitMode;
         this.unitName = cc.unitName;
         this.vipChannelEnabled = cc.vipChannelEnabled;
+        this.pullReplicaLagMax = cc.pullReplicaLagMax;
     }
 
     public ClientConfig cloneClientConfig() {
@@ -112,6 +117,7 @@ public class ClientConfig {
         cc.unitMode = unitMode;
         cc.unitName = unitName;
         cc.vipChannelEnabled = vipChannelEnabled;
+        cc.pullReplicaLagMax = pullReplicaLagMax;
         return cc;
     }
 
@@ -193,12 +199,22 @@ public class ClientConfig {
     }
 
 
+    public long getPullReplicaLagMax() {
+        return pullReplicaLagMax;
+    }
+
+
+    public void setPullReplicaLagMax(final long pullReplicaLagMax) {
+        this.pullReplicaLagMax = pullReplicaLagMax;
+    }
+
+
     @Override
     public String toString() {
         return "ClientConfig [namesrvAddr=" + namesrvAddr + ", clientIP=" + clientIP + ", instanceName=" + instanceName
                 + ", clientCallbackExecutorThreads=" + clientCallbackExecutorThreads + ", pollNameServerInteval=" + pollNameServerInteval
                 + ", heartbeatBrokerInterval=" + heartbeatBrokerInterval + ", persistConsumerOffsetInterval="
                 + persistConsumerOffsetInterval + ", unitMode=" + unitMode + ", unitName=" + unitName + ", vipChannelEnabled="
-                + vipChannelEnabled + "]";
+                + vipChannelEnabled + ", pullReplicaLagMax=" + pullReplicaLagMax + "]";
     }
 }
@@ -415,6 +415,12 @@ public class DefaultMQPushConsumer extends ClientConfig implements MQPushConsume
     }
 
 
+    @Override
+    public void subscribeBySelector(String topic, MessageSelector selector) throws MQClientException {
+        this.defaultMQPushConsumerImpl.subscribeBySelector(topic, selector);
+    }
+
+
     @Override
     public void unsubscribe(String topic) {
         this.defaultMQPushConsumerImpl.unsubscribe(topic);
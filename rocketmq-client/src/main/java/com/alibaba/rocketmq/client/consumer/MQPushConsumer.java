@@ -87,6 +87,19 @@ public interface MQPushConsumer extends MQConsumer {
     void subscribe(final String topic, final String fullClassName, final String filterClassSource) throws MQClientException;
 
 
+    /**
+     * Subscribe some topic, messages are selected on the broker by tags or by a SQL92 condition over message
+     * properties
+     *
+     * @param topic
+     * @param selector
+     *         built by {@link MessageSelector#bySql(String)} or {@link MessageSelector#byTag(String)}
+     *
+     * @throws MQClientException
+     */
+    void subscribeBySelector(final String topic, final MessageSelector selector) throws MQClientException;
+
+
     /**
      * Unsubscribe consumption some topic
      *
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.client.consumer;
+
+import com.alibaba.rocketmq.common.filter.ExpressionType;
+
+
+/**
+ * How messages of a subscribed topic are selected on the broker.
+ */
+public class MessageSelector {
+    private final String type;
+    private final String expression;
+
+
+    private MessageSelector(String type, String expression) {
+        this.type = type;
+        this.expression = expression;
+    }
+
+
+    /**
+     * @param sql condition over message properties, like "a > 5 AND region IN ('eu', 'us')", the broker must
+     *         have enablePropertyFilter set
+     */
+    public static MessageSelector bySql(String sql) {
+        return new MessageSelector(ExpressionType.SQL92, sql);
+    }
+
+
+    /**
+     * @param tag "tag1 || tag2 || tag3", null or * for all
+     */
+    public static MessageSelector byTag(String tag) {
+        return new MessageSelector(ExpressionType.TAG, tag);
+    }
+
+
+    public String getExpressionType() {
+        return type;
+    }
+
+
+    public String getExpression() {
+        return expression;
+    }
+}
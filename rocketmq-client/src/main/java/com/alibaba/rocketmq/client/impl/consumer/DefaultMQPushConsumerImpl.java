@@ -19,6 +19,7 @@ package com.alibaba.rocketmq.client.impl.consumer;
 import com.alibaba.rocketmq.client.QueryResult;
 import com.alibaba.rocketmq.client.Validators;
 import com.alibaba.rocketmq.client.consumer.DefaultMQPushConsumer;
+import com.alibaba.rocketmq.client.consumer.MessageSelector;
 import com.alibaba.rocketmq.client.consumer.PullCallback;
 import com.alibaba.rocketmq.client.consumer.PullResult;
 import com.alibaba.rocketmq.client.consumer.listener.MessageListener;
@@ -381,11 +382,13 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
         }
 
         String subExpression = null;
+        String expressionType = null;
         boolean classFilter = false;
         SubscriptionData sd = this.rebalanceImpl.getSubscriptionInner().get(pullRequest.getMessageQueue().getTopic());
         if (sd != null) {
             if (this.defaultMQPushConsumer.isPostSubscriptionWhenPull() && !sd.isClassFilterMode()) {
                 subExpression = sd.getSubString();
+                expressionType = sd.getExpressionType();
             }
 
             classFilter = sd.isClassFilterMode();
@@ -401,15 +404,16 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
             this.pullAPIWrapper.pullKernelImpl(//
                     pullRequest.getMessageQueue(), // 1
                     subExpression, // 2
-                    subscriptionData.getSubVersion(), // 3
-                    pullRequest.getNextOffset(), // 4
-                    this.defaultMQPushConsumer.getPullBatchSize(), // 5
-                    sysFlag, // 6
-                    commitOffsetValue, // 7
-                    BrokerSuspendMaxTimeMillis, // 8
-                    ConsumerTimeoutMillisWhenSuspend, // 9
-                    CommunicationMode.ASYNC, // 10
-                    pullCallback// 11
+                    expressionType, // 3
+                    subscriptionData.getSubVersion(), // 4
+                    pullRequest.getNextOffset(), // 5
+                    this.defaultMQPushConsumer.getPullBatchSize(), // 6
+                    sysFlag, // 7
+                    commitOffsetValue, // 8
+                    BrokerSuspendMaxTimeMillis, // 9
+                    ConsumerTimeoutMillisWhenSuspend, // 10
+                    CommunicationMode.ASYNC, // 11
+                    pullCallback// 12
             );
         } catch (Exception e) {
             log.error("pullKernelImpl exception", e);
@@ -810,6 +814,23 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
         }
     }
 
+    public void subscribeBySelector(String topic, MessageSelector selector) throws MQClientException {
+        if (null == selector) {
+            this.subscribe(topic, SubscriptionData.SUB_ALL);
+            return;
+        }
+
+        try {
+            SubscriptionData subscriptionData = FilterAPI.build(topic, selector.getExpression(), selector.getExpressionType());
+            this.rebalanceImpl.getSubscriptionInner().put(topic, subscriptionData);
+            if (this.mQClientFactory != null) {
+                this.mQClientFactory.sendHeartbeatToAllBrokerWithLock();
+            }
+        } catch (Exception e) {
+            throw new MQClientException("subscription exception", e);
+        }
+    }
+
     public void subscribe(String topic, String fullClassName, String filterClassSource) throws MQClientException {
         try {
             SubscriptionData subscriptionData = FilterAPI.buildSubscriptionData(this.defaultMQPushConsumer.getConsumerGroup(), //
@@ -28,6 +28,7 @@ import com.alibaba.rocketmq.client.impl.FindBrokerResult;
 import com.alibaba.rocketmq.client.impl.factory.MQClientInstance;
 import com.alibaba.rocketmq.client.log.ClientLogger;
 import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.filter.ExpressionType;
 import com.alibaba.rocketmq.common.message.*;
 import com.alibaba.rocketmq.common.protocol.header.PullMessageRequestHeader;
 import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
@@ -146,6 +147,24 @@ public class PullAPIWrapper {
                                      final long timeoutMillis,// 9
                                      final CommunicationMode communicationMode,// 10
                                      final PullCallback pullCallback// 11
+    ) throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        return this.pullKernelImpl(mq, subExpression, ExpressionType.TAG, subVersion, offset, maxNums, sysFlag, commitOffset,
+                brokerSuspendMaxTimeMillis, timeoutMillis, communicationMode, pullCallback);
+    }
+
+    public PullResult pullKernelImpl(//
+                                     final MessageQueue mq,// 1
+                                     final String subExpression,// 2
+                                     final String expressionType,// 3
+                                     final long subVersion,// 4
+                                     final long offset,// 5
+                                     final int maxNums,// 6
+                                     final int sysFlag,// 7
+                                     final long commitOffset,// 8
+                                     final long brokerSuspendMaxTimeMillis,// 9
+                                     final long timeoutMillis,// 10
+                                     final CommunicationMode communicationMode,// 11
+                                     final PullCallback pullCallback// 12
     ) throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
         FindBrokerResult findBrokerResult =
                 this.mQClientFactory.findBrokerAddressInSubscribe(mq.getBrokerName(),
@@ -175,18 +194,54 @@ public class PullAPIWrapper {
             requestHeader.setSuspendTimeoutMillis(brokerSuspendMaxTimeMillis);
             requestHeader.setSubscription(subExpression);
             requestHeader.setSubVersion(subVersion);
+            requestHeader.setExpressionType(expressionType);
 
             String brokerAddr = findBrokerResult.getBrokerAddr();
             if (PullSysFlag.hasClassFilterFlag(sysFlagInner)) {
                 brokerAddr = computPullFromWhichFilterServer(mq.getTopic(), brokerAddr);
             }
 
-            PullResult pullResult = this.mQClientFactory.getMQClientAPIImpl().pullMessage(//
-                    brokerAddr,//
-                    requestHeader,//
-                    timeoutMillis,//
-                    communicationMode,//
-                    pullCallback);
+            final String replicaAddr = findBrokerResult.getBrokerAddr();
+            final PullReplicaSelector pullReplicaSelector = this.mQClientFactory.getPullReplicaSelector();
+            final long beginTimestamp = System.currentTimeMillis();
+            PullCallback replicaPullCallback = pullCallback;
+            if (pullCallback != null) {
+                replicaPullCallback = new PullCallback() {
+                    @Override
+                    public void onSuccess(PullResult pullResult) {
+                        pullReplicaSelector.pullEnd(replicaAddr, pullResult, beginTimestamp);
+                        pullCallback.onSuccess(pullResult);
+                    }
+
+
+                    @Override
+                    public void onException(Throwable e) {
+                        pullReplicaSelector.pullEnd(replicaAddr, null, beginTimestamp);
+                        pullCallback.onException(e);
+                    }
+                };
+            }
+
+            pullReplicaSelector.pullBegin(replicaAddr);
+            PullResult pullResult = null;
+            boolean sent = false;
+            try {
+                pullResult = this.mQClientFactory.getMQClientAPIImpl().pullMessage(//
+                        brokerAddr,//
+                        requestHeader,//
+                        timeoutMillis,//
+                        communicationMode,//
+                        replicaPullCallback);
+                sent = true;
+            } finally {
+                if (!sent) {
+                    pullReplicaSelector.pullEnd(replicaAddr, null, beginTimestamp);
+                }
+            }
+
+            if (CommunicationMode.SYNC == communicationMode) {
+                pullReplicaSelector.pullEnd(replicaAddr, pullResult, beginTimestamp);
+            }
 
             return pullResult;
         }
@@ -201,7 +256,7 @@ public class PullAPIWrapper {
 
         AtomicLong suggest = this.pullFromWhichNodeTable.get(mq);
         if (suggest != null) {
-            return suggest.get();
+            return this.mQClientFactory.getPullReplicaSelector().selectReplica(mq.getBrokerName(), suggest.get());
         }
 
         return MixAll.MASTER_ID;
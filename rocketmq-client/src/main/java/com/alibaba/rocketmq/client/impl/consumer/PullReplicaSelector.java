@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.client.impl.consumer;
+
+import com.alibaba.rocketmq.client.consumer.PullResult;
+import com.alibaba.rocketmq.client.consumer.PullStatus;
+import com.alibaba.rocketmq.common.MixAll;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Chooses the slave a queue is pulled from once master suggests pulling it from a slave. Slaves more than
+ * pullReplicaLagMax behind their master, or not telling how far, are left out, the others are weighed by the
+ * round trip time of pulls finding messages, the pulls in flight from this client and the pulls waiting in the
+ * broker, so catching up spreads over all slaves. Queues at the tail are pulled from master, as it suggests, and so is the slave master
+ * suggests while none of them tells its lag.
+ */
+public class PullReplicaSelector {
+    private final ConcurrentHashMap<String/* Broker Name */, HashMap<Long/* brokerId */, String/* address */>> brokerAddrTable;
+    private final long replicaLagMax;
+    private final ConcurrentHashMap<String/* address */, ReplicaStats> replicaStatsTable =
+            new ConcurrentHashMap<String, ReplicaStats>();
+
+
+    public PullReplicaSelector(
+            final ConcurrentHashMap<String, HashMap<Long, String>> brokerAddrTable, final long replicaLagMax) {
+        this.brokerAddrTable = brokerAddrTable;
+        this.replicaLagMax = replicaLagMax;
+    }
+
+
+    /**
+     * @return master if it is suggested or no slave is fit, the suggested one if no slave tells its lag
+     */
+    public long selectReplica(final String brokerName, final long suggestBrokerId) {
+        if (MixAll.MASTER_ID == suggestBrokerId) {
+            return suggestBrokerId;
+        }
+
+        HashMap<Long, String> brokerAddrs = this.brokerAddrTable.get(brokerName);
+        if (null == brokerAddrs) {
+            return suggestBrokerId;
+        }
+
+        long selected = MixAll.MASTER_ID;
+        long minScore = Long.MAX_VALUE;
+        boolean lagKnown = false;
+        for (Map.Entry<Long, String> entry : brokerAddrs.entrySet()) {
+            if (MixAll.MASTER_ID == entry.getKey()) {
+                continue;
+            }
+
+            ReplicaStats stats = this.getReplicaStats(entry.getValue());
+            long replicaLag = stats.replicaLag;
+            if (replicaLag < 0) {
+                continue;
+            }
+            lagKnown = true;
+            if (replicaLag > this.replicaLagMax) {
+                continue;
+            }
+
+            long score = (stats.rtt + 1) * (1 + stats.inFlight.get() + stats.pullLoad);
+            if (score < minScore) {
+                minScore = score;
+                selected = entry.getKey();
+            }
+        }
+
+        return lagKnown ? selected : suggestBrokerId;
+    }
+
+
+    /**
+     * Brokers not advertising them leave the values as they are.
+     */
+    public void updateReplicaState(final String brokerAddr, final Long replicaLag, final Integer pullLoad) {
+        ReplicaStats stats = this.getReplicaStats(brokerAddr);
+        if (replicaLag != null) {
+            stats.replicaLag = replicaLag;
+        }
+        if (pullLoad != null) {
+            stats.pullLoad = pullLoad;
+        }
+    }
+
+
+    public void pullBegin(final String brokerAddr) {
+        this.getReplicaStats(brokerAddr).inFlight.incrementAndGet();
+    }
+
+
+    /**
+     * @param pullResult null if the pull failed
+     */
+    public void pullEnd(final String brokerAddr, final PullResult pullResult, final long beginTimestamp) {
+        ReplicaStats stats = this.getReplicaStats(brokerAddr);
+        stats.inFlight.decrementAndGet();
+        if (pullResult instanceof PullResultExt) {
+            PullResultExt pullResultExt = (PullResultExt) pullResult;
+            this.updateReplicaState(brokerAddr, pullResultExt.getReplicaLag(), pullResultExt.getPullLoad());
+        }
+
+        // the others may be suspended by the broker for long polling
+        if (pullResult != null && PullStatus.FOUND == pullResult.getPullStatus()) {
+            long rtt = System.currentTimeMillis() - beginTimestamp;
+            stats.rtt = stats.rtt > 0 ? (stats.rtt * 7 + rtt) / 8 : rtt;
+        }
+    }
+
+
+    private ReplicaStats getReplicaStats(final String brokerAddr) {
+        ReplicaStats stats = this.replicaStatsTable.get(brokerAddr);
+        if (null == stats) {
+            stats = new ReplicaStats();
+            ReplicaStats prev = this.replicaStatsTable.putIfAbsent(brokerAddr, stats);
+            if (prev != null) {
+                stats = prev;
+            }
+        }
+        return stats;
+    }
+
+
+    static class ReplicaStats {
+        // -1 until the broker tells it, as it says when it does not know either
+        private volatile long replicaLag = -1;
+        private volatile int pullLoad = 0;
+        // ms, moving average
+        private volatile long rtt = 0;
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+    }
+}
@@ -29,6 +29,8 @@ import java.util.List;
 public class PullResultExt extends PullResult {
     private final long suggestWhichBrokerId;
     private byte[] messageBinary;
+    private Long replicaLag;
+    private Integer pullLoad;
 
 
     public PullResultExt(PullStatus pullStatus, long nextBeginOffset, long minOffset, long maxOffset,
@@ -52,4 +54,24 @@ public class PullResultExt extends PullResult {
     public long getSuggestWhichBrokerId() {
         return suggestWhichBrokerId;
     }
+
+
+    public Long getReplicaLag() {
+        return replicaLag;
+    }
+
+
+    public void setReplicaLag(Long replicaLag) {
+        this.replicaLag = replicaLag;
+    }
+
+
+    public Integer getPullLoad() {
+        return pullLoad;
+    }
+
+
+    public void setPullLoad(Integer pullLoad) {
+        this.pullLoad = pullLoad;
+    }
 }
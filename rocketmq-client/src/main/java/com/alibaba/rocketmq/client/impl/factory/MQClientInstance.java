@@ -37,6 +37,7 @@ import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.message.MessageQueue;
 import com.alibaba.rocketmq.common.protocol.body.ConsumeMessageDirectlyResult;
 import com.alibaba.rocketmq.common.protocol.body.ConsumerRunningInfo;
+import com.alibaba.rocketmq.common.protocol.header.HeartbeatResponseHeader;
 import com.alibaba.rocketmq.common.protocol.heartbeat.*;
 import com.alibaba.rocketmq.common.protocol.route.BrokerData;
 import com.alibaba.rocketmq.common.protocol.route.QueueData;
@@ -87,6 +88,7 @@ public class MQClientInstance {
     });
     private final ClientRemotingProcessor clientRemotingProcessor;
     private final PullMessageService pullMessageService;
+    private final PullReplicaSelector pullReplicaSelector;
     private final RebalanceService rebalanceService;
     private final DefaultMQProducer defaultMQProducer;
     private final ConsumerStatsManager consumerStatsManager;
@@ -119,6 +121,8 @@ public class MQClientInstance {
 
         this.pullMessageService = new PullMessageService(this);
 
+        this.pullReplicaSelector = new PullReplicaSelector(this.brokerAddrTable, clientConfig.getPullReplicaLagMax());
+
         this.rebalanceService = new RebalanceService(this);
 
         this.defaultMQProducer = new DefaultMQProducer(MixAll.CLIENT_INNER_PRODUCER_GROUP);
@@ -412,7 +416,9 @@ public class MQClientInstance {
                         }
 
                         try {
-                            this.mQClientAPIImpl.sendHearbeat(addr, heartbeatData, 3000);
+                            HeartbeatResponseHeader responseHeader = this.mQClientAPIImpl.sendHearbeat(addr, heartbeatData, 3000);
+                            this.pullReplicaSelector.updateReplicaState(addr, responseHeader.getReplicaLag(),
+                                    responseHeader.getPullLoad());
                             if (times % 20 == 0) {
                                 log.info("send heart beat to broker[{} {} {}] success", brokerName, id, addr);
                                 log.info(heartbeatData.toString());
@@ -1087,6 +1093,10 @@ public class MQClientInstance {
         return pullMessageService;
     }
 
+    public PullReplicaSelector getPullReplicaSelector() {
+        return pullReplicaSelector;
+    }
+
     public DefaultMQProducer getDefaultMQProducer() {
         return defaultMQProducer;
     }
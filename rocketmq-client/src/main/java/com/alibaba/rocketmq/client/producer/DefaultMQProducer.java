@@ -18,6 +18,7 @@ package com.alibaba.rocketmq.client.producer;
 
 import com.alibaba.rocketmq.client.ClientConfig;
 import com.alibaba.rocketmq.client.QueryResult;
+import com.alibaba.rocketmq.client.Validators;
 import com.alibaba.rocketmq.client.exception.MQBrokerException;
 import com.alibaba.rocketmq.client.exception.MQClientException;
 import com.alibaba.rocketmq.client.impl.producer.DefaultMQProducerImpl;
@@ -26,6 +27,7 @@ import com.alibaba.rocketmq.common.message.*;
 import com.alibaba.rocketmq.remoting.RPCHook;
 import com.alibaba.rocketmq.remoting.exception.RemotingException;
 
+import java.util.Collection;
 import java.util.List;
 
 
@@ -185,6 +187,71 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
     }
 
 
+    @Override
+    public SendResult send(Collection<Message> msgs)
+            throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        return this.defaultMQProducerImpl.send(batch(msgs));
+    }
+
+
+    @Override
+    public SendResult send(Collection<Message> msgs, long timeout)
+            throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        return this.defaultMQProducerImpl.send(batch(msgs), timeout);
+    }
+
+
+    @Override
+    public SendResult send(Collection<Message> msgs, MessageQueue mq)
+            throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        return this.defaultMQProducerImpl.send(batch(msgs), mq);
+    }
+
+
+    @Override
+    public SendResult send(Collection<Message> msgs, MessageQueue mq, long timeout)
+            throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        return this.defaultMQProducerImpl.send(batch(msgs), mq, timeout);
+    }
+
+
+    @Override
+    public void send(Collection<Message> msgs, SendCallback sendCallback)
+            throws MQClientException, RemotingException, InterruptedException {
+        this.defaultMQProducerImpl.send(batch(msgs), sendCallback);
+    }
+
+
+    @Override
+    public void send(Collection<Message> msgs, SendCallback sendCallback, long timeout)
+            throws MQClientException, RemotingException, InterruptedException {
+        this.defaultMQProducerImpl.send(batch(msgs), sendCallback, timeout);
+    }
+
+
+    @Override
+    public void sendOneway(Collection<Message> msgs) throws MQClientException, RemotingException, InterruptedException {
+        this.defaultMQProducerImpl.sendOneway(batch(msgs));
+    }
+
+
+    private MessageBatch batch(Collection<Message> msgs) throws MQClientException {
+        MessageBatch msgBatch;
+        try {
+            msgBatch = MessageBatch.generateFromList(msgs);
+        } catch (IllegalArgumentException e) {
+            throw new MQClientException("Failed to initiate the MessageBatch", e);
+        }
+
+        for (Message message : msgBatch) {
+            Validators.checkMessage(message, this);
+            MessageClientIDSetter.setUniqID(message);
+        }
+        msgBatch.setBody(msgBatch.encode());
+        return msgBatch;
+    }
+
+
     @Override
     public TransactionSendResult sendMessageInTransaction(Message msg, LocalTransactionExecuter tranExecuter, final Object arg)
             throws MQClientException {
@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.client.impl.consumer;
+
+import com.alibaba.rocketmq.client.consumer.PullStatus;
+import com.alibaba.rocketmq.common.MixAll;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class PullReplicaSelectorTest {
+    @Test
+    public void testSelectReplica() {
+        ConcurrentHashMap<String, HashMap<Long, String>> brokerAddrTable = new ConcurrentHashMap<String, HashMap<Long, String>>();
+        HashMap<Long, String> brokerAddrs = new HashMap<Long, String>();
+        brokerAddrs.put(MixAll.MASTER_ID, "master");
+        brokerAddrs.put(1L, "slave1");
+        brokerAddrs.put(2L, "slave2");
+        brokerAddrTable.put("broker-a", brokerAddrs);
+        final PullReplicaSelector selector = new PullReplicaSelector(brokerAddrTable, 1024);
+
+        // the tail stays on master
+        Assert.assertEquals(MixAll.MASTER_ID, selector.selectReplica("broker-a", MixAll.MASTER_ID));
+
+        // the suggested one while no slave tells its lag
+        Assert.assertEquals(1, selector.selectReplica("broker-a", 1));
+        selector.updateReplicaState("slave1", 0L, null);
+        selector.updateReplicaState("slave2", 0L, null);
+
+        // catching up spreads over the slaves with pulls in flight
+        long first = selector.selectReplica("broker-a", 1);
+        selector.pullBegin(brokerAddrs.get(first));
+        long second = selector.selectReplica("broker-a", 1);
+        Assert.assertNotEquals(first, second);
+        Assert.assertNotEquals(MixAll.MASTER_ID, second);
+
+        // slow and loaded ones are avoided
+        selector.pullEnd("slave1", new PullResultExt(PullStatus.FOUND, 0, 0, 0, null, 1, null),
+                System.currentTimeMillis() - 100);
+        selector.pullEnd("slave2", null, System.currentTimeMillis());
+        Assert.assertEquals(2, selector.selectReplica("broker-a", 1));
+        selector.updateReplicaState("slave2", 0L, 1000);
+        Assert.assertEquals(1, selector.selectReplica("broker-a", 1));
+
+        // lagging slaves and those not knowing their lag are not pulled from
+        selector.updateReplicaState("slave1", 2048L, null);
+        selector.updateReplicaState("slave2", -1L, null);
+        Assert.assertEquals(MixAll.MASTER_ID, selector.selectReplica("broker-a", 1));
+        selector.updateReplicaState("slave2", 10L, 0);
+        Assert.assertEquals(2, selector.selectReplica("broker-a", 1));
+    }
+}
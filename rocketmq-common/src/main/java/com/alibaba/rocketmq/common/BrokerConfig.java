@@ -99,6 +99,25 @@ public class BrokerConfig {
 
     private long startAcceptSendRequestTimeStamp = 0L;
 
+    // SQL92 filter on message properties
+    @ImportantField
+    private boolean enablePropertyFilter = false;
+    // needs enableConsumeQueueExt of the store
+    private boolean enableCalcFilterBitMap = false;
+    private int expectConsumerNumUseFilter = 32;
+    // false positive rate of the bloom filter in percent
+    private int maxErrorRateOfBloomFilter = 20;
+
+    // answer sends retried within the window with the result of the first one
+    private boolean sendDedupEnable = false;
+    private long sendDedupWindowMs = 1000 * 60 * 5;
+    // slots of the off heap hash of message ids, 44 bytes each
+    private int sendDedupSlotNums = 1024 * 1024;
+
+    // threads serving pulls from disk when coldReadEnable of the store is on
+    private int coldPullMessageThreadPoolNums = 4;
+    private int coldPullThreadPoolQueueCapacity = 1000;
+
     public long getStartAcceptSendRequestTimeStamp() {
         return startAcceptSendRequestTimeStamp;
     }
@@ -502,4 +521,94 @@ public class BrokerConfig {
     public void setMaxDelayTime(final int maxDelayTime) {
         this.maxDelayTime = maxDelayTime;
     }
+
+
+    public boolean isEnablePropertyFilter() {
+        return enablePropertyFilter;
+    }
+
+
+    public void setEnablePropertyFilter(final boolean enablePropertyFilter) {
+        this.enablePropertyFilter = enablePropertyFilter;
+    }
+
+
+    public boolean isEnableCalcFilterBitMap() {
+        return enableCalcFilterBitMap;
+    }
+
+
+    public void setEnableCalcFilterBitMap(final boolean enableCalcFilterBitMap) {
+        this.enableCalcFilterBitMap = enableCalcFilterBitMap;
+    }
+
+
+    public int getExpectConsumerNumUseFilter() {
+        return expectConsumerNumUseFilter;
+    }
+
+
+    public void setExpectConsumerNumUseFilter(final int expectConsumerNumUseFilter) {
+        this.expectConsumerNumUseFilter = expectConsumerNumUseFilter;
+    }
+
+
+    public int getMaxErrorRateOfBloomFilter() {
+        return maxErrorRateOfBloomFilter;
+    }
+
+
+    public void setMaxErrorRateOfBloomFilter(final int maxErrorRateOfBloomFilter) {
+        this.maxErrorRateOfBloomFilter = maxErrorRateOfBloomFilter;
+    }
+
+
+    public boolean isSendDedupEnable() {
+        return sendDedupEnable;
+    }
+
+
+    public void setSendDedupEnable(final boolean sendDedupEnable) {
+        this.sendDedupEnable = sendDedupEnable;
+    }
+
+
+    public long getSendDedupWindowMs() {
+        return sendDedupWindowMs;
+    }
+
+
+    public void setSendDedupWindowMs(final long sendDedupWindowMs) {
+        this.sendDedupWindowMs = sendDedupWindowMs;
+    }
+
+
+    public int getSendDedupSlotNums() {
+        return sendDedupSlotNums;
+    }
+
+
+    public void setSendDedupSlotNums(final int sendDedupSlotNums) {
+        this.sendDedupSlotNums = sendDedupSlotNums;
+    }
+
+
+    public int getColdPullMessageThreadPoolNums() {
+        return coldPullMessageThreadPoolNums;
+    }
+
+
+    public void setColdPullMessageThreadPoolNums(final int coldPullMessageThreadPoolNums) {
+        this.coldPullMessageThreadPoolNums = coldPullMessageThreadPoolNums;
+    }
+
+
+    public int getColdPullThreadPoolQueueCapacity() {
+        return coldPullThreadPoolQueueCapacity;
+    }
+
+
+    public void setColdPullThreadPoolQueueCapacity(final int coldPullThreadPoolQueueCapacity) {
+        this.coldPullThreadPoolQueueCapacity = coldPullThreadPoolQueueCapacity;
+    }
 }
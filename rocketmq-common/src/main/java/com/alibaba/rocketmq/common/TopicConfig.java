@@ -33,6 +33,8 @@ public class TopicConfig {
     private TopicFilterType topicFilterType = TopicFilterType.SINGLE_TAG;
     private int topicSysFlag = 0;
     private boolean order = false;
+    // ms, 0 keeps messages for the broker wide fileReservedTime
+    private long retentionTime = 0;
 
 
     public TopicConfig() {
@@ -167,6 +169,16 @@ public class TopicConfig {
         this.order = isOrder;
     }
 
+
+    public long getRetentionTime() {
+        return retentionTime;
+    }
+
+
+    public void setRetentionTime(long retentionTime) {
+        this.retentionTime = retentionTime;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
@@ -179,6 +191,7 @@ public class TopicConfig {
         if (perm != that.perm) return false;
         if (topicSysFlag != that.topicSysFlag) return false;
         if (order != that.order) return false;
+        if (retentionTime != that.retentionTime) return false;
         if (topicName != null ? !topicName.equals(that.topicName) : that.topicName != null) return false;
         return topicFilterType == that.topicFilterType;
 
@@ -193,6 +206,7 @@ public class TopicConfig {
         result = 31 * result + (topicFilterType != null ? topicFilterType.hashCode() : 0);
         result = 31 * result + topicSysFlag;
         result = 31 * result + (order ? 1 : 0);
+        result = 31 * result + (int) (retentionTime ^ (retentionTime >>> 32));
         return result;
     }
 
@@ -201,6 +215,6 @@ public class TopicConfig {
         return "TopicConfig [topicName=" + topicName + ", readQueueNums=" + readQueueNums
                 + ", writeQueueNums=" + writeQueueNums + ", perm=" + PermName.perm2String(perm)
                 + ", topicFilterType=" + topicFilterType + ", topicSysFlag=" + topicSysFlag + ", order="
-                + order + "]";
+                + order + ", retentionTime=" + retentionTime + "]";
     }
 }
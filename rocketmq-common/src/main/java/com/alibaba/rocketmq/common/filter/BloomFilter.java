@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.common.filter;
+
+import com.alibaba.rocketmq.common.UtilAll;
+
+import java.nio.charset.Charset;
+
+
+/**
+ * Bloom filter over a byte array, the bit positions of a string are computed once and
+ * then used to set or test any bit map of {@link #getM()} bits.
+ */
+public class BloomFilter {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // false positive rate in percent
+    private final int f;
+    // expected number of elements
+    private final int n;
+    // number of hash functions
+    private final int k;
+    // number of bits
+    private final int m;
+
+
+    private BloomFilter(int f, int n) {
+        if (f < 1 || f >= 100) {
+            throw new IllegalArgumentException("f must be in [1, 100), " + f);
+        }
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be greater than 0, " + n);
+        }
+
+        this.f = f;
+        this.n = n;
+
+        double ln2 = Math.log(2);
+        int bits = (int) Math.ceil(-n * Math.log(f / 100.0) / (ln2 * ln2));
+        // round up to whole bytes
+        this.m = (bits + 7) / 8 * 8;
+        this.k = Math.max(1, (int) Math.round((double) this.m / n * ln2));
+    }
+
+
+    /**
+     * @param f false positive rate in percent
+     * @param n expected number of elements
+     */
+    public static BloomFilter createByFn(int f, int n) {
+        return new BloomFilter(f, n);
+    }
+
+
+    public int[] calcBitPositions(String str) {
+        byte[] data = str.getBytes(UTF8);
+        int hash1 = str.hashCode();
+        int hash2 = UtilAll.crc32(data);
+
+        int[] bitPositions = new int[this.k];
+        for (int i = 0; i < this.k; i++) {
+            int combinedHash = hash1 + i * hash2;
+            bitPositions[i] = Math.abs(combinedHash % this.m);
+        }
+        return bitPositions;
+    }
+
+
+    public void hashTo(int[] bitPositions, byte[] bits) {
+        this.check(bits);
+        for (int pos : bitPositions) {
+            bits[pos >> 3] |= (byte) (1 << (pos & 7));
+        }
+    }
+
+
+    public boolean isHit(int[] bitPositions, byte[] bits) {
+        this.check(bits);
+        for (int pos : bitPositions) {
+            if ((bits[pos >> 3] & (1 << (pos & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private void check(byte[] bits) {
+        if (bits == null || bits.length * 8 < this.m) {
+            throw new IllegalArgumentException("bits can not hold " + this.m + " bits");
+        }
+    }
+
+
+    public int getF() {
+        return f;
+    }
+
+
+    public int getN() {
+        return n;
+    }
+
+
+    public int getK() {
+        return k;
+    }
+
+
+    public int getM() {
+        return m;
+    }
+
+
+    public int getBitMapLength() {
+        return this.m / 8;
+    }
+}
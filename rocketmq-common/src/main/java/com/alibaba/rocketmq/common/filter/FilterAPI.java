@@ -69,4 +69,27 @@ public class FilterAPI {
 
         return subscriptionData;
     }
+
+
+    /**
+     * Like {@link #buildSubscriptionData(String, String, String)}, a SQL92 expression is compiled once here to
+     * reject malformed ones early.
+     */
+    public static SubscriptionData build(final String topic, final String subString, final String type) throws Exception {
+        if (ExpressionType.isTagType(type)) {
+            return buildSubscriptionData(null, topic, subString);
+        }
+
+        if (!ExpressionType.SQL92.equals(type)) {
+            throw new IllegalArgumentException("unsupported expression type " + type);
+        }
+
+        Sql92Expression.compile(subString);
+
+        SubscriptionData subscriptionData = new SubscriptionData();
+        subscriptionData.setTopic(topic);
+        subscriptionData.setSubString(subString);
+        subscriptionData.setExpressionType(type);
+        return subscriptionData;
+    }
 }
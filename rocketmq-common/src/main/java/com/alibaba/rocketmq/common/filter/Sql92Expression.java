@@ -0,0 +1,402 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.common.filter;
+
+import com.alibaba.rocketmq.common.filter.impl.Literal;
+import com.alibaba.rocketmq.common.filter.impl.Op;
+import com.alibaba.rocketmq.common.filter.impl.Operator;
+import com.alibaba.rocketmq.common.filter.impl.PolishExpr;
+import com.alibaba.rocketmq.common.filter.impl.SqlParticiple;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+
+/**
+ * SQL92 like condition over message properties, compiled once into a tree and evaluated per message. Supports
+ * AND, OR, NOT, =, <>, >, >=, <, <=, IN, NOT IN, IS [NOT] NULL, string, numeric and boolean constants. A
+ * missing or unconvertible property makes a comparison unknown, and only a true result matches.
+ */
+public class Sql92Expression {
+    private final String expression;
+    private final Node root;
+
+
+    private Sql92Expression(String expression, Node root) {
+        this.expression = expression;
+        this.root = root;
+    }
+
+
+    /**
+     * @throws IllegalArgumentException when the expression is malformed
+     */
+    public static Sql92Expression compile(final String expression) {
+        if (null == expression || expression.trim().length() == 0) {
+            throw new IllegalArgumentException("expression is empty");
+        }
+
+        List<Op> segments = PolishExpr.reversePolish(SqlParticiple.participle(expression));
+        Stack<Node> stack = new Stack<Node>();
+        for (Op op : segments) {
+            if (op instanceof Literal) {
+                stack.push(new ConstantNode(((Literal) op).getValue()));
+            } else if (PolishExpr.isOperand(op)) {
+                stack.push(new PropertyNode(op.getSymbol()));
+            } else {
+                Operator operator = (Operator) op;
+                if (stack.size() < operator.getOperandNums()) {
+                    throw new IllegalArgumentException("operand missing for " + operator + " in " + expression);
+                }
+                Node right = stack.pop();
+                Node left = operator.getOperandNums() > 1 ? stack.pop() : null;
+                stack.push(buildNode(operator, left, right));
+            }
+        }
+
+        if (stack.size() != 1 || !stack.peek().isCondition()) {
+            throw new IllegalArgumentException("not a condition: " + expression);
+        }
+        return new Sql92Expression(expression, stack.pop());
+    }
+
+
+    private static Node buildNode(final Operator operator, final Node left, final Node right) {
+        if (Operator.AND == operator || Operator.OR == operator) {
+            checkCondition(operator, left);
+            checkCondition(operator, right);
+            return new LogicNode(Operator.AND == operator, left, right);
+        }
+        if (Operator.NOT == operator) {
+            checkCondition(operator, right);
+            return new NotNode(right);
+        }
+        if (Operator.IS_NULL == operator || Operator.IS_NOT_NULL == operator) {
+            checkProperty(operator, right);
+            return new NullNode(Operator.IS_NOT_NULL == operator, (PropertyNode) right);
+        }
+        if (Operator.IN == operator || Operator.NOT_IN == operator) {
+            checkProperty(operator, left);
+            if (!(right instanceof ConstantNode) || !(((ConstantNode) right).value instanceof List)) {
+                throw new IllegalArgumentException("a list is expected after " + operator);
+            }
+            return new InNode(Operator.NOT_IN == operator, (PropertyNode) left, (List<?>) ((ConstantNode) right).value);
+        }
+
+        if (!isValue(left) || !isValue(right)) {
+            throw new IllegalArgumentException("operands of " + operator + " must be values");
+        }
+        if (operator != Operator.EQ && operator != Operator.NE
+                && (isConstant(left, Boolean.class) || isConstant(right, Boolean.class))) {
+            throw new IllegalArgumentException("booleans can not be compared by " + operator);
+        }
+        return new CompareNode(operator, left, right);
+    }
+
+
+    private static void checkCondition(final Operator operator, final Node node) {
+        if (!node.isCondition()) {
+            throw new IllegalArgumentException("operands of " + operator + " must be conditions");
+        }
+    }
+
+
+    private static void checkProperty(final Operator operator, final Node node) {
+        if (!(node instanceof PropertyNode)) {
+            throw new IllegalArgumentException("a property is expected before " + operator);
+        }
+    }
+
+
+    private static boolean isValue(final Node node) {
+        return node instanceof PropertyNode || node instanceof ConstantNode;
+    }
+
+
+    private static boolean isConstant(final Node node, final Class<?> type) {
+        return node instanceof ConstantNode && type.isInstance(((ConstantNode) node).value);
+    }
+
+
+    public boolean evaluate(final Map<String, String> properties) {
+        Map<String, String> props = properties;
+        if (null == props) {
+            props = Collections.emptyMap();
+        }
+        return Boolean.TRUE.equals(this.root.evaluate(props));
+    }
+
+
+    public String getExpression() {
+        return expression;
+    }
+
+
+    @Override
+    public String toString() {
+        return "Sql92Expression [" + expression + "]";
+    }
+
+
+    /**
+     * @return null when unknown, otherwise negative, zero or positive as Comparable does, or 1 for unequal
+     *         booleans
+     */
+    static Integer compareValues(final Object left, final Object right) {
+        if (null == left || null == right) {
+            return null;
+        }
+
+        if (left instanceof Number || right instanceof Number) {
+            Number l = toNumber(left);
+            Number r = toNumber(right);
+            if (null == l || null == r) {
+                return null;
+            }
+            if (l instanceof Long && r instanceof Long) {
+                long lv = l.longValue();
+                long rv = r.longValue();
+                return lv < rv ? -1 : (lv == rv ? 0 : 1);
+            }
+            return Double.compare(l.doubleValue(), r.doubleValue());
+        }
+
+        if (left instanceof Boolean || right instanceof Boolean) {
+            return left.toString().equalsIgnoreCase(right.toString()) ? 0 : 1;
+        }
+
+        return left.toString().compareTo(right.toString());
+    }
+
+
+    private static Number toNumber(final Object value) {
+        if (value instanceof Number) {
+            return (Number) value;
+        }
+        if (!(value instanceof String)) {
+            return null;
+        }
+
+        String str = ((String) value).trim();
+        try {
+            return Long.valueOf(str);
+        } catch (NumberFormatException e) {
+            try {
+                return Double.valueOf(str);
+            } catch (NumberFormatException ignored) {
+                return null;
+            }
+        }
+    }
+
+
+    abstract static class Node {
+        /**
+         * @return Boolean or null for conditions, the value for operands
+         */
+        abstract Object evaluate(final Map<String, String> properties);
+
+
+        boolean isCondition() {
+            return true;
+        }
+    }
+
+
+    static class ConstantNode extends Node {
+        private final Object value;
+
+
+        ConstantNode(Object value) {
+            this.value = value;
+        }
+
+
+        @Override
+        Object evaluate(Map<String, String> properties) {
+            return value;
+        }
+
+
+        @Override
+        boolean isCondition() {
+            return value instanceof Boolean;
+        }
+    }
+
+
+    static class PropertyNode extends Node {
+        private final String name;
+
+
+        PropertyNode(String name) {
+            this.name = name;
+        }
+
+
+        @Override
+        Object evaluate(Map<String, String> properties) {
+            return properties.get(name);
+        }
+
+
+        @Override
+        boolean isCondition() {
+            return false;
+        }
+    }
+
+
+    static class LogicNode extends Node {
+        private final boolean and;
+        private final Node left;
+        private final Node right;
+
+
+        LogicNode(boolean and, Node left, Node right) {
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+
+        @Override
+        Object evaluate(Map<String, String> properties) {
+            Boolean l = toBoolean(left.evaluate(properties));
+            if (l != null && l != and) {
+                return l;
+            }
+            Boolean r = toBoolean(right.evaluate(properties));
+            if (r != null && r != and) {
+                return r;
+            }
+            if (null == l || null == r) {
+                return null;
+            }
+            return and;
+        }
+    }
+
+
+    static class NotNode extends Node {
+        private final Node operand;
+
+
+        NotNode(Node operand) {
+            this.operand = operand;
+        }
+
+
+        @Override
+        Object evaluate(Map<String, String> properties) {
+            Boolean value = toBoolean(operand.evaluate(properties));
+            return null == value ? null : !value;
+        }
+    }
+
+
+    static class NullNode extends Node {
+        private final boolean not;
+        private final PropertyNode operand;
+
+
+        NullNode(boolean not, PropertyNode operand) {
+            this.not = not;
+            this.operand = operand;
+        }
+
+
+        @Override
+        Object evaluate(Map<String, String> properties) {
+            return (operand.evaluate(properties) == null) != not;
+        }
+    }
+
+
+    static class InNode extends Node {
+        private final boolean not;
+        private final PropertyNode operand;
+        private final List<?> values;
+
+
+        InNode(boolean not, PropertyNode operand, List<?> values) {
+            this.not = not;
+            this.operand = operand;
+            this.values = values;
+        }
+
+
+        @Override
+        Object evaluate(Map<String, String> properties) {
+            Object value = operand.evaluate(properties);
+            if (null == value) {
+                return null;
+            }
+            for (Object v : values) {
+                Integer ret = compareValues(value, v);
+                if (ret != null && ret == 0) {
+                    return !not;
+                }
+            }
+            return not;
+        }
+    }
+
+
+    static class CompareNode extends Node {
+        private final Operator operator;
+        private final Node left;
+        private final Node right;
+
+
+        CompareNode(Operator operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+
+        @Override
+        Object evaluate(Map<String, String> properties) {
+            Integer ret = compareValues(left.evaluate(properties), right.evaluate(properties));
+            if (null == ret) {
+                return null;
+            }
+
+            if (Operator.EQ == operator) {
+                return ret == 0;
+            } else if (Operator.NE == operator) {
+                return ret != 0;
+            } else if (Operator.GT == operator) {
+                return ret > 0;
+            } else if (Operator.GE == operator) {
+                return ret >= 0;
+            } else if (Operator.LT == operator) {
+                return ret < 0;
+            } else {
+                return ret <= 0;
+            }
+        }
+    }
+
+
+    private static Boolean toBoolean(final Object value) {
+        return value instanceof Boolean ? (Boolean) value : null;
+    }
+}
@@ -24,14 +24,36 @@ public class Operator extends Op {
     public static final Operator AND = new Operator("&&", 20, true);
     public static final Operator OR = new Operator("||", 15, true);
 
+    // SQL92 property filter
+    public static final Operator NOT = new Operator("NOT", 22, true, 1, false);
+    public static final Operator EQ = new Operator("=", 25, true);
+    public static final Operator NE = new Operator("<>", 25, true);
+    public static final Operator GT = new Operator(">", 25, true);
+    public static final Operator GE = new Operator(">=", 25, true);
+    public static final Operator LT = new Operator("<", 25, true);
+    public static final Operator LE = new Operator("<=", 25, true);
+    public static final Operator IN = new Operator("IN", 25, true);
+    public static final Operator NOT_IN = new Operator("NOT IN", 25, true);
+    public static final Operator IS_NULL = new Operator("IS NULL", 30, true, 1, true);
+    public static final Operator IS_NOT_NULL = new Operator("IS NOT NULL", 30, true, 1, true);
+
     private int priority;
     private boolean compareable;
+    private int operandNums;
+    private boolean postfix;
 
 
     private Operator(String symbol, int priority, boolean compareable) {
+        this(symbol, priority, compareable, 2, false);
+    }
+
+
+    private Operator(String symbol, int priority, boolean compareable, int operandNums, boolean postfix) {
         super(symbol);
         this.priority = priority;
         this.compareable = compareable;
+        this.operandNums = operandNums;
+        this.postfix = postfix;
     }
 
     public static Operator createOperator(String operator) {
@@ -43,6 +65,20 @@ public class Operator extends Op {
             return AND;
         else if (OR.getSymbol().equals(operator))
             return OR;
+        else if (NOT.getSymbol().equals(operator))
+            return NOT;
+        else if (EQ.getSymbol().equals(operator))
+            return EQ;
+        else if (NE.getSymbol().equals(operator) || "!=".equals(operator))
+            return NE;
+        else if (GT.getSymbol().equals(operator))
+            return GT;
+        else if (GE.getSymbol().equals(operator))
+            return GE;
+        else if (LT.getSymbol().equals(operator))
+            return LT;
+        else if (LE.getSymbol().equals(operator))
+            return LE;
         else
             throw new IllegalArgumentException("unsupport operator " + operator);
     }
@@ -55,6 +91,17 @@ public class Operator extends Op {
         return compareable;
     }
 
+    public int getOperandNums() {
+        return operandNums;
+    }
+
+    /**
+     * Unary operators are prefix ones unless postfix, like NOT and IS NULL.
+     */
+    public boolean isPostfix() {
+        return postfix;
+    }
+
 
     public int compare(Operator operator) {
         if (this.priority > operator.priority)
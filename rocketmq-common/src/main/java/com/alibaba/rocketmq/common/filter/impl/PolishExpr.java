@@ -60,10 +60,21 @@ public class PolishExpr {
             } else if (isOperator(token)) {
 
                 Operator opNew = (Operator) token;
-                if (!operatorStack.empty()) {
-                    Operator opOld = operatorStack.peek();
-                    if (opOld.isCompareable() && opNew.compare(opOld) != 1) {
-                        segments.add(operatorStack.pop());
+                if (opNew.isPostfix()) {
+                    // applies to the operand right before it
+                    segments.add(opNew);
+                    continue;
+                }
+
+                // a prefix operator has no left operand, nothing to reduce
+                if (opNew.getOperandNums() > 1) {
+                    while (!operatorStack.empty()) {
+                        Operator opOld = operatorStack.peek();
+                        if (opOld.isCompareable() && opNew.compare(opOld) != 1) {
+                            segments.add(operatorStack.pop());
+                        } else {
+                            break;
+                        }
                     }
                 }
                 operatorStack.push(opNew);
@@ -0,0 +1,241 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.common.filter.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Splits a SQL92 condition into tokens for {@link PolishExpr#reversePolish(List)}. Keywords are case
+ * insensitive, a list after IN is folded into one {@link Literal}.
+ */
+public class SqlParticiple {
+
+    public static List<Op> participle(String expression) {
+        List<Op> segments = new ArrayList<Op>();
+
+        final int size = expression.length();
+        int i = 0;
+        while (i < size) {
+            char ch = expression.charAt(i);
+
+            if (Character.isWhitespace(ch)) {
+                i++;
+            } else if ('(' == ch || ')' == ch) {
+                segments.add(Operator.createOperator(String.valueOf(ch)));
+                i++;
+            } else if ('\'' == ch) {
+                StringBuilder sb = new StringBuilder();
+                i = readString(expression, i, sb);
+                segments.add(new Literal(sb.toString(), sb.toString()));
+            } else if (isDigit(ch) || (('-' == ch || '+' == ch) && i + 1 < size && isDigit(expression.charAt(i + 1))
+                    && !endsWithOperand(segments))) {
+                int end = i + 1;
+                while (end < size && isNumberPart(expression.charAt(end))) {
+                    end++;
+                }
+                String number = expression.substring(i, end);
+                segments.add(new Literal(number, parseNumber(number, i)));
+                i = end;
+            } else if ('=' == ch || '<' == ch || '>' == ch || '!' == ch) {
+                int end = i + 1;
+                if (end < size && ('=' == expression.charAt(end) || ('<' == ch && '>' == expression.charAt(end)))) {
+                    end++;
+                }
+                segments.add(Operator.createOperator(expression.substring(i, end)));
+                i = end;
+            } else if ('&' == ch || '|' == ch) {
+                if (i + 1 >= size || expression.charAt(i + 1) != ch) {
+                    throw new IllegalArgumentException("illegal expression, at index " + i + " " + ch);
+                }
+                segments.add(Operator.createOperator(expression.substring(i, i + 2)));
+                i += 2;
+            } else if (isIdentifierStart(ch)) {
+                int end = i + 1;
+                while (end < size && isIdentifierPart(expression.charAt(end))) {
+                    end++;
+                }
+                String word = expression.substring(i, end);
+                i = end;
+
+                String keyword = word.toUpperCase();
+                if ("AND".equals(keyword)) {
+                    segments.add(Operator.AND);
+                } else if ("OR".equals(keyword)) {
+                    segments.add(Operator.OR);
+                } else if ("TRUE".equals(keyword) || "FALSE".equals(keyword)) {
+                    segments.add(new Literal(keyword, Boolean.valueOf(keyword)));
+                } else if ("IN".equals(keyword)) {
+                    segments.add(Operator.IN);
+                    i = readList(expression, i, segments);
+                } else if ("NOT".equals(keyword)) {
+                    int next = skipWhitespace(expression, i);
+                    if (matchWord(expression, next, "IN")) {
+                        segments.add(Operator.NOT_IN);
+                        i = readList(expression, next + 2, segments);
+                    } else {
+                        segments.add(Operator.NOT);
+                    }
+                } else if ("IS".equals(keyword)) {
+                    int next = skipWhitespace(expression, i);
+                    boolean not = matchWord(expression, next, "NOT");
+                    if (not) {
+                        next = skipWhitespace(expression, next + 3);
+                    }
+                    if (!matchWord(expression, next, "NULL")) {
+                        throw new IllegalArgumentException("illegal expression, NULL expected at index " + next);
+                    }
+                    segments.add(not ? Operator.IS_NOT_NULL : Operator.IS_NULL);
+                    i = next + 4;
+                } else if ("NULL".equals(keyword)) {
+                    throw new IllegalArgumentException("illegal expression, use IS NULL at index " + (i - 4));
+                } else {
+                    segments.add(new Operand(word));
+                }
+            } else {
+                throw new IllegalArgumentException("illegal expression, at index " + i + " " + ch);
+            }
+        }
+
+        return segments;
+    }
+
+
+    /**
+     * @return index right after the closing quote, two quotes in a row stand for one
+     */
+    private static int readString(String expression, int start, StringBuilder sb) {
+        int i = start + 1;
+        while (i < expression.length()) {
+            char ch = expression.charAt(i);
+            if ('\'' == ch) {
+                if (i + 1 < expression.length() && '\'' == expression.charAt(i + 1)) {
+                    sb.append(ch);
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            sb.append(ch);
+            i++;
+        }
+        throw new IllegalArgumentException("illegal expression, string not closed at index " + start);
+    }
+
+
+    /**
+     * Reads ('a', 'b', 1) after IN into a single literal.
+     */
+    private static int readList(String expression, int start, List<Op> segments) {
+        int i = skipWhitespace(expression, start);
+        if (i >= expression.length() || expression.charAt(i) != '(') {
+            throw new IllegalArgumentException("illegal expression, ( expected after IN at index " + i);
+        }
+
+        List<Object> values = new ArrayList<Object>();
+        i++;
+        while (true) {
+            i = skipWhitespace(expression, i);
+            if (i >= expression.length()) {
+                throw new IllegalArgumentException("illegal expression, IN list not closed at index " + start);
+            }
+
+            char ch = expression.charAt(i);
+            if ('\'' == ch) {
+                StringBuilder sb = new StringBuilder();
+                i = readString(expression, i, sb);
+                values.add(sb.toString());
+            } else if (isDigit(ch) || '-' == ch || '+' == ch) {
+                int end = i + 1;
+                while (end < expression.length() && isNumberPart(expression.charAt(end))) {
+                    end++;
+                }
+                values.add(parseNumber(expression.substring(i, end), i));
+                i = end;
+            } else {
+                throw new IllegalArgumentException("illegal expression, constant expected in IN list at index " + i);
+            }
+
+            i = skipWhitespace(expression, i);
+            if (i < expression.length() && ',' == expression.charAt(i)) {
+                i++;
+            } else if (i < expression.length() && ')' == expression.charAt(i)) {
+                segments.add(new Literal(values.toString(), values));
+                return i + 1;
+            } else {
+                throw new IllegalArgumentException("illegal expression, , or ) expected in IN list at index " + i);
+            }
+        }
+    }
+
+
+    private static Object parseNumber(String number, int index) {
+        try {
+            if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+                return Double.valueOf(number);
+            }
+            return Long.valueOf(number.startsWith("+") ? number.substring(1) : number);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("illegal number " + number + " at index " + index);
+        }
+    }
+
+
+    private static boolean endsWithOperand(List<Op> segments) {
+        if (segments.isEmpty()) {
+            return false;
+        }
+        Op last = segments.get(segments.size() - 1);
+        return PolishExpr.isOperand(last) || PolishExpr.isRightParenthesis(last) || ((Operator) last).isPostfix();
+    }
+
+
+    private static boolean matchWord(String expression, int index, String word) {
+        int end = index + word.length();
+        return end <= expression.length() && expression.substring(index, end).equalsIgnoreCase(word)
+                && (end == expression.length() || !isIdentifierPart(expression.charAt(end)));
+    }
+
+
+    private static int skipWhitespace(String expression, int index) {
+        while (index < expression.length() && Character.isWhitespace(expression.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+
+    private static boolean isNumberPart(char ch) {
+        return isDigit(ch) || '.' == ch || 'e' == ch || 'E' == ch;
+    }
+
+
+    private static boolean isIdentifierStart(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || '_' == ch;
+    }
+
+
+    private static boolean isIdentifierPart(char ch) {
+        return isIdentifierStart(ch) || isDigit(ch) || '.' == ch;
+    }
+}
@@ -153,6 +153,33 @@ public class Message implements Serializable {
     }
 
 
+    /**
+     * Delay of any milliseconds, counted from when the broker stores the message. It needs timerWheelEnable on the
+     * broker, and is ignored when a delay level is set.
+     */
+    public void setDelayTimeMs(long delayTimeMs) {
+        this.putProperty(MessageConst.PROPERTY_TIMER_DELAY_MS, String.valueOf(delayTimeMs));
+    }
+
+
+    /**
+     * Timestamp in milliseconds at which the message is delivered, see {@link #setDelayTimeMs(long)}.
+     */
+    public void setDeliverTimeMs(long deliverTimeMs) {
+        this.putProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS, String.valueOf(deliverTimeMs));
+    }
+
+
+    public long getDeliverTimeMs() {
+        String t = this.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS);
+        if (t != null) {
+            return Long.parseLong(t);
+        }
+
+        return 0;
+    }
+
+
     public boolean isWaitStoreMsgOK() {
         String result = this.getProperty(MessageConst.PROPERTY_WAIT_STORE_MSG_OK);
         if (null == result)
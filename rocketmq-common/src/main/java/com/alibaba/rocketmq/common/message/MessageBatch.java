@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.common.message;
+
+import com.alibaba.rocketmq.common.MixAll;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Messages of the same topic sent in one request, the body is the encoded messages,
+ * see {@link MessageDecoder#encodeMessages(List)}
+ */
+public class MessageBatch extends Message implements Iterable<Message> {
+    private static final long serialVersionUID = 621335151046335557L;
+
+    private final List<Message> messages;
+
+
+    private MessageBatch(List<Message> messages) {
+        this.messages = messages;
+    }
+
+
+    public byte[] encode() {
+        return MessageDecoder.encodeMessages(messages);
+    }
+
+
+    public Iterator<Message> iterator() {
+        return messages.iterator();
+    }
+
+
+    public int size() {
+        return messages.size();
+    }
+
+
+    public static MessageBatch generateFromList(Collection<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            throw new IllegalArgumentException("the messages of a batch can not be empty");
+        }
+
+        List<Message> messageList = new ArrayList<Message>(messages.size());
+        Message first = null;
+        for (Message message : messages) {
+            if (message.getTopic() == null) {
+                throw new IllegalArgumentException("the topic of the message can not be null");
+            }
+            if (message.getDelayTimeLevel() > 0) {
+                throw new IllegalArgumentException("TimeDelayLevel in not supported for batching");
+            }
+            if (message.getProperty(MessageConst.PROPERTY_TIMER_DELAY_MS) != null
+                    || message.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS) != null) {
+                throw new IllegalArgumentException("DelayTimeMs and DeliverTimeMs are not supported for batching");
+            }
+            if (message.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
+                throw new IllegalArgumentException("Retry Group is not supported for batching");
+            }
+            if (first == null) {
+                first = message;
+            } else {
+                if (!first.getTopic().equals(message.getTopic())) {
+                    throw new IllegalArgumentException("The topic of the messages in one batch should be the same");
+                }
+                if (first.isWaitStoreMsgOK() != message.isWaitStoreMsgOK()) {
+                    throw new IllegalArgumentException("The waitStoreMsgOK of the messages in one batch should the same");
+                }
+            }
+            messageList.add(message);
+        }
+
+        MessageBatch messageBatch = new MessageBatch(messageList);
+        messageBatch.setTopic(first.getTopic());
+        messageBatch.setWaitStoreMsgOK(first.isWaitStoreMsgOK());
+        return messageBatch;
+    }
+}
@@ -42,6 +42,8 @@ public class MessageConst {
     public static final String PROPERTY_MAX_RECONSUME_TIMES = "MAX_RECONSUME_TIMES";
     public static final String PROPERTY_CONSUME_START_TIMESTAMP = "CONSUME_START_TIME";
     public static final String PROPERTY_TRAN_STATE_OFFSET = "TRAN_STATE_OFFSET";
+    public static final String PROPERTY_TIMER_DELAY_MS = "TIMER_DELAY_MS";
+    public static final String PROPERTY_TIMER_DELIVER_MS = "TIMER_DELIVER_MS";
 
 
     public static final String KEY_SEPARATOR = " ";
@@ -72,5 +74,7 @@ public class MessageConst {
         systemKeySet.add(PROPERTY_MAX_RECONSUME_TIMES);
         systemKeySet.add(PROPERTY_CONSUME_START_TIMESTAMP);
         systemKeySet.add(PROPERTY_TRAN_STATE_OFFSET);
+        systemKeySet.add(PROPERTY_TIMER_DELAY_MS);
+        systemKeySet.add(PROPERTY_TIMER_DELIVER_MS);
     }
 }
@@ -41,8 +41,10 @@ public class MessageDecoder {
     public final static Charset CHARSET_UTF8 = Charset.forName("UTF-8");
     public final static int MessageMagicCodePostion = 4;
     public final static int MessageFlagPostion = 16;
+    public final static int MessageQueueOffsetPostion = 20;
     public final static int MessagePhysicOffsetPostion = 28;
     public final static int MessageStoreTimestampPostion = 56;
+    public final static int MessageBodySizePostion = 84;
     public final static int MessageMagicCode = 0xAABBCCDD ^ 1880681586 + 8;
 
 
@@ -361,6 +363,106 @@ public class MessageDecoder {
         }
         return msgExts;
     }
+
+    /**
+     * Encode a message of a batch, only the fields set by the producer are carried, the broker
+     * fills in the rest when it appends the message to the commit log
+     */
+    public static byte[] encodeMessage(Message message) {
+        byte[] body = message.getBody();
+        int bodyLen = body == null ? 0 : body.length;
+        String properties = messageProperties2String(message.getProperties());
+        byte[] propertiesBytes = properties.getBytes(CHARSET_UTF8);
+        // note properties length must not more than Short.MAX
+        short propertiesLength = (short) propertiesBytes.length;
+        int storeSize = 4 // 1 TOTALSIZE
+                + 4 // 2 MAGICCODE
+                + 4 // 3 BODYCRC
+                + 4 // 4 FLAG
+                + 4 + bodyLen // 5 BODY
+                + 2 + propertiesLength; // 6 PROPERTIES
+        ByteBuffer byteBuffer = ByteBuffer.allocate(storeSize);
+        // 1 TOTALSIZE
+        byteBuffer.putInt(storeSize);
+
+        // 2 MAGICCODE
+        byteBuffer.putInt(0);
+
+        // 3 BODYCRC
+        byteBuffer.putInt(0);
+
+        // 4 FLAG
+        byteBuffer.putInt(message.getFlag());
+
+        // 5 BODY
+        byteBuffer.putInt(bodyLen);
+        if (bodyLen > 0) {
+            byteBuffer.put(body);
+        }
+
+        // 6 PROPERTIES
+        byteBuffer.putShort(propertiesLength);
+        byteBuffer.put(propertiesBytes);
+
+        return byteBuffer.array();
+    }
+
+    public static Message decodeMessage(ByteBuffer byteBuffer) {
+        Message message = new Message();
+
+        // 1 TOTALSIZE
+        byteBuffer.getInt();
+
+        // 2 MAGICCODE
+        byteBuffer.getInt();
+
+        // 3 BODYCRC
+        byteBuffer.getInt();
+
+        // 4 FLAG
+        message.setFlag(byteBuffer.getInt());
+
+        // 5 BODY
+        int bodyLen = byteBuffer.getInt();
+        byte[] body = new byte[bodyLen];
+        byteBuffer.get(body);
+        message.setBody(body);
+
+        // 6 PROPERTIES
+        short propertiesLen = byteBuffer.getShort();
+        byte[] propertiesBytes = new byte[propertiesLen];
+        byteBuffer.get(propertiesBytes);
+        message.setProperties(string2messageProperties(new String(propertiesBytes, CHARSET_UTF8)));
+
+        return message;
+    }
+
+    public static byte[] encodeMessages(List<Message> messages) {
+        List<byte[]> encodedMessages = new ArrayList<byte[]>(messages.size());
+        int allSize = 0;
+        for (Message message : messages) {
+            byte[] tmp = encodeMessage(message);
+            encodedMessages.add(tmp);
+            allSize += tmp.length;
+        }
+        byte[] allBytes = new byte[allSize];
+        int pos = 0;
+        for (byte[] bytes : encodedMessages) {
+            System.arraycopy(bytes, 0, allBytes, pos, bytes.length);
+            pos += bytes.length;
+        }
+        return allBytes;
+    }
+
+    public static List<Message> decodeMessages(ByteBuffer byteBuffer) {
+        List<Message> msgs = new ArrayList<Message>();
+        while (byteBuffer.hasRemaining()) {
+            Message msg = decodeMessage(byteBuffer);
+            msgs.add(msg);
+        }
+        return msgs;
+    }
+
     public static final char NAME_VALUE_SEPARATOR = 1;
     public static final char PROPERTY_SEPARATOR = 2;
 
@@ -381,6 +483,118 @@ public class MessageDecoder {
         return sb.toString();
     }
 
+    /**
+     * Reads the properties of a stored message in place, neither the position of the buffer is moved nor the
+     * body is copied, so it works on the slices of a pull result before they are transferred.
+     *
+     * @return null if the buffer does not hold a whole message
+     */
+    public static Map<String, String> decodeProperties(final ByteBuffer byteBuffer) {
+        final int propertiesPosition = propertiesPosition(byteBuffer);
+        if (propertiesPosition < 0) {
+            return null;
+        }
+
+        final int propertiesLength = byteBuffer.getShort(propertiesPosition);
+        Map<String, String> map = new HashMap<String, String>();
+        if (propertiesLength > 0) {
+            byte[] properties = new byte[propertiesLength];
+            ByteBuffer dup = byteBuffer.duplicate();
+            dup.position(propertiesPosition + 2);
+            dup.get(properties);
+
+            int nameStart = 0;
+            int valueStart = -1;
+            for (int i = 0; i < propertiesLength; i++) {
+                if (NAME_VALUE_SEPARATOR == properties[i] && valueStart < 0) {
+                    valueStart = i + 1;
+                } else if (PROPERTY_SEPARATOR == properties[i]) {
+                    if (valueStart > nameStart + 1 && i > valueStart) {
+                        map.put(new String(properties, nameStart, valueStart - 1 - nameStart, CHARSET_UTF8),
+                                new String(properties, valueStart, i - valueStart, CHARSET_UTF8));
+                    }
+                    nameStart = i + 1;
+                    valueStart = -1;
+                }
+            }
+        }
+        return map;
+    }
+
+
+    /**
+     * Looks up one property of a stored message in place, nothing but the value is allocated.
+     *
+     * @return null if absent
+     */
+    public static String peekProperty(final ByteBuffer byteBuffer, final String name) {
+        final int propertiesPosition = propertiesPosition(byteBuffer);
+        if (propertiesPosition < 0) {
+            return null;
+        }
+
+        return peekProperty(byteBuffer, propertiesPosition + 2, propertiesPosition + 2 + byteBuffer.getShort(propertiesPosition),
+                name);
+    }
+
+
+    /**
+     * Looks up one property in the serialized properties between two absolute positions of the buffer.
+     *
+     * @return null if absent
+     */
+    public static String peekProperty(final ByteBuffer byteBuffer, final int start, final int end, final String name) {
+        final byte[] nameBytes = name.getBytes(CHARSET_UTF8);
+        int pos = start;
+        while (pos < end) {
+            boolean matched = pos + nameBytes.length < end && byteBuffer.get(pos + nameBytes.length) == NAME_VALUE_SEPARATOR;
+            for (int i = 0; matched && i < nameBytes.length; i++) {
+                matched = byteBuffer.get(pos + i) == nameBytes[i];
+            }
+
+            int next = pos;
+            while (next < end && byteBuffer.get(next) != PROPERTY_SEPARATOR) {
+                next++;
+            }
+
+            if (matched) {
+                int valueStart = pos + nameBytes.length + 1;
+                byte[] value = new byte[next - valueStart];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = byteBuffer.get(valueStart + i);
+                }
+                return new String(value, CHARSET_UTF8);
+            }
+            pos = next + 1;
+        }
+        return null;
+    }
+
+
+    /**
+     * @return absolute position of the properties length, or -1
+     */
+    private static int propertiesPosition(final ByteBuffer byteBuffer) {
+        final int base = byteBuffer.position();
+        if (byteBuffer.limit() - base < MessageBodySizePostion + 4) {
+            return -1;
+        }
+
+        final int bodyLength = byteBuffer.getInt(base + MessageBodySizePostion);
+        final int topicLengthPosition = base + MessageBodySizePostion + 4 + bodyLength;
+        if (bodyLength < 0 || topicLengthPosition >= byteBuffer.limit()) {
+            return -1;
+        }
+
+        final int propertiesPosition = topicLengthPosition + 1 + byteBuffer.get(topicLengthPosition);
+        if (propertiesPosition + 2 > byteBuffer.limit() || byteBuffer.getShort(propertiesPosition) < 0
+                || propertiesPosition + 2 + byteBuffer.getShort(propertiesPosition) > byteBuffer.limit()) {
+            return -1;
+        }
+        return propertiesPosition;
+    }
+
+
     public static Map<String, String> string2messageProperties(final String properties) {
         Map<String, String> map = new HashMap<String, String>();
         if (properties != null) {
@@ -45,6 +45,7 @@ public class CreateTopicRequestHeader implements CommandCustomHeader {
     private Integer topicSysFlag;
     @CFNotNull
     private Boolean order = false;
+    private Long retentionTime;
 
 
     @Override
@@ -140,4 +141,14 @@ public class CreateTopicRequestHeader implements CommandCustomHeader {
     public void setOrder(Boolean order) {
         this.order = order;
     }
+
+
+    public Long getRetentionTime() {
+        return retentionTime;
+    }
+
+
+    public void setRetentionTime(Long retentionTime) {
+        this.retentionTime = retentionTime;
+    }
 }
@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.common.protocol.header;
+
+import com.alibaba.rocketmq.remoting.CommandCustomHeader;
+import com.alibaba.rocketmq.remoting.annotation.CFNullable;
+import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
+
+
+/**
+ * Read load of the broker, so consumers weigh slaves they have not pulled from yet.
+ */
+public class HeartbeatResponseHeader implements CommandCustomHeader {
+    // bytes the broker is behind its master, -1 if not known
+    @CFNullable
+    private Long replicaLag;
+    // pull requests waiting in the broker
+    @CFNullable
+    private Integer pullLoad;
+
+
+    @Override
+    public void checkFields() throws RemotingCommandException {
+    }
+
+
+    public Long getReplicaLag() {
+        return replicaLag;
+    }
+
+
+    public void setReplicaLag(Long replicaLag) {
+        this.replicaLag = replicaLag;
+    }
+
+
+    public Integer getPullLoad() {
+        return pullLoad;
+    }
+
+
+    public void setPullLoad(Integer pullLoad) {
+        this.pullLoad = pullLoad;
+    }
+}
@@ -50,6 +50,8 @@ public class PullMessageRequestHeader implements CommandCustomHeader {
     private String subscription;
     @CFNotNull
     private Long subVersion;
+    @CFNullable
+    private String expressionType;
 
 
     @Override
@@ -155,4 +157,14 @@ public class PullMessageRequestHeader implements CommandCustomHeader {
     public void setSubVersion(Long subVersion) {
         this.subVersion = subVersion;
     }
+
+
+    public String getExpressionType() {
+        return expressionType;
+    }
+
+
+    public void setExpressionType(String expressionType) {
+        this.expressionType = expressionType;
+    }
 }
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.common.protocol.header;
+
+import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
+import com.alibaba.rocketmq.remoting.protocol.CommandCustomHeaderCodec;
+
+import java.nio.ByteBuffer;
+
+
+public class PullMessageRequestHeaderCodec extends CommandCustomHeaderCodec<PullMessageRequestHeader> {
+    // consumerGroup to expressionType, the first RequiredFieldCount are in every version
+    private static final int FieldCount = 11;
+    private static final int RequiredFieldCount = 10;
+
+    public PullMessageRequestHeaderCodec() {
+        super(PullMessageRequestHeader.class);
+    }
+
+
+    @Override
+    public byte[] encode(final PullMessageRequestHeader header) {
+        final byte[] consumerGroup = stringBytes(header.getConsumerGroup());
+        final byte[] topic = stringBytes(header.getTopic());
+        final byte[] subscription = stringBytes(header.getSubscription());
+        final byte[] expressionType = stringBytes(header.getExpressionType());
+
+        ByteBuffer buffer = ByteBuffer.allocate(stringLength(consumerGroup) + stringLength(topic)
+                + stringLength(subscription) + stringLength(expressionType) + 3 * (1 + 4) + 4 * (1 + 8) + 1);
+        putFieldCount(buffer, FieldCount);
+        putString(buffer, consumerGroup);
+        putString(buffer, topic);
+        putInteger(buffer, header.getQueueId());
+        putLong(buffer, header.getQueueOffset());
+        putInteger(buffer, header.getMaxMsgNums());
+        putInteger(buffer, header.getSysFlag());
+        putLong(buffer, header.getCommitOffset());
+        putLong(buffer, header.getSuspendTimeoutMillis());
+        putString(buffer, subscription);
+        putLong(buffer, header.getSubVersion());
+        putString(buffer, expressionType);
+        return buffer.array();
+    }
+
+
+    @Override
+    public PullMessageRequestHeader decode(final ByteBuffer buffer) throws RemotingCommandException {
+        PullMessageRequestHeader header = new PullMessageRequestHeader();
+        int fieldCount = getFieldCount(buffer);
+        if (fieldCount < RequiredFieldCount) {
+            throw new RemotingCommandException("the binary custom header has " + fieldCount + " fields only");
+        }
+        header.setConsumerGroup(getString(buffer));
+        header.setTopic(getString(buffer));
+        header.setQueueId(getInteger(buffer));
+        header.setQueueOffset(getLong(buffer));
+        header.setMaxMsgNums(getInteger(buffer));
+        header.setSysFlag(getInteger(buffer));
+        header.setCommitOffset(getLong(buffer));
+        header.setSuspendTimeoutMillis(getLong(buffer));
+        header.setSubscription(getString(buffer));
+        header.setSubVersion(getLong(buffer));
+        if (fieldCount > 10) {
+            header.setExpressionType(getString(buffer));
+        }
+
+        checkNotNull(header.getConsumerGroup(), "consumerGroup");
+        checkNotNull(header.getTopic(), "topic");
+        checkNotNull(header.getQueueId(), "queueId");
+        checkNotNull(header.getQueueOffset(), "queueOffset");
+        checkNotNull(header.getMaxMsgNums(), "maxMsgNums");
+        checkNotNull(header.getSysFlag(), "sysFlag");
+        checkNotNull(header.getCommitOffset(), "commitOffset");
+        checkNotNull(header.getSuspendTimeoutMillis(), "suspendTimeoutMillis");
+        checkNotNull(header.getSubVersion(), "subVersion");
+        return header;
+    }
+}
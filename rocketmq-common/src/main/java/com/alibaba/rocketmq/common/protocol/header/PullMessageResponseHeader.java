@@ -22,6 +22,7 @@ package com.alibaba.rocketmq.common.protocol.header;
 
 import com.alibaba.rocketmq.remoting.CommandCustomHeader;
 import com.alibaba.rocketmq.remoting.annotation.CFNotNull;
+import com.alibaba.rocketmq.remoting.annotation.CFNullable;
 import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
 
 
@@ -37,6 +38,12 @@ public class PullMessageResponseHeader implements CommandCustomHeader {
     private Long minOffset;
     @CFNotNull
     private Long maxOffset;
+    // bytes the broker is behind its master, -1 if not known
+    @CFNullable
+    private Long replicaLag;
+    // pull requests waiting in the broker
+    @CFNullable
+    private Integer pullLoad;
 
 
     @Override
@@ -82,4 +89,24 @@ public class PullMessageResponseHeader implements CommandCustomHeader {
     public void setSuggestWhichBrokerId(Long suggestWhichBrokerId) {
         this.suggestWhichBrokerId = suggestWhichBrokerId;
     }
+
+
+    public Long getReplicaLag() {
+        return replicaLag;
+    }
+
+
+    public void setReplicaLag(Long replicaLag) {
+        this.replicaLag = replicaLag;
+    }
+
+
+    public Integer getPullLoad() {
+        return pullLoad;
+    }
+
+
+    public void setPullLoad(Integer pullLoad) {
+        this.pullLoad = pullLoad;
+    }
 }
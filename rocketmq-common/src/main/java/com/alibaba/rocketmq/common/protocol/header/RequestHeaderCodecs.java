@@ -0,0 +1,34 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.common.protocol.header;
+
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.remoting.protocol.CommandCustomHeaderCodecRegistry;
+
+
+/**
+ * Binary codecs of the headers on the send and pull paths, registered by both clients and brokers.
+ */
+public class RequestHeaderCodecs {
+
+    public static void registerAll() {
+        SendMessageRequestHeaderV2Codec sendMessageCodec = new SendMessageRequestHeaderV2Codec();
+        CommandCustomHeaderCodecRegistry.register(RequestCode.SEND_MESSAGE_V2, sendMessageCodec);
+        CommandCustomHeaderCodecRegistry.register(RequestCode.SEND_BATCH_MESSAGE, sendMessageCodec);
+        CommandCustomHeaderCodecRegistry.register(RequestCode.PULL_MESSAGE, new PullMessageRequestHeaderCodec());
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.common.protocol.header;
+
+import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
+import com.alibaba.rocketmq.remoting.protocol.CommandCustomHeaderCodec;
+
+import java.nio.ByteBuffer;
+
+
+public class SendMessageRequestHeaderV2Codec extends CommandCustomHeaderCodec<SendMessageRequestHeaderV2> {
+    // a to l, the first RequiredFieldCount are in every version
+    private static final int FieldCount = 12;
+    private static final int RequiredFieldCount = 8;
+
+    public SendMessageRequestHeaderV2Codec() {
+        super(SendMessageRequestHeaderV2.class);
+    }
+
+
+    @Override
+    public byte[] encode(final SendMessageRequestHeaderV2 header) {
+        final byte[] producerGroup = stringBytes(header.getA());
+        final byte[] topic = stringBytes(header.getB());
+        final byte[] defaultTopic = stringBytes(header.getC());
+        final byte[] properties = stringBytes(header.getI());
+
+        ByteBuffer buffer = ByteBuffer.allocate(stringLength(producerGroup) + stringLength(topic)
+                + stringLength(defaultTopic) + stringLength(properties) + 6 * (1 + 4) + (1 + 8) + 1 + 1);
+        putFieldCount(buffer, FieldCount);
+        putString(buffer, producerGroup);
+        putString(buffer, topic);
+        putString(buffer, defaultTopic);
+        putInteger(buffer, header.getD());
+        putInteger(buffer, header.getE());
+        putInteger(buffer, header.getF());
+        putLong(buffer, header.getG());
+        putInteger(buffer, header.getH());
+        putString(buffer, properties);
+        putInteger(buffer, header.getJ());
+        buffer.put(header.isK() ? (byte) 1 : (byte) 0);
+        putInteger(buffer, header.getL());
+        return buffer.array();
+    }
+
+
+    @Override
+    public SendMessageRequestHeaderV2 decode(final ByteBuffer buffer) throws RemotingCommandException {
+        SendMessageRequestHeaderV2 header = new SendMessageRequestHeaderV2();
+        int fieldCount = getFieldCount(buffer);
+        if (fieldCount < RequiredFieldCount) {
+            throw new RemotingCommandException("the binary custom header has " + fieldCount + " fields only");
+        }
+        header.setA(getString(buffer));
+        header.setB(getString(buffer));
+        header.setC(getString(buffer));
+        header.setD(getInteger(buffer));
+        header.setE(getInteger(buffer));
+        header.setF(getInteger(buffer));
+        header.setG(getLong(buffer));
+        header.setH(getInteger(buffer));
+        if (fieldCount > 8) {
+            header.setI(getString(buffer));
+        }
+        if (fieldCount > 9) {
+            header.setJ(getInteger(buffer));
+        }
+        if (fieldCount > 10) {
+            header.setK(buffer.get() == 1);
+        }
+        if (fieldCount > 11) {
+            header.setL(getInteger(buffer));
+        }
+
+        checkNotNull(header.getA(), "a");
+        checkNotNull(header.getB(), "b");
+        checkNotNull(header.getC(), "c");
+        checkNotNull(header.getD(), "d");
+        checkNotNull(header.getE(), "e");
+        checkNotNull(header.getF(), "f");
+        checkNotNull(header.getG(), "g");
+        checkNotNull(header.getH(), "h");
+        return header;
+    }
+}
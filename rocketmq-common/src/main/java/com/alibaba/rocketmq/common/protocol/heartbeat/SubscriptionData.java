@@ -21,6 +21,7 @@
 package com.alibaba.rocketmq.common.protocol.heartbeat;
 
 import com.alibaba.fastjson.annotation.JSONField;
+import com.alibaba.rocketmq.common.filter.ExpressionType;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -37,6 +38,7 @@ public class SubscriptionData implements Comparable<SubscriptionData> {
     private Set<String> tagsSet = new HashSet<String>();
     private Set<Integer> codeSet = new HashSet<Integer>();
     private long subVersion = System.currentTimeMillis();
+    private String expressionType = ExpressionType.TAG;
 
     @JSONField(serialize = false)
     private String filterClassSource;
@@ -111,6 +113,16 @@ public class SubscriptionData implements Comparable<SubscriptionData> {
     }
 
 
+    public String getExpressionType() {
+        return expressionType;
+    }
+
+
+    public void setExpressionType(String expressionType) {
+        this.expressionType = expressionType;
+    }
+
+
     public boolean isClassFilterMode() {
         return classFilterMode;
     }
@@ -127,6 +139,7 @@ public class SubscriptionData implements Comparable<SubscriptionData> {
         int result = 1;
         result = prime * result + (classFilterMode ? 1231 : 1237);
         result = prime * result + ((codeSet == null) ? 0 : codeSet.hashCode());
+        result = prime * result + ((expressionType == null) ? 0 : expressionType.hashCode());
         result = prime * result + ((subString == null) ? 0 : subString.hashCode());
         result = prime * result + ((tagsSet == null) ? 0 : tagsSet.hashCode());
         result = prime * result + ((topic == null) ? 0 : topic.hashCode());
@@ -150,6 +163,11 @@ public class SubscriptionData implements Comparable<SubscriptionData> {
                 return false;
         } else if (!codeSet.equals(other.codeSet))
             return false;
+        if (expressionType == null) {
+            if (other.expressionType != null)
+                return false;
+        } else if (!expressionType.equals(other.expressionType))
+            return false;
         if (subString == null) {
             if (other.subString != null)
                 return false;
@@ -175,7 +193,7 @@ public class SubscriptionData implements Comparable<SubscriptionData> {
     public String toString() {
         return "SubscriptionData [classFilterMode=" + classFilterMode + ", topic=" + topic + ", subString="
                 + subString + ", tagsSet=" + tagsSet + ", codeSet=" + codeSet + ", subVersion=" + subVersion
-                + "]";
+                + ", expressionType=" + expressionType + "]";
     }
 
 
@@ -28,6 +28,11 @@ public class TopicSysFlag {
 
     private final static int FLAG_UNIT_SUB = 0x1 << 1;
 
+    /**
+     * Only the newest message per key is retained in the compacted view.
+     */
+    private final static int FLAG_COMPACTION = 0x1 << 2;
+
 
     public static int buildSysFlag(final boolean unit, final boolean hasUnitSub) {
         int sysFlag = 0;
@@ -74,6 +79,21 @@ public class TopicSysFlag {
     }
 
 
+    public static int setCompactionFlag(final int sysFlag) {
+        return sysFlag | FLAG_COMPACTION;
+    }
+
+
+    public static int clearCompactionFlag(final int sysFlag) {
+        return sysFlag & (~FLAG_COMPACTION);
+    }
+
+
+    public static boolean hasCompactionFlag(final int sysFlag) {
+        return (sysFlag & FLAG_COMPACTION) == FLAG_COMPACTION;
+    }
+
+
     public static void main(String[] args) {
         System.out.println(0x1 << 0);
         System.out.println(0x1 << 1);
@@ -46,6 +46,28 @@ public class PolishExprTest {
     }
 
 
+    @Test
+    public void testReversePolish_Precedence() {
+        // every operator of higher or equal priority is reduced before a new one is pushed
+        Assert.assertEquals("a b && c ||", toString(PolishExpr.reversePolish("a&&b||c")));
+        Assert.assertEquals("a b c && ||", toString(PolishExpr.reversePolish("a||b&&c")));
+        Assert.assertEquals("a b && c && d ||", toString(PolishExpr.reversePolish("a&&b&&c||d")));
+        Assert.assertEquals("a b c || && d ||", toString(PolishExpr.reversePolish("a&&(b||c)||d")));
+    }
+
+
+    private static String toString(List<Op> ops) {
+        StringBuilder sb = new StringBuilder();
+        for (Op op : ops) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(op.getSymbol());
+        }
+        return sb.toString();
+    }
+
+
     @Test
     public void testReversePolish_Performance() {
         // prepare
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.common.filter;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class Sql92ExpressionTest {
+
+    private Map<String, String> props(String... kvs) {
+        Map<String, String> map = new HashMap<String, String>();
+        for (int i = 0; i < kvs.length; i += 2) {
+            map.put(kvs[i], kvs[i + 1]);
+        }
+        return map;
+    }
+
+
+    @Test
+    public void test_evaluate() {
+        Sql92Expression expr = Sql92Expression.compile("a > 5 AND region IN ('eu','us')");
+        assertTrue(expr.evaluate(props("a", "6", "region", "eu")));
+        assertFalse(expr.evaluate(props("a", "5", "region", "eu")));
+        assertFalse(expr.evaluate(props("a", "6", "region", "cn")));
+        assertFalse(expr.evaluate(props("region", "eu")));
+        assertFalse(expr.evaluate(props("a", "abc", "region", "us")));
+
+        // AND binds tighter than OR
+        expr = Sql92Expression.compile("a = 1 AND b = 2 OR c = 3");
+        assertTrue(expr.evaluate(props("c", "3")));
+        assertTrue(expr.evaluate(props("a", "1", "b", "2")));
+        assertFalse(expr.evaluate(props("a", "1", "c", "4")));
+
+        expr = Sql92Expression.compile("NOT (a <> 'x' OR b IS NULL) and c >= -1.5 && d is not null");
+        assertTrue(expr.evaluate(props("a", "x", "b", "0", "c", "-1.5", "d", "")));
+        assertFalse(expr.evaluate(props("a", "x", "c", "0", "d", "")));
+
+        expr = Sql92Expression.compile("flag = TRUE OR k NOT IN (1, 2)");
+        assertTrue(expr.evaluate(props("flag", "true")));
+        assertTrue(expr.evaluate(props("k", "3")));
+        assertFalse(expr.evaluate(props("k", "2")));
+        assertFalse(expr.evaluate(null));
+    }
+
+
+    @Test
+    public void test_compile_error() {
+        String[] illegals = {"", "a", "a >", "a = 1 AND", "(a = 1", "a IN 1", "a = 'x", "a > TRUE", "1 AND a = 1",
+            "a = NULL"};
+        for (String illegal : illegals) {
+            try {
+                Sql92Expression.compile(illegal);
+                fail(illegal);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
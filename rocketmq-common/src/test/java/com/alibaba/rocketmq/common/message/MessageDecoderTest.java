@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.common.message;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class MessageDecoderTest {
+
+    @Test
+    public void test_decodeProperties_in_place() throws Exception {
+        MessageExt msg = new MessageExt();
+        msg.setTopic("TopicTest");
+        msg.setBody("hello".getBytes());
+        msg.setQueueOffset(123);
+        msg.setKeys("k1");
+        msg.putUserProperty("region", "eu");
+        msg.setBornHost(new InetSocketAddress("127.0.0.1", 8000));
+        msg.setStoreHost(new InetSocketAddress("127.0.0.1", 10911));
+        byte[] data = MessageDecoder.encode(msg, false);
+
+        // a message in the middle of a mapped file, as a pull result slice
+        ByteBuffer bb = ByteBuffer.allocateDirect(data.length + 16);
+        bb.position(8);
+        bb.put(data);
+        bb.position(8);
+        bb.limit(8 + data.length);
+        ByteBuffer slice = bb.slice();
+
+        Map<String, String> properties = MessageDecoder.decodeProperties(slice);
+        assertEquals(msg.getProperties(), properties);
+        assertEquals("eu", MessageDecoder.peekProperty(slice, "region"));
+        assertEquals("k1", MessageDecoder.peekProperty(slice, MessageConst.PROPERTY_KEYS));
+        assertNull(MessageDecoder.peekProperty(slice, "regio"));
+        assertNull(MessageDecoder.peekProperty(slice, "absent"));
+        assertEquals(123, slice.getLong(MessageDecoder.MessageQueueOffsetPostion));
+        assertEquals(0, slice.position());
+
+        MessageExt decoded = MessageDecoder.decode(slice);
+        assertEquals(msg.getProperties(), decoded.getProperties());
+
+        // truncated
+        slice.position(0);
+        slice.limit(data.length - 1);
+        assertNull(MessageDecoder.decodeProperties(slice));
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.common.protocol.header;
+
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.remoting.netty.NettyDecoder;
+import com.alibaba.rocketmq.remoting.netty.NettyEncoder;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class BinaryHeaderNegotiationTest {
+
+    @BeforeClass
+    public static void registerCodecs() {
+        RequestHeaderCodecs.registerAll();
+    }
+
+
+    private static EmbeddedChannel buildChannel(final boolean binaryHeaderEnable) {
+        return new EmbeddedChannel(new NettyEncoder(binaryHeaderEnable), new NettyDecoder(binaryHeaderEnable));
+    }
+
+
+    // writes the command out of one end and reads it in the other
+    private static RemotingCommand transfer(final EmbeddedChannel from, final EmbeddedChannel to, final RemotingCommand cmd) {
+        assertTrue(from.writeOutbound(cmd));
+        assertTrue(to.writeInbound(from.readOutbound()));
+        return (RemotingCommand) to.readInbound();
+    }
+
+
+    private static RemotingCommand buildPullRequest() {
+        PullMessageRequestHeader requestHeader = new PullMessageRequestHeader();
+        requestHeader.setConsumerGroup("ConsumerGroup");
+        requestHeader.setTopic("TopicTest");
+        requestHeader.setQueueId(1);
+        requestHeader.setQueueOffset(100L);
+        requestHeader.setMaxMsgNums(32);
+        requestHeader.setSysFlag(0);
+        requestHeader.setCommitOffset(90L);
+        requestHeader.setSuspendTimeoutMillis(15000L);
+        requestHeader.setSubVersion(1L);
+        return RemotingCommand.createRequestCommand(RequestCode.PULL_MESSAGE, requestHeader);
+    }
+
+
+    // a request, its response, and a request after it
+    private static RemotingCommand exchange(final EmbeddedChannel client, final EmbeddedChannel server) throws Exception {
+        RemotingCommand request = transfer(client, server, buildPullRequest());
+        assertFalse(request.isBinaryHeader());
+        assertEquals("ConsumerGroup", request.getExtFields().get("consumerGroup"));
+        transfer(server, client, RemotingCommand.createResponseCommand(ResponseCode.SUCCESS, null));
+
+        request = transfer(client, server, buildPullRequest());
+        PullMessageRequestHeader header = (PullMessageRequestHeader) request.decodeCommandCustomHeader(PullMessageRequestHeader.class);
+        assertEquals("ConsumerGroup", header.getConsumerGroup());
+        assertEquals(Long.valueOf(100L), header.getQueueOffset());
+        return request;
+    }
+
+
+    @Test
+    public void test_clientEnabledOnly() throws Exception {
+        EmbeddedChannel client = buildChannel(true);
+        EmbeddedChannel server = buildChannel(false);
+        assertFalse(exchange(client, server).isBinaryHeader());
+        assertNull(client.attr(NettyDecoder.PEER_BINARY_HEADER_VERSION).get());
+        assertNull(server.attr(NettyDecoder.PEER_BINARY_HEADER_VERSION).get());
+    }
+
+
+    @Test
+    public void test_serverEnabledOnly() throws Exception {
+        EmbeddedChannel client = buildChannel(false);
+        EmbeddedChannel server = buildChannel(true);
+        assertFalse(exchange(client, server).isBinaryHeader());
+        assertNull(client.attr(NettyDecoder.PEER_BINARY_HEADER_VERSION).get());
+        assertNull(server.attr(NettyDecoder.PEER_BINARY_HEADER_VERSION).get());
+    }
+
+
+    @Test
+    public void test_bothEnabled() throws Exception {
+        EmbeddedChannel client = buildChannel(true);
+        EmbeddedChannel server = buildChannel(true);
+        assertTrue(exchange(client, server).isBinaryHeader());
+        assertEquals(Integer.valueOf(RemotingCommand.BINARY_HEADER_VERSION), client.attr(NettyDecoder.PEER_BINARY_HEADER_VERSION).get());
+        assertEquals(Integer.valueOf(RemotingCommand.BINARY_HEADER_VERSION), server.attr(NettyDecoder.PEER_BINARY_HEADER_VERSION).get());
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.common.protocol.header;
+
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class RequestHeaderCodecsTest {
+
+    @BeforeClass
+    public static void registerCodecs() {
+        RequestHeaderCodecs.registerAll();
+    }
+
+
+    // what NettyDecoder gets, without the length
+    private static RemotingCommand transfer(final RemotingCommand request) {
+        ByteBuffer buffer = request.encode();
+        buffer.getInt();
+        return RemotingCommand.decode(buffer.slice());
+    }
+
+
+    private SendMessageRequestHeaderV2 buildSendMessageRequestHeader() {
+        SendMessageRequestHeaderV2 header = new SendMessageRequestHeaderV2();
+        header.setA("ProducerGroup");
+        header.setB("TopicTest");
+        header.setC("TBW102");
+        header.setD(4);
+        header.setE(3);
+        header.setF(0);
+        header.setG(1234567890123L);
+        header.setH(0);
+        header.setI("TAGS\u0001TagA\u0002KEYS\u0001订单");
+        header.setK(true);
+        return header;
+    }
+
+
+    @Test
+    public void test_sendMessageHeader() throws Exception {
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.SEND_MESSAGE_V2, buildSendMessageRequestHeader());
+        request.setBody(new byte[]{1, 2, 3});
+        request.markBinaryHeaderSupported();
+        request.tryBinaryHeader(RemotingCommand.BINARY_HEADER_VERSION);
+
+        RemotingCommand decoded = transfer(request);
+        assertTrue(decoded.isBinaryHeader());
+        assertTrue(decoded.isBinaryHeaderSupported());
+
+        SendMessageRequestHeaderV2 header =
+                (SendMessageRequestHeaderV2) decoded.decodeCommandCustomHeader(SendMessageRequestHeaderV2.class);
+        assertEquals("ProducerGroup", header.getA());
+        assertEquals("TopicTest", header.getB());
+        assertEquals("TBW102", header.getC());
+        assertEquals(Integer.valueOf(3), header.getE());
+        assertEquals(Long.valueOf(1234567890123L), header.getG());
+        assertEquals("TAGS\u0001TagA\u0002KEYS\u0001订单", header.getI());
+        assertNull(header.getJ());
+        assertTrue(header.isK());
+        assertNull(header.getL());
+        assertEquals(3, decoded.getBody().length);
+
+        // readers of extFields still see the fields
+        assertEquals("TopicTest", decoded.getExtFields().get("b"));
+    }
+
+
+    @Test
+    public void test_peerNotSupported() throws Exception {
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.SEND_MESSAGE_V2, buildSendMessageRequestHeader());
+        request.tryBinaryHeader(0);
+
+        RemotingCommand decoded = transfer(request);
+        assertFalse(decoded.isBinaryHeader());
+        assertEquals("TopicTest", decoded.getExtFields().get("b"));
+    }
+
+
+    private PullMessageRequestHeader buildPullMessageRequestHeader() {
+        PullMessageRequestHeader requestHeader = new PullMessageRequestHeader();
+        requestHeader.setConsumerGroup("ConsumerGroup");
+        requestHeader.setTopic("TopicTest");
+        requestHeader.setQueueId(1);
+        requestHeader.setQueueOffset(100L);
+        requestHeader.setMaxMsgNums(32);
+        requestHeader.setSysFlag(3);
+        requestHeader.setCommitOffset(90L);
+        requestHeader.setSuspendTimeoutMillis(15000L);
+        requestHeader.setSubVersion(1L);
+        return requestHeader;
+    }
+
+
+    @Test
+    public void test_pullMessageHeader() throws Exception {
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.PULL_MESSAGE, buildPullMessageRequestHeader());
+        request.tryBinaryHeader(RemotingCommand.BINARY_HEADER_VERSION);
+
+        RemotingCommand decoded = transfer(request);
+        assertTrue(decoded.isBinaryHeader());
+        PullMessageRequestHeader header = (PullMessageRequestHeader) decoded.decodeCommandCustomHeader(PullMessageRequestHeader.class);
+        assertEquals("ConsumerGroup", header.getConsumerGroup());
+        assertEquals(Long.valueOf(100L), header.getQueueOffset());
+        assertEquals(Long.valueOf(15000L), header.getSuspendTimeoutMillis());
+        assertNull(header.getSubscription());
+        assertNull(header.getExpressionType());
+    }
+
+
+    @Test
+    public void test_fieldCount() throws Exception {
+        PullMessageRequestHeaderCodec codec = new PullMessageRequestHeaderCodec();
+        PullMessageRequestHeader requestHeader = buildPullMessageRequestHeader();
+        requestHeader.setExpressionType("TAG");
+        byte[] bytes = codec.encode(requestHeader);
+        assertEquals(11, bytes[0]);
+
+        // a peer knowing a field more writes it last
+        ByteBuffer newer = ByteBuffer.allocate(bytes.length + 1 + 8);
+        newer.put(bytes).put((byte) 1).putLong(7L);
+        newer.put(0, (byte) 12);
+        newer.flip();
+        PullMessageRequestHeader header = codec.decode(newer);
+        assertEquals("TAG", header.getExpressionType());
+        assertEquals(Long.valueOf(1L), header.getSubVersion());
+
+        // a peer not knowing expressionType stops before it
+        requestHeader.setExpressionType(null);
+        bytes = codec.encode(requestHeader);
+        ByteBuffer older = ByteBuffer.wrap(bytes, 0, bytes.length - 4);
+        older.put(0, (byte) 10);
+        header = codec.decode(older);
+        assertNull(header.getExpressionType());
+        assertEquals(Long.valueOf(1L), header.getSubVersion());
+    }
+}
@@ -41,6 +41,8 @@ public class NettyClientConfig {
     private int clientSocketRcvBufSize = NettySystemConfig.socketRcvbufSize;
     private boolean clientPooledByteBufAllocatorEnable = false;
     private boolean clientCloseSocketIfTimeout = false;
+    // write request headers with their binary codec to servers that read them, see NettyEncoder
+    private boolean clientBinaryHeaderEnable = true;
 
     public boolean isClientCloseSocketIfTimeout() {
         return clientCloseSocketIfTimeout;
@@ -148,4 +150,14 @@ public class NettyClientConfig {
     public void setClientPooledByteBufAllocatorEnable(boolean clientPooledByteBufAllocatorEnable) {
         this.clientPooledByteBufAllocatorEnable = clientPooledByteBufAllocatorEnable;
     }
+
+
+    public boolean isClientBinaryHeaderEnable() {
+        return clientBinaryHeaderEnable;
+    }
+
+
+    public void setClientBinaryHeaderEnable(boolean clientBinaryHeaderEnable) {
+        this.clientBinaryHeaderEnable = clientBinaryHeaderEnable;
+    }
 }
@@ -22,6 +22,7 @@ import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,10 +37,20 @@ public class NettyDecoder extends LengthFieldBasedFrameDecoder {
     private static final Logger log = LoggerFactory.getLogger(RemotingHelper.RemotingLogName);
     private static final int FRAME_MAX_LENGTH = //
             Integer.parseInt(System.getProperty("com.rocketmq.remoting.frameMaxLength", "16777216"));
+    // the binary custom header version the peer announced, unset until it does
+    public static final AttributeKey<Integer> PEER_BINARY_HEADER_VERSION = AttributeKey.valueOf("peerBinaryHeaderVersion");
+
+    private final boolean binaryHeaderEnable;
 
 
     public NettyDecoder() {
+        this(false);
+    }
+
+
+    public NettyDecoder(final boolean binaryHeaderEnable) {
         super(FRAME_MAX_LENGTH, 0, 4, 0, 4);
+        this.binaryHeaderEnable = binaryHeaderEnable;
     }
 
 
@@ -54,7 +65,12 @@ public class NettyDecoder extends LengthFieldBasedFrameDecoder {
 
             ByteBuffer byteBuffer = frame.nioBuffer();
 
-            return RemotingCommand.decode(byteBuffer);
+            RemotingCommand cmd = RemotingCommand.decode(byteBuffer);
+            if (this.binaryHeaderEnable && cmd.getBinaryHeaderVersion() > 0
+                    && null == ctx.channel().attr(PEER_BINARY_HEADER_VERSION).get()) {
+                ctx.channel().attr(PEER_BINARY_HEADER_VERSION).set(cmd.getBinaryHeaderVersion());
+            }
+            return cmd;
         } catch (Exception e) {
             log.error("decode exception, " + RemotingHelper.parseChannelRemoteAddr(ctx.channel()), e);
             RemotingUtil.closeChannel(ctx.channel());
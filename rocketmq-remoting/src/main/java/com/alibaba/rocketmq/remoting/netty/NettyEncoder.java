@@ -35,10 +35,31 @@ import java.nio.ByteBuffer;
 public class NettyEncoder extends MessageToByteEncoder<RemotingCommand> {
     private static final Logger log = LoggerFactory.getLogger(RemotingHelper.RemotingLogName);
 
+    private final boolean binaryHeaderEnable;
+
+
+    public NettyEncoder() {
+        this(false);
+    }
+
+
+    /**
+     * @param binaryHeaderEnable announce to the peer that binary custom headers are read, and write them once
+     *                           the peer announced the same
+     */
+    public NettyEncoder(final boolean binaryHeaderEnable) {
+        this.binaryHeaderEnable = binaryHeaderEnable;
+    }
+
     @Override
     public void encode(ChannelHandlerContext ctx, RemotingCommand remotingCommand, ByteBuf out)
             throws Exception {
         try {
+            if (this.binaryHeaderEnable) {
+                remotingCommand.markBinaryHeaderSupported();
+            }
+            Integer peerVersion = ctx.channel().attr(NettyDecoder.PEER_BINARY_HEADER_VERSION).get();
+            remotingCommand.tryBinaryHeader(this.binaryHeaderEnable && peerVersion != null ? peerVersion : 0);
             ByteBuffer header = remotingCommand.encodeHeader();
             out.writeBytes(header);
             byte[] body = remotingCommand.getBody();
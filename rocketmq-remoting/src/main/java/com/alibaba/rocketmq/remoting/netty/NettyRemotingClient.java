@@ -149,8 +149,8 @@ public class NettyRemotingClient extends NettyRemotingAbstract implements Remoti
                     public void initChannel(SocketChannel ch) throws Exception {
                         ch.pipeline().addLast(//
                                 defaultEventExecutorGroup, //
-                                new NettyEncoder(), //
-                                new NettyDecoder(), //
+                                new NettyEncoder(nettyClientConfig.isClientBinaryHeaderEnable()), //
+                                new NettyDecoder(nettyClientConfig.isClientBinaryHeaderEnable()), //
                                 new IdleStateHandler(0, 0, nettyClientConfig.getClientChannelMaxIdleTimeSeconds()), //
                                 new NettyConnetManageHandler(), //
                                 new NettyClientHandler());
@@ -175,8 +175,8 @@ public class NettyRemotingServer extends NettyRemotingAbstract implements Remoti
                                 ch.pipeline().addLast(
                                         //
                                         defaultEventExecutorGroup, //
-                                        new NettyEncoder(), //
-                                        new NettyDecoder(), //
+                                        new NettyEncoder(nettyServerConfig.isServerBinaryHeaderEnable()), //
+                                        new NettyDecoder(nettyServerConfig.isServerBinaryHeaderEnable()), //
                                         new IdleStateHandler(0, 0, nettyServerConfig.getServerChannelMaxIdleTimeSeconds()), //
                                         new NettyConnetManageHandler(), //
                                         new NettyServerHandler());
@@ -34,6 +34,8 @@ public class NettyServerConfig implements Cloneable {
     private int serverSocketSndBufSize = NettySystemConfig.socketSndbufSize;
     private int serverSocketRcvBufSize = NettySystemConfig.socketRcvbufSize;
     private boolean serverPooledByteBufAllocatorEnable = true;
+    // write request headers with their binary codec to clients that read them, see NettyEncoder
+    private boolean serverBinaryHeaderEnable = true;
 
     /**
      * make make install
@@ -154,6 +156,16 @@ public class NettyServerConfig implements Cloneable {
         this.useEpollNativeSelector = useEpollNativeSelector;
     }
 
+
+    public boolean isServerBinaryHeaderEnable() {
+        return serverBinaryHeaderEnable;
+    }
+
+
+    public void setServerBinaryHeaderEnable(boolean serverBinaryHeaderEnable) {
+        this.serverBinaryHeaderEnable = serverBinaryHeaderEnable;
+    }
+
     @Override
     public Object clone() throws CloneNotSupportedException {
         return (NettyServerConfig) super.clone();
@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.remoting.protocol;
+
+import com.alibaba.rocketmq.remoting.CommandCustomHeader;
+import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Writes a custom header straight into bytes and reads it back, without the extFields map and reflection of
+ * {@link RemotingCommand#makeCustomHeaderToNet()} and {@link RemotingCommand#decodeCommandCustomHeader(Class)}.
+ * Codecs are registered by request code in {@link CommandCustomHeaderCodecRegistry}.
+ *
+ * @param <T> the header this codec is for
+ */
+public abstract class CommandCustomHeaderCodec<T extends CommandCustomHeader> {
+    private final Class<T> headerClass;
+
+
+    protected CommandCustomHeaderCodec(final Class<T> headerClass) {
+        this.headerClass = headerClass;
+    }
+
+
+    public abstract byte[] encode(final T header);
+
+
+    public abstract T decode(final ByteBuffer buffer) throws RemotingCommandException;
+
+
+    public Class<T> getHeaderClass() {
+        return headerClass;
+    }
+
+
+    /**
+     * Starts a header with the number of fields written after it, decoders read the trailing fields they know
+     * only if that many were written, and skip those written after the fields they know.
+     */
+    protected static void putFieldCount(final ByteBuffer buffer, final int fieldCount) {
+        buffer.put((byte) fieldCount);
+    }
+
+
+    protected static int getFieldCount(final ByteBuffer buffer) {
+        return buffer.get() & 0xFF;
+    }
+
+
+    protected static byte[] stringBytes(final String value) {
+        return value == null ? null : value.getBytes(RemotingSerializable.CHARSET_UTF8);
+    }
+
+
+    protected static int stringLength(final byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+
+    protected static void putString(final ByteBuffer buffer, final byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+
+    protected static String getString(final ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, RemotingSerializable.CHARSET_UTF8);
+    }
+
+
+    // a nullable Integer takes 1 + 4 bytes, a nullable Long 1 + 8
+    protected static void putInteger(final ByteBuffer buffer, final Integer value) {
+        if (value == null) {
+            buffer.put((byte) 0);
+        } else {
+            buffer.put((byte) 1);
+            buffer.putInt(value);
+        }
+    }
+
+
+    protected static Integer getInteger(final ByteBuffer buffer) {
+        return buffer.get() == 0 ? null : buffer.getInt();
+    }
+
+
+    protected static void putLong(final ByteBuffer buffer, final Long value) {
+        if (value == null) {
+            buffer.put((byte) 0);
+        } else {
+            buffer.put((byte) 1);
+            buffer.putLong(value);
+        }
+    }
+
+
+    protected static Long getLong(final ByteBuffer buffer) {
+        return buffer.get() == 0 ? null : buffer.getLong();
+    }
+
+
+    protected static void checkNotNull(final Object value, final String fieldName) throws RemotingCommandException {
+        if (value == null) {
+            throw new RemotingCommandException("the custom field <" + fieldName + "> is null");
+        }
+    }
+}
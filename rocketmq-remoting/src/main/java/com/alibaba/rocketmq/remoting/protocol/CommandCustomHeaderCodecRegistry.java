@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.remoting.protocol;
+
+import com.alibaba.rocketmq.remoting.CommandCustomHeader;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Binary codecs of request headers, by request code. A request is sent with its header in binary only when the
+ * peer announced it reads binary headers and both ends have a codec for the request code.
+ */
+public class CommandCustomHeaderCodecRegistry {
+    private static final ConcurrentHashMap<Integer, CommandCustomHeaderCodec<? extends CommandCustomHeader>> codecTable =
+            new ConcurrentHashMap<Integer, CommandCustomHeaderCodec<? extends CommandCustomHeader>>();
+
+
+    public static void register(final int requestCode, final CommandCustomHeaderCodec<? extends CommandCustomHeader> codec) {
+        codecTable.put(requestCode, codec);
+    }
+
+
+    public static void unregister(final int requestCode) {
+        codecTable.remove(requestCode);
+    }
+
+
+    /**
+     * @return null if the request code has no binary codec
+     */
+    public static CommandCustomHeaderCodec<? extends CommandCustomHeader> getCodec(final int requestCode) {
+        return codecTable.get(requestCode);
+    }
+}
@@ -42,6 +42,16 @@ public class RemotingCommand {
     private static final Logger log = LoggerFactory.getLogger(RemotingHelper.RemotingLogName);
     private static final int RPC_TYPE = 0; // 0, REQUEST_COMMAND
     private static final int RPC_ONEWAY = 1; // 0, RPC
+    // the sender reads binary custom headers, up to the version in the 4 bits from RPC_BINARY_HEADER_VERSION
+    private static final int RPC_BINARY_HEADER_SUPPORTED = 2;
+    // the custom header is written by the codec of the request code instead of as extFields
+    private static final int RPC_BINARY_HEADER = 3;
+    private static final int RPC_BINARY_HEADER_VERSION = 4;
+    /**
+     * Layout of binary custom headers: the number of fields written, then the fields in order, so a peer knowing
+     * fewer or more fields reads those both know. Headers are written in the lower version of both ends.
+     */
+    public static final int BINARY_HEADER_VERSION = 1;
 
     private static final Map<Class<? extends CommandCustomHeader>, Field[]> clazzFieldsCache =
             new HashMap<Class<? extends CommandCustomHeader>, Field[]>();
@@ -87,6 +97,7 @@ public class RemotingCommand {
     private String remark;
     private HashMap<String, String> extFields;
     private transient CommandCustomHeader customHeader;
+    private transient byte[] binaryHeader;
     /**
 
      */
@@ -242,6 +253,17 @@ public class RemotingCommand {
 
     public CommandCustomHeader decodeCommandCustomHeader(Class<? extends CommandCustomHeader> classHeader) throws RemotingCommandException {
         CommandCustomHeader objectHeader;
+        if (this.binaryHeader != null) {
+            CommandCustomHeaderCodec<? extends CommandCustomHeader> codec = CommandCustomHeaderCodecRegistry.getCodec(this.code);
+            if (codec != null && codec.getHeaderClass() == classHeader) {
+                objectHeader = this.decodeBinaryHeader(codec);
+                objectHeader.checkFields();
+                return objectHeader;
+            }
+
+            this.binaryHeaderToExtFields();
+        }
+
         try {
             objectHeader = classHeader.newInstance();
         } catch (InstantiationException e) {
@@ -300,6 +322,30 @@ public class RemotingCommand {
         return objectHeader;
     }
 
+    private CommandCustomHeader decodeBinaryHeader(final CommandCustomHeaderCodec<? extends CommandCustomHeader> codec)
+            throws RemotingCommandException {
+        try {
+            return codec.decode(ByteBuffer.wrap(this.binaryHeader));
+        } catch (RuntimeException e) {
+            throw new RemotingCommandException("decode the binary custom header of request code " + this.code + " failed", e);
+        }
+    }
+
+    /**
+     * For readers of the extFields, and headers of another class than the codec of the request code.
+     */
+    private void binaryHeaderToExtFields() throws RemotingCommandException {
+        if (this.binaryHeader != null && null == this.extFields) {
+            CommandCustomHeaderCodec<? extends CommandCustomHeader> codec = CommandCustomHeaderCodecRegistry.getCodec(this.code);
+            if (null == codec) {
+                throw new RemotingCommandException("no binary custom header codec of request code " + this.code);
+            }
+
+            this.extFields = new HashMap<String, String>();
+            this.putCustomHeaderFields(this.decodeBinaryHeader(codec));
+        }
+    }
+
     private Field[] getClazzFields(Class<? extends CommandCustomHeader> classHeader) {
         Field[] field = clazzFieldsCache.get(classHeader);
 
@@ -370,7 +416,14 @@ public class RemotingCommand {
         return result;
     }
 
+    @SuppressWarnings("unchecked")
     private byte[] headerEncode() {
+        if (this.isBinaryHeader()) {
+            CommandCustomHeaderCodec<CommandCustomHeader> codec =
+                    (CommandCustomHeaderCodec<CommandCustomHeader>) CommandCustomHeaderCodecRegistry.getCodec(this.code);
+            return RocketMQSerializable.rocketMQProtocolEncode(this, codec.encode(this.customHeader));
+        }
+
         this.makeCustomHeaderToNet();
         if (SerializeType.ROCKETMQ == serializeTypeCurrentRPC) {
             return RocketMQSerializable.rocketMQProtocolEncode(this);
@@ -391,26 +444,30 @@ public class RemotingCommand {
 
     public void makeCustomHeaderToNet() {
         if (this.customHeader != null) {
-            Field[] fields = getClazzFields(customHeader.getClass());
             if (null == this.extFields) {
                 this.extFields = new HashMap<String, String>();
             }
 
-            for (Field field : fields) {
-                if (!Modifier.isStatic(field.getModifiers())) {
-                    String name = field.getName();
-                    if (!name.startsWith("this")) {
-                        Object value = null;
-                        try {
-                            field.setAccessible(true);
-                            value = field.get(this.customHeader);
-                        } catch (IllegalArgumentException e) {
-                        } catch (IllegalAccessException e) {
-                        }
+            this.putCustomHeaderFields(this.customHeader);
+        }
+    }
 
-                        if (value != null) {
-                            this.extFields.put(name, value.toString());
-                        }
+    private void putCustomHeaderFields(final CommandCustomHeader header) {
+        Field[] fields = getClazzFields(header.getClass());
+        for (Field field : fields) {
+            if (!Modifier.isStatic(field.getModifiers())) {
+                String name = field.getName();
+                if (!name.startsWith("this")) {
+                    Object value = null;
+                    try {
+                        field.setAccessible(true);
+                        value = field.get(header);
+                    } catch (IllegalArgumentException e) {
+                    } catch (IllegalAccessException e) {
+                    }
+
+                    if (value != null) {
+                        this.extFields.put(name, value.toString());
                     }
                 }
             }
@@ -464,6 +521,57 @@ public class RemotingCommand {
         return (this.flag & bits) == bits;
     }
 
+    public void markBinaryHeaderSupported() {
+        int bits = 1 << RPC_BINARY_HEADER_SUPPORTED;
+        this.flag |= bits;
+        this.flag &= ~(0xF << RPC_BINARY_HEADER_VERSION);
+        this.flag |= BINARY_HEADER_VERSION << RPC_BINARY_HEADER_VERSION;
+    }
+
+    @JSONField(serialize = false)
+    public boolean isBinaryHeaderSupported() {
+        int bits = 1 << RPC_BINARY_HEADER_SUPPORTED;
+        return (this.flag & bits) == bits;
+    }
+
+    /**
+     * @return the binary header version the sender reads, 0 if it reads none
+     */
+    @JSONField(serialize = false)
+    public int getBinaryHeaderVersion() {
+        return this.isBinaryHeaderSupported() ? (this.flag >>> RPC_BINARY_HEADER_VERSION) & 0xF : 0;
+    }
+
+    /**
+     * Writes the custom header of a request with the codec of its request code if the peer reads binary
+     * headers, the command is then serialized as {@link SerializeType#ROCKETMQ}. Requests carrying extFields
+     * of their own keep them as a map.
+     *
+     * @param peerVersion the binary header version the peer announced, 0 if none
+     */
+    public void tryBinaryHeader(final int peerVersion) {
+        int bits = 1 << RPC_BINARY_HEADER;
+        this.flag &= ~bits;
+        if (Math.min(BINARY_HEADER_VERSION, peerVersion) > 0 && this.customHeader != null && !this.isResponseType()
+                && (null == this.extFields || this.extFields.isEmpty())) {
+            CommandCustomHeaderCodec<? extends CommandCustomHeader> codec = CommandCustomHeaderCodecRegistry.getCodec(this.code);
+            if (codec != null && codec.getHeaderClass() == this.customHeader.getClass()) {
+                this.flag |= bits;
+                this.serializeTypeCurrentRPC = SerializeType.ROCKETMQ;
+            }
+        }
+    }
+
+    @JSONField(serialize = false)
+    public boolean isBinaryHeader() {
+        int bits = 1 << RPC_BINARY_HEADER;
+        return (this.flag & bits) == bits;
+    }
+
+    void setBinaryHeader(byte[] binaryHeader) {
+        this.binaryHeader = binaryHeader;
+    }
+
     public int getCode() {
         return code;
     }
@@ -536,6 +644,13 @@ public class RemotingCommand {
     }
 
     public HashMap<String, String> getExtFields() {
+        if (this.binaryHeader != null && null == this.extFields) {
+            try {
+                this.binaryHeaderToExtFields();
+            } catch (RemotingCommandException e) {
+                log.warn("read extFields from the binary custom header failed", e);
+            }
+        }
         return extFields;
     }
 
@@ -31,6 +31,18 @@ public class RocketMQSerializable {
     public static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
 
     public static byte[] rocketMQProtocolEncode(RemotingCommand cmd) {
+        // HashMap<String, String> extFields
+        byte[] extFieldsBytes = null;
+        if (cmd.getExtFields() != null && !cmd.getExtFields().isEmpty()) {
+            extFieldsBytes = mapSerialize(cmd.getExtFields());
+        }
+        return rocketMQProtocolEncode(cmd, extFieldsBytes);
+    }
+
+    /**
+     * @param extFieldsBytes the serialized extFields, or the binary custom header
+     */
+    public static byte[] rocketMQProtocolEncode(RemotingCommand cmd, byte[] extFieldsBytes) {
         // String remark
         byte[] remarkBytes = null;
         int remarkLen = 0;
@@ -39,13 +51,7 @@ public class RocketMQSerializable {
             remarkLen = remarkBytes.length;
         }
 
-        // HashMap<String, String> extFields
-        byte[] extFieldsBytes = null;
-        int extLen = 0;
-        if (cmd.getExtFields() != null && !cmd.getExtFields().isEmpty()) {
-            extFieldsBytes = mapSerialize(cmd.getExtFields());
-            extLen = extFieldsBytes.length;
-        }
+        int extLen = extFieldsBytes != null ? extFieldsBytes.length : 0;
 
         // ################### cal total length
         int totalLen = calTotalLen(remarkLen, extLen);
@@ -167,7 +173,11 @@ public class RocketMQSerializable {
         if (extFieldsLength > 0) {
             byte[] extFieldsBytes = new byte[extFieldsLength];
             headerBuffer.get(extFieldsBytes);
-            cmd.setExtFields(mapDeserialize(extFieldsBytes));
+            if (cmd.isBinaryHeader()) {
+                cmd.setBinaryHeader(extFieldsBytes);
+            } else {
+                cmd.setExtFields(mapDeserialize(extFieldsBytes));
+            }
         }
         return cmd;
     }
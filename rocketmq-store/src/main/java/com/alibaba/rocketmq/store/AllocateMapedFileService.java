@@ -52,22 +52,43 @@ public class AllocateMapedFileService extends ServiceThread {
 
 
     public MapedFile putRequestAndReturnMapedFile(String nextFilePath, String nextNextFilePath, int fileSize) {
+        int canSubmitRequests = 2;
+        if (this.messageStore != null && this.messageStore.getMessageStoreConfig().isTransientStorePoolEnable()
+                && this.messageStore.getMessageStoreConfig().isFastFailIfNoBufferInStorePool()) {
+            canSubmitRequests = this.messageStore.getTransientStorePool().remainBufferNumbs() - this.requestQueue.size();
+        }
+
         AllocateRequest nextReq = new AllocateRequest(nextFilePath, fileSize);
-        AllocateRequest nextNextReq = new AllocateRequest(nextNextFilePath, fileSize);
         boolean nextPutOK = (this.requestTable.putIfAbsent(nextFilePath, nextReq) == null);
-        boolean nextNextPutOK = (this.requestTable.putIfAbsent(nextNextFilePath, nextNextReq) == null);
 
         if (nextPutOK) {
+            if (canSubmitRequests <= 0) {
+                log.warn("[NOTIFYME]TransientStorePool is not enough, so create mapedFile error, RequestQueueSize : "
+                        + this.requestQueue.size() + ", StorePoolSize: "
+                        + this.messageStore.getTransientStorePool().remainBufferNumbs());
+                this.requestTable.remove(nextFilePath);
+                return null;
+            }
+            canSubmitRequests--;
             boolean offerOK = this.requestQueue.offer(nextReq);
             if (!offerOK) {
                 log.warn("never expetced here, add a request to preallocate queue failed");
             }
         }
 
+        AllocateRequest nextNextReq = new AllocateRequest(nextNextFilePath, fileSize);
+        boolean nextNextPutOK = (this.requestTable.putIfAbsent(nextNextFilePath, nextNextReq) == null);
         if (nextNextPutOK) {
-            boolean offerOK = this.requestQueue.offer(nextNextReq);
-            if (!offerOK) {
-                log.warn("never expetced here, add a request to preallocate queue failed");
+            if (canSubmitRequests <= 0) {
+                log.warn("[NOTIFYME]TransientStorePool is not enough, so skip preallocate mapedFile, RequestQueueSize : "
+                        + this.requestQueue.size() + ", StorePoolSize: "
+                        + this.messageStore.getTransientStorePool().remainBufferNumbs());
+                this.requestTable.remove(nextNextFilePath);
+            } else {
+                boolean offerOK = this.requestQueue.offer(nextNextReq);
+                if (!offerOK) {
+                    log.warn("never expetced here, add a request to preallocate queue failed");
+                }
             }
         }
 
@@ -79,7 +100,12 @@ public class AllocateMapedFileService extends ServiceThread {
         AllocateRequest result = this.requestTable.get(nextFilePath);
         try {
             if (result != null) {
+                long beginTime = System.nanoTime();
                 boolean waitOK = result.getCountDownLatch().await(WaitTimeOut, TimeUnit.MILLISECONDS);
+                if (this.messageStore != null) {
+                    this.messageStore.getStoreStatsService().recordMapedFileRollover(
+                            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - beginTime));
+                }
                 if (!waitOK) {
                     log.warn("create mmap timeout " + result.getFilePath() + " " + result.getFileSize());
                     return null;
@@ -117,12 +143,20 @@ public class AllocateMapedFileService extends ServiceThread {
         for (AllocateRequest req : this.requestTable.values()) {
             if (req.mapedFile != null) {
                 log.info("delete pre allocated maped file, {}", req.mapedFile.getFileName());
-                req.mapedFile.destroy(1000);
+                req.mapedFile.destroy(1000, this.getRecycledFilePool(req.getFilePath()));
             }
         }
     }
 
 
+    private RecycledFilePool getRecycledFilePool(final String filePath) {
+        if (null == this.messageStore || null == this.messageStore.getCommitLog()) {
+            return null;
+        }
+        return this.messageStore.getCommitLog().getMapedFileQueue().getRecycledFilePool(filePath);
+    }
+
+
     public void run() {
         log.info(this.getServiceName() + " service started");
 
@@ -155,16 +189,26 @@ public class AllocateMapedFileService extends ServiceThread {
 
             if (req.getMapedFile() == null) {
                 long beginTime = System.currentTimeMillis();
-                MapedFile mapedFile = new MapedFile(req.getFilePath(), req.getFileSize());
+                long beginNanos = System.nanoTime();
+                RecycledFilePool recycledFilePool = this.getRecycledFilePool(req.getFilePath());
+                boolean recycled = recycledFilePool != null
+                        && recycledFilePool.prepare(req.getFilePath(), req.getFileSize());
+                MapedFile mapedFile;
+                if (this.messageStore != null && this.messageStore.getMessageStoreConfig().isTransientStorePoolEnable()
+                        && req.getFileSize() == this.messageStore.getMessageStoreConfig().getMapedFileSizeCommitLog()) {
+                    mapedFile = new MapedFile(req.getFilePath(), req.getFileSize(), this.messageStore.getTransientStorePool());
+                } else {
+                    mapedFile = new MapedFile(req.getFilePath(), req.getFileSize());
+                }
                 long eclipseTime = UtilAll.computeEclipseTimeMilliseconds(beginTime);
                 if (eclipseTime > 10) {
                     int queueSize = this.requestQueue.size();
-                    log.warn("create mapedFile spent time(ms) " + eclipseTime + " queue size " + queueSize
-                            + " " + req.getFilePath() + " " + req.getFileSize());
+                    log.warn((recycled ? "reuse" : "create") + " mapedFile spent time(ms) " + eclipseTime
+                            + " queue size " + queueSize + " " + req.getFilePath() + " " + req.getFileSize());
                 }
 
                 // pre write mappedFile
-                if (mapedFile.getFileSize() >= this.messageStore.getMessageStoreConfig()
+                if (this.messageStore != null && mapedFile.getFileSize() >= this.messageStore.getMessageStoreConfig()
                         .getMapedFileSizeCommitLog() //
                         && //
                         this.messageStore.getMessageStoreConfig().isWarmMapedFileEnable()) {
@@ -172,6 +216,10 @@ public class AllocateMapedFileService extends ServiceThread {
                             this.messageStore.getMessageStoreConfig().getFlushLeastPagesWhenWarmMapedFile());
                 }
 
+                if (this.messageStore != null) {
+                    this.messageStore.getStoreStatsService().recordMapedFileAllocate(
+                            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - beginNanos), recycled);
+                }
                 req.setMapedFile(mapedFile);
                 this.hasException = false;
                 isSuccess = true;
@@ -35,6 +35,8 @@ public class AppendMessageResult {
     // Consume queue's offset(step by one)
     private long logicsOffset;
     private long pagecacheRT = 0;
+    // How many messages are written, more than one for a batch
+    private int msgNum = 1;
 
     public AppendMessageResult(AppendMessageStatus status) {
         this(status, 0, 0, "", 0, 0, 0);
@@ -59,6 +61,14 @@ public class AppendMessageResult {
         this.pagecacheRT = pagecacheRT;
     }
 
+    public int getMsgNum() {
+        return msgNum;
+    }
+
+    public void setMsgNum(int msgNum) {
+        this.msgNum = msgNum;
+    }
+
     public boolean isOk() {
         return this.status == AppendMessageStatus.PUT_OK;
     }
@@ -133,6 +143,7 @@ public class AppendMessageResult {
                 ", storeTimestamp=" + storeTimestamp +
                 ", logicsOffset=" + logicsOffset +
                 ", pagecacheRT=" + pagecacheRT +
+                ", msgNum=" + msgNum +
                 '}';
     }
 }
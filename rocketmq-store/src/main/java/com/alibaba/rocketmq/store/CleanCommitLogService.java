@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.UtilAll;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+class CleanCommitLogService {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final DefaultMessageStore defaultMessageStore;
+
+    private final static int MaxManualDeleteFileTimes = 20;
+    private final double DiskSpaceWarningLevelRatio =
+            Double.parseDouble(System.getProperty("rocketmq.broker.diskSpaceWarningLevelRatio", "0.90"));
+
+    private final double DiskSpaceCleanForciblyRatio =
+            Double.parseDouble(System.getProperty("rocketmq.broker.diskSpaceCleanForciblyRatio", "0.85"));
+    private long lastRedeleteTimestamp = 0;
+
+    private volatile int manualDeleteFileSeveralTimes = 0;
+
+    private volatile boolean cleanImmediately = false;
+
+
+    public CleanCommitLogService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+
+    public void excuteDeleteFilesManualy() {
+        this.manualDeleteFileSeveralTimes = MaxManualDeleteFileTimes;
+        log.info("excuteDeleteFilesManualy was invoked");
+    }
+
+
+    public void run() {
+        try {
+            this.deleteExpiredFiles();
+
+            this.redeleteHangedFile();
+        } catch (Exception e) {
+            log.warn(this.getServiceName() + " service has exception. ", e);
+        }
+    }
+
+    private void deleteExpiredFiles() {
+        int deleteCount = 0;
+        long fileReservedTime = this.defaultMessageStore.getMessageStoreConfig().getFileReservedTime();
+        int deletePhysicFilesInterval = this.defaultMessageStore.getMessageStoreConfig().getDeleteCommitLogFilesInterval();
+        int destroyMapedFileIntervalForcibly = this.defaultMessageStore.getMessageStoreConfig().getDestroyMapedFileIntervalForcibly();
+
+        boolean timeup = this.isTimeToDelete();
+        boolean spacefull = this.isSpaceToDelete();
+        boolean manualDelete = this.manualDeleteFileSeveralTimes > 0;
+
+
+        if (timeup || spacefull || manualDelete) {
+
+            if (manualDelete)
+                this.manualDeleteFileSeveralTimes --;
+
+
+            boolean cleanAtOnce = this.defaultMessageStore.getMessageStoreConfig().isCleanFileForciblyEnable() && this.cleanImmediately;
+
+            log.info("begin to delete before {} hours file. timeup: {} spacefull: {} manualDeleteFileSeveralTimes: {} cleanAtOnce: {}", //
+                    fileReservedTime, //
+                    timeup, //
+                    spacefull, //
+                    manualDeleteFileSeveralTimes, //
+                    cleanAtOnce);
+
+
+            fileReservedTime *= 60 * 60 * 1000;
+
+            deleteCount = this.defaultMessageStore.getCommitLog().deleteExpiredFile(fileReservedTime, deletePhysicFilesInterval,
+                    destroyMapedFileIntervalForcibly, cleanAtOnce);
+            if (deleteCount > 0) {
+            }
+
+            else if (spacefull) {
+                log.warn("disk space will be full soon, but delete file failed.");
+            }
+        }
+    }
+
+    private void redeleteHangedFile() {
+        int interval = this.defaultMessageStore.getMessageStoreConfig().getRedeleteHangedFileInterval();
+        long currentTimestamp = System.currentTimeMillis();
+        if ((currentTimestamp - this.lastRedeleteTimestamp) > interval) {
+            this.lastRedeleteTimestamp = currentTimestamp;
+            int destroyMapedFileIntervalForcibly =
+                    this.defaultMessageStore.getMessageStoreConfig().getDestroyMapedFileIntervalForcibly();
+            if (this.defaultMessageStore.getCommitLog().retryDeleteFirstFile(destroyMapedFileIntervalForcibly)) {
+            }
+        }
+    }
+
+    public String getServiceName() {
+        return CleanCommitLogService.class.getSimpleName();
+    }
+    private boolean isTimeToDelete() {
+        String when = this.defaultMessageStore.getMessageStoreConfig().getDeleteWhen();
+        if (UtilAll.isItTimeToDo(when)) {
+            log.info("it's time to reclaim disk space, " + when);
+            return true;
+        }
+
+        return false;
+    }
+    private boolean isSpaceToDelete() {
+        double ratio = this.defaultMessageStore.getMessageStoreConfig().getDiskMaxUsedSpaceRatio() / 100.0;
+
+        cleanImmediately = false;
+
+
+        {
+            String storePathPhysic = this.defaultMessageStore.getMessageStoreConfig().getStorePathCommitLog();
+            // the fullest disk decides reclaiming, but writing stops only when new files fit nowhere
+            double physicRatio = StorePathConfigHelper.getMaxDiskPartitionSpaceUsedPercent(storePathPhysic);
+            double leastPhysicRatio = physicRatio;
+            for (double r : StorePathConfigHelper.getDiskPartitionSpaceUsedPercents(storePathPhysic)) {
+                leastPhysicRatio = Math.min(leastPhysicRatio, r);
+            }
+            if (leastPhysicRatio > DiskSpaceWarningLevelRatio) {
+                boolean diskok = this.defaultMessageStore.getRunningFlags().getAndMakeDiskFull();
+                if (diskok) {
+                    log.error("physic disk maybe full soon " + physicRatio + ", so mark disk full");
+                }
+
+                cleanImmediately = true;
+            } else {
+                if (physicRatio > DiskSpaceCleanForciblyRatio) {
+                    cleanImmediately = true;
+                }
+                if (leastPhysicRatio <= DiskSpaceCleanForciblyRatio) {
+                    boolean diskok = this.defaultMessageStore.getRunningFlags().getAndMakeDiskOK();
+                    if (!diskok) {
+                        log.info("physic disk space OK " + physicRatio + ", so mark disk ok");
+                    }
+                }
+            }
+
+            if (physicRatio < 0 || physicRatio > ratio) {
+                log.info("physic disk maybe full soon, so reclaim space, " + physicRatio);
+                return true;
+            }
+        }
+
+
+        {
+            String storePathLogics = StorePathConfigHelper
+                    .getStorePathConsumeQueue(this.defaultMessageStore.getMessageStoreConfig().getStorePathRootDir());
+            double logicsRatio = UtilAll.getDiskPartitionSpaceUsedPercent(storePathLogics);
+            if (logicsRatio > DiskSpaceWarningLevelRatio) {
+                boolean diskok = this.defaultMessageStore.getRunningFlags().getAndMakeDiskFull();
+                if (diskok) {
+                    log.error("logics disk maybe full soon " + logicsRatio + ", so mark disk full");
+                }
+
+                cleanImmediately = true;
+            } else if (logicsRatio > DiskSpaceCleanForciblyRatio) {
+                cleanImmediately = true;
+            } else {
+                boolean diskok = this.defaultMessageStore.getRunningFlags().getAndMakeDiskOK();
+                if (!diskok) {
+                    log.info("logics disk space OK " + logicsRatio + ", so mark disk ok");
+                }
+            }
+
+            if (logicsRatio < 0 || logicsRatio > ratio) {
+                log.info("logics disk maybe full soon, so reclaim space, " + logicsRatio);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public int getManualDeleteFileSeveralTimes() {
+        return manualDeleteFileSeveralTimes;
+    }
+
+    public void setManualDeleteFileSeveralTimes(int manualDeleteFileSeveralTimes) {
+        this.manualDeleteFileSeveralTimes = manualDeleteFileSeveralTimes;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+class CleanConsumeQueueService {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final DefaultMessageStore defaultMessageStore;
+
+    private long lastPhysicalMinOffset = 0;
+
+
+    public CleanConsumeQueueService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+
+    public void run() {
+        try {
+            this.deleteExpiredFiles();
+        } catch (Exception e) {
+            log.warn(this.getServiceName() + " service has exception. ", e);
+        }
+    }
+
+    private void deleteExpiredFiles() {
+        int deleteLogicsFilesInterval = this.defaultMessageStore.getMessageStoreConfig().getDeleteConsumeQueueFilesInterval();
+
+        long minOffset = this.defaultMessageStore.getCommitLog().getMinOffset();
+        if (minOffset > this.lastPhysicalMinOffset) {
+            this.lastPhysicalMinOffset = minOffset;
+
+
+            ConcurrentHashMap<String, ConcurrentHashMap<Integer, ConsumeQueue>> tables = this.defaultMessageStore.getConsumeQueueTable();
+
+            for (ConcurrentHashMap<Integer, ConsumeQueue> maps : tables.values()) {
+                for (ConsumeQueue logic : maps.values()) {
+                    int deleteCount = logic.deleteExpiredFile(minOffset);
+
+                    if (deleteCount > 0 && deleteLogicsFilesInterval > 0) {
+                        try {
+                            Thread.sleep(deleteLogicsFilesInterval);
+                        } catch (InterruptedException e) {
+                        }
+                    }
+                }
+            }
+
+
+            this.defaultMessageStore.getIndexService().deleteExpiredFile(minOffset);
+        }
+    }
+
+    public String getServiceName() {
+        return CleanConsumeQueueService.class.getSimpleName();
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Expires messages of topics with their own retention time, then reclaims CommitLog files no consume queue
+ * refers to anymore.
+ */
+class CleanTopicRetentionService {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final DefaultMessageStore defaultMessageStore;
+
+
+    public CleanTopicRetentionService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+
+    public void run() {
+        try {
+            if (!this.defaultMessageStore.getTopicRetentionTable().isEmpty()) {
+                this.expireMessages();
+                this.deleteUnreferencedFiles();
+            }
+        } catch (Exception e) {
+            log.warn(this.getServiceName() + " service has exception. ", e);
+        }
+    }
+
+    private void expireMessages() {
+        int deleteLogicsFilesInterval = this.defaultMessageStore.getMessageStoreConfig().getDeleteConsumeQueueFilesInterval();
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<String, Long> entry : this.defaultMessageStore.getTopicRetentionTable().entrySet()) {
+            ConcurrentHashMap<Integer, ConsumeQueue> map = this.defaultMessageStore.getConsumeQueueTable().get(entry.getKey());
+            if (null == map) {
+                continue;
+            }
+
+            for (ConsumeQueue logic : map.values()) {
+                long offset = logic.getOffsetStoredNotBefore(now - entry.getValue());
+                long minOffset = logic.getMinOffsetInQuque();
+                if (offset <= minOffset) {
+                    continue;
+                }
+
+                int deleteCount = logic.expireBefore(offset);
+                log.info("expire messages of {}-{}, min offset {} -> {}, {} files deleted", logic.getTopic(),
+                        logic.getQueueId(), minOffset, logic.getMinOffsetInQuque(), deleteCount);
+
+                if (deleteCount > 0 && deleteLogicsFilesInterval > 0) {
+                    try {
+                        Thread.sleep(deleteLogicsFilesInterval);
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+        }
+    }
+
+    private void deleteUnreferencedFiles() {
+        long minOffset = this.defaultMessageStore.dispatchedPhyOffset();
+
+        for (ConcurrentHashMap<Integer, ConsumeQueue> maps : this.defaultMessageStore.getConsumeQueueTable().values()) {
+            for (ConsumeQueue logic : maps.values()) {
+                long offset = logic.getMinPhyOffsetReferenced();
+                if (offset >= 0 && offset < minOffset) {
+                    minOffset = offset;
+                }
+            }
+        }
+
+        long preparedOffset =
+                this.defaultMessageStore.getTransactionStateService().getPreparedTransactionIndex().getMinCommitLogOffset();
+        if (preparedOffset >= 0 && preparedOffset < minOffset) {
+            minOffset = preparedOffset;
+        }
+
+        int deleteCount = this.defaultMessageStore.getCommitLog().deleteExpiredFileBefore(minOffset,
+                this.defaultMessageStore.getMessageStoreConfig().getDestroyMapedFileIntervalForcibly());
+        if (deleteCount > 0) {
+            log.info("reclaim {} commitlog files no longer referenced, min offset referenced {}", deleteCount, minOffset);
+        }
+    }
+
+    public String getServiceName() {
+        return CleanTopicRetentionService.class.getSimpleName();
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Pool of off-heap buffers which messages read from disk without page cache are copied into. Buffers are created
+ * on demand up to coldReadBufferNums, a message larger than one buffer or read when all of them are in use gets a
+ * heap buffer of its own.
+ */
+public class ColdReadBufferPool {
+    private final int bufferSize;
+    private final int bufferNums;
+    private final AtomicInteger createdBuffers = new AtomicInteger(0);
+    private final LinkedBlockingDeque<ByteBuffer> availableBuffers = new LinkedBlockingDeque<ByteBuffer>();
+
+
+    public ColdReadBufferPool(final MessageStoreConfig storeConfig) {
+        this.bufferSize = storeConfig.getColdReadBufferSize();
+        this.bufferNums = storeConfig.getColdReadBufferNums();
+    }
+
+
+    public ByteBuffer borrowBuffer(final int size) {
+        if (size > this.bufferSize) {
+            return ByteBuffer.allocate(size);
+        }
+
+        ByteBuffer buffer = this.availableBuffers.pollFirst();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (this.createdBuffers.incrementAndGet() <= this.bufferNums) {
+            return ByteBuffer.allocateDirect(this.bufferSize);
+        }
+        this.createdBuffers.decrementAndGet();
+        return ByteBuffer.allocate(size);
+    }
+
+
+    public void returnBuffer(final ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == this.bufferSize) {
+            buffer.clear();
+            this.availableBuffers.offerFirst(buffer);
+        }
+    }
+
+
+    public int remainBufferNums() {
+        return this.availableBuffers.size() + this.bufferNums - this.createdBuffers.get();
+    }
+
+
+    /**
+     * Gives the buffer back to the pool once the message is transferred.
+     */
+    public static class ColdReadResult extends SelectMapedBufferResult {
+        private ColdReadBufferPool pool;
+        private final ByteBuffer pooledBuffer;
+
+
+        public ColdReadResult(long startOffset, ByteBuffer byteBuffer, int size, ColdReadBufferPool pool) {
+            super(startOffset, byteBuffer, size, null);
+            this.pool = pool;
+            this.pooledBuffer = byteBuffer;
+        }
+
+
+        @Override
+        public synchronized void release() {
+            if (this.pool != null) {
+                this.pool.returnBuffer(this.pooledBuffer);
+                this.pool = null;
+            }
+        }
+    }
+}
@@ -28,6 +28,8 @@ import com.alibaba.rocketmq.store.config.BrokerRole;
 import com.alibaba.rocketmq.store.config.FlushDiskType;
 import com.alibaba.rocketmq.store.ha.HAService;
 import com.alibaba.rocketmq.store.schedule.ScheduleMessageService;
+import com.alibaba.rocketmq.store.timer.TimerMessageService;
+import com.alibaba.rocketmq.store.tier.TieredCommitLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,7 +38,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 
@@ -55,15 +60,23 @@ public class CommitLog {
     private final MapedFileQueue mapedFileQueue;
     private final DefaultMessageStore defaultMessageStore;
     private final FlushCommitLogService flushCommitLogService;
+    // Commit write buffer data to FileChannel when transient store pool is enabled
+    private final FlushCommitLogService commitLogService;
     private final AppendMessageCallback appendMessageCallback;
     private HashMap<String/* topic-queueid */, Long/* offset */> topicQueueTable = new HashMap<String, Long>(1024);
     private volatile long confirmOffset = -1L;
     private volatile long beginTimeInLock = 0;
+    private final PutMessageLock putMessageLock;
+    private final ThreadLocal<MessageExtEncoder> batchEncoderThreadLocal;
+    // files offloaded to the secondary tier, null when tiered store is disabled
+    private volatile TieredCommitLog tieredCommitLog;
 
 
     public CommitLog(final DefaultMessageStore defaultMessageStore) {
         this.mapedFileQueue = new MapedFileQueue(defaultMessageStore.getMessageStoreConfig().getStorePathCommitLog(),
-                defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog(), defaultMessageStore.getAllocateMapedFileService());
+                defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog(), defaultMessageStore.getAllocateMapedFileService(),
+                defaultMessageStore.getMessageStoreConfig().getDiskMaxUsedSpaceRatio() / 100.0,
+                defaultMessageStore.getCommitLogFilePools());
         this.defaultMessageStore = defaultMessageStore;
 
         if (FlushDiskType.SYNC_FLUSH == defaultMessageStore.getMessageStoreConfig().getFlushDiskType()) {
@@ -72,7 +85,17 @@ public class CommitLog {
             this.flushCommitLogService = new FlushRealTimeService();
         }
 
+        this.commitLogService = new CommitRealTimeService();
+
         this.appendMessageCallback = new DefaultAppendMessageCallback(defaultMessageStore.getMessageStoreConfig().getMaxMessageSize());
+        this.batchEncoderThreadLocal = new ThreadLocal<MessageExtEncoder>() {
+            @Override
+            protected MessageExtEncoder initialValue() {
+                return new MessageExtEncoder(defaultMessageStore.getMessageStoreConfig().getMaxMessageSize());
+            }
+        };
+        this.putMessageLock = defaultMessageStore.getMessageStoreConfig().isUseReentrantLockWhenPutMessage()
+                ? new PutMessageReentrantLock() : new PutMessageSpinLock();
     }
 
     public boolean load() {
@@ -83,13 +106,22 @@ public class CommitLog {
 
     public void start() {
         this.flushCommitLogService.start();
+
+        if (defaultMessageStore.getMessageStoreConfig().isTransientStorePoolEnable()) {
+            this.commitLogService.start();
+        }
     }
 
     public void shutdown() {
+        if (defaultMessageStore.getMessageStoreConfig().isTransientStorePoolEnable()) {
+            this.commitLogService.shutdown();
+        }
+
         this.flushCommitLogService.shutdown();
     }
 
     public long flush() {
+        this.mapedFileQueue.commitToChannel(0);
         this.mapedFileQueue.commit(0);
         return this.mapedFileQueue.getCommittedWhere();
     }
@@ -99,6 +131,40 @@ public class CommitLog {
     }
 
 
+    public long getFlushedWhere() {
+        return this.mapedFileQueue.getCommittedWhere();
+    }
+
+
+    /**
+     * Moves the oldest local file to the tier if it is sealed, last modified before offloadBefore and wholly
+     * below offloadLimit.
+     *
+     * @return whether a file was moved
+     */
+    public boolean offloadFirstFile(final long offloadBefore, final long offloadLimit) {
+        MapedFile mapedFile = this.mapedFileQueue.getFirstMapedFileOnLock();
+        if (null == mapedFile || mapedFile == this.mapedFileQueue.getLastMapedFileWithLock() || !mapedFile.isFull()
+                || mapedFile.getFileFromOffset() + mapedFile.getFileSize() > offloadLimit
+                || mapedFile.getLastModifiedTimestamp() >= offloadBefore) {
+            return false;
+        }
+
+        // copied already when a previous destroy was blocked by readers
+        if (!this.tieredCommitLog.contains(mapedFile.getFileFromOffset()) && !this.tieredCommitLog.offload(mapedFile)) {
+            return false;
+        }
+        if (!mapedFile.destroy(1000 * 60)) {
+            return false;
+        }
+
+        List<MapedFile> files = new ArrayList<MapedFile>();
+        files.add(mapedFile);
+        this.mapedFileQueue.deleteExpiredFile(files);
+        return true;
+    }
+
+
     public int deleteExpiredFile(//
                                  final long expiredTime, //
                                  final int deleteFilesInterval, //
@@ -109,6 +175,24 @@ public class CommitLog {
     }
 
 
+    /**
+     * Deletes the files wholly before the offset, no queue refers to them anymore. With a tier they are offloaded
+     * instead, as the tier has to stay contiguous with the local files.
+     */
+    public int deleteExpiredFileBefore(final long offset, final long intervalForcibly) {
+        if (null == this.tieredCommitLog) {
+            return this.mapedFileQueue.deleteExpiredFileBefore(offset, intervalForcibly);
+        }
+
+        long offloadLimit = Math.min(offset, this.getFlushedWhere());
+        int offloadCount = 0;
+        while (this.offloadFirstFile(Long.MAX_VALUE, offloadLimit)) {
+            offloadCount++;
+        }
+        return offloadCount;
+    }
+
+
     /**
      * Read CommitLog data, use data replication
      */
@@ -130,10 +214,53 @@ public class CommitLog {
     }
 
 
+    /**
+     * @return null if page cache residency can not be told
+     */
+    public Boolean isInPageCache(final long offset) {
+        int mapedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
+        MapedFile mapedFile = this.mapedFileQueue.findMapedFileByOffset(offset, (0 == offset ? true : false));
+        if (mapedFile != null) {
+            return mapedFile.isInPageCache((int) (offset % mapedFileSize),
+                    this.defaultMessageStore.getMessageStoreConfig().getPageCacheResidencySampleInterval());
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Read ahead [offset, offset + length), the range may cross files
+     */
+    public void prefetch(final long offset, final int length) {
+        int mapedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
+        long current = offset;
+        long end = offset + length;
+        while (current < end) {
+            MapedFile mapedFile = this.mapedFileQueue.findMapedFileByOffset(current, false);
+            if (null == mapedFile) {
+                break;
+            }
+            int pos = (int) (current % mapedFileSize);
+            int size = (int) Math.min(end - current, mapedFileSize - pos);
+            mapedFile.prefetch(pos, size);
+            current += size;
+        }
+    }
+
+
     /**
      * When the normal exit, data recovery, all memory data have been flush
      */
     public void recoverNormally() {
+        this.recoverNormally(null);
+    }
+
+
+    /**
+     * @param executor verifies the files in parallel, null to verify them one by one
+     */
+    public void recoverNormally(final ExecutorService executor) {
         boolean checkCRCOnRecover = this.defaultMessageStore.getMessageStoreConfig().isCheckCRCOnRecover();
         final List<MapedFile> mapedFiles = this.mapedFileQueue.getMapedFiles();
         if (!mapedFiles.isEmpty()) {
@@ -142,44 +269,111 @@ public class CommitLog {
             if (index < 0)
                 index = 0;
 
-            MapedFile mapedFile = mapedFiles.get(index);
-            ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
-            long processOffset = mapedFile.getFileFromOffset();
-            long mapedFileOffset = 0;
-            while (true) {
-                DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, checkCRCOnRecover);
-                int size = dispatchRequest.getMsgSize();
-                // Normal data
-                if (dispatchRequest.isSuccess() && size > 0) {
-                    mapedFileOffset += size;
-                }
-                // Come the end of the file, switch to the next file Since the
-                // return 0 representatives met last hole,
-                // this can not be included in truncate offset
-                else if (dispatchRequest.isSuccess() && size == 0) {
-                    index++;
-                    if (index >= mapedFiles.size()) {
-                        // Current branch can not happen
-                        log.info("recover last 3 physics file over, last maped file " + mapedFile.getFileName());
-                        break;
-                    } else {
-                        mapedFile = mapedFiles.get(index);
-                        byteBuffer = mapedFile.sliceByteBuffer();
-                        processOffset = mapedFile.getFileFromOffset();
-                        mapedFileOffset = 0;
-                        log.info("recover next physics file, " + mapedFile.getFileName());
-                    }
+            long processOffset = this.verifyFiles(mapedFiles, index, 0, checkCRCOnRecover, executor);
+            this.mapedFileQueue.setCommittedWhere(processOffset);
+            this.mapedFileQueue.setChannelCommittedWhere(processOffset);
+            this.mapedFileQueue.truncateDirtyFiles(processOffset);
+        }
+    }
+
+
+    /**
+     * Checks the messages of every file from the given position on, each file in its own task as no message spans
+     * two files.
+     *
+     * @return offset where the valid data ends
+     */
+    private long verifyFiles(final List<MapedFile> mapedFiles, final int fromIndex, final int fromPosition,
+                             final boolean checkCRC, final ExecutorService executor) {
+        long beginTime = System.currentTimeMillis();
+        List<Callable<VerifyResult>> tasks = new ArrayList<Callable<VerifyResult>>();
+        for (int i = fromIndex; i < mapedFiles.size(); i++) {
+            final MapedFile mapedFile = mapedFiles.get(i);
+            final int position = i == fromIndex ? fromPosition : 0;
+            tasks.add(new Callable<VerifyResult>() {
+                @Override
+                public VerifyResult call() {
+                    return CommitLog.this.verifyFile(mapedFile, position, checkCRC);
                 }
-                // Intermediate file read error
-                else if (!dispatchRequest.isSuccess()) {
-                    log.info("recover physics file end, " + mapedFile.getFileName());
-                    break;
+            });
+        }
+
+        List<Future<VerifyResult>> futures = null;
+        if (executor != null) {
+            try {
+                futures = executor.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                log.warn("verify physics files in parallel interrupted, verify them one by one", e);
+            }
+        }
+
+        long processOffset = mapedFiles.get(fromIndex).getFileFromOffset() + fromPosition;
+        for (int i = 0; i < tasks.size(); i++) {
+            MapedFile mapedFile = mapedFiles.get(fromIndex + i);
+            VerifyResult result = null;
+            if (futures != null) {
+                try {
+                    result = futures.get(i).get();
+                } catch (Exception e) {
+                    log.warn("verify physics file in parallel failed, " + mapedFile.getFileName(), e);
                 }
             }
+            if (null == result) {
+                result = this.verifyFile(mapedFile, i == 0 ? fromPosition : 0, checkCRC);
+            }
 
-            processOffset += mapedFileOffset;
-            this.mapedFileQueue.setCommittedWhere(processOffset);
-            this.mapedFileQueue.truncateDirtyFiles(processOffset);
+            processOffset = mapedFile.getFileFromOffset() + result.getValidPosition();
+            // Since the return 0 representatives met last hole, this can not be included in truncate offset
+            if (!result.isEndOfFile()) {
+                log.info("recover physics file end, " + mapedFile.getFileName());
+                break;
+            }
+        }
+
+        log.info("verify {} physics files, valid data ends at {}, elapsed time(ms) {}", tasks.size(), processOffset,
+                System.currentTimeMillis() - beginTime);
+        return processOffset;
+    }
+
+
+    private VerifyResult verifyFile(final MapedFile mapedFile, final int position, final boolean checkCRC) {
+        ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
+        byteBuffer.position(Math.min(position, byteBuffer.limit()));
+        int validPosition = byteBuffer.position();
+        while (true) {
+            DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, checkCRC);
+            int size = dispatchRequest.getMsgSize();
+            if (dispatchRequest.isSuccess() && size > 0) {
+                validPosition += size;
+            } else {
+                // Come the end of the file, or intermediate file read error
+                return new VerifyResult(validPosition, dispatchRequest.isSuccess() && size == 0);
+            }
+        }
+    }
+
+
+    /**
+     * Valid data of one CommitLog file found by recovery
+     */
+    static class VerifyResult {
+        private final int validPosition;
+        private final boolean endOfFile;
+
+
+        VerifyResult(int validPosition, boolean endOfFile) {
+            this.validPosition = validPosition;
+            this.endOfFile = endOfFile;
+        }
+
+
+        public int getValidPosition() {
+            return validPosition;
+        }
+
+
+        public boolean isEndOfFile() {
+            return endOfFile;
         }
     }
 
@@ -283,13 +477,14 @@ public class CommitLog {
             String uniqKey = null;
             String producerGroup = null;
             long tranStateTableOffset = -1;
+            Map<String, String> propertiesMap = null;
 
             // 17 properties
             short propertiesLength = byteBuffer.getShort();
             if (propertiesLength > 0) {
                 byteBuffer.get(bytesContent, 0, propertiesLength);
                 String properties = new String(bytesContent, 0, propertiesLength, MessageDecoder.CHARSET_UTF8);
-                Map<String, String> propertiesMap = MessageDecoder.string2messageProperties(properties);
+                propertiesMap = MessageDecoder.string2messageProperties(properties);
 
                 keys = propertiesMap.get(MessageConst.PROPERTY_KEYS);
 
@@ -315,6 +510,11 @@ public class CommitLog {
                                     storeTimestamp);
                         }
                     }
+
+                    String deliverMs = propertiesMap.get(MessageConst.PROPERTY_TIMER_DELIVER_MS);
+                    if (TimerMessageService.TIMER_TOPIC.equals(topic) && deliverMs != null) {
+                        tagsCode = Long.parseLong(deliverMs);
+                    }
                 }
 
                 final int tranType = MessageSysFlag.getTransactionValue(sysFlag);
@@ -348,7 +548,7 @@ public class CommitLog {
                 return new DispatchRequest(totalSize, false/* success */);
             }
 
-            return new DispatchRequest(//
+            DispatchRequest dispatchRequest = new DispatchRequest(//
                 topic, // 1
                 queueId, // 2
                 physicOffset, // 3
@@ -363,6 +563,8 @@ public class CommitLog {
                 preparedTransactionOffset,// 12
                 producerGroup// 13
             );
+            dispatchRequest.setPropertiesMap(propertiesMap);
+            return dispatchRequest;
         } catch (Exception e) {
             log.error("[BUG]checkMessageAndReturnSize error, not expected here", e);
         }
@@ -370,7 +572,7 @@ public class CommitLog {
         return new DispatchRequest(-1, false /* success */);
     }
 
-    private int calMsgLength(int bodyLength, int topicLength, int propertiesLength) {
+    static int calMsgLength(int bodyLength, int topicLength, int propertiesLength) {
         final int msgLen = 4 // 1 TOTALSIZE
                 + 4 // 2 MAGICCODE
                 + 4 // 3 BODYCRC
@@ -402,73 +604,48 @@ public class CommitLog {
     }
 
     public void recoverAbnormally() {
+        this.recoverAbnormally(null);
+    }
+
+
+    /**
+     * @param executor verifies the files in parallel, null to verify them one by one
+     */
+    public void recoverAbnormally(final ExecutorService executor) {
         // recover by the minimum time stamp
         boolean checkCRCOnRecover = this.defaultMessageStore.getMessageStoreConfig().isCheckCRCOnRecover();
         final List<MapedFile> mapedFiles = this.mapedFileQueue.getMapedFiles();
         if (!mapedFiles.isEmpty()) {
-            // Looking beginning to recover from which file
-            int index = mapedFiles.size() - 1;
-            MapedFile mapedFile = null;
-            for (; index >= 0; index--) {
-                mapedFile = mapedFiles.get(index);
-                if (this.isMapedFileMatchedRecover(mapedFile)) {
-                    log.info("recover from this maped file " + mapedFile.getFileName());
-                    break;
+            int index = this.findRecoverIndexByCheckpoint(mapedFiles);
+            int position = 0;
+            if (index >= 0) {
+                long checkpointOffset = this.defaultMessageStore.getStoreCheckpoint().getMinMsgOffset();
+                position = (int) (checkpointOffset - mapedFiles.get(index).getFileFromOffset());
+                log.info("recover from checkpoint offset {}, maped file {}", checkpointOffset,
+                        mapedFiles.get(index).getFileName());
+            } else {
+                // Looking beginning to recover from which file
+                for (index = mapedFiles.size() - 1; index >= 0; index--) {
+                    if (this.isMapedFileMatchedRecover(mapedFiles.get(index))) {
+                        log.info("recover from this maped file " + mapedFiles.get(index).getFileName());
+                        break;
+                    }
                 }
-            }
 
-            if (index < 0) {
-                index = 0;
-                mapedFile = mapedFiles.get(index);
+                if (index < 0) {
+                    index = 0;
+                }
             }
 
-            ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
-            long processOffset = mapedFile.getFileFromOffset();
-            long mapedFileOffset = 0;
-            while (true) {
-                DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, checkCRCOnRecover);
-                int size = dispatchRequest.getMsgSize();
-
-                // Normal data
-                if (size > 0) {
-                    mapedFileOffset += size;
-
+            long processOffset = this.verifyFiles(mapedFiles, index, position, checkCRCOnRecover, executor);
 
-                    if (this.defaultMessageStore.getMessageStoreConfig().isDuplicationEnable()) {
-                        if (dispatchRequest.getCommitLogOffset() < this.defaultMessageStore.getConfirmOffset()) {
-                            this.defaultMessageStore.doDispatch(dispatchRequest);
-                        }
-                    } else {
-                        this.defaultMessageStore.doDispatch(dispatchRequest);
-                    }
-                }
-                // Intermediate file read error
-                else if (size == -1) {
-                    log.info("recover physics file end, " + mapedFile.getFileName());
-                    break;
-                }
-                // Come the end of the file, switch to the next file
-                // Since the return 0 representatives met last hole, this can
-                // not be included in truncate offset
-                else if (size == 0) {
-                    index++;
-                    if (index >= mapedFiles.size()) {
-                        // The current branch under normal circumstances should
-                        // not happen
-                        log.info("recover physics file over, last maped file " + mapedFile.getFileName());
-                        break;
-                    } else {
-                        mapedFile = mapedFiles.get(index);
-                        byteBuffer = mapedFile.sliceByteBuffer();
-                        processOffset = mapedFile.getFileFromOffset();
-                        mapedFileOffset = 0;
-                        log.info("recover next physics file, " + mapedFile.getFileName());
-                    }
-                }
-            }
+            long beginTime = System.currentTimeMillis();
+            long dispatchedNums = this.dispatchOnRecover(mapedFiles, index, position, processOffset);
+            log.info("dispatch {} messages on recover, elapsed time(ms) {}", dispatchedNums,
+                    System.currentTimeMillis() - beginTime);
 
-            processOffset += mapedFileOffset;
             this.mapedFileQueue.setCommittedWhere(processOffset);
+            this.mapedFileQueue.setChannelCommittedWhere(processOffset);
             this.mapedFileQueue.truncateDirtyFiles(processOffset);
 
             // Clear ConsumeQueue redundant data
@@ -477,10 +654,73 @@ public class CommitLog {
         // Commitlog case files are deleted
         else {
             this.mapedFileQueue.setCommittedWhere(0);
+            this.mapedFileQueue.setChannelCommittedWhere(0);
             this.defaultMessageStore.destroyLogics();
         }
     }
 
+
+    /**
+     * Everything below the checkpoint offsets is flushed and in flushed consume queues, but the index is only
+     * checkpointed by time, so they are not used when the index must be safe.
+     *
+     * @return index of the file holding the checkpoint offset, -1 to look up by the checkpoint timestamps
+     */
+    private int findRecoverIndexByCheckpoint(final List<MapedFile> mapedFiles) {
+        if (this.defaultMessageStore.getMessageStoreConfig().isMessageIndexEnable()
+                && this.defaultMessageStore.getMessageStoreConfig().isMessageIndexSafe()) {
+            return -1;
+        }
+
+        long checkpointOffset = this.defaultMessageStore.getStoreCheckpoint().getMinMsgOffset();
+        MapedFile lastMapedFile = mapedFiles.get(mapedFiles.size() - 1);
+        if (checkpointOffset < mapedFiles.get(0).getFileFromOffset()
+                || checkpointOffset > lastMapedFile.getFileFromOffset() + lastMapedFile.getFileSize()) {
+            return -1;
+        }
+
+        for (int index = mapedFiles.size() - 1; index >= 0; index--) {
+            if (mapedFiles.get(index).getFileFromOffset() <= checkpointOffset) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Dispatches the verified messages again, consume queues skip those they hold already.
+     */
+    private long dispatchOnRecover(final List<MapedFile> mapedFiles, final int fromIndex, final int fromPosition,
+                                   final long processOffset) {
+        long dispatchedNums = 0;
+        for (int i = fromIndex; i < mapedFiles.size(); i++) {
+            MapedFile mapedFile = mapedFiles.get(i);
+            if (mapedFile.getFileFromOffset() >= processOffset) {
+                break;
+            }
+
+            ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
+            byteBuffer.position(Math.min(i == fromIndex ? fromPosition : 0, byteBuffer.limit()));
+            while (mapedFile.getFileFromOffset() + byteBuffer.position() < processOffset) {
+                DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, false, false);
+                if (!dispatchRequest.isSuccess() || dispatchRequest.getMsgSize() <= 0) {
+                    break;
+                }
+
+                if (this.defaultMessageStore.getMessageStoreConfig().isDuplicationEnable()) {
+                    if (dispatchRequest.getCommitLogOffset() < this.defaultMessageStore.getConfirmOffset()) {
+                        this.defaultMessageStore.doDispatch(dispatchRequest);
+                    }
+                } else {
+                    this.defaultMessageStore.doDispatch(dispatchRequest);
+                }
+                dispatchedNums++;
+            }
+        }
+        return dispatchedNums;
+    }
+
     private boolean isMapedFileMatchedRecover(final MapedFile mapedFile) {
         ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
 
@@ -527,6 +767,48 @@ public class CommitLog {
     }
 
     public PutMessageResult putMessage(final MessageExtBrokerInner msg) {
+        PutMessageResult putMessageResult = this.appendMessage(msg);
+        if (putMessageResult.isOk()) {
+            this.handleDiskFlushAndHA(putMessageResult, putMessageResult.getAppendMessageResult(), msg);
+        }
+        return putMessageResult;
+    }
+
+
+    /**
+     * Like {@link #putMessage(MessageExtBrokerInner)}, but the calling thread does not wait for the flush or the
+     * slave, the callback is run by the thread that completes the wait instead.
+     */
+    public void asyncPutMessage(final MessageExtBrokerInner msg, final PutMessageCallback callback) {
+        PutMessageResult putMessageResult = this.appendMessage(msg);
+        if (putMessageResult.isOk()) {
+            this.asyncHandleDiskFlushAndHA(putMessageResult, msg, callback);
+        } else {
+            callback.operationComplete(putMessageResult);
+        }
+    }
+
+
+    public PutMessageResult putMessages(final MessageExtBatch messageExtBatch) {
+        PutMessageResult putMessageResult = this.appendMessages(messageExtBatch);
+        if (putMessageResult.isOk()) {
+            this.handleDiskFlushAndHA(putMessageResult, putMessageResult.getAppendMessageResult(), messageExtBatch);
+        }
+        return putMessageResult;
+    }
+
+
+    public void asyncPutMessages(final MessageExtBatch messageExtBatch, final PutMessageCallback callback) {
+        PutMessageResult putMessageResult = this.appendMessages(messageExtBatch);
+        if (putMessageResult.isOk()) {
+            this.asyncHandleDiskFlushAndHA(putMessageResult, messageExtBatch, callback);
+        } else {
+            callback.operationComplete(putMessageResult);
+        }
+    }
+
+
+    private PutMessageResult appendMessage(final MessageExtBrokerInner msg) {
         // Set the storage time
         msg.setStoreTimestamp(System.currentTimeMillis());
         // Set the message body BODY CRC (consider the most appropriate setting
@@ -560,12 +842,37 @@ public class CommitLog {
                 msg.setTopic(topic);
                 msg.setQueueId(queueId);
             }
+            // Timer Delivery, delayed by milliseconds
+            else if (this.defaultMessageStore.getTimerMessageService() != null) {
+                this.defaultMessageStore.getTimerMessageService().transformTimerMessage(msg);
+                topic = msg.getTopic();
+                queueId = msg.getQueueId();
+            }
+        }
+
+        if (tranType == MessageSysFlag.TransactionCommitType
+                || tranType == MessageSysFlag.TransactionRollbackType) {
+            // Only depends on the message itself, so it no longer needs to be done in lock
+            MessageAccessor.putProperty(msg, MessageConst.PROPERTY_TRAN_STATE_OFFSET, String.valueOf(msg.getQueueOffset()));
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        }
+
+        // Serialize the message out of the lock, only the offsets and the store
+        // timestamp are patched in lock
+        MessageExtEncoder messageExtEncoder = this.batchEncoderThreadLocal.get();
+        PutMessageResult encodeResult = messageExtEncoder.encode(msg);
+        if (encodeResult != null) {
+            return encodeResult;
         }
+        msg.setEncodedBuff(messageExtEncoder.getEncoderBuffer());
 
         long eclipseTimeInLock = 0;
+        long lockHoldTimeMicros = 0;
         MapedFile unlockMapedFile = null;
         MapedFile mapedFile = this.mapedFileQueue.getLastMapedFileWithLock();
-        synchronized (this) {
+        putMessageLock.lock();
+        try {
+            final long beginLockNanos = System.nanoTime();
             long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
             this.beginTimeInLock = beginLockTimestamp;
 
@@ -610,8 +917,16 @@ public class CommitLog {
             }
 
             eclipseTimeInLock = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
+            lockHoldTimeMicros = (System.nanoTime() - beginLockNanos) / 1000;
             beginTimeInLock = 0;
-        } // end of synchronized
+        } finally {
+            putMessageLock.unlock();
+            msg.setEncodedBuff(null);
+        }
+
+        storeStatsService.setPutMessageLockHoldTime(lockHoldTimeMicros);
+        result.setMsgId(MessageDecoder.createMessageId(messageExtEncoder.getMsgIdMemory(), msg.getStoreHostBytes(),
+                result.getWroteOffset()));
 
         if (eclipseTimeInLock > 1000) {
             log.warn("[NOTIFYME]putMessage in lock cost time(ms)={}, bodyLength={} AppendMessageResult={}", eclipseTimeInLock, msg.getBody().length, result);
@@ -626,13 +941,124 @@ public class CommitLog {
         storeStatsService.getSinglePutMessageTopicTimesTotal(msg.getTopic()).incrementAndGet();
         storeStatsService.getSinglePutMessageTopicSizeTotal(topic).addAndGet(result.getWroteBytes());
 
+        return putMessageResult;
+    }
+
+    private PutMessageResult appendMessages(final MessageExtBatch messageExtBatch) {
+        messageExtBatch.setStoreTimestamp(System.currentTimeMillis());
+        AppendMessageResult result;
+
+        StoreStatsService storeStatsService = this.defaultMessageStore.getStoreStatsService();
+
+        final int tranType = MessageSysFlag.getTransactionValue(messageExtBatch.getSysFlag());
+
+        if (tranType != MessageSysFlag.TransactionNotType) {
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+        if (messageExtBatch.getDelayTimeLevel() > 0
+                || messageExtBatch.getProperty(MessageConst.PROPERTY_TIMER_DELAY_MS) != null
+                || messageExtBatch.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS) != null) {
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+
+        // Serialize all the messages of the batch out of the lock
+        MessageExtEncoder messageExtEncoder = this.batchEncoderThreadLocal.get();
+        PutMessageResult encodeResult = messageExtEncoder.encode(messageExtBatch);
+        if (encodeResult != null) {
+            return encodeResult;
+        }
+        messageExtBatch.setEncodedBuff(messageExtEncoder.getEncoderBuffer());
+
+        long eclipseTimeInLock = 0;
+        long lockHoldTimeMicros = 0;
+        MapedFile unlockMapedFile = null;
+        MapedFile mapedFile = this.mapedFileQueue.getLastMapedFileWithLock();
+        putMessageLock.lock();
+        try {
+            final long beginLockNanos = System.nanoTime();
+            long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
+            this.beginTimeInLock = beginLockTimestamp;
+
+            // Here settings are stored timestamp, in order to ensure an orderly
+            // global
+            messageExtBatch.setStoreTimestamp(beginLockTimestamp);
+
+            if (null == mapedFile || mapedFile.isFull()) {
+                mapedFile = this.mapedFileQueue.getLastMapedFile();
+            }
+            if (null == mapedFile) {
+                log.error("Create maped file1 error, topic: {} clientAddr: {}", messageExtBatch.getTopic(), messageExtBatch.getBornHostString());
+                beginTimeInLock = 0;
+                return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null);
+            }
+
+            result = mapedFile.appendMessages(messageExtBatch, this.appendMessageCallback);
+            switch (result.getStatus()) {
+                case PUT_OK:
+                    break;
+                case END_OF_FILE:
+                    unlockMapedFile = mapedFile;
+                    // Create a new file, re-write the messages
+                    mapedFile = this.mapedFileQueue.getLastMapedFile();
+                    if (null == mapedFile) {
+                        log.error("Create maped file2 error, topic: {} clientAddr: {}", messageExtBatch.getTopic(), messageExtBatch.getBornHostString());
+                        beginTimeInLock = 0;
+                        return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result);
+                    }
+                    result = mapedFile.appendMessages(messageExtBatch, this.appendMessageCallback);
+                    break;
+                case MESSAGE_SIZE_EXCEEDED:
+                case PROPERTIES_SIZE_EXCEEDED:
+                    beginTimeInLock = 0;
+                    return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
+                case UNKNOWN_ERROR:
+                default:
+                    beginTimeInLock = 0;
+                    return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+            }
+
+            eclipseTimeInLock = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
+            lockHoldTimeMicros = (System.nanoTime() - beginLockNanos) / 1000;
+            beginTimeInLock = 0;
+        } finally {
+            putMessageLock.unlock();
+            messageExtBatch.setEncodedBuff(null);
+        }
+
+        storeStatsService.setPutMessageLockHoldTime(lockHoldTimeMicros);
+        result.setMsgId(messageExtEncoder.createBatchMessageIds(messageExtBatch.getStoreHostBytes(), result.getWroteOffset(),
+                result.getWroteBytes()));
+
+        if (eclipseTimeInLock > 1000) {
+            log.warn("[NOTIFYME]putMessages in lock cost time(ms)={}, bodyLength={} AppendMessageResult={}", eclipseTimeInLock, messageExtBatch.getBody().length, result);
+        }
+
+        if (null != unlockMapedFile) {
+            this.defaultMessageStore.unlockMapedFile(unlockMapedFile);
+        }
+
+        PutMessageResult putMessageResult = new PutMessageResult(PutMessageStatus.PUT_OK, result);
+
+        // Statistics
+        storeStatsService.getSinglePutMessageTopicTimesTotal(messageExtBatch.getTopic()).addAndGet(result.getMsgNum());
+        storeStatsService.getSinglePutMessageTopicSizeTotal(messageExtBatch.getTopic()).addAndGet(result.getWroteBytes());
+
+        return putMessageResult;
+    }
+
+    /**
+     * Wait for the flush and the slave when required, a timeout is reported through putMessageResult
+     */
+    private void handleDiskFlushAndHA(final PutMessageResult putMessageResult, final AppendMessageResult result,
+                                      final MessageExt msg) {
         GroupCommitRequest request = null;
 
         // Synchronization flush
         if (FlushDiskType.SYNC_FLUSH == this.defaultMessageStore.getMessageStoreConfig().getFlushDiskType()) {
             GroupCommitService service = (GroupCommitService) this.flushCommitLogService;
             if (msg.isWaitStoreMsgOK()) {
-                request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
+                request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes(),
+                        this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout());
                 service.putRequest(request);
                 boolean flushOK = request.waitForFlush(this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout());
                 if (!flushOK) {
@@ -646,7 +1072,11 @@ public class CommitLog {
         }
         // Asynchronous flush
         else {
-            this.flushCommitLogService.wakeup();
+            if (this.defaultMessageStore.getMessageStoreConfig().isTransientStorePoolEnable()) {
+                this.commitLogService.wakeup();
+            } else {
+                this.flushCommitLogService.wakeup();
+            }
         }
 
         // Synchronous write double
@@ -656,7 +1086,8 @@ public class CommitLog {
                 // Determine whether to wait
                 if (service.isSlaveOK(result.getWroteOffset() + result.getWroteBytes())) {
                     if (null == request) {
-                        request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
+                        request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes(),
+                                this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout());
                     }
                     service.putRequest(request);
 
@@ -678,10 +1109,110 @@ public class CommitLog {
                 }
             }
         }
+    }
 
-        return putMessageResult;
+    /**
+     * Same waits as {@link #handleDiskFlushAndHA}, chained by the flush and transfer threads instead of blocking.
+     */
+    private void asyncHandleDiskFlushAndHA(final PutMessageResult putMessageResult, final MessageExt msg,
+                                           final PutMessageCallback callback) {
+        final AppendMessageResult result = putMessageResult.getAppendMessageResult();
+        final long nextOffset = result.getWroteOffset() + result.getWroteBytes();
+        final long timeout = this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout();
+
+        if (FlushDiskType.SYNC_FLUSH == this.defaultMessageStore.getMessageStoreConfig().getFlushDiskType()) {
+            GroupCommitService service = (GroupCommitService) this.flushCommitLogService;
+            if (msg.isWaitStoreMsgOK()) {
+                service.putRequest(new GroupCommitRequest(nextOffset, timeout) {
+                    @Override
+                    protected void onWakeup(boolean flushOK) {
+                        if (!flushOK) {
+                            log.error("do groupcommit, wait for flush failed, topic: " + msg.getTopic() + " tags: " + msg.getTags()
+                                    + " client address: " + msg.getBornHostString());
+                            putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_DISK_TIMEOUT);
+                        }
+                        CommitLog.this.asyncHandleHA(putMessageResult, msg, nextOffset, timeout, callback);
+                    }
+                });
+                return;
+            }
+            service.wakeup();
+        } else {
+            if (this.defaultMessageStore.getMessageStoreConfig().isTransientStorePoolEnable()) {
+                this.commitLogService.wakeup();
+            } else {
+                this.flushCommitLogService.wakeup();
+            }
+        }
+
+        this.asyncHandleHA(putMessageResult, msg, nextOffset, timeout, callback);
+    }
+
+
+    private void asyncHandleHA(final PutMessageResult putMessageResult, final MessageExt msg, final long nextOffset,
+                               final long timeout, final PutMessageCallback callback) {
+        if (BrokerRole.SYNC_MASTER == this.defaultMessageStore.getMessageStoreConfig().getBrokerRole() && msg.isWaitStoreMsgOK()) {
+            HAService service = this.defaultMessageStore.getHaService();
+            if (service.isSlaveOK(nextOffset)) {
+                service.putRequest(new GroupCommitRequest(nextOffset, timeout) {
+                    @Override
+                    protected void onWakeup(boolean transferOK) {
+                        if (!transferOK) {
+                            log.error("do sync transfer other node, wait return, but failed, topic: " + msg.getTopic() + " tags: "
+                                    + msg.getTags() + " client address: " + msg.getBornHostString());
+                            putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_SLAVE_TIMEOUT);
+                        }
+                        callback.operationComplete(putMessageResult);
+                    }
+                });
+                service.getWaitNotifyObject().wakeupAll();
+                return;
+            }
+            putMessageResult.setPutMessageStatus(PutMessageStatus.SLAVE_NOT_AVAILABLE);
+        }
+
+        callback.operationComplete(putMessageResult);
     }
 
+    /**
+     * Dispatches the messages stored since the timestamp to the dispatcher again, for structures kept in memory
+     * only. Files are skipped by the store timestamp of their first message.
+     *
+     * @return count of messages dispatched
+     */
+    public int replay(final long beginTimestamp, final CommitLogDispatcher dispatcher) {
+        final List<MapedFile> mapedFiles = this.mapedFileQueue.getMapedFiles();
+        if (mapedFiles.isEmpty()) {
+            return 0;
+        }
+
+        int index = mapedFiles.size() - 1;
+        while (index > 0
+                && mapedFiles.get(index).sliceByteBuffer().getLong(MessageDecoder.MessageStoreTimestampPostion) >= beginTimestamp) {
+            index--;
+        }
+
+        final long maxOffset = this.getMaxOffset();
+        int count = 0;
+        for (; index < mapedFiles.size(); index++) {
+            MapedFile mapedFile = mapedFiles.get(index);
+            ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
+            while (mapedFile.getFileFromOffset() + byteBuffer.position() < maxOffset) {
+                DispatchRequest request = this.checkMessageAndReturnSize(byteBuffer, false, false);
+                if (!request.isSuccess() || request.getMsgSize() == 0) {
+                    break;
+                }
+                if (request.getStoreTimestamp() >= beginTimestamp) {
+                    dispatcher.dispatch(request);
+                    count++;
+                }
+            }
+        }
+        log.info("replay {} messages stored since {}", count, beginTimestamp);
+        return count;
+    }
+
+
     /**
      * According to receive certain message or offset storage time if an error
      * occurs, it returns -1
@@ -702,6 +1233,13 @@ public class CommitLog {
     }
 
     public long getMinOffset() {
+        if (this.tieredCommitLog != null) {
+            long tieredMinOffset = this.tieredCommitLog.getMinOffset();
+            if (tieredMinOffset >= 0) {
+                return tieredMinOffset;
+            }
+        }
+
         MapedFile mapedFile = this.mapedFileQueue.getFirstMapedFileOnLock();
         if (mapedFile != null) {
             if (mapedFile.isAvailable()) {
@@ -715,6 +1253,10 @@ public class CommitLog {
     }
 
     public SelectMapedBufferResult getMessage(final long offset, final int size) {
+        if (this.tieredCommitLog != null && this.tieredCommitLog.contains(offset)) {
+            return this.tieredCommitLog.getMessage(offset, size);
+        }
+
         int mapedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
         MapedFile mapedFile = this.mapedFileQueue.findMapedFileByOffset(offset, (0 == offset ? true : false));
         if (mapedFile != null) {
@@ -726,11 +1268,48 @@ public class CommitLog {
         return null;
     }
 
+    /**
+     * Like {@link #getMessage(long, int)}, but the message is copied into a pooled buffer without being left in
+     * page cache.
+     */
+    public SelectMapedBufferResult getMessageWithoutCache(final long offset, final int size) {
+        if (this.tieredCommitLog != null && this.tieredCommitLog.contains(offset)) {
+            return this.tieredCommitLog.getMessage(offset, size);
+        }
+
+        int mapedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
+        MapedFile mapedFile = this.mapedFileQueue.findMapedFileByOffset(offset, (0 == offset ? true : false));
+        if (mapedFile != null) {
+            ColdReadBufferPool pool = this.defaultMessageStore.getColdReadBufferPool();
+            ByteBuffer byteBuffer = pool.borrowBuffer(size);
+            if (mapedFile.readWithoutCache((int) (offset % mapedFileSize), size, byteBuffer)) {
+                return new ColdReadBufferPool.ColdReadResult(offset, byteBuffer, size, pool);
+            }
+            pool.returnBuffer(byteBuffer);
+        }
+
+        return null;
+    }
+
     public long rollNextFile(final long offset) {
         int mapedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
         return (offset + mapedFileSize - offset % mapedFileSize);
     }
 
+    public MapedFileQueue getMapedFileQueue() {
+        return mapedFileQueue;
+    }
+
+    public TieredCommitLog getTieredCommitLog() {
+        return tieredCommitLog;
+    }
+
+
+    public void setTieredCommitLog(TieredCommitLog tieredCommitLog) {
+        this.tieredCommitLog = tieredCommitLog;
+    }
+
+
     public HashMap<String, Long> getTopicQueueTable() {
         return topicQueueTable;
     }
@@ -747,7 +1326,8 @@ public class CommitLog {
 
 
     public boolean appendData(long startOffset, byte[] data) {
-        synchronized (this) {
+        putMessageLock.lock();
+        try {
             MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile(startOffset);
             if (null == mapedFile) {
                 log.error("appendData getLastMapedFile error  " + startOffset);
@@ -755,6 +1335,8 @@ public class CommitLog {
             }
 
             return mapedFile.appendMessage(data);
+        } finally {
+            putMessageLock.unlock();
         }
     }
 
@@ -765,8 +1347,11 @@ public class CommitLog {
 
     public void removeQueurFromTopicQueueTable(final String topic, final int queueId) {
         String key = topic + "-" + queueId;
-        synchronized (this) {
+        putMessageLock.lock();
+        try {
             this.topicQueueTable.remove(key);
+        } finally {
+            putMessageLock.unlock();
         }
 
         log.info("removeQueurFromTopicQueueTable OK Topic: {} QueueId: {}", topic, queueId);
@@ -777,10 +1362,69 @@ public class CommitLog {
     }
 
     abstract class FlushCommitLogService extends ServiceThread {
+        protected static final int RetryTimesOver = 3;
+    }
+
+    /**
+     * Commit the data appended in write buffer to FileChannel, then wake up the flush service to force it
+     */
+    class CommitRealTimeService extends FlushCommitLogService {
+        private long lastCommitTimestamp = 0;
+
+
+        public void run() {
+            CommitLog.log.info(this.getServiceName() + " service started");
+
+            while (!this.isStoped()) {
+                int interval = CommitLog.this.defaultMessageStore.getMessageStoreConfig().getCommitIntervalCommitLog();
+                int commitDataLeastPages = CommitLog.this.defaultMessageStore.getMessageStoreConfig().getCommitCommitLogLeastPages();
+
+                int commitDataThoroughInterval =
+                        CommitLog.this.defaultMessageStore.getMessageStoreConfig().getCommitCommitLogThoroughInterval();
+
+                long begin = System.currentTimeMillis();
+                if (begin >= (this.lastCommitTimestamp + commitDataThoroughInterval)) {
+                    this.lastCommitTimestamp = begin;
+                    commitDataLeastPages = 0;
+                }
+
+                try {
+                    boolean result = CommitLog.this.mapedFileQueue.commitToChannel(commitDataLeastPages);
+                    long end = System.currentTimeMillis();
+                    // result is false means some data has been committed
+                    if (!result) {
+                        this.lastCommitTimestamp = end;
+                        CommitLog.this.flushCommitLogService.wakeup();
+                    }
+
+                    if (end - begin > 500) {
+                        CommitLog.log.info("Commit data to file costs {} ms", end - begin);
+                    }
+
+                    this.waitForRunning(interval);
+                } catch (Throwable e) {
+                    CommitLog.log.error(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            // Normal shutdown, to ensure that all the data is committed before exit
+            boolean result = false;
+            for (int i = 0; i < RetryTimesOver && !result; i++) {
+                result = CommitLog.this.mapedFileQueue.commitToChannel(0);
+                CommitLog.log.info(this.getServiceName() + " service shutdown, retry " + (i + 1) + " times " + (result ? "OK" : "Not OK"));
+            }
+
+            CommitLog.log.info(this.getServiceName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return CommitRealTimeService.class.getSimpleName();
+        }
     }
 
     class FlushRealTimeService extends FlushCommitLogService {
-        private static final int RetryTimesOver = 3;
         private long lastFlushTimestamp = 0;
         private long printTimes = 0;
 
@@ -823,6 +1467,7 @@ public class CommitLog {
                     if (storeTimestamp > 0) {
                         CommitLog.this.defaultMessageStore.getStoreCheckpoint().setPhysicMsgTimestamp(storeTimestamp);
                     }
+                    CommitLog.this.defaultMessageStore.getStoreCheckpoint().setPhysicMsgOffset(CommitLog.this.getFlushedWhere());
                 } catch (Exception e) {
                     CommitLog.log.warn(this.getServiceName() + " service has exception. ", e);
                     this.printFlushProgress();
@@ -835,6 +1480,7 @@ public class CommitLog {
                 result = CommitLog.this.mapedFileQueue.commit(0);
                 CommitLog.log.info(this.getServiceName() + " service shutdown, retry " + (i + 1) + " times " + (result ? "OK" : "Not OK"));
             }
+            CommitLog.this.defaultMessageStore.getStoreCheckpoint().setPhysicMsgOffset(CommitLog.this.getFlushedWhere());
 
             this.printFlushProgress();
 
@@ -864,10 +1510,13 @@ public class CommitLog {
         private final long nextOffset;
         private final CountDownLatch countDownLatch = new CountDownLatch(1);
         private volatile boolean flushOK = false;
+        // the slave is not waited for after it
+        private final long deadLine;
 
 
-        public GroupCommitRequest(long nextOffset) {
+        public GroupCommitRequest(long nextOffset, long timeoutMillis) {
             this.nextOffset = nextOffset;
+            this.deadLine = System.currentTimeMillis() + timeoutMillis;
         }
 
 
@@ -876,9 +1525,26 @@ public class CommitLog {
         }
 
 
+        public long getDeadLine() {
+            return deadLine;
+        }
+
+
         public void wakeupCustomer(final boolean flushOK) {
             this.flushOK = flushOK;
             this.countDownLatch.countDown();
+            try {
+                this.onWakeup(flushOK);
+            } catch (Throwable e) {
+                log.error("group commit request callback exception", e);
+            }
+        }
+
+
+        /**
+         * Continuation of async puts, run by the thread waking up the request.
+         */
+        protected void onWakeup(final boolean flushOK) {
         }
 
 
@@ -940,6 +1606,7 @@ public class CommitLog {
                 if (storeTimestamp > 0) {
                     CommitLog.this.defaultMessageStore.getStoreCheckpoint().setPhysicMsgTimestamp(storeTimestamp);
                 }
+                CommitLog.this.defaultMessageStore.getStoreCheckpoint().setPhysicMsgOffset(CommitLog.this.getFlushedWhere());
 
                 this.requestsRead.clear();
             } else {
@@ -1001,17 +1668,12 @@ public class CommitLog {
     class DefaultAppendMessageCallback implements AppendMessageCallback {
         // File at the end of the minimum fixed length empty
         private static final int END_FILE_MIN_BLANK_LENGTH = 4 + 4;
-        private final ByteBuffer msgIdMemory;
-        // Store the message content
+        // Store the blank message at the end of file
         private final ByteBuffer msgStoreItemMemory;
-        // The maximum length of the message
-        private final int maxMessageSize;
 
 
         DefaultAppendMessageCallback(final int size) {
-            this.msgIdMemory = ByteBuffer.allocate(MessageDecoder.MSG_ID_LENGTH);
             this.msgStoreItemMemory = ByteBuffer.allocate(size + END_FILE_MIN_BLANK_LENGTH);
-            this.maxMessageSize = size;
         }
 
 
@@ -1020,15 +1682,24 @@ public class CommitLog {
         }
 
 
+        /**
+         * The message has already been serialized by {@link MessageExtEncoder}, so
+         * here only the queue offset, physical offset and store timestamp are
+         * patched before the copy. The message id is created by the caller out of
+         * the lock.
+         */
         public AppendMessageResult doAppend(final long fileFromOffset, final ByteBuffer byteBuffer, final int maxBlank, final Object msg) {
             // STORETIMESTAMP + STOREHOSTADDRESS + OFFSET <br>
             MessageExtBrokerInner msgInner = (MessageExtBrokerInner) msg;
+            final ByteBuffer preEncodeBuffer = msgInner.getEncodedBuff();
+            if (null == preEncodeBuffer) {
+                CommitLog.log.error("[BUG]message is not encoded before append, topic: " + msgInner.getTopic());
+                return new AppendMessageResult(AppendMessageStatus.UNKNOWN_ERROR);
+            }
+
             // PHY OFFSET
             long wroteOffset = fileFromOffset + byteBuffer.position();
 
-
-            String msgId = MessageDecoder.createMessageId(this.msgIdMemory, msgInner.getStoreHostBytes(), wroteOffset);
-
             // Record ConsumeQueue information
             String key = msgInner.getTopic() + "-" + msgInner.getQueueId();
             Long queueOffset = CommitLog.this.topicQueueTable.get(key);
@@ -1048,43 +1719,13 @@ public class CommitLog {
                                     .getTranStateTableOffset().get();
                     break;
                 case MessageSysFlag.TransactionNotType:
-                    break;
                 case MessageSysFlag.TransactionRollbackType:
                 case MessageSysFlag.TransactionCommitType:
-                    //see [endMessageTransaction(MessageExt msgExt),Put the following code in this method may better for gc]
-                    MessageAccessor.putProperty(msgInner,MessageConst.PROPERTY_TRAN_STATE_OFFSET,String.valueOf(msgInner.getQueueOffset()));
-                    msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgInner.getProperties()));
-                    break;
                 default:
                     break;
             }
 
-            /**
-             * Serialize message
-             */
-            final byte[] propertiesData =
-                    msgInner.getPropertiesString() == null ? null : msgInner.getPropertiesString().getBytes(MessageDecoder.CHARSET_UTF8);
-
-            if (propertiesData != null && propertiesData.length > Short.MAX_VALUE) {
-                log.warn("putMessage message properties length too long. length={}", propertiesData.length);
-                return new AppendMessageResult(AppendMessageStatus.PROPERTIES_SIZE_EXCEEDED);
-            }
-
-            final short propertiesLength = propertiesData == null ? 0 : (short) propertiesData.length;
-
-            final byte[] topicData = msgInner.getTopic().getBytes(MessageDecoder.CHARSET_UTF8);
-            final int topicLength = topicData == null ? 0 : topicData.length;
-
-            final int bodyLength = msgInner.getBody() == null ? 0 : msgInner.getBody().length;
-
-            final int msgLen = calMsgLength(bodyLength, topicLength, propertiesLength);
-
-            // Exceeds the maximum message
-            if (msgLen > this.maxMessageSize) {
-                CommitLog.log.warn("message size exceeded, msg total size: " + msgLen + ", msg body size: " + bodyLength
-                        + ", maxMessageSize: " + this.maxMessageSize);
-                return new AppendMessageResult(AppendMessageStatus.MESSAGE_SIZE_EXCEEDED);
-            }
+            final int msgLen = preEncodeBuffer.getInt(0);
 
             // Determines whether there is sufficient free space
             if ((msgLen + END_FILE_MIN_BLANK_LENGTH) > maxBlank) {
@@ -1099,57 +1740,24 @@ public class CommitLog {
                 // Here the length of the specially set maxBlank
                 final long beginTimeMills = CommitLog.this.defaultMessageStore.now();
                 byteBuffer.put(this.msgStoreItemMemory.array(), 0, maxBlank);
-                return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, wroteOffset, maxBlank, msgId, msgInner.getStoreTimestamp(),
+                return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, wroteOffset, maxBlank, null, msgInner.getStoreTimestamp(),
                         queueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
             }
 
-            // Initialization of storage space
-            this.resetMsgStoreItemMemory(msgLen);
-            // 1 TOTALSIZE
-            this.msgStoreItemMemory.putInt(msgLen);
-            // 2 MAGICCODE
-            this.msgStoreItemMemory.putInt(CommitLog.MessageMagicCode);
-            // 3 BODYCRC
-            this.msgStoreItemMemory.putInt(msgInner.getBodyCRC());
-            // 4 QUEUEID
-            this.msgStoreItemMemory.putInt(msgInner.getQueueId());
-            // 5 FLAG
-            this.msgStoreItemMemory.putInt(msgInner.getFlag());
             // 6 QUEUEOFFSET
-            this.msgStoreItemMemory.putLong(queueOffset);
+            preEncodeBuffer.putLong(MessageExtEncoder.QueueOffsetPostion, queueOffset);
             // 7 PHYSICALOFFSET
-            this.msgStoreItemMemory.putLong(fileFromOffset + byteBuffer.position());
-            // 8 SYSFLAG
-            this.msgStoreItemMemory.putInt(msgInner.getSysFlag());
-            // 9 BORNTIMESTAMP
-            this.msgStoreItemMemory.putLong(msgInner.getBornTimestamp());
-            // 10 BORNHOST
-            this.msgStoreItemMemory.put(msgInner.getBornHostBytes());
+            preEncodeBuffer.putLong(MessageDecoder.MessagePhysicOffsetPostion, wroteOffset);
             // 11 STORETIMESTAMP
-            this.msgStoreItemMemory.putLong(msgInner.getStoreTimestamp());
-            // 12 STOREHOSTADDRESS
-            this.msgStoreItemMemory.put(msgInner.getStoreHostBytes());
-            // 13 RECONSUMETIMES
-            this.msgStoreItemMemory.putInt(msgInner.getReconsumeTimes());
-            // 14 Prepared Transaction Offset
-            this.msgStoreItemMemory.putLong(msgInner.getPreparedTransactionOffset());
-            // 15 BODY
-            this.msgStoreItemMemory.putInt(bodyLength);
-            if (bodyLength > 0)
-                this.msgStoreItemMemory.put(msgInner.getBody());
-            // 16 TOPIC
-            this.msgStoreItemMemory.put((byte) topicLength);
-            this.msgStoreItemMemory.put(topicData);
-            // 17 PROPERTIES
-            this.msgStoreItemMemory.putShort(propertiesLength);
-            if (propertiesLength > 0)
-                this.msgStoreItemMemory.put(propertiesData);
+            preEncodeBuffer.putLong(MessageDecoder.MessageStoreTimestampPostion, msgInner.getStoreTimestamp());
 
             final long beginTimeMills = CommitLog.this.defaultMessageStore.now();
             // Write messages to the queue buffer
-            byteBuffer.put(this.msgStoreItemMemory.array(), 0, msgLen);
+            preEncodeBuffer.position(0);
+            preEncodeBuffer.limit(msgLen);
+            byteBuffer.put(preEncodeBuffer);
 
-            AppendMessageResult result = new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, msgLen, msgId,
+            AppendMessageResult result = new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, msgLen, null,
                     msgInner.getStoreTimestamp(), queueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
 
             switch (tranType) {
@@ -1171,6 +1779,78 @@ public class CommitLog {
         }
 
 
+        /**
+         * All the messages of the batch are written in one go with consecutive
+         * queue offsets, or none of them when the file has no room left.
+         */
+        public AppendMessageResult doAppend(final long fileFromOffset, final ByteBuffer byteBuffer, final int maxBlank,
+                                            final MessageExtBatch messageExtBatch) {
+            final ByteBuffer messagesByteBuff = messageExtBatch.getEncodedBuff();
+            if (null == messagesByteBuff) {
+                CommitLog.log.error("[BUG]messages are not encoded before append, topic: " + messageExtBatch.getTopic());
+                return new AppendMessageResult(AppendMessageStatus.UNKNOWN_ERROR);
+            }
+
+            // PHY OFFSET
+            long wroteOffset = fileFromOffset + byteBuffer.position();
+
+            // Record ConsumeQueue information
+            String key = messageExtBatch.getTopic() + "-" + messageExtBatch.getQueueId();
+            Long queueOffset = CommitLog.this.topicQueueTable.get(key);
+            if (null == queueOffset) {
+                queueOffset = 0L;
+                CommitLog.this.topicQueueTable.put(key, queueOffset);
+            }
+            final long beginQueueOffset = queueOffset;
+
+            final int totalMsgLen = messagesByteBuff.limit();
+
+            // Determines whether there is sufficient free space for the whole batch
+            if ((totalMsgLen + END_FILE_MIN_BLANK_LENGTH) > maxBlank) {
+                this.resetMsgStoreItemMemory(maxBlank);
+                // 1 TOTALSIZE
+                this.msgStoreItemMemory.putInt(maxBlank);
+                // 2 MAGICCODE
+                this.msgStoreItemMemory.putInt(CommitLog.BlankMagicCode);
+                // 3 The remaining space may be any value
+                //
+
+                final long beginTimeMills = CommitLog.this.defaultMessageStore.now();
+                byteBuffer.put(this.msgStoreItemMemory.array(), 0, maxBlank);
+                return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, wroteOffset, maxBlank, null,
+                        messageExtBatch.getStoreTimestamp(), beginQueueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
+            }
+
+            int msgNum = 0;
+            int msgPos = 0;
+            while (msgPos < totalMsgLen) {
+                final int msgLen = messagesByteBuff.getInt(msgPos);
+                // 6 QUEUEOFFSET
+                messagesByteBuff.putLong(msgPos + MessageExtEncoder.QueueOffsetPostion, queueOffset++);
+                // 7 PHYSICALOFFSET
+                messagesByteBuff.putLong(msgPos + MessageDecoder.MessagePhysicOffsetPostion, wroteOffset + msgPos);
+                // 11 STORETIMESTAMP
+                messagesByteBuff.putLong(msgPos + MessageDecoder.MessageStoreTimestampPostion, messageExtBatch.getStoreTimestamp());
+                msgPos += msgLen;
+                msgNum++;
+            }
+
+            final long beginTimeMills = CommitLog.this.defaultMessageStore.now();
+            messagesByteBuff.position(0);
+            messagesByteBuff.limit(totalMsgLen);
+            byteBuffer.put(messagesByteBuff);
+
+            AppendMessageResult result = new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, totalMsgLen, null,
+                    messageExtBatch.getStoreTimestamp(), beginQueueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
+            result.setMsgNum(msgNum);
+
+            // The next update ConsumeQueue information
+            CommitLog.this.topicQueueTable.put(key, queueOffset);
+
+            return result;
+        }
+
+
         private void resetMsgStoreItemMemory(final int length) {
             this.msgStoreItemMemory.flip();
             this.msgStoreItemMemory.limit(length);
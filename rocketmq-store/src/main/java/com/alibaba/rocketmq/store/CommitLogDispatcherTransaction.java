@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+import com.alibaba.rocketmq.store.transaction.TransactionStateService;
+
+
+class CommitLogDispatcherTransaction implements CommitLogDispatcher {
+    private final DefaultMessageStore defaultMessageStore;
+
+
+    public CommitLogDispatcherTransaction(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+
+    @Override
+    public void dispatch(DispatchRequest req) {
+        final int tranType = MessageSysFlag.getTransactionValue(req.getSysFlag());
+        if (req.getProducerGroup() != null) {
+            switch (tranType) {
+                case MessageSysFlag.TransactionNotType:
+                    break;
+                case MessageSysFlag.TransactionPreparedType:
+                    this.defaultMessageStore.getTransactionStateService().getPreparedTransactionIndex()
+                            .registerGroupName(req.getProducerGroup().hashCode(), req.getProducerGroup());
+                     this.defaultMessageStore.getTransactionStateService().appendPreparedTransaction(//
+                            req.getCommitLogOffset(),//
+                            req.getMsgSize(),//
+                            (int) (req.getStoreTimestamp() / 1000),//
+                            req.getProducerGroup().hashCode());
+                    break;
+                case MessageSysFlag.TransactionCommitType:
+                case MessageSysFlag.TransactionRollbackType:
+                    this.defaultMessageStore.getTransactionStateService().updateTransactionState(//
+                            req.getTranStateTableOffset(),//
+                            req.getPreparedTransactionOffset(),//
+                            req.getProducerGroup().hashCode(),//
+                            tranType//
+                    );
+                    break;
+            }
+        }
+
+        switch (tranType) {
+            case MessageSysFlag.TransactionNotType:
+                break;
+            case MessageSysFlag.TransactionPreparedType:
+                 this.defaultMessageStore.getTransactionStateService().getTranRedoLog()
+                        .putMessagePostionInfoWrapper(//
+                                req.getCommitLogOffset(),//
+                                req.getMsgSize(),//
+                                TransactionStateService.PreparedMessageTagsCode,//
+                                req.getStoreTimestamp(),//
+                                0L//
+                        );
+                break;
+            case MessageSysFlag.TransactionCommitType:
+            case MessageSysFlag.TransactionRollbackType:
+                 this.defaultMessageStore.getTransactionStateService().getTranRedoLog()
+                        .putMessagePostionInfoWrapper(//
+                                req.getCommitLogOffset(),//
+                                req.getMsgSize(),//
+                                req.getPreparedTransactionOffset(),//
+                                req.getStoreTimestamp(),//
+                                0L//
+                        );
+                break;
+        }
+    }
+}
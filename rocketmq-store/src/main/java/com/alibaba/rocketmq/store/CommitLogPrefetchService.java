@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Reads CommitLog ahead of consumers pulling from disk, so their next pulls do not fault pages in on the pull
+ * thread. Only the latest request of each consume queue is kept, and a window is advised again only once the
+ * consumer went through half of it.
+ */
+public class CommitLogPrefetchService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final DefaultMessageStore defaultMessageStore;
+
+    // group@topic@queueId -> CommitLog offset the consumer reads next
+    private final ConcurrentHashMap<String, Long> pendingTable = new ConcurrentHashMap<String, Long>();
+    // group@topic@queueId -> end of the window prefetched last time
+    private final ConcurrentHashMap<String, Long> prefetchedTable = new ConcurrentHashMap<String, Long>();
+
+
+    public CommitLogPrefetchService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+
+    public void prefetch(final String group, final String topic, final int queueId, final long nextPhyOffset) {
+        final String key = group + "@" + topic + "@" + queueId;
+        final int windowSize = this.defaultMessageStore.getMessageStoreConfig().getPrefetchCommitLogWindowSize();
+        Long prefetchedEnd = this.prefetchedTable.get(key);
+        if (prefetchedEnd != null && nextPhyOffset >= prefetchedEnd - windowSize
+                && nextPhyOffset + windowSize / 2 < prefetchedEnd) {
+            return;
+        }
+
+        this.pendingTable.put(key, nextPhyOffset);
+        this.wakeup();
+    }
+
+
+    private void doPrefetch() {
+        final int windowSize = this.defaultMessageStore.getMessageStoreConfig().getPrefetchCommitLogWindowSize();
+        for (Iterator<Map.Entry<String, Long>> it = this.pendingTable.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            it.remove();
+
+            long offset = entry.getValue();
+            long end = Math.min(offset + windowSize, this.defaultMessageStore.getCommitLog().getMaxOffset());
+            if (end > offset) {
+                this.defaultMessageStore.getCommitLog().prefetch(offset, (int) (end - offset));
+            }
+            this.prefetchedTable.put(entry.getKey(), offset + windowSize);
+        }
+    }
+
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStoped()) {
+            try {
+                this.waitForRunning(1000);
+                this.doPrefetch();
+            } catch (Throwable e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return CommitLogPrefetchService.class.getSimpleName();
+    }
+}
@@ -17,6 +17,7 @@
 package com.alibaba.rocketmq.store;
 
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +46,7 @@ public class ConsumeQueue {
     private final int mapedFileSize;
     private long maxPhysicOffset = -1;
     private volatile long minLogicOffset = 0;
+    private ConsumeQueueExt consumeQueueExt = null;
 
 
     public ConsumeQueue(//
@@ -64,15 +66,29 @@ public class ConsumeQueue {
                 + File.separator + topic//
                 + File.separator + queueId;//
 
-        this.mapedFileQueue = new MapedFileQueue(queueDir, mapedFileSize, null);
+        this.mapedFileQueue = new MapedFileQueue(queueDir, mapedFileSize, null, 1.0,
+                defaultMessageStore.getConsumeQueueFilePool());
 
         this.byteBufferIndex = ByteBuffer.allocate(CQStoreUnitSize);
+
+        if (defaultMessageStore.getMessageStoreConfig().isEnableConsumeQueueExt()) {
+            this.consumeQueueExt = new ConsumeQueueExt(//
+                    topic,//
+                    queueId,//
+                    StorePathConfigHelper.getStorePathConsumeQueueExt(defaultMessageStore.getMessageStoreConfig().getStorePathRootDir()),//
+                    defaultMessageStore.getMessageStoreConfig().getMapedFileSizeConsumeQueueExt(),//
+                    defaultMessageStore.getMessageStoreConfig().getBitMapLengthConsumeQueueExt()//
+            );
+        }
     }
 
 
     public boolean load() {
         boolean result = this.mapedFileQueue.load();
         log.info("load consume queue " + this.topic + "-" + this.queueId + " " + (result ? "OK" : "Failed"));
+        if (this.isExtReadEnable()) {
+            result &= this.consumeQueueExt.load();
+        }
         return result;
     }
 
@@ -90,6 +106,7 @@ public class ConsumeQueue {
             ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
             long processOffset = mapedFile.getFileFromOffset();
             long mapedFileOffset = 0;
+            long maxExtAddr = 1;
             while (true) {
                 for (int i = 0; i < mapedFileSizeLogics; i += CQStoreUnitSize) {
                     long offset = byteBuffer.getLong();
@@ -99,6 +116,9 @@ public class ConsumeQueue {
                     if (offset >= 0 && size > 0) {
                         mapedFileOffset = i + CQStoreUnitSize;
                         this.maxPhysicOffset = offset;
+                        if (ConsumeQueueExt.isExtAddr(tagsCode)) {
+                            maxExtAddr = tagsCode;
+                        }
                     } else {
                         log.info("recover current consume queue file over,  " + mapedFile.getFileName() + " "
                                 + offset + " " + size + " " + tagsCode);
@@ -130,6 +150,12 @@ public class ConsumeQueue {
 
             processOffset += mapedFileOffset;
             this.mapedFileQueue.truncateDirtyFiles(processOffset);
+
+            if (this.isExtReadEnable()) {
+                this.consumeQueueExt.recover();
+                log.info("Truncate consume queue extend file by max {}", maxExtAddr);
+                this.consumeQueueExt.truncateByMaxAddress(maxExtAddr);
+            }
         }
     }
 
@@ -205,10 +231,22 @@ public class ConsumeQueue {
     }
 
     public void truncateDirtyLogicFiles(long phyOffet) {
+        long maxExtAddr = this.truncateDirtyLogicFilesInner(phyOffet);
+
+        if (this.isExtReadEnable()) {
+            this.consumeQueueExt.truncateByMaxAddress(maxExtAddr);
+        }
+    }
+
+    /**
+     * @return the max extended address left in the truncated queue, 1 if none
+     */
+    private long truncateDirtyLogicFilesInner(long phyOffet) {
 
         int logicFileSize = this.mapedFileSize;
 
         this.maxPhysicOffset = phyOffet - 1;
+        long maxExtAddr = 1;
 
         while (true) {
             MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile2();
@@ -221,7 +259,7 @@ public class ConsumeQueue {
                 for (int i = 0; i < logicFileSize; i += CQStoreUnitSize) {
                     long offset = byteBuffer.getLong();
                     int size = byteBuffer.getInt();
-                    byteBuffer.getLong();
+                    long tagsCode = byteBuffer.getLong();
 
 
                     if (0 == i) {
@@ -233,6 +271,9 @@ public class ConsumeQueue {
                             mapedFile.setWrotePostion(pos);
                             mapedFile.setCommittedPosition(pos);
                             this.maxPhysicOffset = offset;
+                            if (ConsumeQueueExt.isExtAddr(tagsCode)) {
+                                maxExtAddr = tagsCode;
+                            }
                         }
                     }
 
@@ -241,20 +282,23 @@ public class ConsumeQueue {
                         if (offset >= 0 && size > 0) {
 
                             if (offset >= phyOffet) {
-                                return;
+                                return maxExtAddr;
                             }
 
                             int pos = i + CQStoreUnitSize;
                             mapedFile.setWrotePostion(pos);
                             mapedFile.setCommittedPosition(pos);
                             this.maxPhysicOffset = offset;
+                            if (ConsumeQueueExt.isExtAddr(tagsCode)) {
+                                maxExtAddr = tagsCode;
+                            }
 
 
                             if (pos == logicFileSize) {
-                                return;
+                                return maxExtAddr;
                             }
                         } else {
-                            return;
+                            return maxExtAddr;
                         }
                     }
                 }
@@ -262,6 +306,8 @@ public class ConsumeQueue {
                 break;
             }
         }
+
+        return maxExtAddr;
     }
     public long getLastOffset() {
         long lastOffset = -1;
@@ -296,7 +342,11 @@ public class ConsumeQueue {
 
 
     public boolean commit(final int flushLeastPages) {
-        return this.mapedFileQueue.commit(flushLeastPages);
+        boolean result = this.mapedFileQueue.commit(flushLeastPages);
+        if (this.isExtReadEnable()) {
+            result = result & this.consumeQueueExt.commit(flushLeastPages);
+        }
+        return result;
     }
 
 
@@ -313,18 +363,38 @@ public class ConsumeQueue {
             if (result != null) {
                 try {
 
+                    long minExtAddr = 1;
+                    boolean minLogicOffsetFound = false;
                     for (int i = 0; i < result.getSize(); i += ConsumeQueue.CQStoreUnitSize) {
                         long offsetPy = result.getByteBuffer().getLong();
                         result.getByteBuffer().getInt();
-                        result.getByteBuffer().getLong();
+                        long tagsCode = result.getByteBuffer().getLong();
 
                         if (offsetPy >= phyMinOffset) {
-                            this.minLogicOffset = result.getMapedFile().getFileFromOffset() + i;
-                            log.info("compute logics min offset: " + this.getMinOffsetInQuque() + ", topic: "
-                                    + this.topic + ", queueId: " + this.queueId);
-                            break;
+                            if (!minLogicOffsetFound) {
+                                minLogicOffsetFound = true;
+                                // never below the units expired by the retention time of the topic
+                                this.minLogicOffset =
+                                        Math.max(this.minLogicOffset, result.getMapedFile().getFileFromOffset() + i);
+                                log.info("compute logics min offset: " + this.getMinOffsetInQuque() + ", topic: "
+                                        + this.topic + ", queueId: " + this.queueId);
+                            }
+
+                            if (!this.isExtReadEnable()) {
+                                break;
+                            }
+
+                            // units of the ext before the first one still referenced can be deleted
+                            if (ConsumeQueueExt.isExtAddr(tagsCode)) {
+                                minExtAddr = tagsCode;
+                                break;
+                            }
                         }
                     }
+
+                    if (this.isExtReadEnable()) {
+                        this.consumeQueueExt.truncateByMinAddress(minExtAddr);
+                    }
                 } catch (Exception e) {
                     e.printStackTrace();
                 } finally {
@@ -335,6 +405,93 @@ public class ConsumeQueue {
     }
 
 
+    /**
+     * @return the first queue offset whose message is stored at or after the timestamp, the max offset if none is
+     */
+    public long getOffsetStoredNotBefore(final long timestamp) {
+        long low = this.getMinOffsetInQuque();
+        long high = this.getMaxOffsetInQuque();
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            long storeTime = -1;
+            SelectMapedBufferResult result = this.getIndexBuffer(mid);
+            if (result != null) {
+                try {
+                    long offsetPy = result.getByteBuffer().getLong();
+                    int sizePy = result.getByteBuffer().getInt();
+                    storeTime = this.defaultMessageStore.getCommitLog().pickupStoretimestamp(offsetPy, sizePy);
+                } finally {
+                    result.release();
+                }
+            }
+
+            // a message no longer in CommitLog is expired as well
+            if (storeTime < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Drops the units before the queue offset, deleting the files holding nothing else.
+     *
+     * @return count of files deleted
+     */
+    public int expireBefore(final long queueOffset) {
+        long maxOffset = this.getMaxOffsetInQuque();
+        long expiredOffset = Math.min(queueOffset, maxOffset);
+        if (expiredOffset <= this.getMinOffsetInQuque()) {
+            return 0;
+        }
+
+        // physical offset of the first unit kept, or just after the last one
+        long phyOffset = -1;
+        SelectMapedBufferResult result = this.getIndexBuffer(expiredOffset < maxOffset ? expiredOffset : maxOffset - 1);
+        if (result != null) {
+            try {
+                phyOffset = result.getByteBuffer().getLong();
+                if (expiredOffset == maxOffset) {
+                    phyOffset += result.getByteBuffer().getInt();
+                }
+            } finally {
+                result.release();
+            }
+        }
+        if (phyOffset < 0) {
+            return 0;
+        }
+
+        int cnt = this.mapedFileQueue.deleteExpiredFileByOffset(phyOffset, CQStoreUnitSize);
+        this.correctMinOffset(phyOffset);
+        this.minLogicOffset = Math.max(this.minLogicOffset, expiredOffset * CQStoreUnitSize);
+        return cnt;
+    }
+
+
+    /**
+     * @return physical offset of the first message the queue refers to, -1 if it refers to none
+     */
+    public long getMinPhyOffsetReferenced() {
+        if (this.getMinOffsetInQuque() >= this.getMaxOffsetInQuque()) {
+            return -1;
+        }
+
+        SelectMapedBufferResult result = this.getIndexBuffer(this.getMinOffsetInQuque());
+        if (null == result) {
+            return -1;
+        }
+        try {
+            return result.getByteBuffer().getLong();
+        } finally {
+            result.release();
+        }
+    }
+
+
     public long getMinOffsetInQuque() {
         return this.minLogicOffset / CQStoreUnitSize;
     }
@@ -342,10 +499,19 @@ public class ConsumeQueue {
 
     public void putMessagePostionInfoWrapper(long offset, int size, long tagsCode, long storeTimestamp,
                                              long logicOffset) {
+        this.putMessagePostionInfoWrapper(offset, size, tagsCode, storeTimestamp, logicOffset, null);
+    }
+
+
+    /**
+     * @param filterBitMap saved into the extended queue together with tags code when it is enabled
+     */
+    public void putMessagePostionInfoWrapper(long offset, int size, long tagsCode, long storeTimestamp,
+                                             long logicOffset, byte[] filterBitMap) {
         final int MaxRetries = 30;
         boolean canWrite = this.defaultMessageStore.getRunningFlags().isWriteable();
         for (int i = 0; i < MaxRetries && canWrite; i++) {
-            boolean result = this.putMessagePostionInfo(offset, size, tagsCode, logicOffset);
+            boolean result = this.putMessagePostionInfo(offset, size, tagsCode, storeTimestamp, logicOffset, filterBitMap);
             if (result) {
                 this.defaultMessageStore.getStoreCheckpoint().setLogicsMsgTimestamp(storeTimestamp);
                 return;
@@ -369,13 +535,23 @@ public class ConsumeQueue {
         this.defaultMessageStore.getRunningFlags().makeLogicsQueueError();
     }
 
-    private boolean putMessagePostionInfo(final long offset, final int size, final long tagsCode,
-                                          final long cqOffset) {
+    private boolean putMessagePostionInfo(final long offset, final int size, long tagsCode, final long storeTimestamp,
+                                          final long cqOffset, final byte[] filterBitMap) {
 
         if (offset <= this.maxPhysicOffset) {
             return true;
         }
 
+        if (this.isExtWriteEnable() && filterBitMap != null) {
+            long extAddr = this.consumeQueueExt.put(new ConsumeQueueExt.CqExtUnit(tagsCode, storeTimestamp, filterBitMap));
+            if (ConsumeQueueExt.isExtAddr(extAddr)) {
+                tagsCode = extAddr;
+            } else {
+                log.warn("Save consume queue extend fail, So just save tagsCode! topic:{}, queueId:{}, offset:{}", //
+                        this.topic, this.queueId, offset);
+            }
+        }
+
         this.byteBufferIndex.flip();
         this.byteBufferIndex.limit(CQStoreUnitSize);
         this.byteBufferIndex.putLong(offset);
@@ -475,6 +651,9 @@ public class ConsumeQueue {
         this.maxPhysicOffset = -1;
         this.minLogicOffset = 0;
         this.mapedFileQueue.destroy();
+        if (this.isExtReadEnable()) {
+            this.consumeQueueExt.destroy();
+        }
     }
     public long getMessageTotalInQueue() {
         return this.getMaxOffsetInQuque() - this.getMinOffsetInQuque();
@@ -488,5 +667,30 @@ public class ConsumeQueue {
 
     public void checkSelf() {
         mapedFileQueue.checkSelf();
+        if (this.isExtReadEnable()) {
+            this.consumeQueueExt.checkSelf();
+        }
+    }
+
+
+    /**
+     * @param address tags code read from ConsumeQueue, an extended address if {@link ConsumeQueueExt#isExtAddr}
+     */
+    public boolean getExt(final long address, final ConsumeQueueExt.CqExtUnit cqExtUnit) {
+        if (this.isExtReadEnable()) {
+            return this.consumeQueueExt.get(address, cqExtUnit);
+        }
+        return false;
+    }
+
+
+    protected boolean isExtReadEnable() {
+        return this.consumeQueueExt != null;
+    }
+
+
+    protected boolean isExtWriteEnable() {
+        return this.consumeQueueExt != null
+                && this.defaultMessageStore.getMessageStoreConfig().isEnableConsumeQueueExt();
     }
 }
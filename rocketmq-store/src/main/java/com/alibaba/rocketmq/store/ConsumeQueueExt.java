@@ -0,0 +1,440 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Extension of ConsumeQueue, stores variable length units beside the fixed 20 bytes ConsumeQueue unit.
+ * <p>
+ * The ConsumeQueue unit keeps the address of its extended unit in the tags code field. Addresses are
+ * offsets in this queue decorated to be less than {@link #MAX_ADDR}, while a real tags code is the hash
+ * code of tags, or a timestamp for delay messages, so both can be told apart.
+ * </p>
+ */
+public class ConsumeQueueExt {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    // reserved at the end of every file to hold the end mark
+    public static final int END_BLANK_DATA_LENGTH = 4;
+
+    public static final long MAX_ADDR = Integer.MIN_VALUE - 1L;
+    public static final long MAX_REAL_OFFSET = MAX_ADDR - Long.MIN_VALUE;
+
+    private final MapedFileQueue mapedFileQueue;
+    private final String topic;
+    private final int queueId;
+    private final String storePath;
+    private final int mapedFileSize;
+    private final ByteBuffer tempContainer;
+
+
+    /**
+     * @param bitMapLength max bytes of filter bit map in one unit
+     */
+    public ConsumeQueueExt(final String topic,//
+                           final int queueId,//
+                           final String storePath,//
+                           final int mapedFileSize,//
+                           final int bitMapLength) {
+        this.storePath = storePath;
+        this.mapedFileSize = mapedFileSize;
+        this.topic = topic;
+        this.queueId = queueId;
+
+        String queueDir = this.storePath//
+                + File.separator + topic//
+                + File.separator + queueId;//
+
+        this.mapedFileQueue = new MapedFileQueue(queueDir, mapedFileSize, null);
+
+        this.tempContainer = ByteBuffer.allocate(CqExtUnit.MIN_EXT_UNIT_SIZE + Math.max(bitMapLength, 0));
+    }
+
+
+    public static boolean isExtAddr(final long address) {
+        return address <= MAX_ADDR;
+    }
+
+
+    /**
+     * @return offset in this queue of the decorated address
+     */
+    public long unDecorate(final long address) {
+        if (isExtAddr(address)) {
+            return address - Long.MIN_VALUE;
+        }
+        return address;
+    }
+
+
+    /**
+     * @return decorated address of the offset in this queue
+     */
+    public long decorate(final long offset) {
+        if (!isExtAddr(offset)) {
+            return offset + Long.MIN_VALUE;
+        }
+        return offset;
+    }
+
+
+    public CqExtUnit get(final long address) {
+        CqExtUnit cqExtUnit = new CqExtUnit();
+        if (this.get(address, cqExtUnit)) {
+            return cqExtUnit;
+        }
+        return null;
+    }
+
+
+    public boolean get(final long address, final CqExtUnit cqExtUnit) {
+        if (!isExtAddr(address)) {
+            return false;
+        }
+
+        final long realOffset = this.unDecorate(address);
+
+        MapedFile mapedFile = this.mapedFileQueue.findMapedFileByOffset(realOffset);
+        if (mapedFile == null) {
+            return false;
+        }
+
+        int pos = (int) (realOffset % this.mapedFileSize);
+        SelectMapedBufferResult bufferResult = mapedFile.selectMapedBuffer(pos);
+        if (bufferResult == null) {
+            log.warn("[BUG] Consume queue extend unit({}) is not found!", realOffset);
+            return false;
+        }
+
+        try {
+            return cqExtUnit.read(bufferResult.getByteBuffer());
+        } finally {
+            bufferResult.release();
+        }
+    }
+
+
+    /**
+     * Not thread safe, ConsumeQueue calls it from the dispatching thread only.
+     *
+     * @return decorated address of the unit, or 1 if failed, the caller should then keep the tags code
+     */
+    public long put(final CqExtUnit cqExtUnit) {
+        final int size = cqExtUnit.calcUnitSize();
+        if (size > this.tempContainer.capacity()) {
+            log.error("Size of cq ext unit is greater than {}, {}", this.tempContainer.capacity(), cqExtUnit);
+            return 1;
+        }
+
+        MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile(0);
+        if (mapedFile == null) {
+            log.error("Create maped file when save consume queue extend, {}-{}", this.topic, this.queueId);
+            return 1;
+        }
+
+        final int blankSize = this.mapedFileSize - mapedFile.getWrotePostion() - END_BLANK_DATA_LENGTH;
+        if (size > blankSize) {
+            this.fullFillToEnd(mapedFile);
+            mapedFile = this.mapedFileQueue.getLastMapedFile(0);
+            if (mapedFile == null) {
+                log.error("Create maped file when save consume queue extend, {}-{}", this.topic, this.queueId);
+                return 1;
+            }
+        }
+
+        final long address = mapedFile.getFileFromOffset() + mapedFile.getWrotePostion();
+
+        this.tempContainer.clear();
+        cqExtUnit.write(this.tempContainer);
+        if (mapedFile.appendMessage(this.tempContainer.array(), 0, size)) {
+            return this.decorate(address);
+        }
+
+        return 1;
+    }
+
+
+    private void fullFillToEnd(final MapedFile mapedFile) {
+        ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
+        byteBuffer.position(mapedFile.getWrotePostion());
+        // end mark, recovering stops here
+        byteBuffer.putShort((short) -1);
+        mapedFile.setWrotePostion(this.mapedFileSize);
+    }
+
+
+    public boolean load() {
+        boolean result = this.mapedFileQueue.load();
+        log.info("load consume queue extend " + this.topic + "-" + this.queueId + " " + (result ? "OK" : "Failed"));
+        return result;
+    }
+
+
+    /**
+     * Walk the last three files to find where the valid units end.
+     */
+    public void recover() {
+        final List<MapedFile> mapedFiles = this.mapedFileQueue.getMapedFiles();
+        if (mapedFiles.isEmpty()) {
+            return;
+        }
+
+        int index = mapedFiles.size() - 3;
+        if (index < 0) {
+            index = 0;
+        }
+
+        MapedFile mapedFile = mapedFiles.get(index);
+        ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
+        long processOffset = mapedFile.getFileFromOffset();
+        long mapedFileOffset = 0;
+        CqExtUnit extUnit = new CqExtUnit();
+        while (true) {
+            extUnit.readBySkip(byteBuffer);
+
+            if (extUnit.getSize() > 0) {
+                mapedFileOffset += extUnit.getSize();
+                continue;
+            }
+
+            index++;
+            if (index < mapedFiles.size()) {
+                mapedFile = mapedFiles.get(index);
+                byteBuffer = mapedFile.sliceByteBuffer();
+                processOffset = mapedFile.getFileFromOffset();
+                mapedFileOffset = 0;
+                log.info("Recover next consume queue extend file, " + mapedFile.getFileName());
+                continue;
+            }
+
+            log.info("All files of consume queue extend has been recovered over, last maped file "
+                    + mapedFile.getFileName());
+            break;
+        }
+
+        processOffset += mapedFileOffset;
+        this.mapedFileQueue.truncateDirtyFiles(processOffset);
+    }
+
+
+    /**
+     * Delete files wholly before the address.
+     */
+    public void truncateByMinAddress(final long minAddress) {
+        if (!isExtAddr(minAddress)) {
+            return;
+        }
+
+        log.info("Truncate consume queue extend by min {}.", minAddress);
+
+        List<MapedFile> willRemoveFiles = new ArrayList<MapedFile>();
+
+        final long realOffset = this.unDecorate(minAddress);
+        for (MapedFile file : this.mapedFileQueue.getMapedFiles()) {
+            long fileTailOffset = file.getFileFromOffset() + this.mapedFileSize;
+
+            if (fileTailOffset < realOffset) {
+                log.info("Destroy consume queue ext by min: file={}, fileTailOffset={}, minOffset={}", file.getFileName(),
+                        fileTailOffset, realOffset);
+                if (file.destroy(1000)) {
+                    willRemoveFiles.add(file);
+                }
+            }
+        }
+
+        this.mapedFileQueue.deleteExpiredFile(willRemoveFiles);
+    }
+
+
+    /**
+     * Drop the units after the one at max address.
+     */
+    public void truncateByMaxAddress(final long maxAddress) {
+        if (!isExtAddr(maxAddress)) {
+            return;
+        }
+
+        log.info("Truncate consume queue ext by max {}.", maxAddress);
+
+        CqExtUnit cqExtUnit = this.get(maxAddress);
+        if (cqExtUnit == null) {
+            log.error("[BUG] address {} of consume queue extend not found!", maxAddress);
+            return;
+        }
+
+        final long realOffset = this.unDecorate(maxAddress);
+        final long truncateOffset = realOffset + cqExtUnit.getSize();
+
+        // clear the stale units so that they will not be taken as valid when recovering
+        MapedFile mapedFile = this.mapedFileQueue.findMapedFileByOffset(truncateOffset);
+        if (mapedFile != null) {
+            int from = (int) (truncateOffset % this.mapedFileSize);
+            int to = mapedFile.getWrotePostion();
+            ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
+            for (int i = from; i < to; i++) {
+                byteBuffer.put(i, (byte) 0);
+            }
+        }
+
+        this.mapedFileQueue.truncateDirtyFiles(truncateOffset);
+    }
+
+
+    public boolean commit(final int flushLeastPages) {
+        return this.mapedFileQueue.commit(flushLeastPages);
+    }
+
+
+    public void destroy() {
+        this.mapedFileQueue.destroy();
+    }
+
+
+    public void checkSelf() {
+        this.mapedFileQueue.checkSelf();
+    }
+
+
+    /**
+     * Unit layout: size(2) tagsCode(8) msgStoreTime(8) bitMapSize(2) bitMap(bitMapSize).
+     */
+    public static class CqExtUnit {
+        public static final short MIN_EXT_UNIT_SIZE = 2 + 8 + 8 + 2;
+
+        private short size;
+        private long tagsCode;
+        private long msgStoreTime;
+        private short bitMapSize;
+        private byte[] filterBitMap;
+
+
+        public CqExtUnit() {
+        }
+
+
+        public CqExtUnit(Long tagsCode, long msgStoreTime, byte[] filterBitMap) {
+            this.tagsCode = tagsCode == null ? 0 : tagsCode;
+            this.msgStoreTime = msgStoreTime;
+            this.filterBitMap = filterBitMap;
+            this.bitMapSize = (short) (filterBitMap == null ? 0 : filterBitMap.length);
+            this.size = (short) (MIN_EXT_UNIT_SIZE + this.bitMapSize);
+        }
+
+
+        private boolean read(final ByteBuffer buffer) {
+            if (buffer.position() + 2 > buffer.limit()) {
+                return false;
+            }
+
+            this.size = buffer.getShort();
+            if (this.size < MIN_EXT_UNIT_SIZE || buffer.position() - 2 + this.size > buffer.limit()) {
+                return false;
+            }
+
+            this.tagsCode = buffer.getLong();
+            this.msgStoreTime = buffer.getLong();
+            this.bitMapSize = buffer.getShort();
+
+            if (this.bitMapSize < 1) {
+                this.filterBitMap = null;
+                return true;
+            }
+
+            if (this.filterBitMap == null || this.filterBitMap.length != this.bitMapSize) {
+                this.filterBitMap = new byte[this.bitMapSize];
+            }
+            buffer.get(this.filterBitMap);
+            return true;
+        }
+
+
+        /**
+         * Only the size is read, the buffer is moved to the next unit.
+         */
+        private void readBySkip(final ByteBuffer buffer) {
+            if (buffer.position() + 2 > buffer.limit()) {
+                this.size = 0;
+                return;
+            }
+
+            ByteBuffer temp = buffer.slice();
+            short tempSize = temp.getShort();
+            if (tempSize < MIN_EXT_UNIT_SIZE || buffer.position() + tempSize > buffer.limit()) {
+                this.size = 0;
+                return;
+            }
+
+            this.size = tempSize;
+            buffer.position(buffer.position() + this.size);
+        }
+
+
+        private void write(final ByteBuffer container) {
+            this.bitMapSize = (short) (this.filterBitMap == null ? 0 : this.filterBitMap.length);
+            this.size = (short) (MIN_EXT_UNIT_SIZE + this.bitMapSize);
+
+            container.putShort(this.size);
+            container.putLong(this.tagsCode);
+            container.putLong(this.msgStoreTime);
+            container.putShort(this.bitMapSize);
+            if (this.bitMapSize > 0) {
+                container.put(this.filterBitMap);
+            }
+        }
+
+
+        private int calcUnitSize() {
+            return MIN_EXT_UNIT_SIZE + (this.filterBitMap == null ? 0 : this.filterBitMap.length);
+        }
+
+
+        public short getSize() {
+            return size;
+        }
+
+
+        public long getTagsCode() {
+            return tagsCode;
+        }
+
+
+        public long getMsgStoreTime() {
+            return msgStoreTime;
+        }
+
+
+        public byte[] getFilterBitMap() {
+            return filterBitMap;
+        }
+
+
+        @Override
+        public String toString() {
+            return "CqExtUnit{" + "size=" + size + ", tagsCode=" + tagsCode + ", msgStoreTime=" + msgStoreTime
+                    + ", bitMapSize=" + bitMapSize + "}";
+        }
+    }
+}
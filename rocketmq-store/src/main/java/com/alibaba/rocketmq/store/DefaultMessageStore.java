@@ -23,14 +23,21 @@ import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import com.alibaba.rocketmq.common.running.RunningStats;
 import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+import com.alibaba.rocketmq.store.compaction.CompactedSegment;
+import com.alibaba.rocketmq.store.compaction.CompactionService;
 import com.alibaba.rocketmq.store.config.BrokerRole;
 import com.alibaba.rocketmq.store.config.MessageStoreConfig;
 import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
 import com.alibaba.rocketmq.store.ha.HAService;
+import com.alibaba.rocketmq.store.ha.HASnapshotClient;
 import com.alibaba.rocketmq.store.index.IndexService;
 import com.alibaba.rocketmq.store.index.QueryOffsetResult;
 import com.alibaba.rocketmq.store.schedule.ScheduleMessageService;
+import com.alibaba.rocketmq.store.timer.TimerMessageService;
 import com.alibaba.rocketmq.store.stats.BrokerStatsManager;
+import com.alibaba.rocketmq.store.tier.TieredCommitLog;
+import com.alibaba.rocketmq.store.tier.TieredStorage;
+import com.alibaba.rocketmq.store.tier.TieredStoreService;
 import com.alibaba.rocketmq.store.transaction.TransactionCheckExecuter;
 import com.alibaba.rocketmq.store.transaction.TransactionStateService;
 import org.slf4j.Logger;
@@ -42,8 +49,11 @@ import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -57,7 +67,7 @@ import static com.alibaba.rocketmq.store.config.BrokerRole.SLAVE;
 public class DefaultMessageStore implements MessageStore {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
 
-    private final MessageFilter messageFilter = new DefaultMessageFilter();
+    private volatile MessageFilter messageFilter = new DefaultMessageFilter();
 
     private final MessageStoreConfig messageStoreConfig;
     // CommitLog
@@ -71,20 +81,56 @@ public class DefaultMessageStore implements MessageStore {
 
     private final CleanConsumeQueueService cleanConsumeQueueService;
 
+    private final CleanTopicRetentionService cleanTopicRetentionService;
+
+    // topic -> retention time in ms, only topics with their own retention time
+    private volatile Map<String, Long> topicRetentionTable = new HashMap<String, Long>();
+
     private final IndexService indexService;
 
     private final AllocateMapedFileService allocateMapedFileService;
 
     private final ReputMessageService reputMessageService;
 
+    private final ParallelDispatchService parallelDispatchService;
+
+    private final CommitLogPrefetchService commitLogPrefetchService;
+    private final ColdReadBufferPool coldReadBufferPool;
+    // CommitLog files copied from master by HASnapshotClient are not all dispatched yet
+    private volatile boolean bootstrapped = false;
+    // the copied files are all dispatched once dispatching gets here
+    private long bootstrapDispatchOffset = -1;
+
+    private final TieredStoreService tieredStoreService;
+
+    private final CompactionService compactionService;
+
+    private final CommitLogDispatcher buildConsumeQueueDispatcher = new CommitLogDispatcherBuildConsumeQueue();
+
+    private final CommitLogDispatcher transactionDispatcher = new CommitLogDispatcherTransaction(this);
+
+    private final CommitLogDispatcher buildIndexDispatcher = new CommitLogDispatcherBuildIndex();
+
+    // dispatched in order, more dispatchers may be added before the store starts
+    private final LinkedList<CommitLogDispatcher> dispatcherList = new LinkedList<CommitLogDispatcher>();
+
     private final HAService haService;
 
     private final ScheduleMessageService scheduleMessageService;
 
+    // null when timerWheelEnable is off
+    private final TimerMessageService timerMessageService;
+
     private final TransactionStateService transactionStateService;
 
     private final StoreStatsService storeStatsService;
 
+    private final TransientStorePool transientStorePool;
+
+    // null when neither recycling nor preallocation of files is enabled
+    private final RecycledFilePool[] commitLogFilePools;
+    private final RecycledFilePool consumeQueueFilePool;
+
     private final RunningFlags runningFlags = new RunningFlags();
     private final SystemClock systemClock = new SystemClock(1);
 
@@ -110,21 +156,73 @@ public class DefaultMessageStore implements MessageStore {
         this.brokerConfig = brokerConfig;
         this.messageStoreConfig = messageStoreConfig;
         this.brokerStatsManager = brokerStatsManager;
+        this.transientStorePool = new TransientStorePool(messageStoreConfig);
+        if (messageStoreConfig.isTransientStorePoolEnable()) {
+            this.transientStorePool.init();
+        }
+        if (messageStoreConfig.isRecycleMapedFileEnable() || messageStoreConfig.isPreallocateMapedFileEnable()) {
+            boolean recycle = messageStoreConfig.isRecycleMapedFileEnable();
+            this.commitLogFilePools = RecycledFilePool.createCommitLogPools(messageStoreConfig);
+            this.consumeQueueFilePool = new RecycledFilePool(
+                    StorePathConfigHelper.getStorePathRecycleConsumeQueue(messageStoreConfig.getStorePathRootDir()),
+                    messageStoreConfig.getMapedFileSizeConsumeQueue(),
+                    recycle ? messageStoreConfig.getRecycleConsumeQueueFilesMax() : 0,
+                    messageStoreConfig.isPreallocateMapedFileEnable());
+        } else {
+            this.commitLogFilePools = null;
+            this.consumeQueueFilePool = null;
+        }
         this.allocateMapedFileService = new AllocateMapedFileService(this);
         this.commitLog = new CommitLog(this);
         this.consumeQueueTable = new ConcurrentHashMap<String/* topic */, ConcurrentHashMap<Integer/* queueId */, ConsumeQueue>>(32);
 
-        this.flushConsumeQueueService = new FlushConsumeQueueService();
-        this.cleanCommitLogService = new CleanCommitLogService();
-        this.cleanConsumeQueueService = new CleanConsumeQueueService();
+        this.flushConsumeQueueService = new FlushConsumeQueueService(this);
+        this.cleanCommitLogService = new CleanCommitLogService(this);
+        this.cleanConsumeQueueService = new CleanConsumeQueueService(this);
+        this.cleanTopicRetentionService = new CleanTopicRetentionService(this);
         this.storeStatsService = new StoreStatsService();
         this.indexService = new IndexService(this);
         this.haService = new HAService(this);
         this.transactionStateService = new TransactionStateService(this);
 
-        this.reputMessageService = new ReputMessageService();
+        this.dispatcherList.addLast(this.buildConsumeQueueDispatcher);
+        this.dispatcherList.addLast(this.transactionDispatcher);
+        this.dispatcherList.addLast(this.buildIndexDispatcher);
+
+        this.reputMessageService = new ReputMessageService(this);
+        if (messageStoreConfig.isParallelDispatchEnable()) {
+            this.parallelDispatchService = new ParallelDispatchService(this);
+        } else {
+            this.parallelDispatchService = null;
+        }
+        if (messageStoreConfig.isPrefetchCommitLogEnable()) {
+            this.commitLogPrefetchService = new CommitLogPrefetchService(this);
+        } else {
+            this.commitLogPrefetchService = null;
+        }
+        if (messageStoreConfig.isColdReadEnable()) {
+            this.coldReadBufferPool = new ColdReadBufferPool(messageStoreConfig);
+        } else {
+            this.coldReadBufferPool = null;
+        }
+        if (messageStoreConfig.isTieredStoreEnable()) {
+            this.commitLog.setTieredCommitLog(new TieredCommitLog(messageStoreConfig, this.createTieredStorage()));
+            this.tieredStoreService = new TieredStoreService(this);
+        } else {
+            this.tieredStoreService = null;
+        }
+        if (messageStoreConfig.isCompactionEnable()) {
+            this.compactionService = new CompactionService(this);
+        } else {
+            this.compactionService = null;
+        }
 
         this.scheduleMessageService = new ScheduleMessageService(this);
+        if (messageStoreConfig.isTimerWheelEnable()) {
+            this.timerMessageService = new TimerMessageService(this);
+        } else {
+            this.timerMessageService = null;
+        }
 
 
         this.allocateMapedFileService.start();
@@ -133,6 +231,17 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
+    private TieredStorage createTieredStorage() {
+        String storageClass = this.messageStoreConfig.getTieredStorageClass();
+        try {
+            Class<?> clazz = Class.forName(storageClass);
+            return (TieredStorage) clazz.getConstructor(MessageStoreConfig.class).newInstance(this.messageStoreConfig);
+        } catch (Throwable e) {
+            throw new RuntimeException(String.format("Initialize tiered storage class %s failed!", storageClass), e);
+        }
+    }
+
+
     public void truncateDirtyLogicFiles(long phyOffset) {
         ConcurrentHashMap<String, ConcurrentHashMap<Integer, ConsumeQueue>> tables = DefaultMessageStore.this.consumeQueueTable;
 
@@ -151,23 +260,55 @@ public class DefaultMessageStore implements MessageStore {
      */
     public boolean load() {
         boolean result = true;
+        ExecutorService recoverExecutor = null;
 
         try {
             boolean lastExitOK = !this.isTempFileExist();
             log.info("last shutdown {}", (lastExitOK ? "normally" : "abnormally"));
 
-
+            if (this.messageStoreConfig.getRecoverThreadPoolNums() > 1) {
+                recoverExecutor = Executors.newFixedThreadPool(this.messageStoreConfig.getRecoverThreadPoolNums(),
+                        new ThreadFactoryImpl("StoreRecoverThread_"));
+            }
 
 
             if (null != scheduleMessageService) {
                 result = result && this.scheduleMessageService.load();
             }
 
+            if (null != timerMessageService) {
+                result = result && this.timerMessageService.load();
+            }
+
+            if (this.commitLogFilePools != null) {
+                for (RecycledFilePool pool : this.commitLogFilePools) {
+                    pool.load();
+                }
+                this.consumeQueueFilePool.load();
+            }
+
+            if (SLAVE == this.messageStoreConfig.getBrokerRole() && this.messageStoreConfig.isHaBootstrapEnable()) {
+                new HASnapshotClient(this).bootstrap();
+            }
+            // also when the store stopped before the copied files were dispatched
+            this.bootstrapped =
+                    new File(StorePathConfigHelper.getBootstrapFile(this.messageStoreConfig.getStorePathRootDir())).exists();
+
             // load Commit Log
+            long beginTime = System.currentTimeMillis();
             result = result && this.commitLog.load();
+            if (this.commitLog.getTieredCommitLog() != null) {
+                result = result && this.commitLog.getTieredCommitLog().load();
+            }
+            log.info("load commit log over, elapsed time(ms) {}", System.currentTimeMillis() - beginTime);
 
             // load Consume Queue
-            result = result && this.loadConsumeQueue();
+            beginTime = System.currentTimeMillis();
+            result = result && this.loadConsumeQueue(recoverExecutor);
+            log.info("load consume queue over, elapsed time(ms) {}", System.currentTimeMillis() - beginTime);
+            if (this.compactionService != null) {
+                result = result && this.compactionService.load();
+            }
 
             result = result && this.transactionStateService.load();
             if (result) {
@@ -177,13 +318,17 @@ public class DefaultMessageStore implements MessageStore {
                 this.indexService.load(lastExitOK);
 
 
-                this.recover(lastExitOK);
+                this.recover(lastExitOK, recoverExecutor);
 
                 log.info("load over, and the max phy offset = {}", this.getMaxPhyOffset());
             }
         } catch (Exception e) {
             log.error("load exception", e);
             result = false;
+        } finally {
+            if (recoverExecutor != null) {
+                recoverExecutor.shutdown();
+            }
         }
 
         if (!result) {
@@ -208,12 +353,34 @@ public class DefaultMessageStore implements MessageStore {
             this.scheduleMessageService.start();
         }
 
-        if (this.getMessageStoreConfig().isDuplicationEnable()) {
+        if (this.timerMessageService != null && SLAVE != messageStoreConfig.getBrokerRole()) {
+            this.timerMessageService.start();
+        }
+
+        this.transactionStateService.start();
+
+        if (this.bootstrapped) {
+            // consume queues of the files copied from master are built by dispatching them again
+            this.reputMessageService.setReputFromOffset(this.commitLog.getMinOffset());
+            this.bootstrapDispatchOffset = this.commitLog.getMaxOffset();
+        } else if (this.getMessageStoreConfig().isDuplicationEnable()) {
             this.reputMessageService.setReputFromOffset(this.commitLog.getConfirmOffset());
         } else {
             this.reputMessageService.setReputFromOffset(this.commitLog.getMaxOffset());
         }
+        if (this.parallelDispatchService != null) {
+            this.parallelDispatchService.start();
+        }
         this.reputMessageService.start();
+        if (this.commitLogPrefetchService != null) {
+            this.commitLogPrefetchService.start();
+        }
+        if (this.tieredStoreService != null) {
+            this.tieredStoreService.start();
+        }
+        if (this.compactionService != null) {
+            this.compactionService.start();
+        }
 
         this.haService.start();
 
@@ -242,14 +409,34 @@ public class DefaultMessageStore implements MessageStore {
                 this.scheduleMessageService.shutdown();
             }
 
+            if (this.timerMessageService != null) {
+                this.timerMessageService.shutdown();
+            }
+            this.transactionStateService.shutdown();
+
             this.haService.shutdown();
 
             this.storeStatsService.shutdown();
             this.indexService.shutdown();
             this.flushConsumeQueueService.shutdown();
+            if (this.commitLogPrefetchService != null) {
+                this.commitLogPrefetchService.shutdown();
+            }
+            if (this.tieredStoreService != null) {
+                this.tieredStoreService.shutdown();
+            }
+            if (this.compactionService != null) {
+                this.compactionService.shutdown();
+            }
             this.commitLog.shutdown();
             this.reputMessageService.shutdown();
+            if (this.parallelDispatchService != null) {
+                this.parallelDispatchService.shutdown();
+            }
             this.allocateMapedFileService.shutdown();
+            if (this.messageStoreConfig.isTransientStorePoolEnable()) {
+                this.transientStorePool.destroy();
+            }
             this.storeCheckpoint.flush();
             this.storeCheckpoint.shutdown();
 
@@ -265,6 +452,15 @@ public class DefaultMessageStore implements MessageStore {
         this.destroyLogics();
         this.commitLog.destroy();
         this.indexService.destroy();
+        if (this.timerMessageService != null) {
+            this.timerMessageService.destroy();
+        }
+        if (this.commitLogFilePools != null) {
+            for (RecycledFilePool pool : this.commitLogFilePools) {
+                pool.destroy();
+            }
+            this.consumeQueueFilePool.destroy();
+        }
         this.deleteFile(StorePathConfigHelper.getAbortFile(this.messageStoreConfig.getStorePathRootDir()));
         this.deleteFile(StorePathConfigHelper.getStoreCheckpoint(this.messageStoreConfig.getStorePathRootDir()));
     }
@@ -277,7 +473,10 @@ public class DefaultMessageStore implements MessageStore {
         }
     }
 
-    public PutMessageResult putMessage(MessageExtBrokerInner msg) {
+    /**
+     * @return null if messages can be put into the store now, otherwise the failed result
+     */
+    private PutMessageResult checkStoreStatus() {
         if (this.shutdown) {
             log.warn("message store has shutdown, so putMessage is forbidden");
             return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
@@ -303,6 +502,47 @@ public class DefaultMessageStore implements MessageStore {
             this.printTimes.set(0);
         }
 
+        return null;
+    }
+
+    public PutMessageResult putMessage(MessageExtBrokerInner msg) {
+        PutMessageResult checkResult = this.checkMessage(msg);
+        if (checkResult != null) {
+            return checkResult;
+        }
+
+        long beginTime = this.getSystemClock().now();
+        PutMessageResult result = this.commitLog.putMessage(msg);
+        this.onPutMessageComplete(result, beginTime, msg.getBody().length);
+        return result;
+    }
+
+
+    @Override
+    public void asyncPutMessage(final MessageExtBrokerInner msg, final PutMessageCallback callback) {
+        PutMessageResult checkResult = this.checkMessage(msg);
+        if (checkResult != null) {
+            callback.operationComplete(checkResult);
+            return;
+        }
+
+        final long beginTime = this.getSystemClock().now();
+        this.commitLog.asyncPutMessage(msg, new PutMessageCallback() {
+            @Override
+            public void operationComplete(PutMessageResult putMessageResult) {
+                DefaultMessageStore.this.onPutMessageComplete(putMessageResult, beginTime, msg.getBody().length);
+                callback.operationComplete(putMessageResult);
+            }
+        });
+    }
+
+
+    private PutMessageResult checkMessage(MessageExtBrokerInner msg) {
+        PutMessageResult checkResult = this.checkStoreStatus();
+        if (checkResult != null) {
+            return checkResult;
+        }
+
 
         if (msg.getTopic().length() > Byte.MAX_VALUE) {
             log.warn("putMessage message topic length too long " + msg.getTopic().length());
@@ -320,23 +560,79 @@ public class DefaultMessageStore implements MessageStore {
             return new PutMessageResult(PutMessageStatus.OS_PAGECACHE_BUSY, null);
         }
 
-        long beginTime = this.getSystemClock().now();
-        PutMessageResult result = this.commitLog.putMessage(msg);
+        return null;
+    }
 
+
+    private void onPutMessageComplete(PutMessageResult result, long beginTime, int bodyLength) {
         long eclipseTime = this.getSystemClock().now() - beginTime;
         if (eclipseTime > 1000) {
-            log.warn("putMessage not in lock eclipse time(ms)={}, bodyLength={}", eclipseTime, msg.getBody().length);
+            log.warn("putMessage not in lock eclipse time(ms)={}, bodyLength={}", eclipseTime, bodyLength);
         }
         this.storeStatsService.setPutMessageEntireTimeMax(eclipseTime);
 
         if (null == result || !result.isOk()) {
             this.storeStatsService.getPutMessageFailedTimes().incrementAndGet();
         }
+    }
 
+
+    public PutMessageResult putMessages(MessageExtBatch messageExtBatch) {
+        PutMessageResult checkResult = this.checkMessages(messageExtBatch);
+        if (checkResult != null) {
+            return checkResult;
+        }
+
+        long beginTime = this.getSystemClock().now();
+        PutMessageResult result = this.commitLog.putMessages(messageExtBatch);
+        this.onPutMessageComplete(result, beginTime, messageExtBatch.getBody().length);
         return result;
     }
 
 
+    @Override
+    public void asyncPutMessages(final MessageExtBatch messageExtBatch, final PutMessageCallback callback) {
+        PutMessageResult checkResult = this.checkMessages(messageExtBatch);
+        if (checkResult != null) {
+            callback.operationComplete(checkResult);
+            return;
+        }
+
+        final long beginTime = this.getSystemClock().now();
+        this.commitLog.asyncPutMessages(messageExtBatch, new PutMessageCallback() {
+            @Override
+            public void operationComplete(PutMessageResult putMessageResult) {
+                DefaultMessageStore.this.onPutMessageComplete(putMessageResult, beginTime, messageExtBatch.getBody().length);
+                callback.operationComplete(putMessageResult);
+            }
+        });
+    }
+
+
+    private PutMessageResult checkMessages(MessageExtBatch messageExtBatch) {
+        PutMessageResult checkResult = this.checkStoreStatus();
+        if (checkResult != null) {
+            return checkResult;
+        }
+
+        if (messageExtBatch.getTopic().length() > Byte.MAX_VALUE) {
+            log.warn("PutMessages topic length too long " + messageExtBatch.getTopic().length());
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+
+        if (messageExtBatch.getBody().length > messageStoreConfig.getMaxMessageSize()) {
+            log.warn("PutMessages body length too long " + messageExtBatch.getBody().length);
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+
+        if (this.isOSPageCacheBusy()) {
+            return new PutMessageResult(PutMessageStatus.OS_PAGECACHE_BUSY, null);
+        }
+
+        return null;
+    }
+
+
     public boolean isOSPageCacheBusy() {
         long begin = this.getCommitLog().getBeginTimeInLock();
         long diff = this.systemClock.now() - begin;
@@ -392,7 +688,13 @@ public class DefaultMessageStore implements MessageStore {
             minOffset = consumeQueue.getMinOffsetInQuque();
             maxOffset = consumeQueue.getMaxOffsetInQuque();
 
-            if (maxOffset == 0) {
+            CompactedSegment compactedSegment = this.findCompactedSegment(topic, queueId);
+            if (compactedSegment != null && offset < compactedSegment.getCompactedOffset()) {
+                minOffset = Math.min(minOffset, compactedSegment.getMinOffset());
+                nextBeginOffset = this.getCompactedMessage(group, subscriptionData, compactedSegment, offset,
+                        maxMsgNums, getResult);
+                status = getResult.getStatus();
+            } else if (maxOffset == 0) {
                 status = GetMessageStatus.NO_MESSAGE_IN_QUEUE;
                 nextBeginOffset = nextOffsetCorrection(offset, 0);
             } else if (offset < minOffset) {
@@ -416,15 +718,45 @@ public class DefaultMessageStore implements MessageStore {
 
                         long nextPhyFileStartOffset = Long.MIN_VALUE;
                         long maxPhyOffsetPulling = 0;
+                        long nextPhyOffsetPulling = -1;
+                        boolean pullingInDisk = false;
 
                         int i = 0;
                         final int MaxFilterMessageCount = 16000;
                         final boolean diskFallRecorded = this.messageStoreConfig.isDiskFallRecorded();
+                        // page cache residency is sampled once a pull, at its first read of the hot tail
+                        boolean hotTailReadRecorded = !this.messageStoreConfig.isPageCacheHitRecorded();
+                        final long hotTailSize = (long) (StoreUtil.TotalPhysicalMemorySize
+                                * (this.messageStoreConfig.getAccessMessageInMemoryMaxRatio() / 100.0));
+                        boolean coldRead = false;
+                        ConsumeQueueExt.CqExtUnit cqExtUnit = null;
+                        final MessageFilter filter = this.messageFilter;
+                        // units restored at restart may still point to messages older than the retention time
+                        final Long retentionTime = this.topicRetentionTable.get(topic);
+                        final long expiredBefore =
+                                retentionTime != null ? System.currentTimeMillis() - retentionTime : Long.MIN_VALUE;
                         for (; i < bufferConsumeQueue.getSize() && i < MaxFilterMessageCount; i += ConsumeQueue.CQStoreUnitSize) {
                             long offsetPy = bufferConsumeQueue.getByteBuffer().getLong();
                             int sizePy = bufferConsumeQueue.getByteBuffer().getInt();
                             long tagsCode = bufferConsumeQueue.getByteBuffer().getLong();
 
+                            Long matchTagsCode = tagsCode;
+                            boolean extRet = false;
+                            if (ConsumeQueueExt.isExtAddr(tagsCode)) {
+                                if (null == cqExtUnit) {
+                                    cqExtUnit = new ConsumeQueueExt.CqExtUnit();
+                                }
+                                extRet = consumeQueue.getExt(tagsCode, cqExtUnit);
+                                if (extRet) {
+                                    matchTagsCode = cqExtUnit.getTagsCode();
+                                } else {
+                                    // tags unknown, let it pass
+                                    matchTagsCode = null;
+                                    log.error("[BUG] can't find consume queue extend file content!addr={}, offsetPy={}, sizePy={}, topic={}",
+                                            tagsCode, offsetPy, sizePy, topic);
+                                }
+                            }
+
                             maxPhyOffsetPulling = offsetPy;
 
 
@@ -435,6 +767,15 @@ public class DefaultMessageStore implements MessageStore {
 
 
                             boolean isInDisk = checkInDiskByCommitOffset(offsetPy, maxOffsetPy);
+                            pullingInDisk |= isInDisk;
+                            if (!hotTailReadRecorded && maxOffsetPy - offsetPy <= hotTailSize) {
+                                Boolean cached = this.commitLog.isInPageCache(offsetPy);
+                                if (cached != null) {
+                                    this.storeStatsService.recordHotTailRead(cached);
+                                }
+                                hotTailReadRecorded = true;
+                            }
+                            nextPhyOffsetPulling = offsetPy + sizePy;
 
                             if (this.isTheBatchFull(sizePy, maxMsgNums, getResult.getBufferTotalSize(), getResult.getMessageCount(),
                                     isInDisk)) {
@@ -442,9 +783,24 @@ public class DefaultMessageStore implements MessageStore {
                             }
 
 
-                            if (this.messageFilter.isMessageMatched(subscriptionData, tagsCode)) {
-                                SelectMapedBufferResult selectResult = this.commitLog.getMessage(offsetPy, sizePy);
-                                if (selectResult != null) {
+                            if (this.isMessageMatched(filter, group, subscriptionData, matchTagsCode, extRet ? cqExtUnit : null)) {
+                                SelectMapedBufferResult selectResult;
+                                if (isInDisk && this.coldReadBufferPool != null) {
+                                    selectResult = this.commitLog.getMessageWithoutCache(offsetPy, sizePy);
+                                    this.storeStatsService.getGetMessageColdReadTimes().incrementAndGet();
+                                    coldRead = true;
+                                } else {
+                                    selectResult = this.commitLog.getMessage(offsetPy, sizePy);
+                                }
+                                if (selectResult != null
+                                        && (selectResult.getByteBuffer().getLong(MessageDecoder.MessageStoreTimestampPostion) < expiredBefore
+                                        || !isMatchedByCommitLog(filter, group, subscriptionData, selectResult.getByteBuffer()))) {
+                                    selectResult.release();
+                                    if (getResult.getBufferTotalSize() == 0) {
+                                        status = GetMessageStatus.NO_MATCHED_MESSAGE;
+                                    }
+                                    nextPhyFileStartOffset = Long.MIN_VALUE;
+                                } else if (selectResult != null) {
                                     this.storeStatsService.getGetMessageTransferedMsgCount().incrementAndGet();
                                     getResult.addMessage(selectResult);
                                     status = GetMessageStatus.FOUND;
@@ -481,6 +837,11 @@ public class DefaultMessageStore implements MessageStore {
                         long memory = (long) (StoreUtil.TotalPhysicalMemorySize
                                 * (this.messageStoreConfig.getAccessMessageInMemoryMaxRatio() / 100.0));
                         getResult.setSuggestPullingFromSlave(diff > memory);
+
+                        // reading ahead would bring back to page cache what cold reads keep out of it
+                        if (pullingInDisk && !coldRead && this.commitLogPrefetchService != null) {
+                            this.commitLogPrefetchService.prefetch(group, topic, queueId, nextPhyOffsetPulling);
+                        }
                     } finally {
 
                         bufferConsumeQueue.release();
@@ -514,6 +875,74 @@ public class DefaultMessageStore implements MessageStore {
         return getResult;
     }
 
+    /**
+     * Serves offsets below the compacted offset from the compacted view, which holds the newest message per key.
+     *
+     * @return next begin offset, the compacted offset once the view is read through
+     */
+    private long getCompactedMessage(final String group, final SubscriptionData subscriptionData,
+                                     final CompactedSegment compactedSegment, final long offset, final int maxMsgNums,
+                                     final GetMessageResult getResult) {
+        final MessageFilter filter = this.messageFilter;
+        getResult.setStatus(GetMessageStatus.NO_MATCHED_MESSAGE);
+
+        int index = compactedSegment.indexOf(offset);
+        for (; index < compactedSegment.getUnitNums(); index++) {
+            int size = compactedSegment.getSize(index);
+            if (this.isTheBatchFull(size, maxMsgNums, getResult.getBufferTotalSize(), getResult.getMessageCount(), true)) {
+                break;
+            }
+
+            if (!this.isMessageMatched(filter, group, subscriptionData, compactedSegment.getTagsCode(index), null)) {
+                continue;
+            }
+
+            SelectMapedBufferResult selectResult = compactedSegment.getMessage(index);
+            if (null == selectResult) {
+                if (getResult.getBufferTotalSize() == 0) {
+                    getResult.setStatus(GetMessageStatus.MESSAGE_WAS_REMOVING);
+                }
+                break;
+            }
+            if (isMatchedByCommitLog(filter, group, subscriptionData, selectResult.getByteBuffer())) {
+                this.storeStatsService.getGetMessageTransferedMsgCount().incrementAndGet();
+                getResult.addMessage(selectResult);
+                getResult.setStatus(GetMessageStatus.FOUND);
+            }
+        }
+
+        if (index < compactedSegment.getUnitNums()) {
+            return compactedSegment.getQueueOffset(index);
+        }
+        return compactedSegment.getCompactedOffset();
+    }
+
+
+    private CompactedSegment findCompactedSegment(final String topic, final int queueId) {
+        if (null == this.compactionService) {
+            return null;
+        }
+        return this.compactionService.findCompactedSegment(topic, queueId);
+    }
+
+
+    private boolean isMessageMatched(final MessageFilter filter, final String group, final SubscriptionData subscriptionData,
+                                     final Long tagsCode, final ConsumeQueueExt.CqExtUnit cqExtUnit) {
+        if (!filter.isMessageMatched(subscriptionData, tagsCode)) {
+            return false;
+        }
+
+        return cqExtUnit == null || !(filter instanceof MessageFilterExt)
+                || ((MessageFilterExt) filter).isMatchedByConsumeQueueExt(group, subscriptionData, cqExtUnit);
+    }
+
+
+    private static boolean isMatchedByCommitLog(final MessageFilter filter, final String group,
+                                                final SubscriptionData subscriptionData, final ByteBuffer msgBuffer) {
+        return !(filter instanceof MessageFilterExt)
+                || ((MessageFilterExt) filter).isMatchedByCommitLog(group, subscriptionData, msgBuffer);
+    }
+
     /**
 
      */
@@ -533,6 +962,10 @@ public class DefaultMessageStore implements MessageStore {
     public long getMinOffsetInQuque(String topic, int queueId) {
         ConsumeQueue logic = this.findConsumeQueue(topic, queueId);
         if (logic != null) {
+            CompactedSegment compactedSegment = this.findCompactedSegment(topic, queueId);
+            if (compactedSegment != null) {
+                return Math.min(logic.getMinOffsetInQuque(), compactedSegment.getMinOffset());
+            }
             return logic.getMinOffsetInQuque();
         }
 
@@ -612,7 +1045,7 @@ public class DefaultMessageStore implements MessageStore {
 
         {
             String storePathPhysic = DefaultMessageStore.this.getMessageStoreConfig().getStorePathCommitLog();
-            double physicRatio = UtilAll.getDiskPartitionSpaceUsedPercent(storePathPhysic);
+            double physicRatio = StorePathConfigHelper.getMaxDiskPartitionSpaceUsedPercent(storePathPhysic);
             result.put(RunningStats.commitLogDiskRatio.name(), String.valueOf(physicRatio));
 
         }
@@ -630,8 +1063,28 @@ public class DefaultMessageStore implements MessageStore {
             if (this.scheduleMessageService != null) {
                 this.scheduleMessageService.buildRunningStats(result);
             }
+
+            if (this.timerMessageService != null) {
+                this.timerMessageService.buildRunningStats(result);
+            }
+
+            this.transactionStateService.buildRunningStats(result);
+        }
+
+        result.put("dispatchParseBehindBytes", String.valueOf(this.reputMessageService.behind()));
+        if (this.parallelDispatchService != null) {
+            this.parallelDispatchService.buildRunningStats(result, this.reputMessageService.getReputFromOffset());
+        }
+        if (this.commitLog.getTieredCommitLog() != null) {
+            TieredCommitLog tieredCommitLog = this.commitLog.getTieredCommitLog();
+            result.put("tieredCommitLogMinOffset", String.valueOf(tieredCommitLog.getMinOffset()));
+            result.put("tieredCommitLogMaxOffset", String.valueOf(tieredCommitLog.getMaxOffset()));
+            result.put("tieredBlockCacheHitTimes", String.valueOf(tieredCommitLog.getBlockCache().getHitTimes()));
+            result.put("tieredBlockCacheMissTimes", String.valueOf(tieredCommitLog.getBlockCache().getMissTimes()));
         }
 
+        this.haService.buildRunningStats(result);
+
         result.put(RunningStats.commitLogMinOffset.name(), String.valueOf(DefaultMessageStore.this.getMinPhyOffset()));
         result.put(RunningStats.commitLogMaxOffset.name(), String.valueOf(DefaultMessageStore.this.getMaxPhyOffset()));
 
@@ -820,6 +1273,14 @@ public class DefaultMessageStore implements MessageStore {
         return this.commitLog.getMaxOffset() - this.haService.getPush2SlaveMaxOffset().get();
     }
 
+    @Override
+    public long fallBehindMaster() {
+        if (BrokerRole.SLAVE != this.messageStoreConfig.getBrokerRole()) {
+            return 0;
+        }
+        return this.haService.getSlaveFallBehind();
+    }
+
     @Override
     public long now() {
         return this.systemClock.now();
@@ -832,7 +1293,8 @@ public class DefaultMessageStore implements MessageStore {
             Entry<String, ConcurrentHashMap<Integer, ConsumeQueue>> next = it.next();
             String topic = next.getKey();
 
-            if (!topics.contains(topic) && !topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)) {
+            if (!topics.contains(topic) && !topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)
+                    && !topic.equals(TimerMessageService.TIMER_TOPIC)) {
                 ConcurrentHashMap<Integer, ConsumeQueue> queueTable = next.getValue();
                 for (ConsumeQueue cq : queueTable.values()) {
                     cq.destroy();
@@ -967,9 +1429,22 @@ public class DefaultMessageStore implements MessageStore {
     }
 
     public long dispatchBehindBytes() {
+        if (this.parallelDispatchService != null) {
+            return this.commitLog.getMaxOffset() - this.parallelDispatchService.dispatchedOffset(this.reputMessageService.getReputFromOffset());
+        }
         return this.reputMessageService.behind();
     }
 
+    /**
+     * CommitLog offset below which every message has been dispatched
+     */
+    long dispatchedPhyOffset() {
+        if (this.parallelDispatchService != null) {
+            return this.parallelDispatchService.dispatchedOffset(this.reputMessageService.getReputFromOffset());
+        }
+        return this.reputMessageService.getReputFromOffset();
+    }
+
     @Override
     public long flush() {
         return this.commitLog.flush();
@@ -1043,6 +1518,13 @@ public class DefaultMessageStore implements MessageStore {
     }
 
     private boolean checkInDiskByCommitOffset(long offsetPy, long maxOffsetPy) {
+        if (this.messageStoreConfig.isPageCacheResidencyEnable() && MapedFile.isMincoreSupported()) {
+            Boolean cached = this.commitLog.isInPageCache(offsetPy);
+            if (cached != null) {
+                return !cached;
+            }
+        }
+
         long memory = (long) (StoreUtil.TotalPhysicalMemorySize * (this.messageStoreConfig.getAccessMessageInMemoryMaxRatio() / 100.0));
         return (maxOffsetPy - offsetPy) > memory;
     }
@@ -1101,6 +1583,14 @@ public class DefaultMessageStore implements MessageStore {
     }
 
     private void addScheduleTask() {
+        if (this.bootstrapped) {
+            this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    DefaultMessageStore.this.checkBootstrapDispatched();
+                }
+            }, 1000, 1000, TimeUnit.MILLISECONDS);
+        }
 
         this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
             @Override
@@ -1147,7 +1637,16 @@ public class DefaultMessageStore implements MessageStore {
         // }, 1, 1, TimeUnit.HOURS);
     }
 
-    private void cleanFilesPeriodically() {
+    void checkBootstrapDispatched() {
+        if (this.bootstrapped && this.dispatchedPhyOffset() >= this.bootstrapDispatchOffset) {
+            this.bootstrapped = false;
+            this.deleteFile(StorePathConfigHelper.getBootstrapFile(this.messageStoreConfig.getStorePathRootDir()));
+            log.info("CommitLog files copied from master are dispatched up to {}", this.bootstrapDispatchOffset);
+        }
+    }
+
+    void cleanFilesPeriodically() {
+        this.cleanTopicRetentionService.run();
         this.cleanCommitLogService.run();
         this.cleanConsumeQueueService.run();
     }
@@ -1172,9 +1671,10 @@ public class DefaultMessageStore implements MessageStore {
         return file.exists();
     }
 
-    private boolean loadConsumeQueue() {
+    private boolean loadConsumeQueue(final ExecutorService executor) throws Exception {
         File dirLogic = new File(StorePathConfigHelper.getStorePathConsumeQueue(this.messageStoreConfig.getStorePathRootDir()));
         File[] fileTopicList = dirLogic.listFiles();
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
         if (fileTopicList != null) {
 
             for (File fileTopic : fileTopicList) {
@@ -1189,41 +1689,74 @@ public class DefaultMessageStore implements MessageStore {
                         }catch (NumberFormatException e) {
                             continue;
                         }
-                        ConsumeQueue logic = new ConsumeQueue(//
+                        final ConsumeQueue logic = new ConsumeQueue(//
                                 topic, //
                                 queueId, //
                                 StorePathConfigHelper.getStorePathConsumeQueue(this.messageStoreConfig.getStorePathRootDir()), //
                                 this.getMessageStoreConfig().getMapedFileSizeConsumeQueue(), //
                                 this);
                         this.putConsumeQueue(topic, queueId, logic);
-                        if (!logic.load()) {
-                            return false;
-                        }
+                        tasks.add(new Callable<Boolean>() {
+                            @Override
+                            public Boolean call() {
+                                return logic.load();
+                            }
+                        });
                     }
                 }
             }
         }
 
+        for (Boolean result : this.runRecoverTasks(tasks, executor)) {
+            if (!result) {
+                return false;
+            }
+        }
+
         log.info("load logics queue all over, OK");
 
         return true;
     }
 
-    private void recover(final boolean lastExitOK) {
-        this.recoverConsumeQueue();
+    /**
+     * Runs the tasks on the executor, or one by one if it is null.
+     */
+    private <T> List<T> runRecoverTasks(final List<Callable<T>> tasks, final ExecutorService executor) throws Exception {
+        List<T> results = new ArrayList<T>(tasks.size());
+        if (null == executor) {
+            for (Callable<T> task : tasks) {
+                results.add(task.call());
+            }
+        } else {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        }
+        return results;
+    }
 
+    private void recover(final boolean lastExitOK, final ExecutorService executor) throws Exception {
+        long beginTime = System.currentTimeMillis();
+        this.recoverConsumeQueue(executor);
+        log.info("recover consume queue over, elapsed time(ms) {}", System.currentTimeMillis() - beginTime);
 
+        beginTime = System.currentTimeMillis();
         if (lastExitOK) {
-            this.commitLog.recoverNormally();
+            this.commitLog.recoverNormally(executor);
         }
 
         else {
-            this.commitLog.recoverAbnormally();
+            this.commitLog.recoverAbnormally(executor);
         }
+        log.info("recover commit log over, elapsed time(ms) {}", System.currentTimeMillis() - beginTime);
 
+        beginTime = System.currentTimeMillis();
         this.recoverTopicQueueTable();
+        log.info("recover topic queue table over, elapsed time(ms) {}", System.currentTimeMillis() - beginTime);
 
+        beginTime = System.currentTimeMillis();
         this.getTransactionStateService().recoverStateTable(lastExitOK);
+        log.info("recover transaction state table over, elapsed time(ms) {}", System.currentTimeMillis() - beginTime);
     }
 
     public MessageStoreConfig getMessageStoreConfig() {
@@ -1241,12 +1774,20 @@ public class DefaultMessageStore implements MessageStore {
         }
     }
 
-    private void recoverConsumeQueue() {
+    private void recoverConsumeQueue(final ExecutorService executor) throws Exception {
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
         for (ConcurrentHashMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
-            for (ConsumeQueue logic : maps.values()) {
-                logic.recover();
+            for (final ConsumeQueue logic : maps.values()) {
+                tasks.add(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        logic.recover();
+                        return null;
+                    }
+                });
             }
         }
+        this.runRecoverTasks(tasks, executor);
     }
 
     private void recoverTopicQueueTable() {
@@ -1271,6 +1812,22 @@ public class DefaultMessageStore implements MessageStore {
         return storeStatsService;
     }
 
+    public TransientStorePool getTransientStorePool() {
+        return transientStorePool;
+    }
+
+    public ColdReadBufferPool getColdReadBufferPool() {
+        return coldReadBufferPool;
+    }
+
+    public RecycledFilePool[] getCommitLogFilePools() {
+        return commitLogFilePools;
+    }
+
+    public RecycledFilePool getConsumeQueueFilePool() {
+        return consumeQueueFilePool;
+    }
+
     public RunningFlags getAccessRights() {
         return runningFlags;
     }
@@ -1291,504 +1848,122 @@ public class DefaultMessageStore implements MessageStore {
         return scheduleMessageService;
     }
 
+    public TimerMessageService getTimerMessageService() {
+        return timerMessageService;
+    }
+
     public RunningFlags getRunningFlags() {
         return runningFlags;
     }
 
-    public void doDispatch(DispatchRequest req) {
-        final int tranType = MessageSysFlag.getTransactionValue(req.getSysFlag());
-        switch (tranType) {
-            case MessageSysFlag.TransactionNotType:
-            case MessageSysFlag.TransactionCommitType:
-                DefaultMessageStore.this.putMessagePostionInfo(req.getTopic(), req.getQueueId(), req.getCommitLogOffset(), req.getMsgSize(),
-                        req.getTagsCode(), req.getStoreTimestamp(), req.getConsumeQueueOffset());
-                break;
-            case MessageSysFlag.TransactionPreparedType:
-            case MessageSysFlag.TransactionRollbackType:
-                break;
-        }
-
-        if (req.getProducerGroup() != null) {
-            switch (tranType) {
-                case MessageSysFlag.TransactionNotType:
-                    break;
-                case MessageSysFlag.TransactionPreparedType:
-                     DefaultMessageStore.this.getTransactionStateService().appendPreparedTransaction(//
-                            req.getCommitLogOffset(),//
-                            req.getMsgSize(),//
-                            (int) (req.getStoreTimestamp() / 1000),//
-                            req.getProducerGroup().hashCode());
-                    break;
-                case MessageSysFlag.TransactionCommitType:
-                case MessageSysFlag.TransactionRollbackType:
-                    DefaultMessageStore.this.getTransactionStateService().updateTransactionState(//
-                            req.getTranStateTableOffset(),//
-                            req.getPreparedTransactionOffset(),//
-                            req.getProducerGroup().hashCode(),//
-                            tranType//
-                    );
-                    break;
-            }
-        }
+    public MessageFilter getMessageFilter() {
+        return messageFilter;
+    }
 
-        switch (tranType) {
-            case MessageSysFlag.TransactionNotType:
-                break;
-            case MessageSysFlag.TransactionPreparedType:
-                 DefaultMessageStore.this.getTransactionStateService().getTranRedoLog()
-                        .putMessagePostionInfoWrapper(//
-                                req.getCommitLogOffset(),//
-                                req.getMsgSize(),//
-                                TransactionStateService.PreparedMessageTagsCode,//
-                                req.getStoreTimestamp(),//
-                                0L//
-                        );
-                break;
-            case MessageSysFlag.TransactionCommitType:
-            case MessageSysFlag.TransactionRollbackType:
-                 DefaultMessageStore.this.getTransactionStateService().getTranRedoLog()
-                        .putMessagePostionInfoWrapper(//
-                                req.getCommitLogOffset(),//
-                                req.getMsgSize(),//
-                                req.getPreparedTransactionOffset(),//
-                                req.getStoreTimestamp(),//
-                                0L//
-                        );
-                break;
-        }
+    /**
+     * Replace the filter used by getMessage, e.g. one that also checks the bit map of extended ConsumeQueue.
+     */
+    public void setMessageFilter(MessageFilter messageFilter) {
+        this.messageFilter = messageFilter;
+    }
 
-        if (DefaultMessageStore.this.getMessageStoreConfig().isMessageIndexEnable()) {
-            DefaultMessageStore.this.indexService.buildIndex(req);
+    @Override
+    public void updateCompactionTopics(final Set<String> topics) {
+        if (this.compactionService != null) {
+            this.compactionService.updateCompactionTopics(topics);
         }
     }
 
-    public void putMessagePostionInfo(String topic, int queueId, long offset, int size, long tagsCode, long storeTimestamp,
-                                      long logicOffset) {
-        ConsumeQueue cq = this.findConsumeQueue(topic, queueId);
-        cq.putMessagePostionInfoWrapper(offset, size, tagsCode, storeTimestamp, logicOffset);
+    @Override
+    public void updateTopicRetentionTimes(final Map<String, Long> retentionTimes) {
+        this.topicRetentionTable = new HashMap<String, Long>(retentionTimes);
     }
 
-    public BrokerStatsManager getBrokerStatsManager() {
-        return brokerStatsManager;
+    public CompactionService getCompactionService() {
+        return compactionService;
     }
 
-    class CleanCommitLogService {
-
-        private final static int MaxManualDeleteFileTimes = 20;
-        private final double DiskSpaceWarningLevelRatio =
-                Double.parseDouble(System.getProperty("rocketmq.broker.diskSpaceWarningLevelRatio", "0.90"));
-
-        private final double DiskSpaceCleanForciblyRatio =
-                Double.parseDouble(System.getProperty("rocketmq.broker.diskSpaceCleanForciblyRatio", "0.85"));
-        private long lastRedeleteTimestamp = 0;
-
-        private volatile int manualDeleteFileSeveralTimes = 0;
-
-        private volatile boolean cleanImmediately = false;
-
-
-        public void excuteDeleteFilesManualy() {
-            this.manualDeleteFileSeveralTimes = MaxManualDeleteFileTimes;
-            DefaultMessageStore.log.info("excuteDeleteFilesManualy was invoked");
-        }
-
-
-        public void run() {
-            try {
-                this.deleteExpiredFiles();
-
-                this.redeleteHangedFile();
-            } catch (Exception e) {
-                DefaultMessageStore.log.warn(this.getServiceName() + " service has exception. ", e);
-            }
-        }
-
-        private void deleteExpiredFiles() {
-            int deleteCount = 0;
-            long fileReservedTime = DefaultMessageStore.this.getMessageStoreConfig().getFileReservedTime();
-            int deletePhysicFilesInterval = DefaultMessageStore.this.getMessageStoreConfig().getDeleteCommitLogFilesInterval();
-            int destroyMapedFileIntervalForcibly = DefaultMessageStore.this.getMessageStoreConfig().getDestroyMapedFileIntervalForcibly();
-
-            boolean timeup = this.isTimeToDelete();
-            boolean spacefull = this.isSpaceToDelete();
-            boolean manualDelete = this.manualDeleteFileSeveralTimes > 0;
-
-
-            if (timeup || spacefull || manualDelete) {
-
-                if (manualDelete)
-                    this.manualDeleteFileSeveralTimes --;
-
-
-                boolean cleanAtOnce = DefaultMessageStore.this.getMessageStoreConfig().isCleanFileForciblyEnable() && this.cleanImmediately;
-
-                log.info("begin to delete before {} hours file. timeup: {} spacefull: {} manualDeleteFileSeveralTimes: {} cleanAtOnce: {}", //
-                        fileReservedTime, //
-                        timeup, //
-                        spacefull, //
-                        manualDeleteFileSeveralTimes, //
-                        cleanAtOnce);
-
-
-                fileReservedTime *= 60 * 60 * 1000;
-
-                deleteCount = DefaultMessageStore.this.commitLog.deleteExpiredFile(fileReservedTime, deletePhysicFilesInterval,
-                        destroyMapedFileIntervalForcibly, cleanAtOnce);
-                if (deleteCount > 0) {
-                }
-
-                else if (spacefull) {
-                    log.warn("disk space will be full soon, but delete file failed.");
-                }
-            }
-        }
-
-        private void redeleteHangedFile() {
-            int interval = DefaultMessageStore.this.getMessageStoreConfig().getRedeleteHangedFileInterval();
-            long currentTimestamp = System.currentTimeMillis();
-            if ((currentTimestamp - this.lastRedeleteTimestamp) > interval) {
-                this.lastRedeleteTimestamp = currentTimestamp;
-                int destroyMapedFileIntervalForcibly =
-                        DefaultMessageStore.this.getMessageStoreConfig().getDestroyMapedFileIntervalForcibly();
-                if (DefaultMessageStore.this.commitLog.retryDeleteFirstFile(destroyMapedFileIntervalForcibly)) {
-                }
-            }
-        }
-
-        public String getServiceName() {
-            return CleanCommitLogService.class.getSimpleName();
-        }
-        private boolean isTimeToDelete() {
-            String when = DefaultMessageStore.this.getMessageStoreConfig().getDeleteWhen();
-            if (UtilAll.isItTimeToDo(when)) {
-                DefaultMessageStore.log.info("it's time to reclaim disk space, " + when);
-                return true;
-            }
-
-            return false;
-        }
-        private boolean isSpaceToDelete() {
-            double ratio = DefaultMessageStore.this.getMessageStoreConfig().getDiskMaxUsedSpaceRatio() / 100.0;
-
-            cleanImmediately = false;
-
-
-            {
-                String storePathPhysic = DefaultMessageStore.this.getMessageStoreConfig().getStorePathCommitLog();
-                double physicRatio = UtilAll.getDiskPartitionSpaceUsedPercent(storePathPhysic);
-                if (physicRatio > DiskSpaceWarningLevelRatio) {
-                    boolean diskok = DefaultMessageStore.this.runningFlags.getAndMakeDiskFull();
-                    if (diskok) {
-                        DefaultMessageStore.log.error("physic disk maybe full soon " + physicRatio + ", so mark disk full");
-                    }
-
-                    cleanImmediately = true;
-                } else if (physicRatio > DiskSpaceCleanForciblyRatio) {
-                    cleanImmediately = true;
-                } else {
-                    boolean diskok = DefaultMessageStore.this.runningFlags.getAndMakeDiskOK();
-                    if (!diskok) {
-                        DefaultMessageStore.log.info("physic disk space OK " + physicRatio + ", so mark disk ok");
-                    }
-                }
-
-                if (physicRatio < 0 || physicRatio > ratio) {
-                    DefaultMessageStore.log.info("physic disk maybe full soon, so reclaim space, " + physicRatio);
-                    return true;
-                }
-            }
-
-
-            {
-                String storePathLogics = StorePathConfigHelper
-                        .getStorePathConsumeQueue(DefaultMessageStore.this.getMessageStoreConfig().getStorePathRootDir());
-                double logicsRatio = UtilAll.getDiskPartitionSpaceUsedPercent(storePathLogics);
-                if (logicsRatio > DiskSpaceWarningLevelRatio) {
-                    boolean diskok = DefaultMessageStore.this.runningFlags.getAndMakeDiskFull();
-                    if (diskok) {
-                        DefaultMessageStore.log.error("logics disk maybe full soon " + logicsRatio + ", so mark disk full");
-                    }
-
-                    cleanImmediately = true;
-                } else if (logicsRatio > DiskSpaceCleanForciblyRatio) {
-                    cleanImmediately = true;
-                } else {
-                    boolean diskok = DefaultMessageStore.this.runningFlags.getAndMakeDiskOK();
-                    if (!diskok) {
-                        DefaultMessageStore.log.info("logics disk space OK " + logicsRatio + ", so mark disk ok");
-                    }
-                }
-
-                if (logicsRatio < 0 || logicsRatio > ratio) {
-                    DefaultMessageStore.log.info("logics disk maybe full soon, so reclaim space, " + logicsRatio);
-                    return true;
-                }
-            }
-
-            return false;
-        }
-
-        public int getManualDeleteFileSeveralTimes() {
-            return manualDeleteFileSeveralTimes;
-        }
-
-        public void setManualDeleteFileSeveralTimes(int manualDeleteFileSeveralTimes) {
-            this.manualDeleteFileSeveralTimes = manualDeleteFileSeveralTimes;
-        }
+    @Override
+    public LinkedList<CommitLogDispatcher> getDispatcherList() {
+        return dispatcherList;
     }
-    class CleanConsumeQueueService {
-        private long lastPhysicalMinOffset = 0;
-
-        public void run() {
-            try {
-                this.deleteExpiredFiles();
-            } catch (Exception e) {
-                DefaultMessageStore.log.warn(this.getServiceName() + " service has exception. ", e);
-            }
-        }
-
-        private void deleteExpiredFiles() {
-            int deleteLogicsFilesInterval = DefaultMessageStore.this.getMessageStoreConfig().getDeleteConsumeQueueFilesInterval();
-
-            long minOffset = DefaultMessageStore.this.commitLog.getMinOffset();
-            if (minOffset > this.lastPhysicalMinOffset) {
-                this.lastPhysicalMinOffset = minOffset;
-
-
-                ConcurrentHashMap<String, ConcurrentHashMap<Integer, ConsumeQueue>> tables = DefaultMessageStore.this.consumeQueueTable;
-
-                for (ConcurrentHashMap<Integer, ConsumeQueue> maps : tables.values()) {
-                    for (ConsumeQueue logic : maps.values()) {
-                        int deleteCount = logic.deleteExpiredFile(minOffset);
 
-                        if (deleteCount > 0 && deleteLogicsFilesInterval > 0) {
-                            try {
-                                Thread.sleep(deleteLogicsFilesInterval);
-                            } catch (InterruptedException e) {
-                            }
-                        }
-                    }
-                }
-
-
-                DefaultMessageStore.this.indexService.deleteExpiredFile(minOffset);
-            }
-        }
-
-        public String getServiceName() {
-            return CleanConsumeQueueService.class.getSimpleName();
-        }
+    CommitLogDispatcher getBuildConsumeQueueDispatcher() {
+        return buildConsumeQueueDispatcher;
     }
-    class FlushConsumeQueueService extends ServiceThread {
-        private static final int RetryTimesOver = 3;
-        private long lastFlushTimestamp = 0;
-
-
-        private void doFlush(int retryTimes) {
-            int flushConsumeQueueLeastPages = DefaultMessageStore.this.getMessageStoreConfig().getFlushConsumeQueueLeastPages();
-
-            if (retryTimes == RetryTimesOver) {
-                flushConsumeQueueLeastPages = 0;
-            }
-
-            long logicsMsgTimestamp = 0;
-
-
-            int flushConsumeQueueThoroughInterval = DefaultMessageStore.this.getMessageStoreConfig().getFlushConsumeQueueThoroughInterval();
-            long currentTimeMillis = System.currentTimeMillis();
-            if (currentTimeMillis >= (this.lastFlushTimestamp + flushConsumeQueueThoroughInterval)) {
-                this.lastFlushTimestamp = currentTimeMillis;
-                flushConsumeQueueLeastPages = 0;
-                logicsMsgTimestamp = DefaultMessageStore.this.getStoreCheckpoint().getLogicsMsgTimestamp();
-            }
-
-            ConcurrentHashMap<String, ConcurrentHashMap<Integer, ConsumeQueue>> tables = DefaultMessageStore.this.consumeQueueTable;
-
-            for (ConcurrentHashMap<Integer, ConsumeQueue> maps : tables.values()) {
-                for (ConsumeQueue cq : maps.values()) {
-                    boolean result = false;
-                    for (int i = 0; i < retryTimes && !result; i++) {
-                        result = cq.commit(flushConsumeQueueLeastPages);
-                    }
-                }
-            }
-
-            if (0 == flushConsumeQueueLeastPages) {
-                if (logicsMsgTimestamp > 0) {
-                    DefaultMessageStore.this.getStoreCheckpoint().setLogicsMsgTimestamp(logicsMsgTimestamp);
-                }
-                DefaultMessageStore.this.getStoreCheckpoint().flush();
-            }
-        }
-
-
-        public void run() {
-            DefaultMessageStore.log.info(this.getServiceName() + " service started");
-
-            while (!this.isStoped()) {
-                try {
-                    int interval = DefaultMessageStore.this.getMessageStoreConfig().getFlushIntervalConsumeQueue();
-                    this.waitForRunning(interval);
-                    this.doFlush(1);
-                } catch (Exception e) {
-                    DefaultMessageStore.log.warn(this.getServiceName() + " service has exception. ", e);
-                }
-            }
-
 
-            this.doFlush(RetryTimesOver);
-
-            DefaultMessageStore.log.info(this.getServiceName() + " service end");
-        }
-
-
-        @Override
-        public String getServiceName() {
-            return FlushConsumeQueueService.class.getSimpleName();
-        }
+    CommitLogDispatcher getTransactionDispatcher() {
+        return transactionDispatcher;
+    }
 
+    CommitLogDispatcher getBuildIndexDispatcher() {
+        return buildIndexDispatcher;
+    }
 
-        @Override
-        public long getJointime() {
-            return 1000 * 60;
+    public void doDispatch(DispatchRequest req) {
+        for (CommitLogDispatcher dispatcher : this.dispatcherList) {
+            this.doDispatch(dispatcher, req);
         }
     }
-    class ReputMessageService extends ServiceThread {
-
-        private volatile long reputFromOffset = 0;
 
-        public long getReputFromOffset() {
-            return reputFromOffset;
-        }
+    void doDispatch(final CommitLogDispatcher dispatcher, final DispatchRequest req) {
+        long beginTime = System.nanoTime();
+        dispatcher.dispatch(req);
+        this.storeStatsService.recordDispatchElapsed(dispatcher, System.nanoTime() - beginTime);
+    }
 
+    class CommitLogDispatcherBuildConsumeQueue implements CommitLogDispatcher {
         @Override
-        public void shutdown() {
-            for (int i = 0; i < 50 && this.isCommitLogAvailable(); i++) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                }
-            }
-
-            if (this.isCommitLogAvailable()) {
-                log.warn("shutdown ReputMessageService, but commitlog have not finish to be dispatched, CL: {} reputFromOffset: {}",
-                        DefaultMessageStore.this.commitLog.getMaxOffset(), this.reputFromOffset);
-            }
-
-            super.shutdown();
-        }
-
-        public void setReputFromOffset(long reputFromOffset) {
-            this.reputFromOffset = reputFromOffset;
-        }
-
-        public long behind() {
-            return DefaultMessageStore.this.commitLog.getMaxOffset() - this.reputFromOffset;
-        }
-
-
-        private boolean isCommitLogAvailable() {
-            return this.reputFromOffset < DefaultMessageStore.this.commitLog.getMaxOffset();
-        }
-
-
-        private void doReput() {
-            for (boolean doNext = true; this.isCommitLogAvailable() && doNext; ) {
-
-                if (DefaultMessageStore.this.getMessageStoreConfig().isDuplicationEnable() //
-                        && this.reputFromOffset >= DefaultMessageStore.this.getConfirmOffset()) {
+        public void dispatch(DispatchRequest req) {
+            final int tranType = MessageSysFlag.getTransactionValue(req.getSysFlag());
+            switch (tranType) {
+                case MessageSysFlag.TransactionNotType:
+                case MessageSysFlag.TransactionCommitType:
+                    // tags code of delay messages is the deliver time, which ScheduleMessageService and
+                    // TimerMessageService read directly
+                    byte[] bitMap = ScheduleMessageService.SCHEDULE_TOPIC.equals(req.getTopic())
+                            || TimerMessageService.TIMER_TOPIC.equals(req.getTopic()) ? null : req.getBitMap();
+                    DefaultMessageStore.this.putMessagePostionInfo(req.getTopic(), req.getQueueId(), req.getCommitLogOffset(), req.getMsgSize(),
+                            req.getTagsCode(), req.getStoreTimestamp(), req.getConsumeQueueOffset(), bitMap);
+                    break;
+                case MessageSysFlag.TransactionPreparedType:
+                case MessageSysFlag.TransactionRollbackType:
                     break;
-                }
-
-                SelectMapedBufferResult result = DefaultMessageStore.this.commitLog.getData(reputFromOffset);
-                if (result != null) {
-                    try {
-                        this.reputFromOffset = result.getStartOffset();
-
-                        for (int readSize = 0; readSize < result.getSize() && doNext; ) {
-                            DispatchRequest dispatchRequest =
-                                    DefaultMessageStore.this.commitLog.checkMessageAndReturnSize(result.getByteBuffer(), false, false);
-                            int size = dispatchRequest.getMsgSize();
-
-                            if (dispatchRequest.isSuccess()) {
-                                if (size > 0) {
-                                    DefaultMessageStore.this.doDispatch(dispatchRequest);
-
-                                    if (BrokerRole.SLAVE != DefaultMessageStore.this.getMessageStoreConfig().getBrokerRole()
-                                            && DefaultMessageStore.this.brokerConfig.isLongPollingEnable()) {
-                                        DefaultMessageStore.this.messageArrivingListener.arriving(dispatchRequest.getTopic(),
-                                                dispatchRequest.getQueueId(), dispatchRequest.getConsumeQueueOffset() + 1,
-                                                dispatchRequest.getTagsCode());
-                                    }
-                                    // FIXED BUG By shijia
-                                    this.reputFromOffset += size;
-                                    readSize += size;
-                                    if (DefaultMessageStore.this.getMessageStoreConfig().getBrokerRole() == BrokerRole.SLAVE) {
-                                        DefaultMessageStore.this.storeStatsService
-                                                .getSinglePutMessageTopicTimesTotal(dispatchRequest.getTopic()).incrementAndGet();
-                                        DefaultMessageStore.this.storeStatsService
-                                                .getSinglePutMessageTopicSizeTotal(dispatchRequest.getTopic())
-                                                .addAndGet(dispatchRequest.getMsgSize());
-                                    }
-                                }
-
-                                else if (size == 0) {
-                                    this.reputFromOffset = DefaultMessageStore.this.commitLog.rollNextFile(this.reputFromOffset);
-                                    readSize = result.getSize();
-                                }
-                            } else if (!dispatchRequest.isSuccess()) {
-
-
-                                if (size > 0) {
-                                    log.error("[BUG]read total count not equals msg total size. reputFromOffset={}", reputFromOffset);
-                                    this.reputFromOffset += size;
-                                }
-                                else {
-                                    doNext = false;
-                                    if (DefaultMessageStore.this.brokerConfig.getBrokerId() == MixAll.MASTER_ID) {
-                                        log.error("[BUG]the master dispatch message to consume queue error, COMMITLOG OFFSET: {}",
-                                                this.reputFromOffset);
-
-                                        this.reputFromOffset += (result.getSize() - readSize);
-                                    }
-                                }
-                            }
-                        }
-                    } finally {
-                        result.release();
-                    }
-                } else {
-                    doNext = false;
-                }
             }
         }
+    }
 
-
+    class CommitLogDispatcherBuildIndex implements CommitLogDispatcher {
         @Override
-        public void run() {
-            DefaultMessageStore.log.info(this.getServiceName() + " service started");
-
-            while (!this.isStoped()) {
-                try {
-                    Thread.sleep(1);
-                    this.doReput();
-                } catch (Exception e) {
-                    DefaultMessageStore.log.warn(this.getServiceName() + " service has exception. ", e);
-                }
+        public void dispatch(DispatchRequest req) {
+            if (DefaultMessageStore.this.getMessageStoreConfig().isMessageIndexEnable()) {
+                DefaultMessageStore.this.indexService.buildIndex(req);
             }
-
-            DefaultMessageStore.log.info(this.getServiceName() + " service end");
         }
+    }
 
-
-        @Override
-        public String getServiceName() {
-            return ReputMessageService.class.getSimpleName();
+    void notifyMessageArriving(DispatchRequest req) {
+        if (BrokerRole.SLAVE != this.getMessageStoreConfig().getBrokerRole()
+                && this.brokerConfig.isLongPollingEnable()) {
+            this.messageArrivingListener.arriving(req.getTopic(), req.getQueueId(), req.getConsumeQueueOffset() + 1,
+                    req.getTagsCode());
         }
+    }
 
+    public void putMessagePostionInfo(String topic, int queueId, long offset, int size, long tagsCode, long storeTimestamp,
+                                      long logicOffset) {
+        this.putMessagePostionInfo(topic, queueId, offset, size, tagsCode, storeTimestamp, logicOffset, null);
+    }
 
+    public void putMessagePostionInfo(String topic, int queueId, long offset, int size, long tagsCode, long storeTimestamp,
+                                      long logicOffset, byte[] bitMap) {
+        ConsumeQueue cq = this.findConsumeQueue(topic, queueId);
+        cq.putMessagePostionInfoWrapper(offset, size, tagsCode, storeTimestamp, logicOffset, bitMap);
     }
 
+    public BrokerStatsManager getBrokerStatsManager() {
+        return brokerStatsManager;
+    }
 
     public void unlockMapedFile(final MapedFile mapedFile){
         this.scheduledExecutorService.schedule(new Runnable() {
@@ -1806,4 +1981,20 @@ public class DefaultMessageStore implements MessageStore {
     public TransactionCheckExecuter getTransactionCheckExecuter() {
         return transactionCheckExecuter;
     }
+
+    public BrokerConfig getBrokerConfig() {
+        return brokerConfig;
+    }
+
+    public IndexService getIndexService() {
+        return indexService;
+    }
+
+    ParallelDispatchService getParallelDispatchService() {
+        return parallelDispatchService;
+    }
+
+    Map<String, Long> getTopicRetentionTable() {
+        return topicRetentionTable;
+    }
 }
@@ -16,6 +16,9 @@
  */
 package com.alibaba.rocketmq.store;
 
+import java.util.Map;
+
+
 /**
  * @author shijia.wxr
  */
@@ -35,6 +38,9 @@ public class DispatchRequest {
     private final long tranStateTableOffset;
     private final long preparedTransactionOffset;
     private final String producerGroup;
+    private Map<String, String> propertiesMap;
+    // filter bit map computed by dispatchers before ConsumeQueue is built, saved into the extended ConsumeQueue
+    private byte[] bitMap;
 
 
     public DispatchRequest(//
@@ -200,4 +206,24 @@ public class DispatchRequest {
     public String getProducerGroup() {
         return producerGroup;
     }
+
+
+    public Map<String, String> getPropertiesMap() {
+        return propertiesMap;
+    }
+
+
+    public void setPropertiesMap(Map<String, String> propertiesMap) {
+        this.propertiesMap = propertiesMap;
+    }
+
+
+    public byte[] getBitMap() {
+        return bitMap;
+    }
+
+
+    public void setBitMap(byte[] bitMap) {
+        this.bitMap = bitMap;
+    }
 }
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+class FlushConsumeQueueService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final DefaultMessageStore defaultMessageStore;
+
+    private static final int RetryTimesOver = 3;
+    private long lastFlushTimestamp = 0;
+
+
+    public FlushConsumeQueueService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+
+    private void doFlush(int retryTimes) {
+        int flushConsumeQueueLeastPages = this.defaultMessageStore.getMessageStoreConfig().getFlushConsumeQueueLeastPages();
+
+        if (retryTimes == RetryTimesOver) {
+            flushConsumeQueueLeastPages = 0;
+        }
+
+        long logicsMsgTimestamp = 0;
+        long logicsMsgOffset = 0;
+
+
+        int flushConsumeQueueThoroughInterval = this.defaultMessageStore.getMessageStoreConfig().getFlushConsumeQueueThoroughInterval();
+        long currentTimeMillis = System.currentTimeMillis();
+        if (currentTimeMillis >= (this.lastFlushTimestamp + flushConsumeQueueThoroughInterval)) {
+            this.lastFlushTimestamp = currentTimeMillis;
+            flushConsumeQueueLeastPages = 0;
+            logicsMsgTimestamp = this.defaultMessageStore.getStoreCheckpoint().getLogicsMsgTimestamp();
+            logicsMsgOffset = this.defaultMessageStore.dispatchedPhyOffset();
+        }
+
+        ConcurrentHashMap<String, ConcurrentHashMap<Integer, ConsumeQueue>> tables = this.defaultMessageStore.getConsumeQueueTable();
+
+        for (ConcurrentHashMap<Integer, ConsumeQueue> maps : tables.values()) {
+            for (ConsumeQueue cq : maps.values()) {
+                boolean result = false;
+                for (int i = 0; i < retryTimes && !result; i++) {
+                    result = cq.commit(flushConsumeQueueLeastPages);
+                }
+            }
+        }
+
+        if (0 == flushConsumeQueueLeastPages) {
+            if (logicsMsgTimestamp > 0) {
+                this.defaultMessageStore.getStoreCheckpoint().setLogicsMsgTimestamp(logicsMsgTimestamp);
+            }
+            if (logicsMsgOffset > 0) {
+                this.defaultMessageStore.getStoreCheckpoint().setLogicsMsgOffset(logicsMsgOffset);
+            }
+            this.defaultMessageStore.getStoreCheckpoint().flush();
+        }
+    }
+
+
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStoped()) {
+            try {
+                int interval = this.defaultMessageStore.getMessageStoreConfig().getFlushIntervalConsumeQueue();
+                this.waitForRunning(interval);
+                this.doFlush(1);
+            } catch (Exception e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+
+        this.doFlush(RetryTimesOver);
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return FlushConsumeQueueService.class.getSimpleName();
+    }
+
+
+    @Override
+    public long getJointime() {
+        return 1000 * 60;
+    }
+}
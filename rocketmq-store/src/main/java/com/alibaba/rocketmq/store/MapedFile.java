@@ -21,6 +21,7 @@ import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.store.config.FlushDiskType;
 import com.alibaba.rocketmq.store.util.LibC;
 import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
 import com.sun.jna.Pointer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,10 +67,27 @@ public class MapedFile extends ReferenceResource {
 
     private final AtomicInteger committedPosition = new AtomicInteger(0);
 
+    // Position up to which the write buffer has been written into FileChannel
+    private final AtomicInteger channelPosition = new AtomicInteger(0);
+
     private FileChannel fileChannel;
 
+    // Message will be put here first when transient store pool is enabled, and then committed
+    // to FileChannel by the commit service
+    private volatile ByteBuffer writeBuffer = null;
+
+    private TransientStorePool transientStorePool = null;
+
     private volatile long storeTimestamp = 0;
     private boolean firstCreateInQueue = false;
+    // page cache residency of the whole file, one byte per page as returned by mincore, refilled in place
+    private volatile byte[] residentPages;
+    // 0 until a sample succeeded, and again after one failed
+    private volatile long residentSampleTimestamp = 0;
+    private static volatile boolean mincoreSupported = true;
+    // read only descriptor for posix_fadvise, opened by the first read that bypasses page cache
+    private int readFd = -1;
+    private static volatile boolean fadviseSupported = Platform.isLinux();
 
 
     public MapedFile(final String fileName, final int fileSize) throws IOException {
@@ -101,6 +119,18 @@ public class MapedFile extends ReferenceResource {
     }
 
 
+    public MapedFile(final String fileName, final int fileSize, final TransientStorePool transientStorePool)
+            throws IOException {
+        this(fileName, fileSize);
+        this.writeBuffer = transientStorePool.borrowBuffer();
+        if (this.writeBuffer != null) {
+            this.transientStorePool = transientStorePool;
+        } else {
+            log.warn("no buffer left in transient store pool, append " + fileName + " through mapped buffer");
+        }
+    }
+
+
     public static void ensureDirOK(final String dirName) {
         if (dirName != null) {
             File f = new File(dirName);
@@ -119,6 +149,14 @@ public class MapedFile extends ReferenceResource {
     }
 
 
+    /**
+     * @return address of a direct buffer, through the same reflection as {@link #clean(ByteBuffer)}
+     */
+    public static long address(final ByteBuffer buffer) {
+        return (Long) invoke(buffer, "address");
+    }
+
+
     private static Object invoke(final Object target, final String methodName, final Class<?>... args) {
         return AccessController.doPrivileged(new PrivilegedAction<Object>() {
             public Object run() {
@@ -187,6 +225,14 @@ public class MapedFile extends ReferenceResource {
     }
 
     public AppendMessageResult appendMessage(final Object msg, final AppendMessageCallback cb) {
+        return this.appendMessagesInner(msg, cb);
+    }
+
+    public AppendMessageResult appendMessages(final MessageExtBatch messageExtBatch, final AppendMessageCallback cb) {
+        return this.appendMessagesInner(messageExtBatch, cb);
+    }
+
+    private AppendMessageResult appendMessagesInner(final Object msg, final AppendMessageCallback cb) {
         assert msg != null;
         assert cb != null;
 
@@ -194,10 +240,14 @@ public class MapedFile extends ReferenceResource {
 
 
         if (currentPos < this.fileSize) {
-            ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
+            ByteBuffer byteBuffer = this.writeBuffer != null ? this.writeBuffer.slice() : this.mappedByteBuffer.slice();
             byteBuffer.position(currentPos);
-            AppendMessageResult result =
-                    cb.doAppend(this.getFileFromOffset(), byteBuffer, this.fileSize - currentPos, msg);
+            AppendMessageResult result;
+            if (msg instanceof MessageExtBatch) {
+                result = cb.doAppend(this.getFileFromOffset(), byteBuffer, this.fileSize - currentPos, (MessageExtBatch) msg);
+            } else {
+                result = cb.doAppend(this.getFileFromOffset(), byteBuffer, this.fileSize - currentPos, msg);
+            }
             this.wrotePostion.addAndGet(result.getWroteBytes());
             this.storeTimestamp = result.getStoreTimestamp();
             return result;
@@ -222,14 +272,19 @@ public class MapedFile extends ReferenceResource {
 
      */
     public boolean appendMessage(final byte[] data) {
+        return this.appendMessage(data, 0, data.length);
+    }
+
+
+    public boolean appendMessage(final byte[] data, final int offset, final int length) {
         int currentPos = this.wrotePostion.get();
 
 
-        if ((currentPos + data.length) <= this.fileSize) {
-            ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
+        if ((currentPos + length) <= this.fileSize) {
+            ByteBuffer byteBuffer = this.writeBuffer != null ? this.writeBuffer.slice() : this.mappedByteBuffer.slice();
             byteBuffer.position(currentPos);
-            byteBuffer.put(data);
-            this.wrotePostion.addAndGet(data.length);
+            byteBuffer.put(data, offset, length);
+            this.wrotePostion.addAndGet(length);
             return true;
         }
 
@@ -247,22 +302,97 @@ public class MapedFile extends ReferenceResource {
     public int commit(final int flushLeastPages) {
         if (this.isAbleToFlush(flushLeastPages)) {
             if (this.hold()) {
-                int value = this.wrotePostion.get();
-                this.mappedByteBuffer.force();
+                int value = this.getReadPosition();
+                try {
+                    // data went through FileChannel, force the channel instead of the mapped buffer
+                    if (this.writeBuffer != null || this.fileChannel.position() != 0) {
+                        this.fileChannel.force(false);
+                    } else {
+                        this.mappedByteBuffer.force();
+                    }
+                } catch (IOException e) {
+                    log.error("force file channel " + this.fileName + " Failed. ", e);
+                }
                 this.committedPosition.set(value);
                 this.release();
             } else {
                 log.warn("in commit, hold failed, commit offset = " + this.committedPosition.get());
-                this.committedPosition.set(this.wrotePostion.get());
+                this.committedPosition.set(this.getReadPosition());
             }
         }
 
         return this.getCommittedPosition();
     }
 
+    /**
+     * Write the data in write buffer into FileChannel, only used when transient store pool is enabled.
+     *
+     * @param commitLeastPages
+     * @return the position up to which data is visible in FileChannel
+     */
+    public int commitToChannel(final int commitLeastPages) {
+        if (this.writeBuffer == null) {
+            // nothing to commit, all data is already in the mapped buffer
+            return this.wrotePostion.get();
+        }
+
+        if (this.isAbleToCommitToChannel(commitLeastPages)) {
+            if (this.hold()) {
+                this.doCommitToChannel();
+                this.release();
+            } else {
+                log.warn("in commitToChannel, hold failed, channel offset = " + this.channelPosition.get());
+            }
+        }
+
+        // all dirty data has been committed to FileChannel, give the buffer back
+        if (this.writeBuffer != null && this.transientStorePool != null
+                && this.fileSize == this.channelPosition.get()) {
+            this.transientStorePool.returnBuffer(this.writeBuffer);
+            this.writeBuffer = null;
+        }
+
+        return this.channelPosition.get();
+    }
+
+    private void doCommitToChannel() {
+        int writePos = this.wrotePostion.get();
+        int lastChannelPosition = this.channelPosition.get();
+
+        if (writePos - lastChannelPosition > 0) {
+            try {
+                ByteBuffer byteBuffer = this.writeBuffer.slice();
+                byteBuffer.position(lastChannelPosition);
+                byteBuffer.limit(writePos);
+                this.fileChannel.position(lastChannelPosition);
+                while (byteBuffer.hasRemaining()) {
+                    this.fileChannel.write(byteBuffer);
+                }
+                this.channelPosition.set(writePos);
+            } catch (Throwable e) {
+                log.error("Error occurred when commit data to FileChannel.", e);
+            }
+        }
+    }
+
+    private boolean isAbleToCommitToChannel(final int commitLeastPages) {
+        int committed = this.channelPosition.get();
+        int write = this.wrotePostion.get();
+
+        if (this.isFull()) {
+            return true;
+        }
+
+        if (commitLeastPages > 0) {
+            return ((write / OS_PAGE_SIZE) - (committed / OS_PAGE_SIZE)) >= commitLeastPages;
+        }
+
+        return write > committed;
+    }
+
     private boolean isAbleToFlush(final int flushLeastPages) {
         int flush = this.committedPosition.get();
-        int write = this.wrotePostion.get();
+        int write = this.getReadPosition();
 
 
         if (this.isFull()) {
@@ -286,13 +416,31 @@ public class MapedFile extends ReferenceResource {
         this.committedPosition.set(pos);
     }
 
+    public int getChannelPosition() {
+        return channelPosition.get();
+    }
+
+
+    public void setChannelPosition(int pos) {
+        this.channelPosition.set(pos);
+    }
+
     public boolean isFull() {
         return this.fileSize == this.wrotePostion.get();
     }
 
-    public SelectMapedBufferResult selectMapedBuffer(int pos, int size) {
+    /**
+     * Data in write buffer is invisible until it is committed to FileChannel
+     *
+     * @return the max position which can be read
+     */
+    public int getReadPosition() {
+        return this.writeBuffer == null ? this.wrotePostion.get() : this.channelPosition.get();
+    }
 
-        if ((pos + size) <= this.wrotePostion.get()) {
+    public SelectMapedBufferResult selectMapedBuffer(int pos, int size) {
+        int readPosition = this.getReadPosition();
+        if ((pos + size) <= readPosition) {
 
             if (this.hold()) {
                 ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
@@ -319,11 +467,12 @@ public class MapedFile extends ReferenceResource {
 
      */
     public SelectMapedBufferResult selectMapedBuffer(int pos) {
-        if (pos < this.wrotePostion.get() && pos >= 0) {
+        int readPosition = this.getReadPosition();
+        if (pos < readPosition && pos >= 0) {
             if (this.hold()) {
                 ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
                 byteBuffer.position(pos);
-                int size = this.wrotePostion.get() - pos;
+                int size = readPosition - pos;
                 ByteBuffer byteBufferNew = byteBuffer.slice();
                 byteBufferNew.limit(size);
                 return new SelectMapedBufferResult(this.fileFromOffset + pos, byteBufferNew, size, this);
@@ -349,6 +498,16 @@ public class MapedFile extends ReferenceResource {
         }
 
         clean(this.mappedByteBuffer);
+        synchronized (this) {
+            if (this.readFd >= 0) {
+                LibC.INSTANCE.close(this.readFd);
+                this.readFd = -1;
+            }
+        }
+        if (this.writeBuffer != null && this.transientStorePool != null) {
+            this.transientStorePool.returnBuffer(this.writeBuffer);
+            this.writeBuffer = null;
+        }
         TotalMapedVitualMemory.addAndGet(this.fileSize * (-1));
         TotalMapedFiles.decrementAndGet();
         log.info("unmap file[REF:" + currentRef + "] " + this.fileName + " OK");
@@ -356,6 +515,13 @@ public class MapedFile extends ReferenceResource {
     }
 
     public boolean destroy(final long intervalForcibly) {
+        return this.destroy(intervalForcibly, null);
+    }
+
+    /**
+     * @param recycledFilePool the file is moved into it rather than deleted when it is not null and has room
+     */
+    public boolean destroy(final long intervalForcibly, final RecycledFilePool recycledFilePool) {
         this.shutdown(intervalForcibly);
 
         if (this.isCleanupOver()) {
@@ -364,8 +530,9 @@ public class MapedFile extends ReferenceResource {
                 log.info("close file channel " + this.fileName + " OK");
 
                 long beginTime = System.currentTimeMillis();
-                boolean result = this.file.delete();
-                log.info("delete file[REF:" + this.getRefCount() + "] " + this.fileName
+                boolean recycled = recycledFilePool != null && recycledFilePool.recycle(this.file);
+                boolean result = recycled || this.file.delete();
+                log.info((recycled ? "recycle" : "delete") + " file[REF:" + this.getRefCount() + "] " + this.fileName
                         + (result ? " OK, " : " Failed, ") + "W:" + this.getWrotePostion() + " M:"
                         + this.getCommittedPosition() + ", "
                         + UtilAll.computeEclipseTimeMilliseconds(beginTime));
@@ -472,6 +639,141 @@ public class MapedFile extends ReferenceResource {
         }
     }
 
+    /**
+     * Whether the page holding the position is in page cache, answered from a mincore sample of the whole file
+     * that is refreshed at most once per sampleInterval. Pages of an unavailable file count as not resident.
+     *
+     * @return null if mincore can not tell, callers fall back to their own guess
+     */
+    public Boolean isInPageCache(final int position, final long sampleInterval) {
+        if (!mincoreSupported) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (0 == this.residentSampleTimestamp || now - this.residentSampleTimestamp >= sampleInterval) {
+            if (!this.hold()) {
+                return false;
+            }
+            try {
+                if (null == this.residentPages) {
+                    this.residentPages = new byte[(this.fileSize + OS_PAGE_SIZE - 1) / OS_PAGE_SIZE];
+                }
+                Pointer pointer = new Pointer(((DirectBuffer) (this.mappedByteBuffer)).address());
+                int ret = LibC.INSTANCE.mincore(pointer, new NativeLong(this.fileSize), this.residentPages);
+                if (ret != 0) {
+                    log.warn("mincore {} ret = {}", this.fileName, ret);
+                    this.residentSampleTimestamp = 0;
+                    return null;
+                }
+                this.residentSampleTimestamp = now;
+            } catch (UnsatisfiedLinkError e) {
+                this.disableMincore(e);
+                return null;
+            } catch (UnsupportedOperationException e) {
+                this.disableMincore(e);
+                return null;
+            } catch (Throwable e) {
+                log.warn("mincore {} failed", this.fileName, e);
+                this.residentSampleTimestamp = 0;
+                return null;
+            } finally {
+                this.release();
+            }
+        }
+
+        byte[] pages = this.residentPages;
+        int page = position / OS_PAGE_SIZE;
+        return page < pages.length && (pages[page] & 1) != 0;
+    }
+
+
+    private void disableMincore(final Throwable e) {
+        mincoreSupported = false;
+        this.residentSampleTimestamp = 0;
+        log.warn("mincore not supported, page cache residency is not tracked", e);
+    }
+
+    /**
+     * Asks the OS to read the range ahead with madvise(WILLNEED), without waiting for it.
+     */
+    public boolean prefetch(final int position, final int length) {
+        int begin = position - position % OS_PAGE_SIZE;
+        int size = Math.min(position + length, this.fileSize) - begin;
+        if (size <= 0 || !this.hold()) {
+            return false;
+        }
+        try {
+            Pointer pointer = new Pointer(((DirectBuffer) (this.mappedByteBuffer)).address() + begin);
+            return LibC.INSTANCE.madvise(pointer, new NativeLong(size), LibC.MADV_WILLNEED) == 0;
+        } catch (Throwable e) {
+            log.warn("madvise {} failed", this.fileName, e);
+            return false;
+        } finally {
+            this.release();
+        }
+    }
+
+    /**
+     * Reads the range through FileChannel rather than the mapped buffer, then drops it from page cache with
+     * posix_fadvise(DONTNEED), so reading old data does not evict the pages recent messages are read from.
+     *
+     * @return false if the range is not readable
+     */
+    public boolean readWithoutCache(final int pos, final int size, final ByteBuffer dest) {
+        if (pos + size > this.getReadPosition() || !this.hold()) {
+            return false;
+        }
+        try {
+            dest.clear();
+            dest.limit(size);
+            while (dest.hasRemaining()) {
+                if (this.fileChannel.read(dest, pos + dest.position()) < 0) {
+                    return false;
+                }
+            }
+            dest.flip();
+            this.dropPageCache(pos, size);
+            return true;
+        } catch (IOException e) {
+            log.warn("read file " + this.fileName + " without cache failed", e);
+            return false;
+        } finally {
+            this.release();
+        }
+    }
+
+    /**
+     * Drops the range from page cache with posix_fadvise(DONTNEED), dirty pages are left.
+     */
+    public void dropPageCache(final int pos, final int size) {
+        if (!fadviseSupported) {
+            return;
+        }
+        try {
+            int fd;
+            synchronized (this) {
+                if (this.readFd < 0) {
+                    this.readFd = LibC.INSTANCE.open(this.fileName, LibC.O_RDONLY);
+                    if (this.readFd < 0) {
+                        log.warn("open {} for fadvise failed", this.fileName);
+                        return;
+                    }
+                }
+                fd = this.readFd;
+            }
+            LibC.INSTANCE.posix_fadvise(fd, new NativeLong(pos), new NativeLong(size),
+                    LibC.POSIX_FADV_DONTNEED);
+        } catch (Throwable e) {
+            fadviseSupported = false;
+            log.warn("posix_fadvise not supported, cold reads are left in page cache", e);
+        }
+    }
+
+    public static boolean isMincoreSupported() {
+        return mincoreSupported;
+    }
+
     public void munlock() {
         final long beginTime = System.currentTimeMillis();
         final long address = ((DirectBuffer) (this.mappedByteBuffer)).address();
@@ -18,6 +18,7 @@ package com.alibaba.rocketmq.store;
 
 import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +26,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -41,6 +44,16 @@ public class MapedFileQueue {
 
     private final String storePath;
 
+    // directories listed in storePath, successive files are striped over them
+    private final String[] storePaths;
+
+    // a directory whose disk is used over it gets no new files while others have room
+    private final double diskMaxUsedRatio;
+
+    // the directory chosen last, kept so the file preallocated for an offset is the one created for it later
+    private long chosenOffset = -1;
+    private String chosenStorePath;
+
     private final int mapedFileSize;
 
     private final List<MapedFile> mapedFiles = new ArrayList<MapedFile>();
@@ -48,16 +61,48 @@ public class MapedFileQueue {
 
     private final AllocateMapedFileService allocateMapedFileService;
 
+    // expired files are moved into the one of their store path for reuse, null if they are deleted
+    private final RecycledFilePool[] recycledFilePools;
+
     private long committedWhere = 0;
 
+    // Offset up to which the write buffers have been committed to FileChannel
+    private long channelCommittedWhere = 0;
+
     private volatile long storeTimestamp = 0;
 
 
     public MapedFileQueue(final String storePath, int mapedFileSize,
                           AllocateMapedFileService allocateMapedFileService) {
+        this(storePath, mapedFileSize, allocateMapedFileService, 1.0);
+    }
+
+
+    public MapedFileQueue(final String storePath, int mapedFileSize,
+                          AllocateMapedFileService allocateMapedFileService, double diskMaxUsedRatio) {
+        this(storePath, mapedFileSize, allocateMapedFileService, diskMaxUsedRatio, (RecycledFilePool) null);
+    }
+
+    public MapedFileQueue(final String storePath, int mapedFileSize,
+                          AllocateMapedFileService allocateMapedFileService, double diskMaxUsedRatio,
+                          RecycledFilePool recycledFilePool) {
+        this(storePath, mapedFileSize, allocateMapedFileService, diskMaxUsedRatio,
+                null == recycledFilePool ? null : new RecycledFilePool[] {recycledFilePool});
+    }
+
+
+    /**
+     * @param recycledFilePools one per store path, in the same order
+     */
+    public MapedFileQueue(final String storePath, int mapedFileSize,
+                          AllocateMapedFileService allocateMapedFileService, double diskMaxUsedRatio,
+                          RecycledFilePool[] recycledFilePools) {
         this.storePath = storePath;
+        this.storePaths = StorePathConfigHelper.splitStorePaths(storePath);
+        this.diskMaxUsedRatio = diskMaxUsedRatio;
         this.mapedFileSize = mapedFileSize;
         this.allocateMapedFileService = allocateMapedFileService;
+        this.recycledFilePools = recycledFilePools;
     }
 
 
@@ -134,6 +179,7 @@ public class MapedFileQueue {
                 if (offset >= file.getFileFromOffset()) {
                     file.setWrotePostion((int) (offset % this.mapedFileSize));
                     file.setCommittedPosition((int) (offset % this.mapedFileSize));
+                    file.setChannelPosition((int) (offset % this.mapedFileSize));
                 } else {
 
                     file.destroy(1000);
@@ -146,7 +192,7 @@ public class MapedFileQueue {
     }
 
 
-    private void deleteExpiredFile(List<MapedFile> files) {
+    void deleteExpiredFile(List<MapedFile> files) {
         if (!files.isEmpty()) {
             try {
                 this.readWriteLock.writeLock().lock();
@@ -166,11 +212,29 @@ public class MapedFileQueue {
 
 
     public boolean load() {
-        File dir = new File(this.storePath);
-        File[] files = dir.listFiles();
-        if (files != null) {
-            // ascending order
-            Arrays.sort(files);
+        List<File> files = new ArrayList<File>();
+        for (String path : this.storePaths) {
+            File[] ls = new File(path).listFiles();
+            if (ls != null) {
+                files.addAll(Arrays.asList(ls));
+            }
+        }
+
+        if (!files.isEmpty()) {
+            // ascending order, by name since files of one queue may be in several directories
+            Collections.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File o1, File o2) {
+                    return o1.getName().compareTo(o2.getName());
+                }
+            });
+            for (int i = 1; i < files.size(); i++) {
+                if (files.get(i).getName().equals(files.get(i - 1).getName())) {
+                    log.error("load file error, " + files.get(i - 1) + " and " + files.get(i) + " have the same offset");
+                    return false;
+                }
+            }
+
             for (File file : files) {
 
                 if (file.length() != this.mapedFileSize) {
@@ -185,6 +249,7 @@ public class MapedFileQueue {
 
                     mapedFile.setWrotePostion(this.mapedFileSize);
                     mapedFile.setCommittedPosition(this.mapedFileSize);
+                    mapedFile.setChannelPosition(this.mapedFileSize);
                     this.mapedFiles.add(mapedFile);
                     log.info("load " + file.getPath() + " OK");
                 } catch (IOException e) {
@@ -232,9 +297,9 @@ public class MapedFileQueue {
         }
 
         if (createOffset != -1 && needCreate) {
-            String nextFilePath = this.storePath + File.separator + UtilAll.offset2FileName(createOffset);
+            String nextFilePath = this.chooseStorePath(createOffset) + File.separator + UtilAll.offset2FileName(createOffset);
             String nextNextFilePath =
-                    this.storePath + File.separator
+                    this.chooseStorePath(createOffset + this.mapedFileSize) + File.separator
                             + UtilAll.offset2FileName(createOffset + this.mapedFileSize);
             MapedFile mapedFile = null;
 
@@ -244,6 +309,10 @@ public class MapedFileQueue {
                                 nextNextFilePath, this.mapedFileSize);
             } else {
                 try {
+                    RecycledFilePool recycledFilePool = this.getRecycledFilePool(nextFilePath);
+                    if (recycledFilePool != null) {
+                        recycledFilePool.prepare(nextFilePath, this.mapedFileSize);
+                    }
                     mapedFile = new MapedFile(nextFilePath, this.mapedFileSize);
                 } catch (IOException e) {
                     log.error("create mapedfile exception", e);
@@ -265,6 +334,63 @@ public class MapedFileQueue {
         return mapedFileLast;
     }
 
+    /**
+     * The pool of the store path holding the file, a file can not be renamed across disks
+     */
+    public RecycledFilePool getRecycledFilePool(final String filePath) {
+        if (null == this.recycledFilePools) {
+            return null;
+        }
+        if (this.recycledFilePools.length == 1) {
+            return this.recycledFilePools[0];
+        }
+
+        File dir = new File(filePath).getParentFile();
+        for (int i = 0; i < this.storePaths.length && i < this.recycledFilePools.length; i++) {
+            if (new File(this.storePaths[i]).equals(dir)) {
+                return this.recycledFilePools[i];
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Round robin by file index, skipping directories whose disk is used over diskMaxUsedRatio. When all of them
+     * are, the least used one is taken.
+     */
+    public synchronized String chooseStorePath(final long fileFromOffset) {
+        if (this.storePaths.length == 1) {
+            return this.storePaths[0];
+        }
+        if (fileFromOffset == this.chosenOffset) {
+            return this.chosenStorePath;
+        }
+
+        int start = (int) ((fileFromOffset / this.mapedFileSize) % this.storePaths.length);
+        String chosen = null;
+        double leastRatio = Double.MAX_VALUE;
+        for (int i = 0; i < this.storePaths.length; i++) {
+            String path = this.storePaths[(start + i) % this.storePaths.length];
+            double ratio = UtilAll.getDiskPartitionSpaceUsedPercent(path);
+            if (ratio >= 0 && ratio < this.diskMaxUsedRatio) {
+                chosen = path;
+                break;
+            }
+            if (ratio >= 0 && ratio < leastRatio) {
+                leastRatio = ratio;
+                chosen = path;
+            }
+        }
+        if (null == chosen) {
+            chosen = this.storePaths[start];
+        }
+
+        this.chosenOffset = fileFromOffset;
+        this.chosenStorePath = chosen;
+        return chosen;
+    }
+
     public MapedFile getLastMapedFile() {
         return this.getLastMapedFile(0);
     }
@@ -303,6 +429,7 @@ public class MapedFileQueue {
             if (offset >= mapedFileLast.getFileFromOffset()) {
                 int where = (int) (offset % mapedFileLast.getFileSize());
                 mapedFileLast.setCommittedPosition(where);
+                mapedFileLast.setChannelPosition(where);
                 mapedFileLast.setWrotePostion(where);
                 break;
             } else {
@@ -335,7 +462,7 @@ public class MapedFileQueue {
             if (!this.mapedFiles.isEmpty()) {
                 int lastIndex = this.mapedFiles.size() - 1;
                 MapedFile mapedFile = this.mapedFiles.get(lastIndex);
-                return mapedFile.getFileFromOffset() + mapedFile.getWrotePostion();
+                return mapedFile.getFileFromOffset() + mapedFile.getReadPosition();
             }
         } catch (Exception e) {
             log.error("getMinOffset has exception.", e);
@@ -377,7 +504,7 @@ public class MapedFileQueue {
                 long liveMaxTimestamp = mapedFile.getLastModifiedTimestamp() + expiredTime;
                 if (System.currentTimeMillis() >= liveMaxTimestamp//
                         || cleanImmediately) {
-                    if (mapedFile.destroy(intervalForcibly)) {
+                    if (mapedFile.destroy(intervalForcibly, this.getRecycledFilePool(mapedFile.getFileName()))) {
                         files.add(mapedFile);
                         deleteCount++;
 
@@ -431,7 +558,38 @@ public class MapedFileQueue {
                     break;
                 }
 
-                if (destroy && mapedFile.destroy(1000 * 60)) {
+                if (destroy && mapedFile.destroy(1000 * 60, this.getRecycledFilePool(mapedFile.getFileName()))) {
+                    files.add(mapedFile);
+                    deleteCount++;
+                } else {
+                    break;
+                }
+            }
+        }
+
+        deleteExpiredFile(files);
+
+        return deleteCount;
+    }
+
+
+    /**
+     * Deletes the files wholly before the offset, the last file is always kept.
+     */
+    public int deleteExpiredFileBefore(final long offset, final long intervalForcibly) {
+        Object[] mfs = this.copyMapedFiles(0);
+
+        List<MapedFile> files = new ArrayList<MapedFile>();
+        int deleteCount = 0;
+        if (null != mfs) {
+            for (int i = 0; i < mfs.length - 1; i++) {
+                MapedFile mapedFile = (MapedFile) mfs[i];
+                if (mapedFile.getFileFromOffset() + this.mapedFileSize > offset) {
+                    break;
+                }
+
+                log.info("no message referred before offset " + offset + ", delete " + mapedFile.getFileName());
+                if (mapedFile.destroy(intervalForcibly, this.getRecycledFilePool(mapedFile.getFileName()))) {
                     files.add(mapedFile);
                     deleteCount++;
                 } else {
@@ -464,6 +622,20 @@ public class MapedFileQueue {
     }
 
 
+    public boolean commitToChannel(final int commitLeastPages) {
+        boolean result = true;
+        MapedFile mapedFile = this.findMapedFileByOffset(this.channelCommittedWhere, true);
+        if (mapedFile != null) {
+            int offset = mapedFile.commitToChannel(commitLeastPages);
+            long where = mapedFile.getFileFromOffset() + offset;
+            result = (where == this.channelCommittedWhere);
+            this.channelCommittedWhere = where;
+        }
+
+        return result;
+    }
+
+
     public MapedFile findMapedFileByOffset(final long offset, final boolean returnFirstOnNotFound) {
         try {
             this.readWriteLock.readLock().lock();
@@ -544,7 +716,7 @@ public class MapedFileQueue {
         if (mapedFile != null) {
             if (!mapedFile.isAvailable()) {
                 log.warn("the mapedfile was destroyed once, but still alive, " + mapedFile.getFileName());
-                boolean result = mapedFile.destroy(intervalForcibly);
+                boolean result = mapedFile.destroy(intervalForcibly, this.getRecycledFilePool(mapedFile.getFileName()));
                 if (result) {
                     log.warn("the mapedfile redelete OK, " + mapedFile.getFileName());
                     List<MapedFile> tmps = new ArrayList<MapedFile>();
@@ -588,11 +760,14 @@ public class MapedFileQueue {
         }
         this.mapedFiles.clear();
         this.committedWhere = 0;
+        this.channelCommittedWhere = 0;
 
         // delete parent directory
-        File file = new File(storePath);
-        if (file.isDirectory()) {
-            file.delete();
+        for (String path : this.storePaths) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                file.delete();
+            }
         }
         this.readWriteLock.writeLock().unlock();
     }
@@ -608,6 +783,16 @@ public class MapedFileQueue {
     }
 
 
+    public long getChannelCommittedWhere() {
+        return channelCommittedWhere;
+    }
+
+
+    public void setChannelCommittedWhere(long channelCommittedWhere) {
+        this.channelCommittedWhere = channelCommittedWhere;
+    }
+
+
     public long getStoreTimestamp() {
         return storeTimestamp;
     }
@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.message.MessageExt;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Messages of a batch send request, the body holds the messages encoded by the producer,
+ * see {@link com.alibaba.rocketmq.common.message.MessageDecoder#encodeMessages(java.util.List)}
+ */
+public class MessageExtBatch extends MessageExt {
+    private static final long serialVersionUID = -2353110995348498537L;
+
+    // Messages serialized outside of the put message lock, see MessageExtEncoder
+    private transient ByteBuffer encodedBuff;
+
+
+    public ByteBuffer wrap() {
+        assert getBody() != null;
+        return ByteBuffer.wrap(getBody(), 0, getBody().length);
+    }
+
+
+    public ByteBuffer getEncodedBuff() {
+        return encodedBuff;
+    }
+
+
+    public void setEncodedBuff(ByteBuffer encodedBuff) {
+        this.encodedBuff = encodedBuff;
+    }
+}
@@ -19,6 +19,8 @@ package com.alibaba.rocketmq.store;
 import com.alibaba.rocketmq.common.TopicFilterType;
 import com.alibaba.rocketmq.common.message.MessageExt;
 
+import java.nio.ByteBuffer;
+
 
 /**
  * @author shijia.wxr
@@ -27,6 +29,8 @@ public class MessageExtBrokerInner extends MessageExt {
     private static final long serialVersionUID = 7256001576878700634L;
     private String propertiesString;
     private long tagsCode;
+    // Message serialized outside of the put message lock, see MessageExtEncoder
+    private transient ByteBuffer encodedBuff;
 
     public static long tagsString2tagsCode(final TopicFilterType filter, final String tags) {
         if (null == tags || tags.length() == 0)
@@ -54,4 +58,14 @@ public class MessageExtBrokerInner extends MessageExt {
     public void setTagsCode(long tagsCode) {
         this.tagsCode = tagsCode;
     }
+
+
+    public ByteBuffer getEncodedBuff() {
+        return encodedBuff;
+    }
+
+
+    public void setEncodedBuff(ByteBuffer encodedBuff) {
+        this.encodedBuff = encodedBuff;
+    }
 }
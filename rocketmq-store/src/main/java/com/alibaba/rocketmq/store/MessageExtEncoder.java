@@ -0,0 +1,291 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.UtilAll;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Serializes a message into the commit log format out of the put message
+ * lock. Fields only known in lock are written as placeholders, see
+ * {@link CommitLog.DefaultAppendMessageCallback#doAppend}.
+ */
+class MessageExtEncoder {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    // 1 TOTALSIZE + 2 MAGICCODE + 3 BODYCRC + 4 QUEUEID + 5 FLAG
+    static final int QueueOffsetPostion = 4 + 4 + 4 + 4 + 4;
+    private final ByteBuffer msgIdMemory;
+    // Store the message content
+    private final ByteBuffer encoderBuffer;
+    // The maximum length of the message
+    private final int maxMessageSize;
+
+
+    MessageExtEncoder(final int size) {
+        this.msgIdMemory = ByteBuffer.allocate(MessageDecoder.MSG_ID_LENGTH);
+        this.encoderBuffer = ByteBuffer.allocate(size);
+        this.maxMessageSize = size;
+    }
+
+
+    /**
+     * @return null if the message was encoded, otherwise the failed result
+     */
+    PutMessageResult encode(final MessageExtBrokerInner msgInner) {
+        /**
+         * Serialize message
+         */
+        final byte[] propertiesData =
+                msgInner.getPropertiesString() == null ? null : msgInner.getPropertiesString().getBytes(MessageDecoder.CHARSET_UTF8);
+
+        if (propertiesData != null && propertiesData.length > Short.MAX_VALUE) {
+            log.warn("putMessage message properties length too long. length={}", propertiesData.length);
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL,
+                    new AppendMessageResult(AppendMessageStatus.PROPERTIES_SIZE_EXCEEDED));
+        }
+
+        final short propertiesLength = propertiesData == null ? 0 : (short) propertiesData.length;
+
+        final byte[] topicData = msgInner.getTopic().getBytes(MessageDecoder.CHARSET_UTF8);
+        final int topicLength = topicData == null ? 0 : topicData.length;
+
+        final int bodyLength = msgInner.getBody() == null ? 0 : msgInner.getBody().length;
+
+        final int msgLen = CommitLog.calMsgLength(bodyLength, topicLength, propertiesLength);
+
+        // Exceeds the maximum message
+        if (msgLen > this.maxMessageSize) {
+            log.warn("message size exceeded, msg total size: " + msgLen + ", msg body size: " + bodyLength
+                    + ", maxMessageSize: " + this.maxMessageSize);
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL,
+                    new AppendMessageResult(AppendMessageStatus.MESSAGE_SIZE_EXCEEDED));
+        }
+
+        // Initialization of storage space
+        this.resetEncoderBuffer(msgLen);
+        // 1 TOTALSIZE
+        this.encoderBuffer.putInt(msgLen);
+        // 2 MAGICCODE
+        this.encoderBuffer.putInt(CommitLog.MessageMagicCode);
+        // 3 BODYCRC
+        this.encoderBuffer.putInt(msgInner.getBodyCRC());
+        // 4 QUEUEID
+        this.encoderBuffer.putInt(msgInner.getQueueId());
+        // 5 FLAG
+        this.encoderBuffer.putInt(msgInner.getFlag());
+        // 6 QUEUEOFFSET, written in lock
+        this.encoderBuffer.putLong(0);
+        // 7 PHYSICALOFFSET, written in lock
+        this.encoderBuffer.putLong(0);
+        // 8 SYSFLAG
+        this.encoderBuffer.putInt(msgInner.getSysFlag());
+        // 9 BORNTIMESTAMP
+        this.encoderBuffer.putLong(msgInner.getBornTimestamp());
+        // 10 BORNHOST
+        this.encoderBuffer.put(msgInner.getBornHostBytes());
+        // 11 STORETIMESTAMP, written in lock
+        this.encoderBuffer.putLong(0);
+        // 12 STOREHOSTADDRESS
+        this.encoderBuffer.put(msgInner.getStoreHostBytes());
+        // 13 RECONSUMETIMES
+        this.encoderBuffer.putInt(msgInner.getReconsumeTimes());
+        // 14 Prepared Transaction Offset
+        this.encoderBuffer.putLong(msgInner.getPreparedTransactionOffset());
+        // 15 BODY
+        this.encoderBuffer.putInt(bodyLength);
+        if (bodyLength > 0)
+            this.encoderBuffer.put(msgInner.getBody());
+        // 16 TOPIC
+        this.encoderBuffer.put((byte) topicLength);
+        this.encoderBuffer.put(topicData);
+        // 17 PROPERTIES
+        this.encoderBuffer.putShort(propertiesLength);
+        if (propertiesLength > 0)
+            this.encoderBuffer.put(propertiesData);
+
+        this.encoderBuffer.flip();
+        return null;
+    }
+
+
+    /**
+     * Encode the messages of a batch one after another, they share the topic,
+     * queue id, sys flag and hosts of the batch.
+     *
+     * @return null if the messages were encoded, otherwise the failed result
+     */
+    PutMessageResult encode(final MessageExtBatch messageExtBatch) {
+        this.encoderBuffer.clear();
+
+        final byte[] topicData = messageExtBatch.getTopic().getBytes(MessageDecoder.CHARSET_UTF8);
+        final int topicLength = topicData.length;
+        final byte[] bornHostBytes = messageExtBatch.getBornHostBytes().array();
+        final byte[] storeHostBytes = messageExtBatch.getStoreHostBytes().array();
+
+        int totalMsgLen = 0;
+        ByteBuffer messagesByteBuff = messageExtBatch.wrap();
+        try {
+            while (messagesByteBuff.hasRemaining()) {
+                // 1 TOTALSIZE
+                messagesByteBuff.getInt();
+                // 2 MAGICCODE
+                messagesByteBuff.getInt();
+                // 3 BODYCRC
+                messagesByteBuff.getInt();
+                // 4 FLAG
+                int flag = messagesByteBuff.getInt();
+                // 5 BODY
+                int bodyLen = messagesByteBuff.getInt();
+                int bodyPos = messagesByteBuff.position();
+                int bodyCrc = UtilAll.crc32(messagesByteBuff.array(), bodyPos, bodyLen);
+                messagesByteBuff.position(bodyPos + bodyLen);
+                // 6 PROPERTIES
+                short propertiesLen = messagesByteBuff.getShort();
+                int propertiesPos = messagesByteBuff.position();
+                messagesByteBuff.position(propertiesPos + propertiesLen);
+                if (!isBatchable(messagesByteBuff, propertiesPos, propertiesPos + propertiesLen)) {
+                    log.warn("batch messages of topic " + messageExtBatch.getTopic() + " from "
+                            + messageExtBatch.getBornHostString() + " carry properties only single messages take");
+                    return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+                }
+
+                final int msgLen = CommitLog.calMsgLength(bodyLen, topicLength, propertiesLen);
+
+                totalMsgLen += msgLen;
+                // Exceeds the maximum message
+                if (totalMsgLen > this.maxMessageSize) {
+                    log.warn("message size exceeded, msg total size: " + totalMsgLen + ", maxMessageSize: "
+                            + this.maxMessageSize);
+                    return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL,
+                            new AppendMessageResult(AppendMessageStatus.MESSAGE_SIZE_EXCEEDED));
+                }
+
+                // 1 TOTALSIZE
+                this.encoderBuffer.putInt(msgLen);
+                // 2 MAGICCODE
+                this.encoderBuffer.putInt(CommitLog.MessageMagicCode);
+                // 3 BODYCRC
+                this.encoderBuffer.putInt(bodyCrc);
+                // 4 QUEUEID
+                this.encoderBuffer.putInt(messageExtBatch.getQueueId());
+                // 5 FLAG
+                this.encoderBuffer.putInt(flag);
+                // 6 QUEUEOFFSET, written in lock
+                this.encoderBuffer.putLong(0);
+                // 7 PHYSICALOFFSET, written in lock
+                this.encoderBuffer.putLong(0);
+                // 8 SYSFLAG
+                this.encoderBuffer.putInt(messageExtBatch.getSysFlag());
+                // 9 BORNTIMESTAMP
+                this.encoderBuffer.putLong(messageExtBatch.getBornTimestamp());
+                // 10 BORNHOST
+                this.encoderBuffer.put(bornHostBytes);
+                // 11 STORETIMESTAMP, written in lock
+                this.encoderBuffer.putLong(0);
+                // 12 STOREHOSTADDRESS
+                this.encoderBuffer.put(storeHostBytes);
+                // 13 RECONSUMETIMES
+                this.encoderBuffer.putInt(messageExtBatch.getReconsumeTimes());
+                // 14 Prepared Transaction Offset, batch only supports non-transactional messages
+                this.encoderBuffer.putLong(0);
+                // 15 BODY
+                this.encoderBuffer.putInt(bodyLen);
+                if (bodyLen > 0)
+                    this.encoderBuffer.put(messagesByteBuff.array(), bodyPos, bodyLen);
+                // 16 TOPIC
+                this.encoderBuffer.put((byte) topicLength);
+                this.encoderBuffer.put(topicData);
+                // 17 PROPERTIES
+                this.encoderBuffer.putShort(propertiesLen);
+                if (propertiesLen > 0)
+                    this.encoderBuffer.put(messagesByteBuff.array(), propertiesPos, propertiesLen);
+            }
+        } catch (RuntimeException e) {
+            // BufferUnderflowException, IllegalArgumentException and so on, the body is not a valid batch
+            log.warn("decode batch messages failed, topic: " + messageExtBatch.getTopic() + " clientAddr: "
+                    + messageExtBatch.getBornHostString(), e);
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+
+        if (totalMsgLen == 0) {
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+
+        this.encoderBuffer.flip();
+        return null;
+    }
+
+
+    /**
+     * Delay levels, timer delays and prepared transactions are only honoured on single messages, a batch would store
+     * them as plain messages.
+     */
+    private static boolean isBatchable(final ByteBuffer byteBuffer, final int start, final int end) {
+        String delayLevel = MessageDecoder.peekProperty(byteBuffer, start, end, MessageConst.PROPERTY_DELAY_TIME_LEVEL);
+        if (delayLevel != null && Integer.parseInt(delayLevel) > 0) {
+            return false;
+        }
+        if (MessageDecoder.peekProperty(byteBuffer, start, end, MessageConst.PROPERTY_TIMER_DELAY_MS) != null
+                || MessageDecoder.peekProperty(byteBuffer, start, end, MessageConst.PROPERTY_TIMER_DELIVER_MS) != null) {
+            return false;
+        }
+
+        return !Boolean.parseBoolean(MessageDecoder.peekProperty(byteBuffer, start, end, MessageConst.PROPERTY_TRANSACTION_PREPARED));
+    }
+
+
+    /**
+     * Build the ids of the messages last encoded by {@link #encode(MessageExtBatch)}, separated by comma
+     */
+    String createBatchMessageIds(final ByteBuffer storeHostBytes, final long wroteOffset, final int totalMsgLen) {
+        StringBuilder msgIds = new StringBuilder();
+        int msgPos = 0;
+        while (msgPos < totalMsgLen) {
+            if (msgIds.length() > 0) {
+                msgIds.append(',');
+            }
+            storeHostBytes.rewind();
+            msgIds.append(MessageDecoder.createMessageId(this.msgIdMemory, storeHostBytes, wroteOffset + msgPos));
+            msgPos += this.encoderBuffer.getInt(msgPos);
+        }
+        return msgIds.toString();
+    }
+
+
+    ByteBuffer getEncoderBuffer() {
+        return encoderBuffer;
+    }
+
+
+    ByteBuffer getMsgIdMemory() {
+        return msgIdMemory;
+    }
+
+
+    private void resetEncoderBuffer(final int length) {
+        this.encoderBuffer.clear();
+        this.encoderBuffer.limit(length);
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * A {@link MessageFilter} that also checks the extended ConsumeQueue unit and the stored message, getMessage
+ * asks it only if the filter of the store implements it.
+ */
+public interface MessageFilterExt extends MessageFilter {
+    /**
+     * Called after the tags code matched, when the message has an extended ConsumeQueue unit.
+     * Returning false skips the message without reading CommitLog.
+     */
+    boolean isMatchedByConsumeQueueExt(final String group, final SubscriptionData subscriptionData,
+                                       final ConsumeQueueExt.CqExtUnit cqExtUnit);
+
+    /**
+     * Last check with the whole message read from CommitLog, for filters on message properties.
+     *
+     * @param msgBuffer the stored message, position and limit must be kept
+     */
+    boolean isMatchedByCommitLog(final String group, final SubscriptionData subscriptionData,
+                                 final ByteBuffer msgBuffer);
+}
@@ -20,6 +20,8 @@ import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
 
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
 
 
@@ -43,6 +45,18 @@ public interface MessageStore {
     PutMessageResult putMessage(final MessageExtBrokerInner msg);
 
 
+    PutMessageResult putMessages(final MessageExtBatch messageExtBatch);
+
+
+    /**
+     * The calling thread is not blocked by sync flush or sync master waits, the result is handed to the callback.
+     */
+    void asyncPutMessage(final MessageExtBrokerInner msg, final PutMessageCallback callback);
+
+
+    void asyncPutMessages(final MessageExtBatch messageExtBatch, final PutMessageCallback callback);
+
+
     GetMessageResult getMessage(final String group, final String topic, final int queueId,
                                 final long offset, final int maxMsgNums, final SubscriptionData subscriptionData);
 
@@ -106,6 +120,12 @@ public interface MessageStore {
     long slaveFallBehindMuch();
 
 
+    /**
+     * @return bytes a slave is behind its master, 0 on master, -1 if not known
+     */
+    long fallBehindMaster();
+
+
     long now();
 
 
@@ -131,4 +151,19 @@ public interface MessageStore {
     boolean isOSPageCacheBusy();
 
     long lockTimeMills();
+
+    /**
+     * Dispatchers called for every message in CommitLog, register new ones before the store starts.
+     */
+    LinkedList<CommitLogDispatcher> getDispatcherList();
+
+    /**
+     * Topics whose queues keep a compacted view with the newest message per key, see TopicSysFlag.
+     */
+    void updateCompactionTopics(final Set<String> topics);
+
+    /**
+     * Topics keeping messages for their own retention time in ms instead of fileReservedTime.
+     */
+    void updateTopicRetentionTimes(final Map<String, Long> retentionTimes);
 }
@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Second stage of CommitLog dispatching, ReputMessageService parses the messages and hands them over here.
+ * ConsumeQueue writes are partitioned by topic and queueId over several lanes, so messages of one queue are
+ * always written in order by the same thread. Dispatchers placed before the ConsumeQueue one in the list run
+ * on the same lane right before the write, so they must be thread safe; those after it, the index included,
+ * run in list order on a lane of their own.
+ */
+public class ParallelDispatchService {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final DefaultMessageStore defaultMessageStore;
+
+    private final DispatchLane[] consumeQueueLanes;
+
+    private final DispatchLane indexLane;
+
+
+    public ParallelDispatchService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        int capacity = defaultMessageStore.getMessageStoreConfig().getDispatchRequestQueueCapacity();
+        int laneNums = Math.max(1, defaultMessageStore.getMessageStoreConfig().getDispatchConsumeQueueThreadNum());
+
+        this.consumeQueueLanes = new DispatchLane[laneNums];
+        for (int i = 0; i < laneNums; i++) {
+            this.consumeQueueLanes[i] = new DispatchLane("DispatchConsumeQueueService_" + i, capacity) {
+                @Override
+                protected void process(DispatchRequest req) {
+                    final DefaultMessageStore store = ParallelDispatchService.this.defaultMessageStore;
+                    for (CommitLogDispatcher dispatcher : store.getDispatcherList()) {
+                        if (dispatcher != store.getTransactionDispatcher()) {
+                            store.doDispatch(dispatcher, req);
+                        }
+                        if (dispatcher == store.getBuildConsumeQueueDispatcher()) {
+                            break;
+                        }
+                    }
+                    store.notifyMessageArriving(req);
+                }
+            };
+        }
+
+        this.indexLane = new DispatchLane("DispatchIndexService", capacity) {
+            @Override
+            protected void process(DispatchRequest req) {
+                final DefaultMessageStore store = ParallelDispatchService.this.defaultMessageStore;
+                boolean afterConsumeQueue = false;
+                for (CommitLogDispatcher dispatcher : store.getDispatcherList()) {
+                    if (afterConsumeQueue && dispatcher != store.getTransactionDispatcher()) {
+                        store.doDispatch(dispatcher, req);
+                    }
+                    if (dispatcher == store.getBuildConsumeQueueDispatcher()) {
+                        afterConsumeQueue = true;
+                    }
+                }
+            }
+        };
+    }
+
+
+    public void start() {
+        for (DispatchLane lane : this.consumeQueueLanes) {
+            lane.start();
+        }
+        this.indexLane.start();
+    }
+
+
+    /**
+     * Must be called after ReputMessageService stopped, remaining requests are drained before return.
+     */
+    public void shutdown() {
+        for (DispatchLane lane : this.consumeQueueLanes) {
+            lane.shutdown();
+        }
+        this.indexLane.shutdown();
+    }
+
+
+    /**
+     * Called by the parse stage only. The transaction redo log is appended in place since it is a single
+     * file shared by all queues.
+     */
+    public void dispatch(DispatchRequest req) {
+        this.defaultMessageStore.doDispatch(this.defaultMessageStore.getTransactionDispatcher(), req);
+
+        this.consumeQueueLanes[this.laneIndex(req.getTopic(), req.getQueueId())].putRequest(req);
+
+        if (this.needIndexLane()) {
+            this.indexLane.putRequest(req);
+        }
+    }
+
+
+    private boolean needIndexLane() {
+        boolean afterConsumeQueue = false;
+        for (CommitLogDispatcher dispatcher : this.defaultMessageStore.getDispatcherList()) {
+            if (afterConsumeQueue) {
+                if (dispatcher == this.defaultMessageStore.getBuildIndexDispatcher()) {
+                    if (this.defaultMessageStore.getMessageStoreConfig().isMessageIndexEnable()) {
+                        return true;
+                    }
+                } else if (dispatcher != this.defaultMessageStore.getTransactionDispatcher()) {
+                    return true;
+                }
+            }
+            if (dispatcher == this.defaultMessageStore.getBuildConsumeQueueDispatcher()) {
+                afterConsumeQueue = true;
+            }
+        }
+        return false;
+    }
+
+
+    private int laneIndex(final String topic, final int queueId) {
+        int hash = 31 * topic.hashCode() + queueId;
+        return Math.abs(hash % this.consumeQueueLanes.length);
+    }
+
+
+    /**
+     * @param parsedOffset where the parse stage has come to
+     * @return the CommitLog offset before which every message has gone through all lanes
+     */
+    public long dispatchedOffset(final long parsedOffset) {
+        long offset = Math.min(parsedOffset, this.indexLane.dispatchedOffset(parsedOffset));
+        for (DispatchLane lane : this.consumeQueueLanes) {
+            offset = Math.min(offset, lane.dispatchedOffset(parsedOffset));
+        }
+        return offset;
+    }
+
+
+    public void buildRunningStats(HashMap<String, String> stats, final long parsedOffset) {
+        long consumeQueueDispatched = parsedOffset;
+        long pendingNums = 0;
+        for (DispatchLane lane : this.consumeQueueLanes) {
+            consumeQueueDispatched = Math.min(consumeQueueDispatched, lane.dispatchedOffset(parsedOffset));
+            pendingNums += lane.getPendingNums();
+        }
+
+        stats.put("dispatchConsumeQueueBehindBytes", String.valueOf(parsedOffset - consumeQueueDispatched));
+        stats.put("dispatchConsumeQueuePendingNums", String.valueOf(pendingNums));
+        stats.put("dispatchIndexBehindBytes", String.valueOf(parsedOffset - this.indexLane.dispatchedOffset(parsedOffset)));
+        stats.put("dispatchIndexPendingNums", String.valueOf(this.indexLane.getPendingNums()));
+    }
+
+
+    abstract static class DispatchLane extends ServiceThread {
+        private final String serviceName;
+        private final LinkedBlockingQueue<DispatchRequest> requestQueue;
+        // requests put but not processed yet
+        private final AtomicLong pendingNums = new AtomicLong(0);
+        // end offset of the last processed request, or start offset of the oldest pending one
+        private volatile long dispatchedOffset = 0;
+
+
+        DispatchLane(final String serviceName, final int capacity) {
+            this.serviceName = serviceName;
+            this.requestQueue = new LinkedBlockingQueue<DispatchRequest>(capacity);
+            this.thread.setName(serviceName);
+        }
+
+
+        protected abstract void process(final DispatchRequest req);
+
+
+        public void putRequest(final DispatchRequest req) {
+            if (this.pendingNums.get() == 0) {
+                this.dispatchedOffset = req.getCommitLogOffset();
+            }
+            this.pendingNums.incrementAndGet();
+
+            try {
+                this.requestQueue.put(req);
+            } catch (InterruptedException e) {
+                this.pendingNums.decrementAndGet();
+                log.error(this.getServiceName() + " put dispatch request interrupted, CommitLog offset: {}", req.getCommitLogOffset());
+            }
+        }
+
+
+        public long dispatchedOffset(final long parsedOffset) {
+            if (this.pendingNums.get() == 0) {
+                return parsedOffset;
+            }
+            return this.dispatchedOffset;
+        }
+
+
+        public long getPendingNums() {
+            return this.pendingNums.get();
+        }
+
+
+        private void doProcess(final DispatchRequest req) {
+            try {
+                this.process(req);
+            } catch (Throwable e) {
+                log.error(this.getServiceName() + " dispatch exception, CommitLog offset: " + req.getCommitLogOffset(), e);
+            } finally {
+                this.dispatchedOffset = req.getCommitLogOffset() + req.getMsgSize();
+                this.pendingNums.decrementAndGet();
+            }
+        }
+
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStoped()) {
+                try {
+                    DispatchRequest req = this.requestQueue.poll(1000, TimeUnit.MILLISECONDS);
+                    if (req != null) {
+                        this.doProcess(req);
+                    }
+                } catch (Exception e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            for (DispatchRequest req = this.requestQueue.poll(); req != null; req = this.requestQueue.poll()) {
+                this.doProcess(req);
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            if (this.serviceName != null) {
+                return this.serviceName;
+            }
+            return DispatchLane.class.getSimpleName();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Spin lock implementation to put message, suggested to be used when the
+ * critical section is short. After a bounded number of busy spins the waiting
+ * thread yields its time slice, so that an oversubscribed send pool does not
+ * burn every core.
+ */
+public class PutMessageSpinLock implements PutMessageLock {
+    private static final int MaxSpinTimesBeforeYield = 1 << 10;
+
+    // true: can lock, false: in lock
+    private final AtomicBoolean putMessageSpinLock = new AtomicBoolean(true);
+
+
+    @Override
+    public void lock() {
+        int spinTimes = 0;
+        while (true) {
+            if (this.putMessageSpinLock.get() && this.putMessageSpinLock.compareAndSet(true, false)) {
+                return;
+            }
+
+            if (++spinTimes >= MaxSpinTimesBeforeYield) {
+                spinTimes = 0;
+                Thread.yield();
+            }
+        }
+    }
+
+
+    @Override
+    public void unlock() {
+        this.putMessageSpinLock.compareAndSet(false, true);
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.utils.IOTinyUtils;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
+import com.alibaba.rocketmq.store.util.LibC;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedList;
+
+
+/**
+ * Files of expired MapedFiles kept for reuse, so that a rollover renames a file whose blocks are already allocated
+ * instead of deleting one file and creating another. A reused file is zeroed with fallocate(FALLOC_FL_ZERO_RANGE),
+ * or truncated and extended again where that is not supported. New files are allocated with fallocate when
+ * preallocate is set, rather than left sparse.
+ *
+ * The pool directory should be on the same disk as the files, a file which can not be renamed is deleted. CommitLog
+ * files striped over several store paths get one pool per path, see {@link #createCommitLogPools}.
+ */
+public class RecycledFilePool {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private static volatile boolean fallocateSupported = Platform.isLinux();
+
+    private final String storePath;
+    private final int fileSize;
+    private final int capacity;
+    private final boolean preallocate;
+
+    private final LinkedList<File> files = new LinkedList<File>();
+    private long nextSeq = 0;
+
+
+    /**
+     * @param capacity max files kept, 0 to only preallocate
+     */
+    public RecycledFilePool(final String storePath, final int fileSize, final int capacity, final boolean preallocate) {
+        this.storePath = storePath;
+        this.fileSize = fileSize;
+        this.capacity = capacity;
+        this.preallocate = preallocate;
+    }
+
+
+    /**
+     * @return pools in the order of the CommitLog store paths
+     */
+    public static RecycledFilePool[] createCommitLogPools(final MessageStoreConfig messageStoreConfig) {
+        String[] storePaths = StorePathConfigHelper.splitStorePaths(messageStoreConfig.getStorePathCommitLog());
+        RecycledFilePool[] pools = new RecycledFilePool[storePaths.length];
+        for (int i = 0; i < storePaths.length; i++) {
+            pools[i] = new RecycledFilePool(StorePathConfigHelper.getStorePathRecycleCommitLog(storePaths[i]),
+                    messageStoreConfig.getMapedFileSizeCommitLog(),
+                    messageStoreConfig.isRecycleMapedFileEnable() ? messageStoreConfig.getRecycleCommitLogFilesMax() : 0,
+                    messageStoreConfig.isPreallocateMapedFileEnable());
+        }
+        return pools;
+    }
+
+
+    public synchronized void load() {
+        File[] ls = new File(this.storePath).listFiles();
+        if (null == ls) {
+            return;
+        }
+
+        for (File file : ls) {
+            long seq;
+            try {
+                seq = Long.parseLong(file.getName());
+            } catch (NumberFormatException e) {
+                seq = -1;
+            }
+
+            if (seq >= 0 && file.length() == this.fileSize && this.files.size() < this.capacity) {
+                this.files.addLast(file);
+                this.nextSeq = Math.max(this.nextSeq, seq + 1);
+            } else {
+                boolean result = file.delete();
+                log.info("delete recycled file {} {}", file, result ? "OK" : "Failed");
+            }
+        }
+        log.info("load recycled file pool {} OK, {} files", this.storePath, this.files.size());
+    }
+
+
+    /**
+     * Moves the file of a destroyed MapedFile into the pool.
+     *
+     * @return false if the pool does not take it, the caller deletes it then
+     */
+    public boolean recycle(final File file) {
+        File target;
+        synchronized (this) {
+            if (this.files.size() >= this.capacity || file.length() != this.fileSize) {
+                return false;
+            }
+
+            MapedFile.ensureDirOK(this.storePath);
+            target = new File(this.storePath, String.valueOf(this.nextSeq));
+            if (!file.renameTo(target)) {
+                log.warn("recycle file {} failed, rename to {} failed", file, target);
+                return false;
+            }
+            this.nextSeq++;
+            this.files.addLast(target);
+        }
+
+        log.info("recycle file {} to {}", file, target);
+        return true;
+    }
+
+
+    /**
+     * Readies the file at the path for a new MapedFile, from a recycled file if there is one.
+     *
+     * @return true if a recycled file was reused
+     */
+    public boolean prepare(final String filePath, final int size) {
+        File file = new File(filePath);
+        File recycled = null;
+        if (size == this.fileSize) {
+            synchronized (this) {
+                recycled = this.files.pollFirst();
+            }
+        }
+
+        if (recycled != null) {
+            MapedFile.ensureDirOK(file.getParent());
+            if (recycled.renameTo(file)) {
+                try {
+                    this.zero(file, size);
+                    return true;
+                } catch (IOException e) {
+                    log.warn("zero recycled file " + filePath + " failed, delete it", e);
+                    file.delete();
+                }
+            } else {
+                log.warn("reuse recycled file {} failed, rename to {} failed, delete it", recycled, filePath);
+                recycled.delete();
+            }
+        }
+
+        if (this.preallocate && !file.exists()) {
+            MapedFile.ensureDirOK(file.getParent());
+            try {
+                new RandomAccessFile(file, "rw").close();
+            } catch (IOException e) {
+                log.warn("create file " + filePath + " failed", e);
+                return false;
+            }
+            if (!fallocate(filePath, 0, size)) {
+                log.warn("preallocate file {} failed, it is left sparse", filePath);
+            }
+        }
+        return false;
+    }
+
+
+    private void zero(final File file, final int size) throws IOException {
+        if (fallocate(file.getPath(), LibC.FALLOC_FL_ZERO_RANGE | LibC.FALLOC_FL_KEEP_SIZE, size)) {
+            return;
+        }
+
+        // the blocks are given back, but the directory is left alone
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(size);
+        } finally {
+            randomAccessFile.close();
+        }
+        if (this.preallocate) {
+            fallocate(file.getPath(), 0, size);
+        }
+    }
+
+
+    private static boolean fallocate(final String filePath, final int mode, final long length) {
+        if (!fallocateSupported) {
+            return false;
+        }
+
+        try {
+            int fd = LibC.INSTANCE.open(filePath, LibC.O_RDWR);
+            if (fd < 0) {
+                return false;
+            }
+            try {
+                return LibC.INSTANCE.fallocate(fd, mode, new NativeLong(0), new NativeLong(length)) == 0;
+            } finally {
+                LibC.INSTANCE.close(fd);
+            }
+        } catch (Throwable e) {
+            fallocateSupported = false;
+            log.warn("fallocate not supported", e);
+            return false;
+        }
+    }
+
+
+    public synchronized int size() {
+        return this.files.size();
+    }
+
+
+    public synchronized void destroy() {
+        this.files.clear();
+        try {
+            IOTinyUtils.delete(new File(this.storePath));
+        } catch (IOException e) {
+            log.warn("destroy recycled file pool " + this.storePath + " failed", e);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.config.BrokerRole;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+class ReputMessageService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final DefaultMessageStore defaultMessageStore;
+
+    private volatile long reputFromOffset = 0;
+
+
+    public ReputMessageService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+
+    public long getReputFromOffset() {
+        return reputFromOffset;
+    }
+
+    @Override
+    public void shutdown() {
+        for (int i = 0; i < 50 && this.isCommitLogAvailable(); i++) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+            }
+        }
+
+        if (this.isCommitLogAvailable()) {
+            log.warn("shutdown ReputMessageService, but commitlog have not finish to be dispatched, CL: {} reputFromOffset: {}",
+                    this.defaultMessageStore.getCommitLog().getMaxOffset(), this.reputFromOffset);
+        }
+
+        super.shutdown();
+    }
+
+    public void setReputFromOffset(long reputFromOffset) {
+        this.reputFromOffset = reputFromOffset;
+    }
+
+    public long behind() {
+        return this.defaultMessageStore.getCommitLog().getMaxOffset() - this.reputFromOffset;
+    }
+
+
+    private boolean isCommitLogAvailable() {
+        return this.reputFromOffset < this.defaultMessageStore.getCommitLog().getMaxOffset();
+    }
+
+
+    private void doReput() {
+        for (boolean doNext = true; this.isCommitLogAvailable() && doNext; ) {
+
+            if (this.defaultMessageStore.getMessageStoreConfig().isDuplicationEnable() //
+                    && this.reputFromOffset >= this.defaultMessageStore.getConfirmOffset()) {
+                break;
+            }
+
+            SelectMapedBufferResult result = this.defaultMessageStore.getCommitLog().getData(reputFromOffset);
+            if (result != null) {
+                try {
+                    this.reputFromOffset = result.getStartOffset();
+
+                    for (int readSize = 0; readSize < result.getSize() && doNext; ) {
+                        DispatchRequest dispatchRequest =
+                                this.defaultMessageStore.getCommitLog().checkMessageAndReturnSize(result.getByteBuffer(), false, false);
+                        int size = dispatchRequest.getMsgSize();
+
+                        if (dispatchRequest.isSuccess()) {
+                            if (size > 0) {
+                                if (this.defaultMessageStore.getParallelDispatchService() != null) {
+                                    this.defaultMessageStore.getParallelDispatchService().dispatch(dispatchRequest);
+                                } else {
+                                    this.defaultMessageStore.doDispatch(dispatchRequest);
+                                    this.defaultMessageStore.notifyMessageArriving(dispatchRequest);
+                                }
+                                // FIXED BUG By shijia
+                                this.reputFromOffset += size;
+                                readSize += size;
+                                if (this.defaultMessageStore.getMessageStoreConfig().getBrokerRole() == BrokerRole.SLAVE) {
+                                    this.defaultMessageStore.getStoreStatsService()
+                                            .getSinglePutMessageTopicTimesTotal(dispatchRequest.getTopic()).incrementAndGet();
+                                    this.defaultMessageStore.getStoreStatsService()
+                                            .getSinglePutMessageTopicSizeTotal(dispatchRequest.getTopic())
+                                            .addAndGet(dispatchRequest.getMsgSize());
+                                }
+                            }
+
+                            else if (size == 0) {
+                                this.reputFromOffset = this.defaultMessageStore.getCommitLog().rollNextFile(this.reputFromOffset);
+                                readSize = result.getSize();
+                            }
+                        } else if (!dispatchRequest.isSuccess()) {
+
+
+                            if (size > 0) {
+                                log.error("[BUG]read total count not equals msg total size. reputFromOffset={}", reputFromOffset);
+                                this.reputFromOffset += size;
+                            }
+                            else {
+                                doNext = false;
+                                if (this.defaultMessageStore.getBrokerConfig().getBrokerId() == MixAll.MASTER_ID) {
+                                    log.error("[BUG]the master dispatch message to consume queue error, COMMITLOG OFFSET: {}",
+                                            this.reputFromOffset);
+
+                                    this.reputFromOffset += (result.getSize() - readSize);
+                                }
+                            }
+                        }
+                    }
+                } finally {
+                    result.release();
+                }
+            } else {
+                doNext = false;
+            }
+        }
+    }
+
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStoped()) {
+            try {
+                Thread.sleep(1);
+                this.doReput();
+            } catch (Exception e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return ReputMessageService.class.getSimpleName();
+    }
+
+
+}
@@ -40,6 +40,9 @@ public class StoreCheckpoint {
     private volatile long physicMsgTimestamp = 0;
     private volatile long logicsMsgTimestamp = 0;
     private volatile long indexMsgTimestamp = 0;
+    // CommitLog offsets below which messages are flushed, and dispatched into flushed consume queues, 0 if unknown
+    private volatile long physicMsgOffset = 0;
+    private volatile long logicsMsgOffset = 0;
 
 
     public StoreCheckpoint(final String scpPath) throws IOException {
@@ -56,6 +59,8 @@ public class StoreCheckpoint {
             this.physicMsgTimestamp = this.mappedByteBuffer.getLong(0);
             this.logicsMsgTimestamp = this.mappedByteBuffer.getLong(8);
             this.indexMsgTimestamp = this.mappedByteBuffer.getLong(16);
+            this.physicMsgOffset = this.mappedByteBuffer.getLong(24);
+            this.logicsMsgOffset = this.mappedByteBuffer.getLong(32);
 
             log.info("store checkpoint file physicMsgTimestamp " + this.physicMsgTimestamp + ", "
                     + UtilAll.timeMillisToHumanString(this.physicMsgTimestamp));
@@ -63,6 +68,8 @@ public class StoreCheckpoint {
                     + UtilAll.timeMillisToHumanString(this.logicsMsgTimestamp));
             log.info("store checkpoint file indexMsgTimestamp " + this.indexMsgTimestamp + ", "
                     + UtilAll.timeMillisToHumanString(this.indexMsgTimestamp));
+            log.info("store checkpoint file physicMsgOffset " + this.physicMsgOffset + ", logicsMsgOffset "
+                    + this.logicsMsgOffset);
         } else {
             log.info("store checkpoint file not exists, " + scpPath);
         }
@@ -87,6 +94,8 @@ public class StoreCheckpoint {
         this.mappedByteBuffer.putLong(0, this.physicMsgTimestamp);
         this.mappedByteBuffer.putLong(8, this.logicsMsgTimestamp);
         this.mappedByteBuffer.putLong(16, this.indexMsgTimestamp);
+        this.mappedByteBuffer.putLong(24, this.physicMsgOffset);
+        this.mappedByteBuffer.putLong(32, this.logicsMsgOffset);
         this.mappedByteBuffer.force();
     }
 
@@ -129,6 +138,37 @@ public class StoreCheckpoint {
     }
 
 
+    /**
+     * @return where abnormal recovery can start from without missing anything but the index, 0 if unknown
+     */
+    public long getMinMsgOffset() {
+        if (this.physicMsgOffset <= 0 || this.logicsMsgOffset <= 0) {
+            return 0;
+        }
+        return Math.min(this.physicMsgOffset, this.logicsMsgOffset);
+    }
+
+
+    public long getPhysicMsgOffset() {
+        return physicMsgOffset;
+    }
+
+
+    public void setPhysicMsgOffset(long physicMsgOffset) {
+        this.physicMsgOffset = physicMsgOffset;
+    }
+
+
+    public long getLogicsMsgOffset() {
+        return logicsMsgOffset;
+    }
+
+
+    public void setLogicsMsgOffset(long logicsMsgOffset) {
+        this.logicsMsgOffset = logicsMsgOffset;
+    }
+
+
     public long getIndexMsgTimestamp() {
         return indexMsgTimestamp;
     }
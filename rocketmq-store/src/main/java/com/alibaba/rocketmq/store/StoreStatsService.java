@@ -52,6 +52,16 @@ public class StoreStatsService extends ServiceThread {
             "[5~10s]", // 9
             "[10s~]", // 10
     };
+    private static final String[] PutMessageLockHoldTimeDesc = new String[]{
+            "[<=10us]", // 0
+            "[10~50us]", // 1
+            "[50~100us]", // 2
+            "[100~500us]", // 3
+            "[500us~1ms]", // 4
+            "[1~10ms]", // 5
+            "[10~100ms]", // 6
+            "[100ms~]", // 7
+    };
 
     private static int PrintTPSInterval = 60 * 1;
 
@@ -65,21 +75,43 @@ public class StoreStatsService extends ServiceThread {
     private final AtomicLong getMessageTimesTotalFound = new AtomicLong(0);
     private final AtomicLong getMessageTransferedMsgCount = new AtomicLong(0);
     private final AtomicLong getMessageTimesTotalMiss = new AtomicLong(0);
+    // reads of the tail within accessMessageInMemoryMaxRatio, and how many of them found the page in page cache
+    private final AtomicLong getMessageHotTailTimes = new AtomicLong(0);
+    private final AtomicLong getMessageHotTailHitTimes = new AtomicLong(0);
+    private final AtomicLong getMessageColdReadTimes = new AtomicLong(0);
     private final LinkedList<CallSnapshot> putTimesList = new LinkedList<CallSnapshot>();
 
     private final LinkedList<CallSnapshot> getTimesFoundList = new LinkedList<CallSnapshot>();
     private final LinkedList<CallSnapshot> getTimesMissList = new LinkedList<CallSnapshot>();
     private final LinkedList<CallSnapshot> transferedMsgCountList = new LinkedList<CallSnapshot>();
     private volatile AtomicLong[] putMessageDistributeTime;
+    private volatile AtomicLong[] putMessageLockHoldTime;
     private long messageStoreBootTimestamp = System.currentTimeMillis();
     private volatile long putMessageEntireTimeMax = 0;
     private volatile long getMessageEntireTimeMax = 0;
+    // us
+    private volatile long putMessageLockHoldTimeMax = 0;
     // for putMessageEntireTimeMax
     private ReentrantLock lockPut = new ReentrantLock();
     // for getMessageEntireTimeMax
     private ReentrantLock lockGet = new ReentrantLock();
+    // for putMessageLockHoldTimeMax
+    private ReentrantLock lockHold = new ReentrantLock();
 
     private volatile long dispatchMaxBuffer = 0;
+    // elapsed time of every CommitLogDispatcher
+    private final ConcurrentHashMap<CommitLogDispatcher, DispatchElapsed> dispatchElapsedTable =
+            new ConcurrentHashMap<CommitLogDispatcher, DispatchElapsed>(16);
+
+    // CommitLog files prepared by AllocateMapedFileService, elapsed in microseconds
+    private final AtomicLong mapedFileAllocateTimes = new AtomicLong(0);
+    private final AtomicLong mapedFileRecycledTimes = new AtomicLong(0);
+    private final AtomicLong mapedFileAllocateTimeTotal = new AtomicLong(0);
+    private volatile long mapedFileAllocateTimeMax = 0;
+    // how long putting threads waited for the next CommitLog file on rollover, in microseconds
+    private final AtomicLong mapedFileRolloverTimes = new AtomicLong(0);
+    private final AtomicLong mapedFileRolloverWaitTimeTotal = new AtomicLong(0);
+    private volatile long mapedFileRolloverWaitTimeMax = 0;
 
     private ReentrantLock lockSampling = new ReentrantLock();
     private long lastPrintTimestamp = System.currentTimeMillis();
@@ -87,6 +119,20 @@ public class StoreStatsService extends ServiceThread {
 
     public StoreStatsService() {
         this.initPutMessageDistributeTime();
+        this.initPutMessageLockHoldTime();
+    }
+
+    private AtomicLong[] initPutMessageLockHoldTime() {
+        AtomicLong[] next = new AtomicLong[PutMessageLockHoldTimeDesc.length];
+        for (int i = 0; i < next.length; i++) {
+            next[i] = new AtomicLong(0);
+        }
+
+        AtomicLong[] old = this.putMessageLockHoldTime;
+
+        this.putMessageLockHoldTime = next;
+
+        return old;
     }
 
     private AtomicLong[] initPutMessageDistributeTime() {
@@ -162,6 +208,56 @@ public class StoreStatsService extends ServiceThread {
     }
 
 
+    public long getPutMessageLockHoldTimeMax() {
+        return putMessageLockHoldTimeMax;
+    }
+
+
+    /**
+     * Record how long the CommitLog put message lock was held
+     *
+     * @param value
+     *         hold time in microseconds
+     */
+    public void setPutMessageLockHoldTime(long value) {
+        final AtomicLong[] times = this.putMessageLockHoldTime;
+
+        if (null == times) return;
+
+        if (value <= 10) {
+            times[0].incrementAndGet();
+        }
+        else if (value <= 50) {
+            times[1].incrementAndGet();
+        }
+        else if (value <= 100) {
+            times[2].incrementAndGet();
+        }
+        else if (value <= 500) {
+            times[3].incrementAndGet();
+        }
+        else if (value <= 1000) {
+            times[4].incrementAndGet();
+        }
+        else if (value <= 10000) {
+            times[5].incrementAndGet();
+        }
+        else if (value <= 100000) {
+            times[6].incrementAndGet();
+        }
+        else {
+            times[7].incrementAndGet();
+        }
+
+        if (value > this.putMessageLockHoldTimeMax) {
+            this.lockHold.lock();
+            this.putMessageLockHoldTimeMax =
+                    value > this.putMessageLockHoldTimeMax ? value : this.putMessageLockHoldTimeMax;
+            this.lockHold.unlock();
+        }
+    }
+
+
     public long getGetMessageEntireTimeMax() {
         return getMessageEntireTimeMax;
     }
@@ -203,6 +299,8 @@ public class StoreStatsService extends ServiceThread {
                 + "\r\n");
         sb.append("\tputMessageAverageSize: " + (this.getPutMessageSizeTotal() / totalTimes.doubleValue())
                 + "\r\n");
+        sb.append("\tputMessageLockHoldTimeMax: " + this.putMessageLockHoldTimeMax + "\r\n");
+        sb.append("\tputMessageLockHoldTime: " + this.getPutMessageLockHoldTimeStringInfo() + "\r\n");
         sb.append("\tdispatchMaxBuffer: " + this.dispatchMaxBuffer + "\r\n");
         sb.append("\tgetMessageEntireTimeMax: " + this.getMessageEntireTimeMax + "\r\n");
         sb.append("\tputTps: " + this.getPutTps() + "\r\n");
@@ -258,6 +356,18 @@ public class StoreStatsService extends ServiceThread {
         return sb.toString();
     }
 
+    private String getPutMessageLockHoldTimeStringInfo() {
+        final StringBuilder sb = new StringBuilder(256);
+
+        final AtomicLong[] times = this.putMessageLockHoldTime;
+        for (int i = 0; i < times.length; i++) {
+            sb.append(String.format("%s:%d", PutMessageLockHoldTimeDesc[i], times[i].get()));
+            sb.append(" ");
+        }
+
+        return sb.toString();
+    }
+
     private String getPutTps() {
         StringBuilder sb = new StringBuilder();
 
@@ -459,8 +569,15 @@ public class StoreStatsService extends ServiceThread {
                 String.valueOf(this.getPutMessageDistributeTimeStringInfo(totalTimes)));
         result.put("putMessageAverageSize",
                 String.valueOf((this.getPutMessageSizeTotal() / totalTimes.doubleValue())));
+        result.put("putMessageLockHoldTimeMax", String.valueOf(this.putMessageLockHoldTimeMax));
+        result.put("putMessageLockHoldTime", this.getPutMessageLockHoldTimeStringInfo());
         result.put("dispatchMaxBuffer", String.valueOf(this.dispatchMaxBuffer));
+        result.put("dispatchElapsed", this.getDispatchElapsedStringInfo());
+        result.put("mapedFileAllocate", this.getMapedFileAllocateStringInfo());
+        result.put("mapedFileRollover", this.getMapedFileRolloverStringInfo());
         result.put("getMessageEntireTimeMax", String.valueOf(this.getMessageEntireTimeMax));
+        result.put("getMessageHotTailHitRatio", this.getHotTailHitRatioStringInfo());
+        result.put("getMessageColdReadTimes", String.valueOf(this.getMessageColdReadTimes.get()));
         result.put("putTps", String.valueOf(this.getPutTps()));
         result.put("getFoundTps", String.valueOf(this.getGetFoundTps()));
         result.put("getMissTps", String.valueOf(this.getGetMissTps()));
@@ -548,6 +665,17 @@ public class StoreStatsService extends ServiceThread {
             }
 
             log.info("[PAGECACHERT] TotalPut {}, PutMessageDistributeTime {}", totalPut, sb.toString());
+
+            final AtomicLong[] holdTimes = this.initPutMessageLockHoldTime();
+            if (null == holdTimes) return;
+
+            final StringBuilder sbHold = new StringBuilder();
+            for (int i = 0; i < holdTimes.length; i++) {
+                sbHold.append(String.format("%s:%d", PutMessageLockHoldTimeDesc[i], holdTimes[i].get()));
+                sbHold.append(" ");
+            }
+
+            log.info("[LOCKHOLDRT] PutMessageLockHoldTime {}", sbHold.toString());
         }
     }
 
@@ -561,6 +689,29 @@ public class StoreStatsService extends ServiceThread {
     }
 
 
+    public void recordHotTailRead(final boolean hit) {
+        this.getMessageHotTailTimes.incrementAndGet();
+        if (hit) {
+            this.getMessageHotTailHitTimes.incrementAndGet();
+        }
+    }
+
+
+    private String getHotTailHitRatioStringInfo() {
+        long times = this.getMessageHotTailTimes.get();
+        long hitTimes = this.getMessageHotTailHitTimes.get();
+        if (0 == times) {
+            return "0";
+        }
+        return String.format("%.4f(%d/%d)", hitTimes / (double) times, hitTimes, times);
+    }
+
+
+    public AtomicLong getGetMessageColdReadTimes() {
+        return getMessageColdReadTimes;
+    }
+
+
     public AtomicLong getGetMessageTransferedMsgCount() {
         return getMessageTransferedMsgCount;
     }
@@ -600,6 +751,127 @@ public class StoreStatsService extends ServiceThread {
         return putMessageTopicSizeTotal;
     }
 
+    /**
+     * @param elapsed nanoseconds the dispatcher spent on one message
+     */
+    public void recordDispatchElapsed(final CommitLogDispatcher dispatcher, final long elapsed) {
+        DispatchElapsed dispatchElapsed = this.dispatchElapsedTable.get(dispatcher);
+        if (null == dispatchElapsed) {
+            dispatchElapsed = new DispatchElapsed();
+            DispatchElapsed prev = this.dispatchElapsedTable.putIfAbsent(dispatcher, dispatchElapsed);
+            if (prev != null) {
+                dispatchElapsed = prev;
+            }
+        }
+
+        dispatchElapsed.record(elapsed);
+    }
+
+
+    private String getDispatchElapsedStringInfo() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<CommitLogDispatcher, DispatchElapsed> entry : this.dispatchElapsedTable.entrySet()) {
+            DispatchElapsed elapsed = entry.getValue();
+            long times = elapsed.times.get();
+            long avg = times > 0 ? elapsed.elapsedTotal.get() / times : 0;
+            sb.append(String.format("%s:%d avg(us):%d max(us):%d ", entry.getKey().getClass().getName(), times, avg / 1000,
+                    elapsed.elapsedMax / 1000));
+        }
+        return sb.toString();
+    }
+
+
+    public Map<CommitLogDispatcher, DispatchElapsed> getDispatchElapsedTable() {
+        return dispatchElapsedTable;
+    }
+
+    /**
+     * @param elapsed microseconds taken to create, or reuse, and warm a file
+     */
+    public void recordMapedFileAllocate(final long elapsed, final boolean recycled) {
+        this.mapedFileAllocateTimes.incrementAndGet();
+        if (recycled) {
+            this.mapedFileRecycledTimes.incrementAndGet();
+        }
+        this.mapedFileAllocateTimeTotal.addAndGet(elapsed);
+        if (elapsed > this.mapedFileAllocateTimeMax) {
+            this.mapedFileAllocateTimeMax = elapsed;
+        }
+    }
+
+
+    /**
+     * @param waitTime microseconds a putting thread waited for the next file
+     */
+    public void recordMapedFileRollover(final long waitTime) {
+        this.mapedFileRolloverTimes.incrementAndGet();
+        this.mapedFileRolloverWaitTimeTotal.addAndGet(waitTime);
+        if (waitTime > this.mapedFileRolloverWaitTimeMax) {
+            this.mapedFileRolloverWaitTimeMax = waitTime;
+        }
+    }
+
+
+    private String getMapedFileAllocateStringInfo() {
+        long times = this.mapedFileAllocateTimes.get();
+        return String.format("times %d, recycled %d, avg(us) %d, max(us) %d", times, this.mapedFileRecycledTimes.get(),
+                times > 0 ? this.mapedFileAllocateTimeTotal.get() / times : 0, this.mapedFileAllocateTimeMax);
+    }
+
+
+    private String getMapedFileRolloverStringInfo() {
+        long times = this.mapedFileRolloverTimes.get();
+        return String.format("times %d, avgWait(us) %d, maxWait(us) %d", times,
+                times > 0 ? this.mapedFileRolloverWaitTimeTotal.get() / times : 0, this.mapedFileRolloverWaitTimeMax);
+    }
+
+
+    public long getMapedFileAllocateTimeMax() {
+        return mapedFileAllocateTimeMax;
+    }
+
+
+    public long getMapedFileRolloverWaitTimeMax() {
+        return mapedFileRolloverWaitTimeMax;
+    }
+
+
+    public long getMapedFileRecycledTimes() {
+        return mapedFileRecycledTimes.get();
+    }
+
+
+    public static class DispatchElapsed {
+        private final AtomicLong times = new AtomicLong(0);
+        // ns
+        private final AtomicLong elapsedTotal = new AtomicLong(0);
+        private volatile long elapsedMax = 0;
+
+
+        void record(final long elapsed) {
+            this.times.incrementAndGet();
+            this.elapsedTotal.addAndGet(elapsed);
+            if (elapsed > this.elapsedMax) {
+                this.elapsedMax = elapsed;
+            }
+        }
+
+
+        public long getTimes() {
+            return times.get();
+        }
+
+
+        public long getElapsedTotal() {
+            return elapsedTotal.get();
+        }
+
+
+        public long getElapsedMax() {
+            return elapsedMax;
+        }
+    }
+
     static class CallSnapshot {
         public final long timestamp;
         public final long callTimesTotal;
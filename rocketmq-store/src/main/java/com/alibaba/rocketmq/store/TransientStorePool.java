@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.util.LibC;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingDeque;
+
+
+/**
+ * Pool of off-heap buffers which CommitLog appends into before the data is committed to FileChannel,
+ * every buffer is locked in memory so that appending never hits a page fault.
+ */
+public class TransientStorePool {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final int poolSize;
+    private final int fileSize;
+    private final LinkedBlockingDeque<ByteBuffer> availableBuffers;
+    private final MessageStoreConfig storeConfig;
+
+
+    public TransientStorePool(final MessageStoreConfig storeConfig) {
+        this.storeConfig = storeConfig;
+        this.poolSize = storeConfig.getTransientStorePoolSize();
+        this.fileSize = storeConfig.getMapedFileSizeCommitLog();
+        this.availableBuffers = new LinkedBlockingDeque<ByteBuffer>();
+    }
+
+
+    /**
+     * It's a heavy init method.
+     */
+    public void init() {
+        for (int i = 0; i < poolSize; i++) {
+            ByteBuffer byteBuffer = ByteBuffer.allocateDirect(fileSize);
+
+            final long address = MapedFile.address(byteBuffer);
+            Pointer pointer = new Pointer(address);
+            int ret = LibC.INSTANCE.mlock(pointer, new NativeLong(fileSize));
+            log.info("transient store pool mlock {} {} ret = {}", address, fileSize, ret);
+
+            availableBuffers.offer(byteBuffer);
+        }
+    }
+
+
+    public void destroy() {
+        for (ByteBuffer byteBuffer : availableBuffers) {
+            final long address = MapedFile.address(byteBuffer);
+            Pointer pointer = new Pointer(address);
+            LibC.INSTANCE.munlock(pointer, new NativeLong(fileSize));
+        }
+    }
+
+
+    public void returnBuffer(ByteBuffer byteBuffer) {
+        byteBuffer.position(0);
+        byteBuffer.limit(fileSize);
+        this.availableBuffers.offerFirst(byteBuffer);
+    }
+
+
+    /**
+     * @return null if the pool is exhausted, the caller should fall back to the mapped buffer
+     */
+    public ByteBuffer borrowBuffer() {
+        ByteBuffer buffer = availableBuffers.pollFirst();
+        if (availableBuffers.size() < poolSize * 0.4) {
+            log.warn("TransientStorePool only remain {} sheets.", availableBuffers.size());
+        }
+        return buffer;
+    }
+
+
+    public int remainBufferNumbs() {
+        if (storeConfig.isTransientStorePoolEnable()) {
+            return availableBuffers.size();
+        }
+        return Integer.MAX_VALUE;
+    }
+}
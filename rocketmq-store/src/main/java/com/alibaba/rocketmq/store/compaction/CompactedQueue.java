@@ -0,0 +1,342 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.compaction;
+
+import com.alibaba.rocketmq.common.TopicFilterType;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.utils.IOTinyUtils;
+import com.alibaba.rocketmq.store.CommitLog;
+import com.alibaba.rocketmq.store.ConsumeQueue;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Compacted view of one queue of a compacted topic: the newest message of every key below the compacted offset,
+ * ordered by queue offset. Messages without keys are not kept. Every compaction merges the messages appended
+ * since the last one into a new {@link CompactedSegment} directory named by its compacted offset, and switches to
+ * it once complete.
+ */
+public class CompactedQueue {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private static final String TmpSuffix = ".tmp";
+
+    private final String topic;
+    private final int queueId;
+    private final String storePath;
+
+    private volatile CompactedSegment segment;
+    // the replaced segment stays open for reads which picked it up just before the switch
+    private CompactedSegment retiredSegment;
+
+
+    public CompactedQueue(final String topic, final int queueId, final String storePath) {
+        this.topic = topic;
+        this.queueId = queueId;
+        this.storePath = storePath;
+    }
+
+
+    public synchronized boolean load() {
+        File[] files = new File(this.storePath).listFiles();
+        if (null == files) {
+            return true;
+        }
+
+        File latest = null;
+        for (File file : files) {
+            if (file.getName().endsWith(TmpSuffix) || !isNumeric(file.getName())) {
+                continue;
+            }
+            if (null == latest || Long.parseLong(file.getName()) > Long.parseLong(latest.getName())) {
+                latest = file;
+            }
+        }
+
+        try {
+            // unfinished or replaced segments
+            for (File file : files) {
+                if (file != latest) {
+                    IOTinyUtils.delete(file);
+                }
+            }
+
+            if (latest != null) {
+                this.segment = new CompactedSegment(latest);
+                log.info("load compacted queue {}-{} OK, compactedOffset {}, keys {}", this.topic, this.queueId,
+                        this.segment.getCompactedOffset(), this.segment.getUnitNums());
+            }
+        } catch (IOException e) {
+            log.error("load compacted queue " + this.storePath + " failed", e);
+            return false;
+        }
+        return true;
+    }
+
+
+    private static boolean isNumeric(final String name) {
+        if (name.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Merges the messages of the consume queue from the compacted offset up to its current max offset.
+     *
+     * @return false if there was nothing new
+     */
+    public synchronized boolean compact(final ConsumeQueue consumeQueue, final CommitLog commitLog) throws IOException {
+        final CompactedSegment old = this.segment;
+        final long compactedOffset = null == old ? 0 : old.getCompactedOffset();
+        final long maxOffset = consumeQueue.getMaxOffsetInQuque();
+        if (maxOffset <= compactedOffset) {
+            return false;
+        }
+
+        long offset = compactedOffset;
+        if (offset < consumeQueue.getMinOffsetInQuque()) {
+            log.warn("compact {}-{}, messages [{}, {}) were deleted before compacted", this.topic, this.queueId,
+                    offset, consumeQueue.getMinOffsetInQuque());
+            offset = consumeQueue.getMinOffsetInQuque();
+        }
+
+        // the order of a LinkedHashMap with remove and put is the order of the newest queue offsets
+        LinkedHashMap<String, Unit> latest = new LinkedHashMap<String, Unit>();
+        if (old != null) {
+            for (int i = 0; i < old.getUnitNums(); i++) {
+                SelectMapedBufferResult message = old.getMessage(i);
+                if (null == message) {
+                    throw new IOException("read compacted message failed, " + old.getDir() + " index " + i);
+                }
+                String keys = MessageDecoder.peekProperty(message.getByteBuffer(), MessageConst.PROPERTY_KEYS);
+                latest.put(keys, new Unit(old.getQueueOffset(i), -1, i, old.getSize(i), old.getTagsCode(i)));
+            }
+        }
+
+        while (offset < maxOffset) {
+            SelectMapedBufferResult bufferConsumeQueue = consumeQueue.getIndexBuffer(offset);
+            if (null == bufferConsumeQueue) {
+                break;
+            }
+            try {
+                ByteBuffer byteBuffer = bufferConsumeQueue.getByteBuffer();
+                for (int i = 0; i < bufferConsumeQueue.getSize() && offset < maxOffset; i += ConsumeQueue.CQStoreUnitSize) {
+                    long offsetPy = byteBuffer.getLong();
+                    int sizePy = byteBuffer.getInt();
+                    byteBuffer.getLong();
+                    this.collect(latest, commitLog, offset, offsetPy, sizePy);
+                    offset++;
+                }
+            } finally {
+                bufferConsumeQueue.release();
+            }
+        }
+
+        if (offset <= compactedOffset) {
+            return false;
+        }
+
+        this.switchSegment(this.writeSegment(offset, latest.values(), old, commitLog));
+        return true;
+    }
+
+
+    private void collect(final Map<String, Unit> latest, final CommitLog commitLog, final long queueOffset,
+                         final long offsetPy, final int sizePy) {
+        SelectMapedBufferResult message = commitLog.getMessage(offsetPy, sizePy);
+        if (null == message) {
+            log.warn("compact {}-{}, message {} at {} not found", this.topic, this.queueId, queueOffset, offsetPy);
+            return;
+        }
+
+        try {
+            ByteBuffer byteBuffer = message.getByteBuffer();
+            byteBuffer.limit(sizePy);
+            String keys = MessageDecoder.peekProperty(byteBuffer, MessageConst.PROPERTY_KEYS);
+            if (null == keys || keys.length() == 0) {
+                return;
+            }
+            String tags = MessageDecoder.peekProperty(byteBuffer, MessageConst.PROPERTY_TAGS);
+            long tagsCode = MessageExtBrokerInner.tagsString2tagsCode(TopicFilterType.SINGLE_TAG, tags);
+
+            latest.remove(keys);
+            latest.put(keys, new Unit(queueOffset, offsetPy, -1, sizePy, tagsCode));
+        } finally {
+            message.release();
+        }
+    }
+
+
+    private File writeSegment(final long compactedOffset, final Iterable<Unit> units, final CompactedSegment old,
+                              final CommitLog commitLog) throws IOException {
+        File tmpDir = new File(this.storePath, compactedOffset + TmpSuffix);
+        IOTinyUtils.delete(tmpDir);
+        if (!tmpDir.mkdirs()) {
+            throw new IOException("create dir failed, " + tmpDir);
+        }
+
+        RandomAccessFile dataFile = new RandomAccessFile(new File(tmpDir, CompactedSegment.DataFileName), "rw");
+        RandomAccessFile indexFile = new RandomAccessFile(new File(tmpDir, CompactedSegment.IndexFileName), "rw");
+        try {
+            FileChannel dataChannel = dataFile.getChannel();
+            FileChannel indexChannel = indexFile.getChannel();
+            ByteBuffer index = ByteBuffer.allocate(CompactedSegment.IndexUnitSize);
+            long position = 0;
+            for (Unit unit : units) {
+                SelectMapedBufferResult message = unit.offsetPy >= 0 ? commitLog.getMessage(unit.offsetPy, unit.size)
+                        : old.getMessage(unit.index);
+                if (null == message) {
+                    log.warn("compact {}-{}, message {} removed while compacting", this.topic, this.queueId,
+                            unit.queueOffset);
+                    continue;
+                }
+
+                try {
+                    ByteBuffer byteBuffer = message.getByteBuffer();
+                    byteBuffer.limit(byteBuffer.position() + unit.size);
+                    while (byteBuffer.hasRemaining()) {
+                        dataChannel.write(byteBuffer);
+                    }
+                } finally {
+                    message.release();
+                }
+
+                index.clear();
+                index.putLong(unit.queueOffset);
+                index.putLong(position);
+                index.putInt(unit.size);
+                index.putLong(unit.tagsCode);
+                index.flip();
+                while (index.hasRemaining()) {
+                    indexChannel.write(index);
+                }
+                position += unit.size;
+            }
+
+            dataChannel.force(true);
+            indexChannel.force(true);
+        } finally {
+            dataFile.close();
+            indexFile.close();
+        }
+
+        File dir = new File(this.storePath, String.valueOf(compactedOffset));
+        if (!tmpDir.renameTo(dir)) {
+            throw new IOException("rename " + tmpDir + " to " + dir + " failed");
+        }
+        return dir;
+    }
+
+
+    private void switchSegment(final File dir) throws IOException {
+        CompactedSegment newSegment = new CompactedSegment(dir);
+        CompactedSegment old = this.segment;
+        this.segment = newSegment;
+
+        if (this.retiredSegment != null) {
+            this.retiredSegment.close();
+        }
+        this.retiredSegment = old;
+        if (old != null) {
+            IOTinyUtils.delete(old.getDir());
+        }
+        log.info("compacted queue {}-{} switched to {}, keys {}", this.topic, this.queueId,
+                newSegment.getCompactedOffset(), newSegment.getUnitNums());
+    }
+
+
+    /**
+     * @return null before the first compaction
+     */
+    public CompactedSegment getSegment() {
+        return segment;
+    }
+
+
+    public long getCompactedOffset() {
+        CompactedSegment current = this.segment;
+        return null == current ? 0 : current.getCompactedOffset();
+    }
+
+
+    public synchronized void destroy() {
+        if (this.segment != null) {
+            this.segment.close();
+            this.segment = null;
+        }
+        if (this.retiredSegment != null) {
+            this.retiredSegment.close();
+            this.retiredSegment = null;
+        }
+        try {
+            IOTinyUtils.delete(new File(this.storePath));
+        } catch (IOException e) {
+            log.warn("destroy compacted queue " + this.storePath + " failed", e);
+        }
+    }
+
+
+    public String getTopic() {
+        return topic;
+    }
+
+
+    public int getQueueId() {
+        return queueId;
+    }
+
+
+    /**
+     * A message kept by the compaction, read either from CommitLog or from the previous segment.
+     */
+    static class Unit {
+        private final long queueOffset;
+        private final long offsetPy;
+        private final int index;
+        private final int size;
+        private final long tagsCode;
+
+
+        Unit(long queueOffset, long offsetPy, int index, int size, long tagsCode) {
+            this.queueOffset = queueOffset;
+            this.offsetPy = offsetPy;
+            this.index = index;
+            this.size = size;
+            this.tagsCode = tagsCode;
+        }
+    }
+}
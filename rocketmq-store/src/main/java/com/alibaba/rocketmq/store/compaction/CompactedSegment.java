@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.compaction;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * One generation of a compacted queue, immutable once written. The data file holds the raw stored messages, the
+ * index file one unit per message: queue offset, position in data, size and tags code.
+ */
+public class CompactedSegment {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    public static final String DataFileName = "data";
+    public static final String IndexFileName = "index";
+    public static final int IndexUnitSize = 8 + 8 + 4 + 8;
+
+    private final File dir;
+    private final long compactedOffset;
+    private final RandomAccessFile dataFile;
+    private final FileChannel dataChannel;
+
+    private final long[] queueOffsets;
+    private final long[] positions;
+    private final int[] sizes;
+    private final long[] tagsCodes;
+
+
+    public CompactedSegment(final File dir) throws IOException {
+        this.dir = dir;
+        this.compactedOffset = Long.parseLong(dir.getName());
+
+        RandomAccessFile indexFile = new RandomAccessFile(new File(dir, IndexFileName), "r");
+        try {
+            int unitNums = (int) (indexFile.length() / IndexUnitSize);
+            byte[] bytes = new byte[unitNums * IndexUnitSize];
+            indexFile.readFully(bytes);
+            ByteBuffer index = ByteBuffer.wrap(bytes);
+
+            this.queueOffsets = new long[unitNums];
+            this.positions = new long[unitNums];
+            this.sizes = new int[unitNums];
+            this.tagsCodes = new long[unitNums];
+            for (int i = 0; i < unitNums; i++) {
+                this.queueOffsets[i] = index.getLong();
+                this.positions[i] = index.getLong();
+                this.sizes[i] = index.getInt();
+                this.tagsCodes[i] = index.getLong();
+            }
+        } finally {
+            indexFile.close();
+        }
+
+        this.dataFile = new RandomAccessFile(new File(dir, DataFileName), "r");
+        this.dataChannel = this.dataFile.getChannel();
+    }
+
+
+    public long getCompactedOffset() {
+        return compactedOffset;
+    }
+
+
+    public int getUnitNums() {
+        return queueOffsets.length;
+    }
+
+
+    /**
+     * @return the smallest queue offset served by this segment, compactedOffset when it is empty
+     */
+    public long getMinOffset() {
+        return queueOffsets.length > 0 ? queueOffsets[0] : compactedOffset;
+    }
+
+
+    /**
+     * @return index of the first unit whose queue offset is not less than the given one, unit nums if none
+     */
+    public int indexOf(final long queueOffset) {
+        int low = 0;
+        int high = queueOffsets.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (queueOffsets[mid] < queueOffset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    public long getQueueOffset(final int index) {
+        return queueOffsets[index];
+    }
+
+
+    public int getSize(final int index) {
+        return sizes[index];
+    }
+
+
+    public long getTagsCode(final int index) {
+        return tagsCodes[index];
+    }
+
+
+    /**
+     * @return the stored message copied to heap, null if it can not be read
+     */
+    public SelectMapedBufferResult getMessage(final int index) {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(sizes[index]);
+        try {
+            while (byteBuffer.hasRemaining()) {
+                int read = this.dataChannel.read(byteBuffer, positions[index] + byteBuffer.position());
+                if (read < 0) {
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("read compacted message failed, " + this.dir + " index " + index, e);
+            return null;
+        }
+        byteBuffer.flip();
+        return new SelectMapedBufferResult(queueOffsets[index], byteBuffer, sizes[index], null);
+    }
+
+
+    public File getDir() {
+        return dir;
+    }
+
+
+    public void close() {
+        try {
+            this.dataFile.close();
+        } catch (IOException e) {
+            log.warn("close compacted segment failed, " + this.dir, e);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.compaction;
+
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.ConsumeQueue;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Compacts the queues of compacted topics every compactionInterval, once compactionMinNewMessages messages have
+ * been appended since the last time.
+ */
+public class CompactionService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final String storePath;
+    private final ConcurrentHashMap<String/* topic */, ConcurrentHashMap<Integer/* queueId */, CompactedQueue>> compactedQueueTable =
+            new ConcurrentHashMap<String, ConcurrentHashMap<Integer, CompactedQueue>>();
+    private volatile Set<String> compactionTopics = Collections.emptySet();
+
+
+    public CompactionService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        this.storePath = StorePathConfigHelper.getStorePathCompaction(
+                defaultMessageStore.getMessageStoreConfig().getStorePathRootDir());
+    }
+
+
+    public boolean load() {
+        File[] topicDirs = new File(this.storePath).listFiles();
+        if (null == topicDirs) {
+            return true;
+        }
+
+        for (File topicDir : topicDirs) {
+            File[] queueDirs = topicDir.listFiles();
+            if (null == queueDirs) {
+                continue;
+            }
+            for (File queueDir : queueDirs) {
+                int queueId;
+                try {
+                    queueId = Integer.parseInt(queueDir.getName());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+
+                CompactedQueue compactedQueue = this.findOrCreateCompactedQueue(topicDir.getName(), queueId);
+                if (!compactedQueue.load()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Compacted views of topics no longer in the set are destroyed.
+     */
+    public void updateCompactionTopics(final Set<String> topics) {
+        this.compactionTopics = new HashSet<String>(topics);
+
+        Iterator<Map.Entry<String, ConcurrentHashMap<Integer, CompactedQueue>>> it =
+                this.compactedQueueTable.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, ConcurrentHashMap<Integer, CompactedQueue>> next = it.next();
+            if (!topics.contains(next.getKey())) {
+                it.remove();
+                for (CompactedQueue compactedQueue : next.getValue().values()) {
+                    compactedQueue.destroy();
+                }
+                new File(this.storePath, next.getKey()).delete();
+                log.info("topic {} is not compacted any more, compacted view destroyed", next.getKey());
+            }
+        }
+    }
+
+
+    /**
+     * @return null if the queue has not been compacted
+     */
+    public CompactedSegment findCompactedSegment(final String topic, final int queueId) {
+        ConcurrentHashMap<Integer, CompactedQueue> map = this.compactedQueueTable.get(topic);
+        if (null == map) {
+            return null;
+        }
+        CompactedQueue compactedQueue = map.get(queueId);
+        return null == compactedQueue ? null : compactedQueue.getSegment();
+    }
+
+
+    private CompactedQueue findOrCreateCompactedQueue(final String topic, final int queueId) {
+        ConcurrentHashMap<Integer, CompactedQueue> map = this.compactedQueueTable.get(topic);
+        if (null == map) {
+            ConcurrentHashMap<Integer, CompactedQueue> newMap = new ConcurrentHashMap<Integer, CompactedQueue>();
+            ConcurrentHashMap<Integer, CompactedQueue> oldMap = this.compactedQueueTable.putIfAbsent(topic, newMap);
+            map = oldMap != null ? oldMap : newMap;
+        }
+
+        CompactedQueue compactedQueue = map.get(queueId);
+        if (null == compactedQueue) {
+            CompactedQueue newQueue = new CompactedQueue(topic, queueId,
+                    this.storePath + File.separator + topic + File.separator + queueId);
+            CompactedQueue oldQueue = map.putIfAbsent(queueId, newQueue);
+            compactedQueue = oldQueue != null ? oldQueue : newQueue;
+        }
+        return compactedQueue;
+    }
+
+
+    public void doCompaction() {
+        final MessageStoreConfig config = this.defaultMessageStore.getMessageStoreConfig();
+        for (String topic : this.compactionTopics) {
+            ConcurrentHashMap<Integer, ConsumeQueue> map = this.defaultMessageStore.getConsumeQueueTable().get(topic);
+            if (null == map) {
+                continue;
+            }
+
+            for (ConsumeQueue consumeQueue : map.values()) {
+                if (this.isStoped() || !this.compactionTopics.contains(topic)) {
+                    return;
+                }
+
+                CompactedQueue compactedQueue = this.findOrCreateCompactedQueue(topic, consumeQueue.getQueueId());
+                long newMessages = consumeQueue.getMaxOffsetInQuque() - compactedQueue.getCompactedOffset();
+                if (newMessages < config.getCompactionMinNewMessages()) {
+                    continue;
+                }
+
+                long beginTime = System.currentTimeMillis();
+                try {
+                    if (compactedQueue.compact(consumeQueue, this.defaultMessageStore.getCommitLog())) {
+                        log.info("compact {}-{} OK, {} new messages, elapsed time(ms) {}", topic,
+                                consumeQueue.getQueueId(), newMessages, System.currentTimeMillis() - beginTime);
+                    }
+                } catch (Exception e) {
+                    log.error("compact " + topic + "-" + consumeQueue.getQueueId() + " failed", e);
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStoped()) {
+            try {
+                this.waitForRunning(this.defaultMessageStore.getMessageStoreConfig().getCompactionInterval());
+                this.doCompaction();
+            } catch (Throwable e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return CompactionService.class.getSimpleName();
+    }
+}
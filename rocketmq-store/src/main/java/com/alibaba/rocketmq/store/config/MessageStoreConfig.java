@@ -27,11 +27,13 @@ import java.io.File;
  * @author shijia.wxr
  */
 public class MessageStoreConfig {
+    public static final String MULTI_PATH_SPLITTER = ",";
+
     //The root directory in which the log data is kept
     @ImportantField
     private String storePathRootDir = System.getProperty("user.home") + File.separator + "store";
 
-    //The directory in which the commitlog is kept
+    //The directory in which the commitlog is kept, several ones separated by MULTI_PATH_SPLITTER stripe the files over them
     @ImportantField
     private String storePathCommitLog = System.getProperty("user.home") + File.separator + "store"
             + File.separator + "commitlog";
@@ -100,9 +102,29 @@ public class MessageStoreConfig {
     private int haSendHeartbeatInterval = 1000 * 5;
     private int haHousekeepingInterval = 1000 * 20;
     private int haTransferBatchSize = 1024 * 32;
+    // highest HA protocol spoken, the lower of master and slave is used, 0 keeps the original framing
+    private int haProtocolVersion = 2;
+    // batches of protocol 1 grow up to this while the slave falls behind
+    private int haTransferBatchSizeMax = 1024 * 1024;
+    // deflate batches of protocol 1, level 1 trades ratio for speed
+    @ImportantField
+    private boolean haCompressEnable = false;
+    private int haCompressLevel = 1;
+    // serve sealed CommitLog files to bootstrapping slaves on haListenPort + 1
+    private boolean haSnapshotEnable = false;
+    // a slave with no CommitLog copies the sealed files of haMasterAddress before streaming the rest
+    @ImportantField
+    private boolean haBootstrapEnable = false;
+    private int haSnapshotThreadNums = 4;
+    private int haBootstrapChunkSize = 1024 * 1024 * 16;
+    // the copy is given up when it takes longer, and the slave streams everything from master
+    private long haBootstrapTimeoutMills = 1000 * 60 * 60;
     @ImportantField
     private String haMasterAddress = null;
     private int haSlaveFallbehindMax = 1024 * 1024 * 256;
+    // SYNC_MASTER answers a put once this many slaves acknowledged it
+    @ImportantField
+    private int haSyncReplicas = 1;
     @ImportantField
     private BrokerRole brokerRole = BrokerRole.ASYNC_MASTER;
     @ImportantField
@@ -110,6 +132,18 @@ public class MessageStoreConfig {
     private int syncFlushTimeout = 1000 * 5;
     private String messageDelayLevel = "1s 5s 10s 30s 1m 2m 3m 4m 5m 6m 7m 8m 9m 10m 20m 30m 1h 2h";
     private long flushDelayOffsetInterval = 1000 * 10;
+    // Messages may also be delayed by any milliseconds, through a timing wheel
+    @ImportantField
+    private boolean timerWheelEnable = false;
+    // Time covered by one slot of the timing wheel
+    private int timerPrecisionMs = 1000;
+    // Slots of the timing wheel, a longer delay than they cover is rolled over, so keep it below fileReservedTime
+    private int timerWheelSlots = 60 * 60 * 24 * 2;
+    // TimerLog file size
+    private int mapedFileSizeTimerLog = 1024 * 1024 * 100;
+    private int timerDeliverThreadPoolNums = 4;
+    // Max messages put back by one deliver task
+    private int timerDeliverBatchSize = 32;
     private String tranStateTableStorePath = System.getProperty("user.home") + File.separator + "store"
             + File.separator + "transaction" + File.separator + "statetable";
     private int tranStateTableMapedFileSize = 2000000 * TransactionStateService.TSStoreUnitSize;
@@ -119,16 +153,95 @@ public class MessageStoreConfig {
     private long checkTransactionMessageAtleastInterval = 1000 * 60;
     private long checkTransactionMessageTimerInterval = 1000 * 60;
     private boolean checkTransactionMessageEnable = true;
+    // Threads asking the producers for the state of prepared transactions
+    private int checkTransactionThreadPoolNums = 4;
+    // Check tasks waiting for those threads, more are left to the next check
+    private int checkTransactionThreadPoolQueueCapacity = 10000;
+    // Max prepared transactions of one producer group checked by one task
+    private int checkTransactionMessageBatchSize = 32;
     @ImportantField
     private boolean cleanFileForciblyEnable = true;
     private boolean warmMapedFileEnable = false;
+    // Expired CommitLog and ConsumeQueue files are moved into a pool and reused for new files instead of deleted
+    @ImportantField
+    private boolean recycleMapedFileEnable = false;
+    // Max files kept in the CommitLog recycle pool
+    private int recycleCommitLogFilesMax = 2;
+    // Max files kept in the ConsumeQueue recycle pool
+    private int recycleConsumeQueueFilesMax = 64;
+    // Allocate the blocks of new CommitLog and ConsumeQueue files with fallocate rather than leaving them sparse
+    private boolean preallocateMapedFileEnable = false;
     private boolean offsetCheckInSlave = false;
     private boolean debugLockEnable = false;
     private boolean duplicationEnable = false;
     private boolean diskFallRecorded = true;
     private long osPageCacheBusyTimeOutMills = 1000;
     private int defaultQueryMaxNum = 32;
-    
+    // Which lock guards CommitLog append: spin lock (short critical section, many cores)
+    // or reentrant lock (threads park while waiting)
+    private boolean useReentrantLockWhenPutMessage = false;
+    // Append CommitLog into a pool of off-heap buffers and commit them to FileChannel
+    // in background, only takes effect on ASYNC_FLUSH master
+    @ImportantField
+    private boolean transientStorePoolEnable = false;
+    private int transientStorePoolSize = 5;
+    private boolean fastFailIfNoBufferInStorePool = false;
+    // How often to commit write buffer data to FileChannel
+    @ImportantField
+    private int commitIntervalCommitLog = 200;
+    // How many pages are to be committed when commit CommitLog
+    private int commitCommitLogLeastPages = 4;
+    private int commitCommitLogThoroughInterval = 200;
+    // Dispatch CommitLog to ConsumeQueue and index on separate threads instead of inside ReputMessageService,
+    // ConsumeQueue writes are partitioned by topic and queueId so the order within a queue is kept
+    @ImportantField
+    private boolean parallelDispatchEnable = false;
+    private int dispatchConsumeQueueThreadNum = 4;
+    private int dispatchRequestQueueCapacity = 10000;
+    // Extended ConsumeQueue keeps a filter bit map for messages whose bit map was computed at dispatch
+    @ImportantField
+    private boolean enableConsumeQueueExt = false;
+    private int mapedFileSizeConsumeQueueExt = 48 * 1024 * 1024;
+    // bytes of the filter bit map in one extended ConsumeQueue unit
+    private int bitMapLengthConsumeQueueExt = 64;
+    // Tell hot from cold reads by the real page cache residency (mincore) instead of accessMessageInMemoryMaxRatio
+    @ImportantField
+    private boolean pageCacheResidencyEnable = false;
+    private long pageCacheResidencySampleInterval = 1000;
+    // Read ahead CommitLog with madvise(WILLNEED) for consumers pulling from disk
+    @ImportantField
+    private boolean prefetchCommitLogEnable = false;
+    private int prefetchCommitLogWindowSize = 1024 * 1024 * 8;
+    // Read messages of consumers pulling from disk through FileChannel and drop them from page cache afterwards
+    @ImportantField
+    private boolean coldReadEnable = false;
+    private int coldReadBufferSize = 1024 * 64;
+    private int coldReadBufferNums = 256;
+    // Sample once a pull how often reads of the tail within accessMessageInMemoryMaxRatio really hit page cache
+    private boolean pageCacheHitRecorded = false;
+    // Offload sealed CommitLog files to a secondary tier and read them back through a block cache
+    @ImportantField
+    private boolean tieredStoreEnable = false;
+    private String tieredStorageClass = "com.alibaba.rocketmq.store.tier.LocalDirTieredStorage";
+    private String tieredStorePath = System.getProperty("user.home") + File.separator + "store"
+            + File.separator + "tiered";
+    // local files last modified this many hours ago are offloaded
+    @ImportantField
+    private int tieredOffloadAfterHours = 24;
+    // hours tiered files are kept
+    @ImportantField
+    private int tieredFileReservedTime = 24 * 30;
+    private int tieredBlockSize = 1024 * 64;
+    private long tieredBlockCacheSize = 1024 * 1024 * 256;
+    // Keep the newest message per key of compacted topics in a compacted view for new consumers
+    @ImportantField
+    private boolean compactionEnable = false;
+    private int compactionInterval = 1000 * 60 * 10;
+    // a queue is compacted again after this many new messages
+    private int compactionMinNewMessages = 1000;
+    // Threads loading and recovering consume queues and verifying CommitLog files on startup, 1 to do it serially
+    private int recoverThreadPoolNums = Math.min(Runtime.getRuntime().availableProcessors(), 16);
+
     public boolean isDebugLockEnable() {
         return debugLockEnable;
     }
@@ -713,4 +826,448 @@ public class MessageStoreConfig {
             boolean checkTransactionMessageEnable) {
         this.checkTransactionMessageEnable = checkTransactionMessageEnable;
     }
+
+    public boolean isUseReentrantLockWhenPutMessage() {
+        return useReentrantLockWhenPutMessage;
+    }
+
+    public void setUseReentrantLockWhenPutMessage(boolean useReentrantLockWhenPutMessage) {
+        this.useReentrantLockWhenPutMessage = useReentrantLockWhenPutMessage;
+    }
+
+    /**
+     * Enable transient store pool only when the broker is an async flush master
+     */
+    public boolean isTransientStorePoolEnable() {
+        return transientStorePoolEnable && FlushDiskType.ASYNC_FLUSH == getFlushDiskType()
+                && BrokerRole.SLAVE != getBrokerRole();
+    }
+
+    public void setTransientStorePoolEnable(boolean transientStorePoolEnable) {
+        this.transientStorePoolEnable = transientStorePoolEnable;
+    }
+
+    public int getTransientStorePoolSize() {
+        return transientStorePoolSize;
+    }
+
+    public void setTransientStorePoolSize(int transientStorePoolSize) {
+        this.transientStorePoolSize = transientStorePoolSize;
+    }
+
+    public boolean isFastFailIfNoBufferInStorePool() {
+        return fastFailIfNoBufferInStorePool;
+    }
+
+    public void setFastFailIfNoBufferInStorePool(boolean fastFailIfNoBufferInStorePool) {
+        this.fastFailIfNoBufferInStorePool = fastFailIfNoBufferInStorePool;
+    }
+
+    public int getCommitIntervalCommitLog() {
+        return commitIntervalCommitLog;
+    }
+
+    public void setCommitIntervalCommitLog(int commitIntervalCommitLog) {
+        this.commitIntervalCommitLog = commitIntervalCommitLog;
+    }
+
+    public int getCommitCommitLogLeastPages() {
+        return commitCommitLogLeastPages;
+    }
+
+    public void setCommitCommitLogLeastPages(int commitCommitLogLeastPages) {
+        this.commitCommitLogLeastPages = commitCommitLogLeastPages;
+    }
+
+    public int getCommitCommitLogThoroughInterval() {
+        return commitCommitLogThoroughInterval;
+    }
+
+    public void setCommitCommitLogThoroughInterval(int commitCommitLogThoroughInterval) {
+        this.commitCommitLogThoroughInterval = commitCommitLogThoroughInterval;
+    }
+
+    public boolean isParallelDispatchEnable() {
+        return parallelDispatchEnable;
+    }
+
+    public void setParallelDispatchEnable(boolean parallelDispatchEnable) {
+        this.parallelDispatchEnable = parallelDispatchEnable;
+    }
+
+    public int getDispatchConsumeQueueThreadNum() {
+        return dispatchConsumeQueueThreadNum;
+    }
+
+    public void setDispatchConsumeQueueThreadNum(int dispatchConsumeQueueThreadNum) {
+        this.dispatchConsumeQueueThreadNum = dispatchConsumeQueueThreadNum;
+    }
+
+    public int getDispatchRequestQueueCapacity() {
+        return dispatchRequestQueueCapacity;
+    }
+
+    public void setDispatchRequestQueueCapacity(int dispatchRequestQueueCapacity) {
+        this.dispatchRequestQueueCapacity = dispatchRequestQueueCapacity;
+    }
+
+    public boolean isEnableConsumeQueueExt() {
+        return enableConsumeQueueExt;
+    }
+
+    public void setEnableConsumeQueueExt(boolean enableConsumeQueueExt) {
+        this.enableConsumeQueueExt = enableConsumeQueueExt;
+    }
+
+    public int getMapedFileSizeConsumeQueueExt() {
+        return mapedFileSizeConsumeQueueExt;
+    }
+
+    public void setMapedFileSizeConsumeQueueExt(int mapedFileSizeConsumeQueueExt) {
+        this.mapedFileSizeConsumeQueueExt = mapedFileSizeConsumeQueueExt;
+    }
+
+    public int getBitMapLengthConsumeQueueExt() {
+        return bitMapLengthConsumeQueueExt;
+    }
+
+    public void setBitMapLengthConsumeQueueExt(int bitMapLengthConsumeQueueExt) {
+        this.bitMapLengthConsumeQueueExt = bitMapLengthConsumeQueueExt;
+    }
+
+    public boolean isPageCacheResidencyEnable() {
+        return pageCacheResidencyEnable;
+    }
+
+    public void setPageCacheResidencyEnable(boolean pageCacheResidencyEnable) {
+        this.pageCacheResidencyEnable = pageCacheResidencyEnable;
+    }
+
+    public long getPageCacheResidencySampleInterval() {
+        return pageCacheResidencySampleInterval;
+    }
+
+    public void setPageCacheResidencySampleInterval(long pageCacheResidencySampleInterval) {
+        this.pageCacheResidencySampleInterval = pageCacheResidencySampleInterval;
+    }
+
+    public boolean isPrefetchCommitLogEnable() {
+        return prefetchCommitLogEnable;
+    }
+
+    public void setPrefetchCommitLogEnable(boolean prefetchCommitLogEnable) {
+        this.prefetchCommitLogEnable = prefetchCommitLogEnable;
+    }
+
+    public int getPrefetchCommitLogWindowSize() {
+        return prefetchCommitLogWindowSize;
+    }
+
+    public void setPrefetchCommitLogWindowSize(int prefetchCommitLogWindowSize) {
+        this.prefetchCommitLogWindowSize = prefetchCommitLogWindowSize;
+    }
+
+    public boolean isTieredStoreEnable() {
+        return tieredStoreEnable;
+    }
+
+    public void setTieredStoreEnable(boolean tieredStoreEnable) {
+        this.tieredStoreEnable = tieredStoreEnable;
+    }
+
+    public String getTieredStorageClass() {
+        return tieredStorageClass;
+    }
+
+    public void setTieredStorageClass(String tieredStorageClass) {
+        this.tieredStorageClass = tieredStorageClass;
+    }
+
+    public String getTieredStorePath() {
+        return tieredStorePath;
+    }
+
+    public void setTieredStorePath(String tieredStorePath) {
+        this.tieredStorePath = tieredStorePath;
+    }
+
+    public int getTieredOffloadAfterHours() {
+        return tieredOffloadAfterHours;
+    }
+
+    public void setTieredOffloadAfterHours(int tieredOffloadAfterHours) {
+        this.tieredOffloadAfterHours = tieredOffloadAfterHours;
+    }
+
+    public int getTieredFileReservedTime() {
+        return tieredFileReservedTime;
+    }
+
+    public void setTieredFileReservedTime(int tieredFileReservedTime) {
+        this.tieredFileReservedTime = tieredFileReservedTime;
+    }
+
+    public int getTieredBlockSize() {
+        return tieredBlockSize;
+    }
+
+    public void setTieredBlockSize(int tieredBlockSize) {
+        this.tieredBlockSize = tieredBlockSize;
+    }
+
+    public long getTieredBlockCacheSize() {
+        return tieredBlockCacheSize;
+    }
+
+    public void setTieredBlockCacheSize(long tieredBlockCacheSize) {
+        this.tieredBlockCacheSize = tieredBlockCacheSize;
+    }
+
+    public boolean isCompactionEnable() {
+        return compactionEnable;
+    }
+
+    public void setCompactionEnable(boolean compactionEnable) {
+        this.compactionEnable = compactionEnable;
+    }
+
+    public int getCompactionInterval() {
+        return compactionInterval;
+    }
+
+    public void setCompactionInterval(int compactionInterval) {
+        this.compactionInterval = compactionInterval;
+    }
+
+    public int getCompactionMinNewMessages() {
+        return compactionMinNewMessages;
+    }
+
+    public void setCompactionMinNewMessages(int compactionMinNewMessages) {
+        this.compactionMinNewMessages = compactionMinNewMessages;
+    }
+
+    public int getRecoverThreadPoolNums() {
+        return recoverThreadPoolNums;
+    }
+
+    public void setRecoverThreadPoolNums(int recoverThreadPoolNums) {
+        this.recoverThreadPoolNums = recoverThreadPoolNums;
+    }
+
+    public boolean isRecycleMapedFileEnable() {
+        return recycleMapedFileEnable;
+    }
+
+    public void setRecycleMapedFileEnable(boolean recycleMapedFileEnable) {
+        this.recycleMapedFileEnable = recycleMapedFileEnable;
+    }
+
+    public int getRecycleCommitLogFilesMax() {
+        return recycleCommitLogFilesMax;
+    }
+
+    public void setRecycleCommitLogFilesMax(int recycleCommitLogFilesMax) {
+        this.recycleCommitLogFilesMax = recycleCommitLogFilesMax;
+    }
+
+    public int getRecycleConsumeQueueFilesMax() {
+        return recycleConsumeQueueFilesMax;
+    }
+
+    public void setRecycleConsumeQueueFilesMax(int recycleConsumeQueueFilesMax) {
+        this.recycleConsumeQueueFilesMax = recycleConsumeQueueFilesMax;
+    }
+
+    public boolean isPreallocateMapedFileEnable() {
+        return preallocateMapedFileEnable;
+    }
+
+    public void setPreallocateMapedFileEnable(boolean preallocateMapedFileEnable) {
+        this.preallocateMapedFileEnable = preallocateMapedFileEnable;
+    }
+
+    public boolean isTimerWheelEnable() {
+        return timerWheelEnable;
+    }
+
+    public void setTimerWheelEnable(boolean timerWheelEnable) {
+        this.timerWheelEnable = timerWheelEnable;
+    }
+
+    public int getTimerPrecisionMs() {
+        return timerPrecisionMs;
+    }
+
+    public void setTimerPrecisionMs(int timerPrecisionMs) {
+        this.timerPrecisionMs = timerPrecisionMs;
+    }
+
+    public int getTimerWheelSlots() {
+        return timerWheelSlots;
+    }
+
+    public void setTimerWheelSlots(int timerWheelSlots) {
+        this.timerWheelSlots = timerWheelSlots;
+    }
+
+    public int getMapedFileSizeTimerLog() {
+        return mapedFileSizeTimerLog;
+    }
+
+    public void setMapedFileSizeTimerLog(int mapedFileSizeTimerLog) {
+        this.mapedFileSizeTimerLog = mapedFileSizeTimerLog;
+    }
+
+    public int getTimerDeliverThreadPoolNums() {
+        return timerDeliverThreadPoolNums;
+    }
+
+    public void setTimerDeliverThreadPoolNums(int timerDeliverThreadPoolNums) {
+        this.timerDeliverThreadPoolNums = timerDeliverThreadPoolNums;
+    }
+
+    public int getTimerDeliverBatchSize() {
+        return timerDeliverBatchSize;
+    }
+
+    public void setTimerDeliverBatchSize(int timerDeliverBatchSize) {
+        this.timerDeliverBatchSize = timerDeliverBatchSize;
+    }
+
+    public int getCheckTransactionThreadPoolNums() {
+        return checkTransactionThreadPoolNums;
+    }
+
+    public void setCheckTransactionThreadPoolNums(int checkTransactionThreadPoolNums) {
+        this.checkTransactionThreadPoolNums = checkTransactionThreadPoolNums;
+    }
+
+    public int getCheckTransactionMessageBatchSize() {
+        return checkTransactionMessageBatchSize;
+    }
+
+    public void setCheckTransactionMessageBatchSize(int checkTransactionMessageBatchSize) {
+        this.checkTransactionMessageBatchSize = checkTransactionMessageBatchSize;
+    }
+
+    public int getCheckTransactionThreadPoolQueueCapacity() {
+        return checkTransactionThreadPoolQueueCapacity;
+    }
+
+    public void setCheckTransactionThreadPoolQueueCapacity(int checkTransactionThreadPoolQueueCapacity) {
+        this.checkTransactionThreadPoolQueueCapacity = checkTransactionThreadPoolQueueCapacity;
+    }
+
+    public boolean isColdReadEnable() {
+        return coldReadEnable;
+    }
+
+    public void setColdReadEnable(boolean coldReadEnable) {
+        this.coldReadEnable = coldReadEnable;
+    }
+
+    public int getColdReadBufferSize() {
+        return coldReadBufferSize;
+    }
+
+    public void setColdReadBufferSize(int coldReadBufferSize) {
+        this.coldReadBufferSize = coldReadBufferSize;
+    }
+
+    public int getColdReadBufferNums() {
+        return coldReadBufferNums;
+    }
+
+    public void setColdReadBufferNums(int coldReadBufferNums) {
+        this.coldReadBufferNums = coldReadBufferNums;
+    }
+
+    public boolean isPageCacheHitRecorded() {
+        return pageCacheHitRecorded;
+    }
+
+    public void setPageCacheHitRecorded(boolean pageCacheHitRecorded) {
+        this.pageCacheHitRecorded = pageCacheHitRecorded;
+    }
+
+    public int getHaSyncReplicas() {
+        return haSyncReplicas;
+    }
+
+    public void setHaSyncReplicas(int haSyncReplicas) {
+        this.haSyncReplicas = haSyncReplicas;
+    }
+
+    public int getHaProtocolVersion() {
+        return haProtocolVersion;
+    }
+
+    public void setHaProtocolVersion(int haProtocolVersion) {
+        this.haProtocolVersion = haProtocolVersion;
+    }
+
+    public int getHaTransferBatchSizeMax() {
+        return haTransferBatchSizeMax;
+    }
+
+    public void setHaTransferBatchSizeMax(int haTransferBatchSizeMax) {
+        this.haTransferBatchSizeMax = haTransferBatchSizeMax;
+    }
+
+    public boolean isHaCompressEnable() {
+        return haCompressEnable;
+    }
+
+    public void setHaCompressEnable(boolean haCompressEnable) {
+        this.haCompressEnable = haCompressEnable;
+    }
+
+    public int getHaCompressLevel() {
+        return haCompressLevel;
+    }
+
+    public void setHaCompressLevel(int haCompressLevel) {
+        this.haCompressLevel = haCompressLevel;
+    }
+
+    public boolean isHaSnapshotEnable() {
+        return haSnapshotEnable;
+    }
+
+    public void setHaSnapshotEnable(boolean haSnapshotEnable) {
+        this.haSnapshotEnable = haSnapshotEnable;
+    }
+
+    public boolean isHaBootstrapEnable() {
+        return haBootstrapEnable;
+    }
+
+    public void setHaBootstrapEnable(boolean haBootstrapEnable) {
+        this.haBootstrapEnable = haBootstrapEnable;
+    }
+
+    public int getHaSnapshotThreadNums() {
+        return haSnapshotThreadNums;
+    }
+
+    public void setHaSnapshotThreadNums(int haSnapshotThreadNums) {
+        this.haSnapshotThreadNums = haSnapshotThreadNums;
+    }
+
+    public int getHaBootstrapChunkSize() {
+        return haBootstrapChunkSize;
+    }
+
+    public void setHaBootstrapChunkSize(int haBootstrapChunkSize) {
+        this.haBootstrapChunkSize = haBootstrapChunkSize;
+    }
+
+    public long getHaBootstrapTimeoutMills() {
+        return haBootstrapTimeoutMills;
+    }
+
+    public void setHaBootstrapTimeoutMills(long haBootstrapTimeoutMills) {
+        this.haBootstrapTimeoutMills = haBootstrapTimeoutMills;
+    }
 }
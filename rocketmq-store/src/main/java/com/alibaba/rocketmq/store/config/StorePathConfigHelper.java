@@ -16,16 +16,100 @@
  */
 package com.alibaba.rocketmq.store.config;
 
+import com.alibaba.rocketmq.common.UtilAll;
+
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 
 public class StorePathConfigHelper {
 
+    public static String[] splitStorePaths(final String storePath) {
+        List<String> paths = new ArrayList<String>();
+        for (String path : storePath.split(MessageStoreConfig.MULTI_PATH_SPLITTER)) {
+            if (path.trim().length() > 0) {
+                paths.add(path.trim());
+            }
+        }
+        if (paths.isEmpty()) {
+            paths.add(storePath);
+        }
+        return paths.toArray(new String[paths.size()]);
+    }
+
+
+    /**
+     * @return used ratios of the disks holding the directories, or -1 for one that can not be told
+     */
+    public static double[] getDiskPartitionSpaceUsedPercents(final String storePath) {
+        String[] paths = splitStorePaths(storePath);
+        double[] ratios = new double[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            ratios[i] = UtilAll.getDiskPartitionSpaceUsedPercent(paths[i]);
+        }
+        return ratios;
+    }
+
+
+    /**
+     * Usage of the fullest disk, -1 when one of them can not be told
+     */
+    public static double getMaxDiskPartitionSpaceUsedPercent(final String storePath) {
+        double max = 0;
+        for (double ratio : getDiskPartitionSpaceUsedPercents(storePath)) {
+            if (ratio < 0) {
+                return -1;
+            }
+            max = Math.max(max, ratio);
+        }
+        return max;
+    }
+
     public static String getStorePathConsumeQueue(final String rootDir) {
         return rootDir + File.separator + "consumequeue";
     }
 
 
+    public static String getStorePathConsumeQueueExt(final String rootDir) {
+        return rootDir + File.separator + "consumequeue_ext";
+    }
+
+
+    public static String getStorePathBootstrap(final String rootDir) {
+        return rootDir + File.separator + "bootstrap";
+    }
+
+
+    public static String getStorePathCompaction(final String rootDir) {
+        return rootDir + File.separator + "compaction";
+    }
+
+
+    /**
+     * Next to the CommitLog directory, so that its files are renamed within one disk
+     */
+    public static String getStorePathRecycleCommitLog(final String storePathCommitLog) {
+        File dir = new File(storePathCommitLog).getAbsoluteFile();
+        return dir.getParent() + File.separator + "recycle" + File.separator + dir.getName();
+    }
+
+
+    public static String getStorePathRecycleConsumeQueue(final String rootDir) {
+        return rootDir + File.separator + "recycle" + File.separator + "consumequeue";
+    }
+
+
+    public static String getStorePathTimerLog(final String rootDir) {
+        return rootDir + File.separator + "timerlog";
+    }
+
+
+    public static String getStorePathTimerWheel(final String rootDir) {
+        return rootDir + File.separator + "timerwheel";
+    }
+
+
     public static String getStorePathIndex(final String rootDir) {
         return rootDir + File.separator + "index";
     }
@@ -41,6 +125,16 @@ public class StorePathConfigHelper {
     }
 
 
+    public static String getBootstrapFile(final String rootDir) {
+        return rootDir + File.separator + "bootstrap_dispatching";
+    }
+
+
+    public static String getTimerCheckpointPath(final String rootDir) {
+        return rootDir + File.separator + "config" + File.separator + "timerCheckpoint.json";
+    }
+
+
     public static String getDelayOffsetStorePath(final String rootDir) {
         return rootDir + File.separator + "config" + File.separator + "delayOffset.json";
     }
@@ -20,6 +20,7 @@ import com.alibaba.rocketmq.common.ServiceThread;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.remoting.common.RemotingUtil;
 import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,6 +29,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.zip.Deflater;
 
 
 /**
@@ -43,6 +45,13 @@ public class HAConnection {
 
     private volatile long slaveRequestOffset = -1;
     private volatile long slaveAckOffset = -1;
+    // agreed with the slave, 0 for the original framing
+    private volatile int protocolVersion = 0;
+    // bytes of CommitLog transferred, and bytes written to the socket for them
+    private volatile long transferredBytes = 0;
+    private volatile long transferredWireBytes = 0;
+    private long lastStatsTimestamp = System.currentTimeMillis();
+    private long lastStatsTransferredBytes = 0;
 
 
     public HAConnection(final HAService haService, final SocketChannel socketChannel) throws IOException {
@@ -88,6 +97,47 @@ public class HAConnection {
         return socketChannel;
     }
 
+
+    public long getSlaveAckOffset() {
+        return slaveAckOffset;
+    }
+
+
+    public String getClientAddr() {
+        return clientAddr;
+    }
+
+
+    /**
+     * Throughput is over the time since it was built last.
+     */
+    public synchronized String buildRunningStats() {
+        final long now = System.currentTimeMillis();
+        final long bytes = this.transferredBytes;
+        final long wireBytes = this.transferredWireBytes;
+        double tps = (bytes - this.lastStatsTransferredBytes) * 1000.0 / Math.max(1, now - this.lastStatsTimestamp);
+        this.lastStatsTimestamp = now;
+        this.lastStatsTransferredBytes = bytes;
+        return String.format("protocol: %d ackOffset: %d transferTps: %.2f compressRatio: %.4f",
+                this.protocolVersion, this.slaveAckOffset, tps, bytes > 0 ? wireBytes / (double) bytes : 1.0);
+    }
+
+
+    /**
+     * Batches of protocol 1 double while there is more data than one batch to transfer, and halve back once
+     * the slave caught up, so bursts go in fewer and better compressed frames.
+     *
+     * @return size of the batch after this one
+     */
+    static int adaptBatchSize(final int batchSize, final int available, final int minBatchSize, final int maxBatchSize) {
+        if (available > batchSize) {
+            return Math.min(batchSize * 2, maxBatchSize);
+        } else if (available < batchSize / 2) {
+            return Math.max(batchSize / 2, minBatchSize);
+        }
+        return batchSize;
+    }
+
     /**
 
      *
@@ -100,6 +150,8 @@ public class HAConnection {
         private final ByteBuffer byteBufferRead = ByteBuffer.allocate(ReadMaxBufferSize);
         private int processPostion = 0;
         private volatile long lastReadTimestamp = System.currentTimeMillis();
+        // hellos before the first offset, one for each version the slave speaks
+        private int helloTimes = 0;
 
 
         public ReadSocketService(final SocketChannel socketChannel) throws IOException {
@@ -165,6 +217,16 @@ public class HAConnection {
             return ReadSocketService.class.getSimpleName();
         }
 
+        private void agreeProtocol(final int slaveVersion) {
+            int version = Math.min(Math.min(HAService.ProtocolVersion, slaveVersion),
+                    HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig().getHaProtocolVersion());
+            if (version > 0 && HAConnection.this.slaveRequestOffset < 0) {
+                HAConnection.this.protocolVersion = version;
+                log.info("slave[" + HAConnection.this.clientAddr + "] speaks protocol " + version);
+            }
+        }
+
+
         private boolean processReadEvent() {
             int readSizeZeroTimes = 0;
 
@@ -181,8 +243,16 @@ public class HAConnection {
                         this.lastReadTimestamp = HAConnection.this.haService.getDefaultMessageStore().getSystemClock().now();
                         if ((this.byteBufferRead.position() - this.processPostion) >= 8) {
                             int pos = this.byteBufferRead.position() - (this.byteBufferRead.position() % 8);
+                            for (int i = this.processPostion; i < pos; i += 8) {
+                                if (HAService.ProtocolHello == this.byteBufferRead.getLong(i)) {
+                                    this.agreeProtocol(++this.helloTimes);
+                                }
+                            }
                             long readOffset = this.byteBufferRead.getLong(pos - 8);
                             this.processPostion = pos;
+                            if (HAService.ProtocolHello == readOffset) {
+                                continue;
+                            }
 
 
                             HAConnection.this.slaveAckOffset = readOffset;
@@ -222,9 +292,16 @@ public class HAConnection {
         private final SocketChannel socketChannel;
 
         private final int HEADER_SIZE = 8 + 4;
-        private final ByteBuffer byteBufferHeader = ByteBuffer.allocate(HEADER_SIZE);
+        // rawSize follows size since protocol 1
+        private final ByteBuffer byteBufferHeader = ByteBuffer.allocate(HEADER_SIZE + 4 + 8);
         private long nextTransferFromWhere = -1;
         private SelectMapedBufferResult selectMapedBufferResult;
+        private ByteBuffer byteBufferBody;
+        private int batchSize = HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig()
+                .getHaTransferBatchSize();
+        private Deflater deflater;
+        private byte[] rawData;
+        private byte[] compressedData;
         private boolean lastWriteOver = true;
         private long lastWriteTimestamp = System.currentTimeMillis();
 
@@ -271,6 +348,19 @@ public class HAConnection {
 
                         log.info("master transfer data from " + this.nextTransferFromWhere + " to slave[" + HAConnection.this.clientAddr
                                 + "], and slave request " + HAConnection.this.slaveRequestOffset);
+
+                        if (HAConnection.this.protocolVersion > 0) {
+                            // answered in the original framing, the slave learns the protocol from it
+                            this.byteBufferHeader.position(0);
+                            this.byteBufferHeader.limit(HEADER_SIZE);
+                            this.byteBufferHeader.putLong(HAService.ProtocolHello);
+                            this.byteBufferHeader.putInt(HAConnection.this.protocolVersion);
+                            this.byteBufferHeader.flip();
+
+                            this.lastWriteOver = this.transferData();
+                            if (!this.lastWriteOver)
+                                continue;
+                        }
                     }
 
                     if (this.lastWriteOver) {
@@ -282,11 +372,7 @@ public class HAConnection {
                                 .getHaSendHeartbeatInterval()) {
 
                             // Build Header
-                            this.byteBufferHeader.position(0);
-                            this.byteBufferHeader.limit(HEADER_SIZE);
-                            this.byteBufferHeader.putLong(this.nextTransferFromWhere);
-                            this.byteBufferHeader.putInt(0);
-                            this.byteBufferHeader.flip();
+                            this.buildHeader(this.nextTransferFromWhere, 0, 0);
 
                             this.lastWriteOver = this.transferData();
                             if (!this.lastWriteOver)
@@ -304,22 +390,29 @@ public class HAConnection {
                             HAConnection.this.haService.getDefaultMessageStore().getCommitLogData(this.nextTransferFromWhere);
                     if (selectResult != null) {
                         int size = selectResult.getSize();
-                        if (size > HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig().getHaTransferBatchSize()) {
-                            size = HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig().getHaTransferBatchSize();
+                        int batchSize = this.nextBatchSize(size);
+                        if (size > batchSize) {
+                            size = batchSize;
                         }
 
                         long thisOffset = this.nextTransferFromWhere;
                         this.nextTransferFromWhere += size;
 
                         selectResult.getByteBuffer().limit(size);
-                        this.selectMapedBufferResult = selectResult;
+
+                        int compressedSize = this.compress(selectResult.getByteBuffer(), size);
+                        if (compressedSize > 0) {
+                            selectResult.release();
+                            this.byteBufferBody = ByteBuffer.wrap(this.compressedData, 0, compressedSize);
+                        } else {
+                            this.selectMapedBufferResult = selectResult;
+                            this.byteBufferBody = selectResult.getByteBuffer();
+                        }
 
                         // Build Header
-                        this.byteBufferHeader.position(0);
-                        this.byteBufferHeader.limit(HEADER_SIZE);
-                        this.byteBufferHeader.putLong(thisOffset);
-                        this.byteBufferHeader.putInt(size);
-                        this.byteBufferHeader.flip();
+                        this.buildHeader(thisOffset, this.byteBufferBody.remaining(), size);
+                        HAConnection.this.transferredBytes += size;
+                        HAConnection.this.transferredWireBytes += this.byteBufferHeader.remaining() + this.byteBufferBody.remaining();
 
                         this.lastWriteOver = this.transferData();
                     } else {
@@ -337,6 +430,9 @@ public class HAConnection {
             if (this.selectMapedBufferResult != null) {
                 this.selectMapedBufferResult.release();
             }
+            if (this.deflater != null) {
+                this.deflater.end();
+            }
 
             this.makeStop();
 
@@ -381,7 +477,7 @@ public class HAConnection {
                 }
             }
 
-            if (null == this.selectMapedBufferResult) {
+            if (null == this.byteBufferBody) {
                 return !this.byteBufferHeader.hasRemaining();
             }
 
@@ -389,8 +485,8 @@ public class HAConnection {
 
             // Write Body
             if (!this.byteBufferHeader.hasRemaining()) {
-                while (this.selectMapedBufferResult.getByteBuffer().hasRemaining()) {
-                    int writeSize = this.socketChannel.write(this.selectMapedBufferResult.getByteBuffer());
+                while (this.byteBufferBody.hasRemaining()) {
+                    int writeSize = this.socketChannel.write(this.byteBufferBody);
                     if (writeSize > 0) {
                         writeSizeZeroTimes = 0;
                         this.lastWriteTimestamp = HAConnection.this.haService.getDefaultMessageStore().getSystemClock().now();
@@ -404,17 +500,73 @@ public class HAConnection {
                 }
             }
 
-            boolean result = !this.byteBufferHeader.hasRemaining() && !this.selectMapedBufferResult.getByteBuffer().hasRemaining();
+            boolean result = !this.byteBufferHeader.hasRemaining() && !this.byteBufferBody.hasRemaining();
 
-            if (!this.selectMapedBufferResult.getByteBuffer().hasRemaining()) {
-                this.selectMapedBufferResult.release();
-                this.selectMapedBufferResult = null;
+            if (!this.byteBufferBody.hasRemaining()) {
+                if (this.selectMapedBufferResult != null) {
+                    this.selectMapedBufferResult.release();
+                    this.selectMapedBufferResult = null;
+                }
+                this.byteBufferBody = null;
             }
 
             return result;
         }
 
 
+        private void buildHeader(final long offset, final int size, final int rawSize) {
+            this.byteBufferHeader.position(0);
+            this.byteBufferHeader.limit(this.byteBufferHeader.capacity());
+            this.byteBufferHeader.putLong(offset);
+            this.byteBufferHeader.putInt(size);
+            if (HAConnection.this.protocolVersion > 0) {
+                this.byteBufferHeader.putInt(rawSize);
+            }
+            if (HAConnection.this.protocolVersion > 1) {
+                this.byteBufferHeader.putLong(HAConnection.this.haService.getDefaultMessageStore().getMaxPhyOffset());
+            }
+            this.byteBufferHeader.flip();
+        }
+
+
+        private int nextBatchSize(final int available) {
+            final MessageStoreConfig storeConfig = HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig();
+            if (0 == HAConnection.this.protocolVersion) {
+                return storeConfig.getHaTransferBatchSize();
+            }
+
+            int current = this.batchSize;
+            int max = Math.min(Math.max(storeConfig.getHaTransferBatchSizeMax(), storeConfig.getHaTransferBatchSize()),
+                    HAService.MaxTransferBatchSize);
+            this.batchSize = adaptBatchSize(current, available, storeConfig.getHaTransferBatchSize(), max);
+            return current;
+        }
+
+
+        /**
+         * @return size of the deflated data, 0 if it is not sent compressed
+         */
+        private int compress(final ByteBuffer data, final int size) {
+            final MessageStoreConfig storeConfig = HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig();
+            if (0 == HAConnection.this.protocolVersion || !storeConfig.isHaCompressEnable() || size < 2) {
+                return 0;
+            }
+
+            if (null == this.deflater) {
+                this.deflater = new Deflater(storeConfig.getHaCompressLevel());
+                this.rawData = new byte[HAService.MaxTransferBatchSize];
+                this.compressedData = new byte[HAService.MaxTransferBatchSize];
+            }
+            data.duplicate().get(this.rawData, 0, size);
+            this.deflater.reset();
+            this.deflater.setInput(this.rawData, 0, size);
+            this.deflater.finish();
+            // not smaller than the data, or it tells no deflated body from a raw one
+            int compressedSize = this.deflater.deflate(this.compressedData, 0, size - 1);
+            return this.deflater.finished() ? compressedSize : 0;
+        }
+
+
         @Override
         public String getServiceName() {
             return WriteSocketService.class.getSimpleName();
@@ -30,12 +30,16 @@ import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 
 /**
@@ -45,6 +49,21 @@ import java.util.concurrent.atomic.AtomicReference;
 public class HAService {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
 
+    /**
+     * A slave speaking protocol 1 sends this before its first offset, a master that speaks it too answers with a
+     * header of this offset and the version agreed, then frames carry the raw size of the body after its size,
+     * and a body smaller than that is deflated. A master of the original framing takes it as a request offset not
+     * known yet, so it falls back without noticing. Frames of protocol 2 carry the max offset of the master last,
+     * so the slave knows how far it is behind.
+     * <p>
+     * Since protocol 2 the slave sends this once for each version it speaks, a master of protocol 1 agrees on 1
+     * whatever the count, and one of the original framing takes every hello as an offset not known yet.
+     */
+    public static final long ProtocolHello = -1;
+    public static final int ProtocolVersion = 2;
+    // frames have to fit the read buffer of HAClient
+    public static final int MaxTransferBatchSize = 1024 * 1024 * 2;
+
     private final AtomicInteger connectionCount = new AtomicInteger(0);
 
     private final List<HAConnection> connectionList = new LinkedList<HAConnection>();
@@ -55,11 +74,15 @@ public class HAService {
 
     private final WaitNotifyObject waitNotifyObject = new WaitNotifyObject();
     private final AtomicLong push2SlaveMaxOffset = new AtomicLong(0);
+    // acknowledged by haSyncReplicas slaves at least
+    private final AtomicLong replicatedOffset = new AtomicLong(0);
 
     private final GroupTransferService groupTransferService;
 
     private final HAClient haClient;
 
+    private final HASnapshotService snapshotService;
+
 
     public HAService(final DefaultMessageStore defaultMessageStore) throws IOException {
         this.defaultMessageStore = defaultMessageStore;
@@ -67,6 +90,11 @@ public class HAService {
                 new AcceptSocketService(defaultMessageStore.getMessageStoreConfig().getHaListenPort());
         this.groupTransferService = new GroupTransferService();
         this.haClient = new HAClient();
+        if (defaultMessageStore.getMessageStoreConfig().isHaSnapshotEnable()) {
+            this.snapshotService = new HASnapshotService(defaultMessageStore);
+        } else {
+            this.snapshotService = null;
+        }
     }
 
 
@@ -88,10 +116,11 @@ public class HAService {
      * @return
      */
     public boolean isSlaveOK(final long masterPutWhere) {
-        boolean result = this.connectionCount.get() > 0;
+        final int syncReplicas = this.defaultMessageStore.getMessageStoreConfig().getHaSyncReplicas();
+        boolean result = this.connectionCount.get() >= Math.max(1, syncReplicas);
         result =
                 result
-                        && ((masterPutWhere - this.push2SlaveMaxOffset.get()) < this.defaultMessageStore
+                        && ((masterPutWhere - this.replicatedOffset.get()) < this.defaultMessageStore
                         .getMessageStoreConfig().getHaSlaveFallbehindMax());
         return result;
     }
@@ -104,12 +133,48 @@ public class HAService {
         for (long value = this.push2SlaveMaxOffset.get(); offset > value; ) {
             boolean ok = this.push2SlaveMaxOffset.compareAndSet(value, offset);
             if (ok) {
-                this.groupTransferService.notifyTransferSome();
                 break;
             } else {
                 value = this.push2SlaveMaxOffset.get();
             }
         }
+
+        final int syncReplicas = this.defaultMessageStore.getMessageStoreConfig().getHaSyncReplicas();
+        long quorumOffset = this.push2SlaveMaxOffset.get();
+        if (syncReplicas > 1) {
+            long[] ackOffsets;
+            synchronized (this.connectionList) {
+                ackOffsets = new long[this.connectionList.size()];
+                int i = 0;
+                for (HAConnection c : this.connectionList) {
+                    ackOffsets[i++] = c.getSlaveAckOffset();
+                }
+            }
+            quorumOffset = quorumOffset(ackOffsets, syncReplicas);
+        }
+
+        for (long value = this.replicatedOffset.get(); quorumOffset > value; ) {
+            boolean ok = this.replicatedOffset.compareAndSet(value, quorumOffset);
+            if (ok) {
+                this.groupTransferService.notifyTransferSome();
+                break;
+            } else {
+                value = this.replicatedOffset.get();
+            }
+        }
+    }
+
+
+    /**
+     * @return the offset acknowledged by quorum slaves at least, -1 if there are not so many
+     */
+    static long quorumOffset(final long[] ackOffsets, final int quorum) {
+        if (ackOffsets.length < quorum) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(ackOffsets, ackOffsets.length);
+        Arrays.sort(sorted);
+        return sorted[sorted.length - quorum];
     }
 
 
@@ -127,6 +192,9 @@ public class HAService {
         this.acceptSocketService.start();
         this.groupTransferService.start();
         this.haClient.start();
+        if (this.snapshotService != null && this.snapshotService.beginAccept()) {
+            this.snapshotService.start();
+        }
     }
 
 
@@ -149,6 +217,9 @@ public class HAService {
         this.acceptSocketService.shutdown(true);
         this.destroyConnections();
         this.groupTransferService.shutdown();
+        if (this.snapshotService != null) {
+            this.snapshotService.shutdown();
+        }
     }
 
 
@@ -176,6 +247,31 @@ public class HAService {
         return push2SlaveMaxOffset;
     }
 
+    public AtomicLong getReplicatedOffset() {
+        return replicatedOffset;
+    }
+
+
+    /**
+     * @return bytes this slave is behind its master, -1 if not connected to a master of protocol 2
+     */
+    public long getSlaveFallBehind() {
+        long masterMaxOffset = this.haClient.getMasterMaxOffset();
+        if (masterMaxOffset < 0) {
+            return -1;
+        }
+        return Math.max(0, masterMaxOffset - this.defaultMessageStore.getMaxPhyOffset());
+    }
+
+
+    public void buildRunningStats(HashMap<String, String> stats) {
+        synchronized (this.connectionList) {
+            for (HAConnection c : this.connectionList) {
+                stats.put("haSlave_" + c.getClientAddr(), c.buildRunningStats());
+            }
+        }
+    }
+
     class AcceptSocketService extends ServiceThread {
         private ServerSocketChannel serverSocketChannel;
         private Selector selector;
@@ -285,10 +381,12 @@ public class HAService {
         private void doWaitTransfer() {
             if (!this.requestsRead.isEmpty()) {
                 for (GroupCommitRequest req : this.requestsRead) {
-                    boolean transferOK = HAService.this.push2SlaveMaxOffset.get() >= req.getNextOffset();
-                    for (int i = 0; !transferOK && i < 5; i++) {
-                        this.notifyTransferObject.waitForRunning(1000);
-                        transferOK = HAService.this.push2SlaveMaxOffset.get() >= req.getNextOffset();
+                    boolean transferOK = HAService.this.replicatedOffset.get() >= req.getNextOffset();
+                    long waitMillis = req.getDeadLine() - System.currentTimeMillis();
+                    while (!transferOK && waitMillis > 0) {
+                        this.notifyTransferObject.waitForRunning(Math.min(waitMillis, 1000));
+                        transferOK = HAService.this.replicatedOffset.get() >= req.getNextOffset();
+                        waitMillis = req.getDeadLine() - System.currentTimeMillis();
                     }
 
                     if (!transferOK) {
@@ -343,6 +441,11 @@ public class HAService {
         private int dispatchPostion = 0;
         private ByteBuffer byteBufferRead = ByteBuffer.allocate(ReadMaxBufferSize);
         private ByteBuffer byteBufferBackup = ByteBuffer.allocate(ReadMaxBufferSize);
+        // protocol answered by the master, 0 until it does
+        private int masterProtocolVersion = 0;
+        // max offset of master in the last frame of protocol 2, -1 if not known
+        private volatile long masterMaxOffset = -1;
+        private final Inflater inflater = new Inflater();
 
 
         public HAClient() throws IOException {
@@ -350,6 +453,11 @@ public class HAService {
         }
 
 
+        public long getMasterMaxOffset() {
+            return masterMaxOffset;
+        }
+
+
         public void updateMasterAddress(final String newAddr) {
             String currentAddr = this.masterAddress.get();
             if (currentAddr == null || !currentAddr.equals(newAddr)) {
@@ -464,11 +572,27 @@ public class HAService {
             int readSocketPos = this.byteBufferRead.position();
 
             while (true) {
+                // phyoffset + size + rawSize since protocol 1, + masterMaxOffset since protocol 2
+                int headerSize = MSG_HEADER_SIZE;
+                if (this.masterProtocolVersion > 1) {
+                    headerSize += 4 + 8;
+                } else if (this.masterProtocolVersion > 0) {
+                    headerSize += 4;
+                }
                 int diff = this.byteBufferRead.position() - this.dispatchPostion;
-                if (diff >= MSG_HEADER_SIZE) {
+                if (diff >= headerSize) {
                     long masterPhyOffset = this.byteBufferRead.getLong(this.dispatchPostion);
                     int bodySize = this.byteBufferRead.getInt(this.dispatchPostion + 8);
 
+                    if (ProtocolHello == masterPhyOffset) {
+                        this.masterProtocolVersion = bodySize;
+                        this.dispatchPostion += MSG_HEADER_SIZE;
+                        log.info("HAClient, master answered protocol " + bodySize);
+                        continue;
+                    }
+                    int rawSize = this.masterProtocolVersion > 0
+                            ? this.byteBufferRead.getInt(this.dispatchPostion + MSG_HEADER_SIZE) : bodySize;
+
                     long slavePhyOffset = HAService.this.defaultMessageStore.getMaxPhyOffset();
 
 
@@ -481,16 +605,26 @@ public class HAService {
                     }
 
 
-                    if (diff >= (MSG_HEADER_SIZE + bodySize)) {
+                    if (diff >= (headerSize + bodySize)) {
+                        if (this.masterProtocolVersion > 1) {
+                            this.masterMaxOffset = this.byteBufferRead.getLong(this.dispatchPostion + MSG_HEADER_SIZE + 4);
+                        }
+
                         byte[] bodyData = new byte[bodySize];
-                        this.byteBufferRead.position(this.dispatchPostion + MSG_HEADER_SIZE);
+                        this.byteBufferRead.position(this.dispatchPostion + headerSize);
                         this.byteBufferRead.get(bodyData);
+                        this.byteBufferRead.position(readSocketPos);
 
+                        if (bodySize < rawSize) {
+                            bodyData = this.inflate(bodyData, rawSize);
+                            if (null == bodyData) {
+                                return false;
+                            }
+                        }
 
                         HAService.this.defaultMessageStore.appendToCommitLog(masterPhyOffset, bodyData);
 
-                        this.byteBufferRead.position(readSocketPos);
-                        this.dispatchPostion += MSG_HEADER_SIZE + bodySize;
+                        this.dispatchPostion += headerSize + bodySize;
 
                         if (!reportSlaveMaxOffsetPlus()) {
                             return false;
@@ -511,6 +645,31 @@ public class HAService {
         }
 
 
+        private byte[] inflate(final byte[] bodyData, final int rawSize) {
+            byte[] rawData = new byte[rawSize];
+            this.inflater.reset();
+            this.inflater.setInput(bodyData);
+            try {
+                int size = 0;
+                while (size < rawSize && !this.inflater.finished()) {
+                    int n = this.inflater.inflate(rawData, size, rawSize - size);
+                    if (0 == n && this.inflater.needsInput()) {
+                        break;
+                    }
+                    size += n;
+                }
+                if (size != rawSize) {
+                    log.error("HAClient, inflated " + size + " bytes, but master sent " + rawSize);
+                    return null;
+                }
+            } catch (DataFormatException e) {
+                log.error("HAClient, inflate exception", e);
+                return null;
+            }
+            return rawData;
+        }
+
+
         private boolean reportSlaveMaxOffsetPlus() {
             boolean result = true;
             long currentPhyOffset = HAService.this.defaultMessageStore.getMaxPhyOffset();
@@ -537,6 +696,14 @@ public class HAService {
                         this.socketChannel = RemotingUtil.connect(socketAddress);
                         if (this.socketChannel != null) {
                             this.socketChannel.register(this.selector, SelectionKey.OP_READ);
+                            int version = Math.min(ProtocolVersion,
+                                    HAService.this.defaultMessageStore.getMessageStoreConfig().getHaProtocolVersion());
+                            for (int i = 0; i < version; i++) {
+                                if (!this.reportSlaveMaxOffset(ProtocolHello)) {
+                                    this.closeMaster();
+                                    break;
+                                }
+                            }
                         }
                     }
                 }
@@ -568,6 +735,8 @@ public class HAService {
 
                 this.lastWriteTimestamp = 0;
                 this.dispatchPostion = 0;
+                this.masterProtocolVersion = 0;
+                this.masterMaxOffset = -1;
 
                 this.byteBufferBackup.position(0);
                 this.byteBufferBackup.limit(ReadMaxBufferSize);
@@ -626,6 +795,7 @@ public class HAService {
                 }
             }
 
+            this.inflater.end();
             log.info(this.getServiceName() + " service end");
         }
 
@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.ha;
+
+import com.alibaba.rocketmq.common.ThreadFactoryImpl;
+import com.alibaba.rocketmq.common.UtilAll;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.utils.IOTinyUtils;
+import com.alibaba.rocketmq.remoting.common.RemotingUtil;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MapedFile;
+import com.alibaba.rocketmq.store.MapedFileQueue;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Copies the sealed CommitLog files of the master into a slave with no CommitLog yet, in chunks over
+ * haSnapshotThreadNums connections to {@link HASnapshotService}. Files are written aside and moved in once all of
+ * them are complete; the tail is streamed by HAClient as usual, and consume queues are built by dispatching the
+ * copied files again.
+ */
+public class HASnapshotClient {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final DefaultMessageStore defaultMessageStore;
+
+
+    public HASnapshotClient(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+
+    /**
+     * @return true if files were copied from the master
+     */
+    public boolean bootstrap() {
+        final MessageStoreConfig storeConfig = this.defaultMessageStore.getMessageStoreConfig();
+        final String masterAddress = storeConfig.getHaMasterAddress();
+        if (null == masterAddress || masterAddress.length() < 6) {
+            log.info("no haMasterAddress, bootstrap skipped");
+            return false;
+        }
+        final String[] storePaths = StorePathConfigHelper.splitStorePaths(storeConfig.getStorePathCommitLog());
+        for (String path : storePaths) {
+            String[] names = new File(path).list();
+            if (names != null && names.length > 0) {
+                return false;
+            }
+        }
+
+        InetSocketAddress haAddress = (InetSocketAddress) RemotingUtil.string2SocketAddress(masterAddress);
+        final InetSocketAddress address =
+                new InetSocketAddress(haAddress.getAddress(), HASnapshotService.snapshotPort(haAddress.getPort()));
+        final File bootstrapDir = new File(StorePathConfigHelper.getStorePathBootstrap(storeConfig.getStorePathRootDir()));
+        final long beginTime = System.currentTimeMillis();
+        try {
+            IOTinyUtils.delete(bootstrapDir);
+            MapedFile.ensureDirOK(bootstrapDir.getPath());
+
+            final List<Long> fileOffsets = new ArrayList<Long>();
+            final int fileSize;
+            Socket socket = this.connect(address);
+            try {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeInt(HASnapshotService.ListFiles);
+                out.flush();
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                fileSize = in.readInt();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    fileOffsets.add(in.readLong());
+                }
+            } finally {
+                socket.close();
+            }
+            if (fileSize != storeConfig.getMapedFileSizeCommitLog()) {
+                log.error("bootstrap skipped, CommitLog files of master are {} bytes, not {}", fileSize,
+                        storeConfig.getMapedFileSizeCommitLog());
+                return false;
+            }
+            if (fileOffsets.isEmpty()) {
+                return false;
+            }
+
+            final ConcurrentLinkedQueue<long[]> chunks = new ConcurrentLinkedQueue<long[]>();
+            final int chunkSize = Math.min(storeConfig.getHaBootstrapChunkSize(), fileSize);
+            for (long fileOffset : fileOffsets) {
+                RandomAccessFile file = new RandomAccessFile(new File(bootstrapDir, UtilAll.offset2FileName(fileOffset)), "rw");
+                try {
+                    file.setLength(fileSize);
+                } finally {
+                    file.close();
+                }
+                for (int position = 0; position < fileSize; position += chunkSize) {
+                    chunks.add(new long[]{fileOffset, position, Math.min(chunkSize, fileSize - position)});
+                }
+            }
+
+            final AtomicBoolean failed = new AtomicBoolean(false);
+            final AtomicLong copiedBytes = new AtomicLong(0);
+            final int threadNums = storeConfig.getHaSnapshotThreadNums();
+            ExecutorService executor = Executors.newFixedThreadPool(threadNums, new ThreadFactoryImpl("HASnapshotClientThread_"));
+            for (int i = 0; i < threadNums; i++) {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            HASnapshotClient.this.copyChunks(address, bootstrapDir, chunks, failed, copiedBytes);
+                        } catch (Exception e) {
+                            log.error("bootstrap, copy chunks from " + address + " exception", e);
+                            failed.set(true);
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            if (!executor.awaitTermination(storeConfig.getHaBootstrapTimeoutMills(), TimeUnit.MILLISECONDS)) {
+                log.error("bootstrap from {} not done in {}ms, given up", address, storeConfig.getHaBootstrapTimeoutMills());
+                failed.set(true);
+                executor.shutdownNow();
+                return false;
+            }
+            if (failed.get() || !chunks.isEmpty()) {
+                return false;
+            }
+
+            // the store dispatches the files again on every start until it deletes this
+            File bootstrapFile = new File(StorePathConfigHelper.getBootstrapFile(storeConfig.getStorePathRootDir()));
+            if (!bootstrapFile.exists() && !bootstrapFile.createNewFile()) {
+                log.error("bootstrap, create {} failed", bootstrapFile);
+                return false;
+            }
+
+            // ascending, what is moved in before a crash is still a CommitLog without holes
+            final MapedFileQueue mapedFileQueue = this.defaultMessageStore.getCommitLog().getMapedFileQueue();
+            for (long fileOffset : fileOffsets) {
+                String name = UtilAll.offset2FileName(fileOffset);
+                String path = mapedFileQueue.chooseStorePath(fileOffset);
+                MapedFile.ensureDirOK(path);
+                if (!new File(bootstrapDir, name).renameTo(new File(path, name))) {
+                    log.error("bootstrap, move {} into {} failed", name, path);
+                    return false;
+                }
+            }
+
+            log.info("bootstrap copied {} files, {} bytes from {}, elapsed time(ms) {}", fileOffsets.size(),
+                    copiedBytes.get(), address, System.currentTimeMillis() - beginTime);
+            return true;
+        } catch (Exception e) {
+            log.error("bootstrap from " + address + " exception", e);
+            return false;
+        } finally {
+            try {
+                IOTinyUtils.delete(bootstrapDir);
+            } catch (IOException e) {
+                log.warn("delete " + bootstrapDir + " failed", e);
+            }
+        }
+    }
+
+
+    private void copyChunks(final InetSocketAddress address, final File bootstrapDir,
+                            final ConcurrentLinkedQueue<long[]> chunks, final AtomicBoolean failed,
+                            final AtomicLong copiedBytes) throws IOException {
+        byte[] buffer = new byte[1024 * 256];
+        Socket socket = this.connect(address);
+        try {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            long[] chunk;
+            while (!failed.get() && (chunk = chunks.poll()) != null) {
+                out.writeInt(HASnapshotService.GetChunk);
+                out.writeLong(chunk[0]);
+                out.writeInt((int) chunk[1]);
+                out.writeInt((int) chunk[2]);
+                out.flush();
+
+                int length = in.readInt();
+                if (length != chunk[2]) {
+                    log.error("bootstrap, master answered {} bytes for chunk {} {} {}", length, chunk[0], chunk[1], chunk[2]);
+                    failed.set(true);
+                    return;
+                }
+
+                RandomAccessFile file = new RandomAccessFile(new File(bootstrapDir, UtilAll.offset2FileName(chunk[0])), "rw");
+                try {
+                    file.seek(chunk[1]);
+                    int remain = length;
+                    while (remain > 0) {
+                        int size = Math.min(remain, buffer.length);
+                        in.readFully(buffer, 0, size);
+                        file.write(buffer, 0, size);
+                        remain -= size;
+                    }
+                } finally {
+                    file.close();
+                }
+                copiedBytes.addAndGet(length);
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+
+    private Socket connect(final InetSocketAddress address) throws IOException {
+        Socket socket = new Socket();
+        socket.setSoTimeout(this.defaultMessageStore.getMessageStoreConfig().getHaHousekeepingInterval());
+        socket.setReceiveBufferSize(1024 * 256);
+        socket.connect(address, 1000 * 3);
+        return socket;
+    }
+}
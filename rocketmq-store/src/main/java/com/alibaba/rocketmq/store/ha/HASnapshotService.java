@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.ha;
+
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.ThreadFactoryImpl;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MapedFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Serves the sealed CommitLog files to slaves bootstrapping with {@link HASnapshotClient}, on the port next to
+ * haListenPort. A slave asks for the list of them, then for chunks of them over several connections; chunks are
+ * sent with FileChannel.transferTo, and dropped from page cache again if they were not in it.
+ *
+ * <pre>
+ * ListFiles: int code           -> int fileSize, int count, long fileFromOffset * count
+ * GetChunk:  int code, long fileFromOffset, int position, int length -> int length, -1 if not sealed, bytes
+ * </pre>
+ */
+public class HASnapshotService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    public static final int ListFiles = 1;
+    public static final int GetChunk = 2;
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final ExecutorService serveExecutor;
+    private ServerSocketChannel serverSocketChannel;
+
+
+    public HASnapshotService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        this.serveExecutor = Executors.newFixedThreadPool(
+                defaultMessageStore.getMessageStoreConfig().getHaSnapshotThreadNums(),
+                new ThreadFactoryImpl("HASnapshotServeThread_"));
+    }
+
+
+    public static int snapshotPort(final int haListenPort) {
+        return haListenPort + 1;
+    }
+
+
+    public boolean beginAccept() {
+        try {
+            this.serverSocketChannel = ServerSocketChannel.open();
+            this.serverSocketChannel.socket().setReuseAddress(true);
+            this.serverSocketChannel.socket().bind(new InetSocketAddress(
+                    snapshotPort(this.defaultMessageStore.getMessageStoreConfig().getHaListenPort())));
+            return true;
+        } catch (Exception e) {
+            log.error("HASnapshotService beginAccept exception", e);
+            return false;
+        }
+    }
+
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStoped()) {
+            try {
+                final SocketChannel sc = this.serverSocketChannel.accept();
+                log.info("HASnapshotService receive new connection, " + sc.socket().getRemoteSocketAddress());
+                this.serveExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        HASnapshotService.this.serve(sc);
+                    }
+                });
+            } catch (Exception e) {
+                if (!this.isStoped()) {
+                    log.error(this.getServiceName() + " service has exception.", e);
+                }
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    private void serve(final SocketChannel sc) {
+        try {
+            sc.socket().setSoTimeout(this.defaultMessageStore.getMessageStoreConfig().getHaHousekeepingInterval());
+            DataInputStream in = new DataInputStream(sc.socket().getInputStream());
+            while (!this.isStoped()) {
+                int code;
+                try {
+                    code = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                switch (code) {
+                    case ListFiles:
+                        this.listFiles(sc);
+                        break;
+                    case GetChunk:
+                        this.getChunk(sc, in.readLong(), in.readInt(), in.readInt());
+                        break;
+                    default:
+                        log.warn("HASnapshotService, unknown request " + code);
+                        return;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("HASnapshotService, serve " + sc.socket().getRemoteSocketAddress() + " exception", e);
+        } finally {
+            try {
+                sc.close();
+            } catch (IOException e) {
+                log.warn("", e);
+            }
+        }
+    }
+
+
+    private void listFiles(final SocketChannel sc) throws IOException {
+        List<MapedFile> mapedFiles = new ArrayList<MapedFile>(
+                this.defaultMessageStore.getCommitLog().getMapedFileQueue().getMapedFiles());
+        // the last one is still written, it is left to streaming
+        int count = Math.max(0, mapedFiles.size() - 1);
+        ByteBuffer response = ByteBuffer.allocate(4 + 4 + 8 * count);
+        response.putInt(this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog());
+        response.putInt(count);
+        for (int i = 0; i < count; i++) {
+            response.putLong(mapedFiles.get(i).getFileFromOffset());
+        }
+        response.flip();
+        writeFully(sc, response);
+    }
+
+
+    private void getChunk(final SocketChannel sc, final long fileFromOffset, final int position, final int length)
+            throws IOException {
+        MapedFile mapedFile = this.defaultMessageStore.getCommitLog().getMapedFileQueue().findMapedFileByOffset(fileFromOffset);
+        if (null == mapedFile || mapedFile.getFileFromOffset() != fileFromOffset || !mapedFile.isFull()
+                || position < 0 || length < 0 || position + length > mapedFile.getFileSize() || !mapedFile.hold()) {
+            writeFully(sc, (ByteBuffer) ByteBuffer.allocate(4).putInt(-1).flip());
+            return;
+        }
+
+        try {
+            // left in page cache if mincore can not tell
+            boolean cached = !Boolean.FALSE.equals(mapedFile.isInPageCache(position,
+                    this.defaultMessageStore.getMessageStoreConfig().getPageCacheResidencySampleInterval()));
+            writeFully(sc, (ByteBuffer) ByteBuffer.allocate(4).putInt(length).flip());
+            long transferred = 0;
+            while (transferred < length) {
+                transferred += mapedFile.getFileChannel().transferTo(position + transferred, length - transferred, sc);
+            }
+            if (!cached) {
+                mapedFile.dropPageCache(position, length);
+            }
+        } finally {
+            mapedFile.release();
+        }
+    }
+
+
+    private static void writeFully(final SocketChannel sc, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            sc.write(buffer);
+        }
+    }
+
+
+    @Override
+    public void shutdown() {
+        this.stoped = true;
+        try {
+            if (this.serverSocketChannel != null) {
+                this.serverSocketChannel.close();
+            }
+        } catch (IOException e) {
+            log.warn("close HASnapshotService failed", e);
+        }
+        this.serveExecutor.shutdown();
+        super.shutdown();
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return HASnapshotService.class.getSimpleName();
+    }
+}
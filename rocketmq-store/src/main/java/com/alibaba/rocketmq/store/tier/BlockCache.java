@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.tier;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * LRU cache of fixed size blocks read from the tier, so pulls of neighbouring messages share one tier read.
+ */
+public class BlockCache {
+    private final int blockSize;
+
+    private final LinkedHashMap<BlockKey, byte[]> blocks;
+
+    private final AtomicLong hitTimes = new AtomicLong(0);
+
+    private final AtomicLong missTimes = new AtomicLong(0);
+
+
+    public BlockCache(final int blockSize, final long capacityBytes) {
+        this.blockSize = blockSize;
+        final int maxBlocks = (int) Math.max(1, capacityBytes / blockSize);
+        this.blocks = new LinkedHashMap<BlockKey, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BlockKey, byte[]> eldest) {
+                return this.size() > maxBlocks;
+            }
+        };
+    }
+
+
+    /**
+     * @return the block, possibly shorter than blockSize at the end of the file, or null when it can not be read
+     */
+    public byte[] getBlock(final TieredStorage storage, final String name, final long blockIndex) {
+        BlockKey key = new BlockKey(name, blockIndex);
+        byte[] block;
+        synchronized (this.blocks) {
+            block = this.blocks.get(key);
+        }
+        if (block != null) {
+            this.hitTimes.incrementAndGet();
+            return block;
+        }
+
+        this.missTimes.incrementAndGet();
+        byte[] buffer = new byte[this.blockSize];
+        int read = storage.read(name, blockIndex * this.blockSize, buffer);
+        if (read <= 0) {
+            return null;
+        }
+        if (read < buffer.length) {
+            block = new byte[read];
+            System.arraycopy(buffer, 0, block, 0, read);
+        } else {
+            block = buffer;
+        }
+
+        synchronized (this.blocks) {
+            this.blocks.put(key, block);
+        }
+        return block;
+    }
+
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+
+    public long getHitTimes() {
+        return hitTimes.get();
+    }
+
+
+    public long getMissTimes() {
+        return missTimes.get();
+    }
+
+
+    static class BlockKey {
+        private final String name;
+        private final long index;
+
+
+        BlockKey(String name, long index) {
+            this.name = name;
+            this.index = index;
+        }
+
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return index == other.index && name.equals(other.name);
+        }
+
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + (int) (index ^ (index >>> 32));
+        }
+    }
+}
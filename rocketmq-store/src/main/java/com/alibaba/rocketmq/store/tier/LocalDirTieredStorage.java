@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.tier;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Tier kept in a directory, usually on a large and cheap file system mounted on the broker.
+ */
+public class LocalDirTieredStorage implements TieredStorage {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File dir;
+
+
+    public LocalDirTieredStorage(final MessageStoreConfig messageStoreConfig) {
+        this.dir = new File(messageStoreConfig.getTieredStorePath());
+        if (!this.dir.exists() && !this.dir.mkdirs()) {
+            log.warn("create tiered store dir failed, " + this.dir);
+        }
+    }
+
+
+    @Override
+    public boolean putFile(final String name, final File file) {
+        File tmp = new File(this.dir, name + TMP_SUFFIX);
+        FileInputStream in = null;
+        RandomAccessFile out = null;
+        try {
+            in = new FileInputStream(file);
+            out = new RandomAccessFile(tmp, "rw");
+            out.setLength(0);
+            FileChannel src = in.getChannel();
+            FileChannel dst = out.getChannel();
+            long size = src.size();
+            long position = 0;
+            while (position < size) {
+                position += src.transferTo(position, size - position, dst);
+            }
+            dst.force(true);
+        } catch (IOException e) {
+            log.error("put file to tiered store failed, " + file, e);
+            return false;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+        }
+
+        File target = new File(this.dir, name);
+        if (!tmp.setLastModified(file.lastModified()) || !tmp.renameTo(target)) {
+            log.error("rename {} to {} failed", tmp, target);
+            return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public int read(final String name, final long position, final byte[] dst) {
+        File file = new File(this.dir, name);
+        if (!file.exists()) {
+            return -1;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            raf.seek(position);
+            int read = 0;
+            while (read < dst.length) {
+                int n = raf.read(dst, read, dst.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            return read;
+        } catch (IOException e) {
+            log.error("read tiered file failed, " + file, e);
+            return -1;
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+
+    @Override
+    public boolean deleteFile(final String name) {
+        return new File(this.dir, name).delete();
+    }
+
+
+    @Override
+    public List<String> listFiles() {
+        List<String> names = new ArrayList<String>();
+        File[] files = this.dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().endsWith(TMP_SUFFIX)) {
+                    names.add(file.getName());
+                }
+            }
+        }
+        return names;
+    }
+
+
+    @Override
+    public long lastModified(final String name) {
+        return new File(this.dir, name).lastModified();
+    }
+
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
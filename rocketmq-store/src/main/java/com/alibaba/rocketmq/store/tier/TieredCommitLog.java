@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.tier;
+
+import com.alibaba.rocketmq.common.UtilAll;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MapedFile;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+
+/**
+ * CommitLog files offloaded to a {@link TieredStorage}, they always come before the local ones. Reads go through
+ * a {@link BlockCache} and return heap buffers, so nothing of the tier is mapped.
+ */
+public class TieredCommitLog {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final TieredStorage storage;
+
+    private final BlockCache blockCache;
+
+    private final int mapedFileSize;
+
+    // start offsets of the offloaded files
+    private final ConcurrentSkipListSet<Long> fileFromOffsets = new ConcurrentSkipListSet<Long>();
+
+
+    public TieredCommitLog(final MessageStoreConfig messageStoreConfig, final TieredStorage storage) {
+        this.storage = storage;
+        this.blockCache = new BlockCache(messageStoreConfig.getTieredBlockSize(), messageStoreConfig.getTieredBlockCacheSize());
+        this.mapedFileSize = messageStoreConfig.getMapedFileSizeCommitLog();
+    }
+
+
+    public boolean load() {
+        for (String name : this.storage.listFiles()) {
+            try {
+                this.fileFromOffsets.add(Long.parseLong(name));
+            } catch (NumberFormatException e) {
+                log.warn("ignore unknown tiered file " + name);
+            }
+        }
+        log.info("load tiered commit log OK, {} files, min offset {}", this.fileFromOffsets.size(), this.getMinOffset());
+        return true;
+    }
+
+
+    public boolean offload(final MapedFile mapedFile) {
+        long beginTime = System.currentTimeMillis();
+        String name = UtilAll.offset2FileName(mapedFile.getFileFromOffset());
+        if (!this.storage.putFile(name, new File(mapedFile.getFileName()))) {
+            return false;
+        }
+
+        this.fileFromOffsets.add(mapedFile.getFileFromOffset());
+        log.info("offload {} to tiered store OK, time consuming = {}", mapedFile.getFileName(), System.currentTimeMillis() - beginTime);
+        return true;
+    }
+
+
+    /**
+     * Deletes the oldest files whose last modified time is before expiredBefore, keeping the rest contiguous.
+     */
+    public int deleteExpiredFiles(final long expiredBefore) {
+        int count = 0;
+        while (!this.fileFromOffsets.isEmpty()) {
+            Long first = this.fileFromOffsets.first();
+            String name = UtilAll.offset2FileName(first);
+            if (this.storage.lastModified(name) >= expiredBefore) {
+                break;
+            }
+
+            this.fileFromOffsets.remove(first);
+            if (!this.storage.deleteFile(name)) {
+                log.warn("delete tiered file {} failed", name);
+            }
+            log.info("delete expired tiered file " + name);
+            count++;
+        }
+        return count;
+    }
+
+
+    public SelectMapedBufferResult getMessage(final long offset, final int size) {
+        Long fileFromOffset = this.fileFromOffsets.floor(offset);
+        if (null == fileFromOffset || size <= 0 || offset + size > fileFromOffset + this.mapedFileSize) {
+            return null;
+        }
+
+        final String name = UtilAll.offset2FileName(fileFromOffset);
+        final int blockSize = this.blockCache.getBlockSize();
+        final long position = offset - fileFromOffset;
+        ByteBuffer byteBuffer = ByteBuffer.allocate(size);
+        while (byteBuffer.hasRemaining()) {
+            long current = position + byteBuffer.position();
+            byte[] block = this.blockCache.getBlock(this.storage, name, current / blockSize);
+            int posInBlock = (int) (current % blockSize);
+            if (null == block || posInBlock >= block.length) {
+                return null;
+            }
+            byteBuffer.put(block, posInBlock, Math.min(block.length - posInBlock, byteBuffer.remaining()));
+        }
+        byteBuffer.flip();
+
+        return new SelectMapedBufferResult(offset, byteBuffer, size, null);
+    }
+
+
+    public boolean contains(final long offset) {
+        long minOffset = this.getMinOffset();
+        return minOffset >= 0 && offset >= minOffset && offset < this.getMaxOffset();
+    }
+
+
+    public long getMinOffset() {
+        try {
+            return this.fileFromOffsets.first();
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+    }
+
+
+    public long getMaxOffset() {
+        try {
+            return this.fileFromOffsets.last() + this.mapedFileSize;
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+    }
+
+
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.tier;
+
+import java.io.File;
+import java.util.List;
+
+
+/**
+ * Secondary tier sealed CommitLog files are offloaded to. Files are written once and read at random positions,
+ * so object storage fits as well as a file system. Implementations are named by
+ * MessageStoreConfig.tieredStorageClass and need a constructor taking the MessageStoreConfig.
+ */
+public interface TieredStorage {
+
+    /**
+     * Copies the local file in under the name, a partial copy left by a crash is replaced
+     */
+    boolean putFile(final String name, final File file);
+
+
+    /**
+     * @return bytes read from the position into dst, -1 when there is no such file
+     */
+    int read(final String name, final long position, final byte[] dst);
+
+
+    boolean deleteFile(final String name);
+
+
+    /**
+     * @return names of the files completely put, in no particular order
+     */
+    List<String> listFiles();
+
+
+    long lastModified(final String name);
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.tier;
+
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Offloads sealed CommitLog files older than tieredOffloadAfterHours, and deletes tiered files older than
+ * tieredFileReservedTime.
+ */
+public class TieredStoreService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final DefaultMessageStore defaultMessageStore;
+
+
+    public TieredStoreService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStoped()) {
+            try {
+                this.waitForRunning(10 * 1000);
+                this.doWork();
+            } catch (Throwable e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    private void doWork() {
+        final MessageStoreConfig config = this.defaultMessageStore.getMessageStoreConfig();
+        final long now = System.currentTimeMillis();
+
+        // offload only what is flushed and dispatched already
+        long offloadLimit = Math.min(this.defaultMessageStore.getCommitLog().getFlushedWhere(),
+                this.defaultMessageStore.getMaxPhyOffset() - this.defaultMessageStore.dispatchBehindBytes());
+        long offloadBefore = now - config.getTieredOffloadAfterHours() * 60L * 60 * 1000;
+        boolean offloaded = true;
+        while (offloaded && !this.isStoped()) {
+            offloaded = this.defaultMessageStore.getCommitLog().offloadFirstFile(offloadBefore, offloadLimit);
+        }
+
+        long expiredBefore = now - config.getTieredFileReservedTime() * 60L * 60 * 1000;
+        this.defaultMessageStore.getCommitLog().getTieredCommitLog().deleteExpiredFiles(expiredBefore);
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return TieredStoreService.class.getSimpleName();
+    }
+}
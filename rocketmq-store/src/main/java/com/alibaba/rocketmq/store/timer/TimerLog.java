@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.timer;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MapedFile;
+import com.alibaba.rocketmq.store.MapedFileQueue;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+
+/**
+ * Append only log of timer units. The units of one slot are linked backwards through prevPos, starting from the
+ * last position kept by the slot in {@link TimerWheel}.
+ */
+public class TimerLog {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    public static final int MagicCode = 0xBBCCDD01;
+    // magic, prevPos, deliverMs, offsetPy, sizePy
+    public static final int UnitSize = 4 + 8 + 8 + 8 + 4;
+
+    private final MapedFileQueue mapedFileQueue;
+    private final int mapedFileSize;
+    private final ByteBuffer unitBuffer = ByteBuffer.allocate(UnitSize);
+
+
+    public TimerLog(final String storePath, final int mapedFileSize) {
+        this.mapedFileSize = mapedFileSize - mapedFileSize % UnitSize;
+        this.mapedFileQueue = new MapedFileQueue(storePath, this.mapedFileSize, null);
+    }
+
+
+    public boolean load() {
+        return this.mapedFileQueue.load();
+    }
+
+
+    /**
+     * Units after the last valid one in the last file are dropped.
+     */
+    public void recover() {
+        List<MapedFile> mapedFiles = this.mapedFileQueue.getMapedFiles();
+        if (mapedFiles.isEmpty()) {
+            return;
+        }
+
+        MapedFile mapedFile = mapedFiles.get(mapedFiles.size() - 1);
+        ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
+        int position = 0;
+        while (position + UnitSize <= this.mapedFileSize && byteBuffer.getInt(position) == MagicCode) {
+            position += UnitSize;
+        }
+        long maxOffset = mapedFile.getFileFromOffset() + position;
+        this.mapedFileQueue.setCommittedWhere(maxOffset);
+        this.mapedFileQueue.truncateDirtyFiles(maxOffset);
+        log.info("recover timer log OK, max offset {}", maxOffset);
+    }
+
+
+    /**
+     * Called by the enqueue thread only.
+     *
+     * @return position of the unit, -1 if failed
+     */
+    public long append(final long prevPos, final long deliverMs, final long offsetPy, final int sizePy) {
+        MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile();
+        if (null == mapedFile) {
+            log.error("create timer log file failed");
+            return -1;
+        }
+
+        this.unitBuffer.clear();
+        this.unitBuffer.putInt(MagicCode);
+        this.unitBuffer.putLong(prevPos);
+        this.unitBuffer.putLong(deliverMs);
+        this.unitBuffer.putLong(offsetPy);
+        this.unitBuffer.putInt(sizePy);
+
+        long position = mapedFile.getFileFromOffset() + mapedFile.getWrotePostion();
+        if (!mapedFile.appendMessage(this.unitBuffer.array())) {
+            log.error("append timer log unit failed, {}", mapedFile.getFileName());
+            return -1;
+        }
+        return position;
+    }
+
+
+    /**
+     * @return null if the position holds no valid unit
+     */
+    public TimerUnit getUnit(final long position) {
+        MapedFile mapedFile = this.mapedFileQueue.findMapedFileByOffset(position);
+        if (null == mapedFile) {
+            return null;
+        }
+
+        SelectMapedBufferResult result = mapedFile.selectMapedBuffer((int) (position % this.mapedFileSize), UnitSize);
+        if (null == result) {
+            return null;
+        }
+        try {
+            ByteBuffer byteBuffer = result.getByteBuffer();
+            if (byteBuffer.getInt() != MagicCode) {
+                return null;
+            }
+            long prevPos = byteBuffer.getLong();
+            long deliverMs = byteBuffer.getLong();
+            long offsetPy = byteBuffer.getLong();
+            int sizePy = byteBuffer.getInt();
+            return new TimerUnit(position, prevPos, deliverMs, offsetPy, sizePy);
+        } finally {
+            result.release();
+        }
+    }
+
+
+    public void flush() {
+        this.mapedFileQueue.commit(0);
+    }
+
+
+    /**
+     * Every unit appended before the read time of the wheel minus its span has been delivered or rolled into a
+     * newer one, so the caller passes the span plus how far the read time is behind now.
+     */
+    public int deleteExpiredFiles(final long reservedTime) {
+        return this.mapedFileQueue.deleteExpiredFileByTime(reservedTime, 0, 1000 * 60, false);
+    }
+
+
+    public long getMaxOffset() {
+        return this.mapedFileQueue.getMaxOffset();
+    }
+
+
+    public void shutdown() {
+        this.mapedFileQueue.shutdown(1000 * 3);
+    }
+
+
+    public void destroy() {
+        this.mapedFileQueue.destroy();
+    }
+
+
+    public static class TimerUnit {
+        private final long position;
+        private final long prevPos;
+        private final long deliverMs;
+        private final long offsetPy;
+        private final int sizePy;
+
+
+        public TimerUnit(long position, long prevPos, long deliverMs, long offsetPy, int sizePy) {
+            this.position = position;
+            this.prevPos = prevPos;
+            this.deliverMs = deliverMs;
+            this.offsetPy = offsetPy;
+            this.sizePy = sizePy;
+        }
+
+
+        public long getPosition() {
+            return position;
+        }
+
+
+        public long getPrevPos() {
+            return prevPos;
+        }
+
+
+        public long getDeliverMs() {
+            return deliverMs;
+        }
+
+
+        public long getOffsetPy() {
+            return offsetPy;
+        }
+
+
+        public int getSizePy() {
+            return sizePy;
+        }
+    }
+}
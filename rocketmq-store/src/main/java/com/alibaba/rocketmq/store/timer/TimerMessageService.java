@@ -0,0 +1,585 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.timer;
+
+import com.alibaba.rocketmq.common.ConfigManager;
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.ThreadFactoryImpl;
+import com.alibaba.rocketmq.common.TopicFilterType;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.message.MessageAccessor;
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.store.ConsumeQueue;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
+import com.alibaba.rocketmq.store.timer.TimerLog.TimerUnit;
+import com.alibaba.rocketmq.store.timer.TimerWheel.Slot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Delivers messages delayed by any milliseconds, beside the delay levels of {@link
+ * com.alibaba.rocketmq.store.schedule.ScheduleMessageService}.
+ *
+ * Such a message is stored in the timer topic first. The enqueue thread reads the consume queue of the topic, whose
+ * tags code is the deliver time, and links the message into the slot of {@link TimerWheel} covering that time through
+ * a unit of {@link TimerLog}. The dequeue thread takes the slots in time order, waits for the messages of a slot to
+ * be due, and hands them to the deliver threads in batches, which put them back into their real topic.
+ *
+ * A deliver time beyond the span of the wheel goes into the last slot the wheel reaches, and the message is put into
+ * the timer topic once more when that slot is taken, so it is also kept from CommitLog expiring. The checkpoint keeps
+ * the enqueue offset and the time up to which slots are delivered, messages handled after the last checkpoint may be
+ * delivered again after a crash.
+ */
+public class TimerMessageService extends ConfigManager {
+    public static final String TIMER_TOPIC = "TIMER_TOPIC_XXXX";
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    private static final long DELAY_FOR_A_WHILE = 100L;
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final int precisionMs;
+    private final long spanMs;
+    private final TimerLog timerLog;
+    private TimerWheel timerWheel;
+    // guards the wheel between the enqueue and the dequeue thread
+    private final Object wheelLock = new Object();
+
+    private volatile long enqueueOffset = 0;
+    // slots before it have been taken by the dequeue thread, set back to a slot failed to deliver
+    private volatile long dequeueTimeMs = 0;
+    // slots before it have been delivered
+    private volatile long readTimeMs = 0;
+    private final TimerCheckpoint timerCheckpoint = new TimerCheckpoint();
+
+    private final EnqueueService enqueueService = new EnqueueService();
+    private final DequeueService dequeueService = new DequeueService();
+    private final FlushService flushService = new FlushService();
+    private ExecutorService deliverExecutor;
+
+
+    public TimerMessageService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        MessageStoreConfig config = defaultMessageStore.getMessageStoreConfig();
+        this.precisionMs = config.getTimerPrecisionMs();
+        this.spanMs = (long) config.getTimerWheelSlots() * this.precisionMs;
+        this.timerLog = new TimerLog(StorePathConfigHelper.getStorePathTimerLog(config.getStorePathRootDir()),
+                config.getMapedFileSizeTimerLog());
+    }
+
+
+    /**
+     * Moves a message delayed by milliseconds into the timer topic, unless it is due already. Messages rolled over
+     * by the wheel are in the timer topic already and left alone.
+     */
+    public void transformTimerMessage(final MessageExtBrokerInner msg) {
+        String delayMs = msg.getProperty(MessageConst.PROPERTY_TIMER_DELAY_MS);
+        String deliverMs = msg.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS);
+        if ((null == delayMs && null == deliverMs) || TIMER_TOPIC.equals(msg.getTopic())) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long deliverTimeMs;
+        try {
+            deliverTimeMs = deliverMs != null ? Long.parseLong(deliverMs) : now + Long.parseLong(delayMs);
+        } catch (NumberFormatException e) {
+            log.warn("illegal timer property of message, delay {} deliver {}, deliver it now", delayMs, deliverMs);
+            deliverTimeMs = now;
+        }
+
+        MessageAccessor.clearProperty(msg, MessageConst.PROPERTY_TIMER_DELAY_MS);
+        if (deliverTimeMs <= now) {
+            MessageAccessor.clearProperty(msg, MessageConst.PROPERTY_TIMER_DELIVER_MS);
+        } else {
+            MessageAccessor.putProperty(msg, MessageConst.PROPERTY_TIMER_DELIVER_MS, String.valueOf(deliverTimeMs));
+            MessageAccessor.putProperty(msg, MessageConst.PROPERTY_REAL_TOPIC, msg.getTopic());
+            MessageAccessor.putProperty(msg, MessageConst.PROPERTY_REAL_QUEUE_ID, String.valueOf(msg.getQueueId()));
+            msg.setTopic(TIMER_TOPIC);
+            msg.setQueueId(0);
+        }
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+    }
+
+
+    @Override
+    public boolean load() {
+        boolean result = super.load();
+        result = result && this.timerLog.load();
+        if (result) {
+            this.timerLog.recover();
+            MessageStoreConfig config = this.defaultMessageStore.getMessageStoreConfig();
+            try {
+                this.timerWheel = new TimerWheel(StorePathConfigHelper.getStorePathTimerWheel(config.getStorePathRootDir()),
+                        config.getTimerWheelSlots(), this.precisionMs);
+            } catch (IOException e) {
+                log.error("load timer wheel failed", e);
+                return false;
+            }
+        }
+
+        if (this.readTimeMs <= 0) {
+            long now = System.currentTimeMillis();
+            this.readTimeMs = now - now % this.precisionMs;
+        }
+        this.dequeueTimeMs = this.readTimeMs;
+        log.info("load timer message service {}, enqueue offset {}, read time {}", result ? "OK" : "Failed",
+                this.enqueueOffset, this.readTimeMs);
+        return result;
+    }
+
+
+    public void start() {
+        this.deliverExecutor = Executors.newFixedThreadPool(
+                this.defaultMessageStore.getMessageStoreConfig().getTimerDeliverThreadPoolNums(),
+                new ThreadFactoryImpl("TimerDeliverThread_"));
+        this.enqueueService.start();
+        this.dequeueService.start();
+        this.flushService.start();
+    }
+
+
+    public void shutdown() {
+        this.enqueueService.shutdown();
+        this.dequeueService.shutdown();
+        this.flushService.shutdown();
+        if (this.deliverExecutor != null) {
+            this.deliverExecutor.shutdown();
+            try {
+                this.deliverExecutor.awaitTermination(3, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                log.warn("wait for timer deliver threads interrupted", e);
+            }
+        }
+
+        if (this.timerWheel != null) {
+            this.persist();
+            this.timerWheel.shutdown();
+        }
+        this.timerLog.shutdown();
+    }
+
+
+    public void destroy() {
+        if (this.timerWheel != null) {
+            this.timerWheel.destroy();
+        }
+        this.timerLog.destroy();
+        // the checkpoint points into the destroyed timer topic
+        new File(this.configFilePath()).delete();
+        new File(this.configFilePath() + ".bak").delete();
+    }
+
+
+    /**
+     * @return false if the unit can not be appended or delivered, the offset is retried later
+     */
+    private boolean enqueue(final long deliverMs, final long offsetPy, final int sizePy) {
+        synchronized (this.wheelLock) {
+            long slotTimeMs = deliverMs - deliverMs % this.precisionMs;
+            long maxSlotTimeMs = this.dequeueTimeMs + this.spanMs - this.precisionMs;
+            if (slotTimeMs > maxSlotTimeMs) {
+                slotTimeMs = maxSlotTimeMs;
+            }
+
+            if (slotTimeMs >= this.dequeueTimeMs) {
+                Slot slot = this.timerWheel.getSlot(slotTimeMs);
+                long position = this.timerLog.append(slot.getLastPos(), deliverMs, offsetPy, sizePy);
+                if (position < 0) {
+                    return false;
+                }
+                this.timerWheel.putSlot(slotTimeMs, slot.getFirstPos() < 0 ? position : slot.getFirstPos(), position,
+                        slot.getNum() + 1);
+                return true;
+            }
+        }
+
+        // the slot has been taken, so it is due
+        this.waitUntil(deliverMs, this.enqueueService);
+        return this.deliver(new TimerUnit(-1, -1, deliverMs, offsetPy, sizePy), false, this.enqueueService);
+    }
+
+
+    private boolean doEnqueue() {
+        ConsumeQueue cq = this.defaultMessageStore.findConsumeQueue(TIMER_TOPIC, 0);
+        if (this.enqueueOffset < cq.getMinOffsetInQuque()) {
+            log.error("timer enqueue offset {} is deleted, skip to {}", this.enqueueOffset, cq.getMinOffsetInQuque());
+            this.enqueueOffset = cq.getMinOffsetInQuque();
+        }
+
+        SelectMapedBufferResult bufferCQ = cq.getIndexBuffer(this.enqueueOffset);
+        if (null == bufferCQ) {
+            return false;
+        }
+        try {
+            ByteBuffer byteBuffer = bufferCQ.getByteBuffer();
+            for (int i = 0; i < bufferCQ.getSize() && !this.enqueueService.isStoped(); i += ConsumeQueue.CQStoreUnitSize) {
+                long offsetPy = byteBuffer.getLong();
+                int sizePy = byteBuffer.getInt();
+                long deliverMs = byteBuffer.getLong();
+                if (!this.enqueue(deliverMs, offsetPy, sizePy)) {
+                    return false;
+                }
+                this.enqueueOffset++;
+            }
+            return true;
+        } finally {
+            bufferCQ.release();
+        }
+    }
+
+
+    /**
+     * @return false if the slot is not due yet
+     */
+    private boolean doDequeue() throws Exception {
+        final long slotTimeMs = this.dequeueTimeMs;
+        long now = System.currentTimeMillis();
+        if (now < slotTimeMs) {
+            return false;
+        }
+
+        Slot slot;
+        synchronized (this.wheelLock) {
+            slot = this.timerWheel.getSlot(slotTimeMs);
+            this.dequeueTimeMs = slotTimeMs + this.precisionMs;
+        }
+
+        List<TimerUnit> units = new ArrayList<TimerUnit>(slot.getNum());
+        long position = slot.getLastPos();
+        while (position >= 0 && units.size() < slot.getNum()) {
+            TimerUnit unit = this.timerLog.getUnit(position);
+            if (null == unit) {
+                log.error("timer log unit at {} of slot {} is invalid, {} of {} units read", position, slotTimeMs,
+                        units.size(), slot.getNum());
+                break;
+            }
+            units.add(unit);
+            position = unit.getPrevPos();
+        }
+        Collections.sort(units, new Comparator<TimerUnit>() {
+            @Override
+            public int compare(TimerUnit o1, TimerUnit o2) {
+                return o1.getDeliverMs() < o2.getDeliverMs() ? -1 : (o1.getDeliverMs() == o2.getDeliverMs() ? 0 : 1);
+            }
+        });
+
+        final int batchSize = this.defaultMessageStore.getMessageStoreConfig().getTimerDeliverBatchSize();
+        final long nextSlotTimeMs = slotTimeMs + this.precisionMs;
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        List<TimerUnit> batch = new ArrayList<TimerUnit>(batchSize);
+        for (TimerUnit unit : units) {
+            if (unit.getDeliverMs() < nextSlotTimeMs && unit.getDeliverMs() > System.currentTimeMillis()) {
+                futures.add(this.submit(batch, nextSlotTimeMs, failed));
+                batch = new ArrayList<TimerUnit>(batchSize);
+                this.waitUntil(unit.getDeliverMs(), this.dequeueService);
+            }
+            batch.add(unit);
+            if (batch.size() >= batchSize) {
+                futures.add(this.submit(batch, nextSlotTimeMs, failed));
+                batch = new ArrayList<TimerUnit>(batchSize);
+            }
+        }
+        futures.add(this.submit(batch, nextSlotTimeMs, failed));
+
+        boolean delivered = false;
+        try {
+            for (Future<?> future : futures) {
+                if (future != null) {
+                    future.get();
+                }
+            }
+            delivered = !failed.get();
+        } finally {
+            if (delivered) {
+                this.readTimeMs = nextSlotTimeMs;
+            } else {
+                // the slot is taken again, units delivered already may be delivered twice
+                synchronized (this.wheelLock) {
+                    this.dequeueTimeMs = slotTimeMs;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    private Future<?> submit(final List<TimerUnit> batch, final long nextSlotTimeMs, final AtomicBoolean failed) {
+        if (batch.isEmpty()) {
+            return null;
+        }
+
+        return this.deliverExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (TimerUnit unit : batch) {
+                    boolean roll = unit.getDeliverMs() >= nextSlotTimeMs;
+                    if (!TimerMessageService.this.deliver(unit, roll, TimerMessageService.this.dequeueService)) {
+                        failed.set(true);
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+
+    private void waitUntil(final long timeMs, final ServiceThread serviceThread) {
+        long now = System.currentTimeMillis();
+        while (now < timeMs && !serviceThread.isStoped()) {
+            try {
+                Thread.sleep(Math.min(timeMs - now, DELAY_FOR_A_WHILE));
+            } catch (InterruptedException e) {
+                return;
+            }
+            now = System.currentTimeMillis();
+        }
+    }
+
+
+    /**
+     * Puts the message into its real topic, or into the timer topic again when rolled over. A failed put is
+     * retried until the service is stopped.
+     *
+     * @return false if stopped before the message is put
+     */
+    private boolean deliver(final TimerUnit unit, final boolean roll, final ServiceThread serviceThread) {
+        MessageExt msgExt = this.defaultMessageStore.lookMessageByOffset(unit.getOffsetPy(), unit.getSizePy());
+        if (null == msgExt) {
+            log.error("timer message at {} not found, maybe deleted", unit.getOffsetPy());
+            return true;
+        }
+
+        MessageExtBrokerInner msgInner = this.messageTimeup(msgExt, roll);
+        while (!serviceThread.isStoped()) {
+            PutMessageResult putMessageResult = this.defaultMessageStore.putMessage(msgInner);
+            if (putMessageResult != null && putMessageResult.isOk()) {
+                return true;
+            }
+
+            PutMessageStatus status = null == putMessageResult ? null : putMessageResult.getPutMessageStatus();
+            if (PutMessageStatus.MESSAGE_ILLEGAL == status || PutMessageStatus.PROPERTIES_SIZE_EXCEEDED == status) {
+                log.error("timer message time up, but put it failed, drop it, topic: {} msgId {} status {}",
+                        msgInner.getTopic(), msgExt.getMsgId(), status);
+                return true;
+            }
+
+            log.warn("timer message time up, but put it failed, retry later, topic: {} msgId {} status {}",
+                    msgInner.getTopic(), msgExt.getMsgId(), status);
+            this.waitUntil(System.currentTimeMillis() + DELAY_FOR_A_WHILE, serviceThread);
+        }
+        return false;
+    }
+
+
+    private MessageExtBrokerInner messageTimeup(final MessageExt msgExt, final boolean roll) {
+        MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
+        msgInner.setBody(msgExt.getBody());
+        msgInner.setFlag(msgExt.getFlag());
+        MessageAccessor.setProperties(msgInner, msgExt.getProperties());
+
+        TopicFilterType topicFilterType = MessageExt.parseTopicFilterType(msgInner.getSysFlag());
+        long tagsCodeValue = MessageExtBrokerInner.tagsString2tagsCode(topicFilterType, msgInner.getTags());
+        msgInner.setTagsCode(tagsCodeValue);
+
+        msgInner.setSysFlag(msgExt.getSysFlag());
+        msgInner.setBornTimestamp(msgExt.getBornTimestamp());
+        msgInner.setBornHost(msgExt.getBornHost());
+        msgInner.setStoreHost(msgExt.getStoreHost());
+        msgInner.setReconsumeTimes(msgExt.getReconsumeTimes());
+        msgInner.setWaitStoreMsgOK(false);
+
+        if (roll) {
+            msgInner.setTopic(TIMER_TOPIC);
+            msgInner.setQueueId(0);
+        } else {
+            MessageAccessor.clearProperty(msgInner, MessageConst.PROPERTY_TIMER_DELIVER_MS);
+            msgInner.setTopic(msgInner.getProperty(MessageConst.PROPERTY_REAL_TOPIC));
+            msgInner.setQueueId(Integer.parseInt(msgInner.getProperty(MessageConst.PROPERTY_REAL_QUEUE_ID)));
+        }
+        msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgInner.getProperties()));
+        return msgInner;
+    }
+
+
+    public void buildRunningStats(HashMap<String, String> stats) {
+        long maxOffset = this.defaultMessageStore.getMaxOffsetInQuque(TIMER_TOPIC, 0);
+        stats.put("timerEnqueueBehind", String.valueOf(Math.max(0, maxOffset - this.enqueueOffset)));
+        stats.put("timerReadBehindMs", String.valueOf(Math.max(0, System.currentTimeMillis() - this.readTimeMs)));
+    }
+
+
+    /**
+     * The timer log and the wheel are flushed before the checkpoint taken ahead of them is written.
+     */
+    @Override
+    public synchronized void persist() {
+        this.timerCheckpoint.setEnqueueOffset(this.enqueueOffset);
+        this.timerCheckpoint.setReadTimeMs(this.readTimeMs);
+        this.timerLog.flush();
+        this.timerWheel.flush();
+        super.persist();
+    }
+
+
+    @Override
+    public String encode() {
+        return this.encode(false);
+    }
+
+
+    @Override
+    public String encode(final boolean prettyFormat) {
+        return this.timerCheckpoint.toJson(prettyFormat);
+    }
+
+
+    @Override
+    public void decode(String jsonString) {
+        if (jsonString != null) {
+            TimerCheckpoint checkpoint = TimerCheckpoint.fromJson(jsonString, TimerCheckpoint.class);
+            if (checkpoint != null) {
+                this.enqueueOffset = checkpoint.getEnqueueOffset();
+                this.readTimeMs = checkpoint.getReadTimeMs();
+            }
+        }
+    }
+
+
+    @Override
+    public String configFilePath() {
+        return StorePathConfigHelper.getTimerCheckpointPath(this.defaultMessageStore.getMessageStoreConfig()
+                .getStorePathRootDir());
+    }
+
+
+    public long getEnqueueOffset() {
+        return enqueueOffset;
+    }
+
+
+    public long getReadTimeMs() {
+        return readTimeMs;
+    }
+
+
+    class EnqueueService extends ServiceThread {
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStoped()) {
+                try {
+                    if (!TimerMessageService.this.doEnqueue()) {
+                        this.waitForRunning(DELAY_FOR_A_WHILE);
+                    }
+                } catch (Throwable e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                    this.waitForRunning(DELAY_FOR_A_WHILE);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return EnqueueService.class.getSimpleName();
+        }
+    }
+
+
+    class DequeueService extends ServiceThread {
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStoped()) {
+                try {
+                    if (!TimerMessageService.this.doDequeue()) {
+                        long wait = TimerMessageService.this.dequeueTimeMs - System.currentTimeMillis();
+                        this.waitForRunning(Math.max(1, Math.min(wait, DELAY_FOR_A_WHILE)));
+                    }
+                } catch (Throwable e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                    this.waitForRunning(DELAY_FOR_A_WHILE);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return DequeueService.class.getSimpleName();
+        }
+    }
+
+
+    class FlushService extends ServiceThread {
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStoped()) {
+                try {
+                    this.waitForRunning(TimerMessageService.this.defaultMessageStore.getMessageStoreConfig()
+                            .getFlushDelayOffsetInterval());
+                    TimerMessageService.this.persist();
+
+                    long readBehind = System.currentTimeMillis() - TimerMessageService.this.readTimeMs;
+                    TimerMessageService.this.timerLog.deleteExpiredFiles(
+                            TimerMessageService.this.spanMs + TimerMessageService.this.precisionMs + Math.max(0, readBehind));
+                } catch (Throwable e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return FlushService.class.getSimpleName();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.timer;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MapedFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Slots of the timing wheel in one mapped file. A slot covers precisionMs and keeps the time it is for, so a slot
+ * left from the last round of the wheel reads as empty.
+ */
+public class TimerWheel {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    // timeMs, firstPos, lastPos, num
+    public static final int SlotSize = 8 + 8 + 8 + 4;
+
+    private final String fileName;
+    private final int slotNums;
+    private final int precisionMs;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer mappedByteBuffer;
+
+
+    public TimerWheel(final String fileName, final int slotNums, final int precisionMs) throws IOException {
+        this.fileName = fileName;
+        this.slotNums = slotNums;
+        this.precisionMs = precisionMs;
+
+        File file = new File(fileName);
+        MapedFile.ensureDirOK(file.getParent());
+        if (file.exists() && file.length() != (long) slotNums * SlotSize) {
+            log.warn("timer wheel {} length {} not matched {} slots, rebuild it", fileName, file.length(), slotNums);
+            file.delete();
+        }
+
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.fileChannel = this.randomAccessFile.getChannel();
+        this.mappedByteBuffer = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slotNums * SlotSize);
+    }
+
+
+    /**
+     * @return the slot for the time, an empty one if nothing is kept for it
+     */
+    public Slot getSlot(final long timeMs) {
+        int index = this.indexOf(timeMs);
+        long slotTimeMs = this.mappedByteBuffer.getLong(index);
+        if (slotTimeMs != timeMs) {
+            return new Slot(timeMs, -1, -1, 0);
+        }
+        return new Slot(timeMs, this.mappedByteBuffer.getLong(index + 8), this.mappedByteBuffer.getLong(index + 16),
+                this.mappedByteBuffer.getInt(index + 24));
+    }
+
+
+    public void putSlot(final long timeMs, final long firstPos, final long lastPos, final int num) {
+        int index = this.indexOf(timeMs);
+        this.mappedByteBuffer.putLong(index, timeMs);
+        this.mappedByteBuffer.putLong(index + 8, firstPos);
+        this.mappedByteBuffer.putLong(index + 16, lastPos);
+        this.mappedByteBuffer.putInt(index + 24, num);
+    }
+
+
+    private int indexOf(final long timeMs) {
+        return (int) ((timeMs / this.precisionMs) % this.slotNums) * SlotSize;
+    }
+
+
+    public void flush() {
+        this.mappedByteBuffer.force();
+    }
+
+
+    public void shutdown() {
+        this.flush();
+        MapedFile.clean(this.mappedByteBuffer);
+        try {
+            this.fileChannel.close();
+        } catch (IOException e) {
+            log.warn("close timer wheel " + this.fileName + " failed", e);
+        }
+    }
+
+
+    /**
+     * Called after {@link #shutdown()}, the buffer is unmapped already.
+     */
+    public void destroy() {
+        boolean result = new File(this.fileName).delete();
+        log.info("delete timer wheel {} {}", this.fileName, result ? "OK" : "Failed");
+    }
+
+
+    public static class Slot {
+        private final long timeMs;
+        private final long firstPos;
+        private final long lastPos;
+        private final int num;
+
+
+        public Slot(long timeMs, long firstPos, long lastPos, int num) {
+            this.timeMs = timeMs;
+            this.firstPos = firstPos;
+            this.lastPos = lastPos;
+            this.num = num;
+        }
+
+
+        public long getTimeMs() {
+            return timeMs;
+        }
+
+
+        public long getFirstPos() {
+            return firstPos;
+        }
+
+
+        public long getLastPos() {
+            return lastPos;
+        }
+
+
+        public int getNum() {
+            return num;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.transaction;
+
+/**
+ * A prepared transaction waiting for commit or rollback
+ */
+public class PreparedTransaction {
+    // Transaction State Table Offset
+    private final long tranStateTableOffset;
+    private final long commitLogOffset;
+    private final int msgSize;
+    private final long storeTimestamp;
+    // next time the producer is asked for the state
+    private long nextCheckTimestamp;
+
+
+    public PreparedTransaction(long tranStateTableOffset, long commitLogOffset, int msgSize, long storeTimestamp,
+                               long nextCheckTimestamp) {
+        this.tranStateTableOffset = tranStateTableOffset;
+        this.commitLogOffset = commitLogOffset;
+        this.msgSize = msgSize;
+        this.storeTimestamp = storeTimestamp;
+        this.nextCheckTimestamp = nextCheckTimestamp;
+    }
+
+
+    public long getTranStateTableOffset() {
+        return tranStateTableOffset;
+    }
+
+
+    public long getCommitLogOffset() {
+        return commitLogOffset;
+    }
+
+
+    public int getMsgSize() {
+        return msgSize;
+    }
+
+
+    public long getStoreTimestamp() {
+        return storeTimestamp;
+    }
+
+
+    public long getNextCheckTimestamp() {
+        return nextCheckTimestamp;
+    }
+
+
+    public void setNextCheckTimestamp(long nextCheckTimestamp) {
+        this.nextCheckTimestamp = nextCheckTimestamp;
+    }
+
+
+    @Override
+    public String toString() {
+        return "PreparedTransaction [tranStateTableOffset=" + tranStateTableOffset + ", commitLogOffset="
+                + commitLogOffset + ", msgSize=" + msgSize + ", storeTimestamp=" + storeTimestamp + "]";
+    }
+}
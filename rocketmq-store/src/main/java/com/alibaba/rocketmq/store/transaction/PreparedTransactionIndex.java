@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.transaction;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Prepared transactions of each producer group, ordered by the time they are to be checked. A checked transaction
+ * moves to the tail, so finding the due ones never walks through those that are not.
+ */
+public class PreparedTransactionIndex {
+    private final ConcurrentHashMap<Integer/* producer group hashcode */, LinkedHashMap<Long/* tsOffset */, PreparedTransaction>> groupTable =
+            new ConcurrentHashMap<Integer, LinkedHashMap<Long, PreparedTransaction>>(16);
+    private final ConcurrentHashMap<Integer/* producer group hashcode */, String> groupNameTable =
+            new ConcurrentHashMap<Integer, String>(16);
+
+
+    public void add(final int groupHashCode, final PreparedTransaction transaction) {
+        LinkedHashMap<Long, PreparedTransaction> transactions = this.groupTable.get(groupHashCode);
+        if (null == transactions) {
+            LinkedHashMap<Long, PreparedTransaction> newTransactions = new LinkedHashMap<Long, PreparedTransaction>();
+            transactions = this.groupTable.putIfAbsent(groupHashCode, newTransactions);
+            if (null == transactions) {
+                transactions = newTransactions;
+            }
+        }
+
+        synchronized (transactions) {
+            transactions.put(transaction.getTranStateTableOffset(), transaction);
+        }
+    }
+
+
+    public PreparedTransaction remove(final int groupHashCode, final long tranStateTableOffset) {
+        LinkedHashMap<Long, PreparedTransaction> transactions = this.groupTable.get(groupHashCode);
+        if (null == transactions) {
+            return null;
+        }
+
+        synchronized (transactions) {
+            return transactions.remove(tranStateTableOffset);
+        }
+    }
+
+
+    /**
+     * Takes at most maxNums transactions due to be checked, and puts them back at the tail to be checked again
+     * after checkInterval.
+     */
+    public List<PreparedTransaction> pollDue(final int groupHashCode, final long now, final long checkInterval,
+                                             final int maxNums) {
+        List<PreparedTransaction> result = new ArrayList<PreparedTransaction>();
+        LinkedHashMap<Long, PreparedTransaction> transactions = this.groupTable.get(groupHashCode);
+        if (null == transactions) {
+            return result;
+        }
+
+        synchronized (transactions) {
+            Iterator<PreparedTransaction> it = transactions.values().iterator();
+            while (it.hasNext() && result.size() < maxNums) {
+                PreparedTransaction transaction = it.next();
+                if (transaction.getNextCheckTimestamp() > now) {
+                    break;
+                }
+                it.remove();
+                result.add(transaction);
+            }
+
+            for (PreparedTransaction transaction : result) {
+                transaction.setNextCheckTimestamp(now + checkInterval);
+                transactions.put(transaction.getTranStateTableOffset(), transaction);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Drops the transactions whose state is in files deleted already.
+     */
+    public int removeBefore(final long tranStateTableOffset) {
+        int removed = 0;
+        for (LinkedHashMap<Long, PreparedTransaction> transactions : this.groupTable.values()) {
+            synchronized (transactions) {
+                Iterator<Long> it = transactions.keySet().iterator();
+                while (it.hasNext()) {
+                    if (it.next() < tranStateTableOffset) {
+                        it.remove();
+                        removed++;
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+
+    public void registerGroupName(final int groupHashCode, final String groupName) {
+        if (!this.groupNameTable.containsKey(groupHashCode)) {
+            this.groupNameTable.put(groupHashCode, groupName);
+        }
+    }
+
+
+    /**
+     * @return number of prepared transactions of each producer group, named by the hashcode until a message of the
+     * group is stored
+     */
+    public Map<String, Long> getBacklog() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Map.Entry<Integer, LinkedHashMap<Long, PreparedTransaction>> next : this.groupTable.entrySet()) {
+            long size;
+            synchronized (next.getValue()) {
+                size = next.getValue().size();
+            }
+            if (size > 0) {
+                String groupName = this.groupNameTable.get(next.getKey());
+                result.put(groupName != null ? groupName : String.valueOf(next.getKey()), size);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return offset of the oldest prepared message in CommitLog, -1 if there is none
+     */
+    public long getMinCommitLogOffset() {
+        long minOffset = Long.MAX_VALUE;
+        for (LinkedHashMap<Long, PreparedTransaction> transactions : this.groupTable.values()) {
+            synchronized (transactions) {
+                for (PreparedTransaction transaction : transactions.values()) {
+                    minOffset = Math.min(minOffset, transaction.getCommitLogOffset());
+                }
+            }
+        }
+        return minOffset == Long.MAX_VALUE ? -1 : minOffset;
+    }
+
+
+    public long size() {
+        long size = 0;
+        for (LinkedHashMap<Long, PreparedTransaction> transactions : this.groupTable.values()) {
+            synchronized (transactions) {
+                size += transactions.size();
+            }
+        }
+        return size;
+    }
+
+
+    public List<Integer> getGroupHashCodes() {
+        return new ArrayList<Integer>(this.groupTable.keySet());
+    }
+}
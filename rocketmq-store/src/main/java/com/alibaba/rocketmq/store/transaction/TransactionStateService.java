@@ -17,16 +17,23 @@
 package com.alibaba.rocketmq.store.transaction;
 
 import java.nio.ByteBuffer;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.ThreadFactoryImpl;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.message.MessageConst;
 import com.alibaba.rocketmq.common.message.MessageExt;
@@ -37,6 +44,7 @@ import com.alibaba.rocketmq.store.MapedFile;
 import com.alibaba.rocketmq.store.MapedFileQueue;
 import com.alibaba.rocketmq.store.SelectMapedBufferResult;
 import com.alibaba.rocketmq.store.config.BrokerRole;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
 
 
 /**
@@ -62,7 +70,13 @@ public class TransactionStateService {
 
     private final AtomicLong tranStateTableOffset = new AtomicLong(0);
 
-    private final Timer timer = new Timer("CheckTransactionMessageTimer", true);
+    private final PreparedTransactionIndex preparedTransactionIndex = new PreparedTransactionIndex();
+
+    private final TransactionCheckService transactionCheckService = new TransactionCheckService();
+
+    private final AtomicLong checkTimesTotal = new AtomicLong(0);
+
+    private ExecutorService checkExecutor;
 
     private MapedFileQueue tranStateTable;
 
@@ -91,139 +105,105 @@ public class TransactionStateService {
 
 
     public void start() {
-        this.initTimerTask();
+        final MessageStoreConfig config = this.defaultMessageStore.getMessageStoreConfig();
+        this.checkExecutor = new ThreadPoolExecutor(//
+            config.getCheckTransactionThreadPoolNums(),//
+            config.getCheckTransactionThreadPoolNums(),//
+            1000 * 60,//
+            TimeUnit.MILLISECONDS,//
+            new LinkedBlockingQueue<Runnable>(config.getCheckTransactionThreadPoolQueueCapacity()),//
+            new ThreadFactoryImpl("TransactionCheckThread_"));
+        this.transactionCheckService.start();
     }
 
 
-    private void initTimerTask() {
-        final List<MapedFile> mapedFiles = this.tranStateTable.getMapedFiles();
-        for (MapedFile mf : mapedFiles) {
-            this.addTimerTask(mf);
+    /**
+     * Asks the producers for the state of due prepared transactions, one batch of each group a task. A batch
+     * the full executor rejects is asked again after the check interval, the rest of this round next time.
+     */
+    private void checkPreparedTransactions() {
+        final TransactionCheckExecuter transactionCheckExecuter =
+                this.defaultMessageStore.getTransactionCheckExecuter();
+        final MessageStoreConfig config = this.defaultMessageStore.getMessageStoreConfig();
+        if (null == transactionCheckExecuter || config.getBrokerRole() == BrokerRole.SLAVE
+                || !config.isCheckTransactionMessageEnable()) {
+            return;
         }
-    }
-
-
-    private void addTimerTask(final MapedFile mf) {
-        this.timer.scheduleAtFixedRate(new TimerTask() {
-            private final MapedFile mapedFile = mf;
-            private final TransactionCheckExecuter transactionCheckExecuter =
-                    TransactionStateService.this.defaultMessageStore.getTransactionCheckExecuter();
-            private final long checkTransactionMessageAtleastInterval =
-                    TransactionStateService.this.defaultMessageStore.getMessageStoreConfig()
-                        .getCheckTransactionMessageAtleastInterval();
-            private final boolean slave = TransactionStateService.this.defaultMessageStore
-                .getMessageStoreConfig().getBrokerRole() == BrokerRole.SLAVE;
-
-
-            @Override
-            public void run() {
-                if (slave)
-                    return;
 
-                if (!TransactionStateService.this.defaultMessageStore.getMessageStoreConfig()
-                    .isCheckTransactionMessageEnable()) {
-                    return;
+        final long now = System.currentTimeMillis();
+        final int batchSize = config.getCheckTransactionMessageBatchSize();
+        long checkedCount = 0;
+        groupLoop:
+        for (final Integer groupHashCode : this.preparedTransactionIndex.getGroupHashCodes()) {
+            while (true) {
+                final List<PreparedTransaction> transactions = this.preparedTransactionIndex.pollDue(groupHashCode,
+                        now, config.getCheckTransactionMessageAtleastInterval(), batchSize);
+                if (transactions.isEmpty()) {
+                    break;
                 }
 
                 try {
-
-                    SelectMapedBufferResult selectMapedBufferResult = mapedFile.selectMapedBuffer(0);
-                    if (selectMapedBufferResult != null) {
-                        long preparedMessageCountInThisMapedFile = 0;
-                        int i = 0;
-                        try {
-
-                            for (; i < selectMapedBufferResult.getSize(); i += TSStoreUnitSize) {
-                                selectMapedBufferResult.getByteBuffer().position(i);
-
-                                // Commit Log Offset
-                                long clOffset = selectMapedBufferResult.getByteBuffer().getLong();
-                                // Message Size
-                                int msgSize = selectMapedBufferResult.getByteBuffer().getInt();
-                                // Timestamp
-                                int timestamp = selectMapedBufferResult.getByteBuffer().getInt();
-                                // Producer Group Hashcode
-                                int groupHashCode = selectMapedBufferResult.getByteBuffer().getInt();
-                                // Transaction State
-                                int tranType = selectMapedBufferResult.getByteBuffer().getInt();
-
-                                if (tranType != MessageSysFlag.TransactionPreparedType) {
-                                    continue;
-                                }
-
-                                long timestampLong = timestamp * 1000;
-                                long diff = System.currentTimeMillis() - timestampLong;
-                                if (diff < checkTransactionMessageAtleastInterval) {
-                                    break;
-                                }
-
-                                preparedMessageCountInThisMapedFile++;
-
-                                try {
-                                    this.transactionCheckExecuter.gotoCheck(//
-                                        groupHashCode,//
-                                        getTranStateOffset(i),//
-                                        clOffset,//
-                                        msgSize);
-                                }
-                                catch (Exception e) {
-                                    tranlog.warn("gotoCheck Exception", e);
-                                }
-                            }
-
-                            if (0 == preparedMessageCountInThisMapedFile //
-                                    && i == mapedFile.getFileSize()) {
-                                tranlog
-                                    .info(
-                                        "remove the transaction timer task, because no prepared message in this mapedfile[{}]",
-                                        mapedFile.getFileName());
-                                this.cancel();
-                            }
-                        }
-                        finally {
-                            selectMapedBufferResult.release();
+                    this.checkExecutor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            gotoCheck(transactionCheckExecuter, groupHashCode, transactions);
                         }
-
-                        tranlog
-                            .info(
-                                "the transaction timer task execute over in this period, {} Prepared Message: {} Check Progress: {}/{}",
-                                mapedFile.getFileName(),//
-                                preparedMessageCountInThisMapedFile,//
-                                i / TSStoreUnitSize,//
-                                mapedFile.getFileSize() / TSStoreUnitSize//
-                            );
-                    }
-                    else if (mapedFile.isFull()) {
-                        tranlog.info("the mapedfile[{}] maybe deleted, cancel check transaction timer task",
-                            mapedFile.getFileName());
-                        this.cancel();
-                        return;
-                    }
+                    });
+                } catch (RejectedExecutionException e) {
+                    tranlog.warn("too many transactions to check, check the left next time");
+                    break groupLoop;
                 }
-                catch (Exception e) {
-                    log.error("check transaction timer task Exception", e);
+                checkedCount += transactions.size();
+
+                if (transactions.size() < batchSize) {
+                    break;
                 }
             }
+        }
+
+        this.checkTimesTotal.addAndGet(checkedCount);
+        if (checkedCount > 0) {
+            tranlog.info("check {} prepared transactions of {} in total, elapsed time(ms) {}", checkedCount,
+                    this.preparedTransactionIndex.size(), System.currentTimeMillis() - now);
+        }
+    }
+
 
+    private static void gotoCheck(final TransactionCheckExecuter transactionCheckExecuter,
+            final int groupHashCode, final List<PreparedTransaction> transactions) {
+        if (transactionCheckExecuter instanceof BatchTransactionCheckExecuter) {
+            try {
+                ((BatchTransactionCheckExecuter) transactionCheckExecuter).gotoCheck(groupHashCode, transactions);
+            } catch (Exception e) {
+                tranlog.warn("gotoCheck Exception", e);
+            }
+            return;
+        }
 
-            private long getTranStateOffset(final long currentIndex) {
-                long offset =
-                        (this.mapedFile.getFileFromOffset() + currentIndex)
-                                / TransactionStateService.TSStoreUnitSize;
-                return offset;
+        for (PreparedTransaction transaction : transactions) {
+            try {
+                transactionCheckExecuter.gotoCheck(groupHashCode, transaction.getTranStateTableOffset(),
+                        transaction.getCommitLogOffset(), transaction.getMsgSize());
+            } catch (Exception e) {
+                tranlog.warn("gotoCheck Exception", e);
             }
-        }, 1000 * 60, this.defaultMessageStore.getMessageStoreConfig()
-            .getCheckTransactionMessageTimerInterval());
+        }
     }
 
 
     public void shutdown() {
-        this.timer.cancel();
+        this.transactionCheckService.shutdown();
+        if (this.checkExecutor != null) {
+            this.checkExecutor.shutdown();
+        }
     }
 
 
     public int deleteExpiredStateFile(long offset) {
         int cnt = this.tranStateTable.deleteExpiredFileByOffset(offset, TSStoreUnitSize);
+        if (cnt > 0) {
+            this.preparedTransactionIndex.removeBefore(this.tranStateTable.getMinOffset() / TSStoreUnitSize);
+        }
         return cnt;
     }
 
@@ -231,6 +211,7 @@ public class TransactionStateService {
     public void recoverStateTable(final boolean lastExitOK) {
         if (lastExitOK) {
             this.recoverStateTableNormal();
+            this.buildPreparedTransactionIndex();
         }
         else {
             this.tranStateTable.destroy();
@@ -310,10 +291,6 @@ public class TransactionStateService {
             return false;
         }
 
-        if (0 == mapedFile.getWrotePostion()) {
-            this.addTimerTask(mapedFile);
-        }
-
         this.byteBufferAppend.position(0);
         this.byteBufferAppend.limit(TSStoreUnitSize);
 
@@ -328,7 +305,53 @@ public class TransactionStateService {
         // Transaction State
         this.byteBufferAppend.putInt(MessageSysFlag.TransactionPreparedType);
 
-        return mapedFile.appendMessage(this.byteBufferAppend.array());
+        final long tsOffset = (mapedFile.getFileFromOffset() + mapedFile.getWrotePostion()) / TSStoreUnitSize;
+        boolean result = mapedFile.appendMessage(this.byteBufferAppend.array());
+        if (result) {
+            this.indexPreparedTransaction(tsOffset, clOffset, size, timestamp, groupHashCode);
+        }
+        return result;
+    }
+
+
+    private void indexPreparedTransaction(final long tsOffset, final long clOffset, final int size,
+                                          final int timestamp, final int groupHashCode) {
+        final long storeTimestamp = timestamp * 1000L;
+        this.preparedTransactionIndex.add(groupHashCode, new PreparedTransaction(tsOffset, clOffset, size,
+                storeTimestamp, storeTimestamp
+                        + this.defaultMessageStore.getMessageStoreConfig().getCheckTransactionMessageAtleastInterval()));
+    }
+
+
+    /**
+     * Indexes the prepared transactions left in the state table after it is recovered.
+     */
+    private void buildPreparedTransactionIndex() {
+        long beginTime = System.currentTimeMillis();
+        for (MapedFile mapedFile : this.tranStateTable.getMapedFiles()) {
+            SelectMapedBufferResult result = mapedFile.selectMapedBuffer(0);
+            if (null == result) {
+                continue;
+            }
+            try {
+                ByteBuffer byteBuffer = result.getByteBuffer();
+                for (int i = 0; i + TSStoreUnitSize <= result.getSize(); i += TSStoreUnitSize) {
+                    final long clOffset = byteBuffer.getLong(i);
+                    final int size = byteBuffer.getInt(i + 8);
+                    final int timestamp = byteBuffer.getInt(i + 12);
+                    final int groupHashCode = byteBuffer.getInt(i + 16);
+                    final int state = byteBuffer.getInt(i + TS_STATE_POS);
+                    if (MessageSysFlag.TransactionPreparedType == state) {
+                        this.indexPreparedTransaction((mapedFile.getFileFromOffset() + i) / TSStoreUnitSize,
+                                clOffset, size, timestamp, groupHashCode);
+                    }
+                }
+            } finally {
+                result.release();
+            }
+        }
+        log.info("build prepared transaction index over, prepared transaction count: {}, elapsed time(ms) {}",
+                this.preparedTransactionIndex.size(), System.currentTimeMillis() - beginTime);
     }
 
 
@@ -451,6 +474,7 @@ public class TransactionStateService {
                 }
 
                 selectMapedBufferResult.getByteBuffer().putInt(TS_STATE_POS, state);
+                this.preparedTransactionIndex.remove(groupHashCode, tsOffset);
             }
             catch (Exception e) {
                 log.error("updateTransactionState exception", e);
@@ -486,4 +510,44 @@ public class TransactionStateService {
     public ConsumeQueue getTranRedoLog() {
         return tranRedoLog;
     }
+
+
+    public PreparedTransactionIndex getPreparedTransactionIndex() {
+        return preparedTransactionIndex;
+    }
+
+
+    public void buildRunningStats(HashMap<String, String> stats) {
+        stats.put("preparedTransactionTotal", String.valueOf(this.preparedTransactionIndex.size()));
+        stats.put("checkTransactionTimesTotal", String.valueOf(this.checkTimesTotal.get()));
+        for (Map.Entry<String, Long> next : this.preparedTransactionIndex.getBacklog().entrySet()) {
+            stats.put("preparedTransaction_" + next.getKey(), String.valueOf(next.getValue()));
+        }
+    }
+
+
+    class TransactionCheckService extends ServiceThread {
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStoped()) {
+                try {
+                    this.waitForRunning(TransactionStateService.this.defaultMessageStore.getMessageStoreConfig()
+                            .getCheckTransactionMessageTimerInterval());
+                    TransactionStateService.this.checkPreparedTransactions();
+                } catch (Exception e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return TransactionCheckService.class.getSimpleName();
+        }
+    }
 }
@@ -29,9 +29,27 @@ public interface LibC extends Library {
     int MADV_WILLNEED = 3;
     int MADV_DONTNEED = 4;
 
+    int O_RDONLY = 0;
+    int O_RDWR = 2;
+
+    int POSIX_FADV_DONTNEED = 4;
+
+    int FALLOC_FL_KEEP_SIZE = 0x01;
+    int FALLOC_FL_ZERO_RANGE = 0x10;
+
     int mlock(Pointer var1, NativeLong var2);
 
     int munlock(Pointer var1, NativeLong var2);
 
     int madvise(Pointer var1, NativeLong var2, int var3);
+
+    int mincore(Pointer var1, NativeLong var2, byte[] var3);
+
+    int open(String var1, int var2);
+
+    int close(int var1);
+
+    int fallocate(int var1, int var2, NativeLong var3, NativeLong var4);
+
+    int posix_fadvise(int var1, NativeLong var2, NativeLong var3, int var4);
 }
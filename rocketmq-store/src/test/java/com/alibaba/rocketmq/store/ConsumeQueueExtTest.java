@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class ConsumeQueueExtTest {
+    private static final String StorePath = "." + File.separator + "unit_test_store" + File.separator + "consumequeue_ext";
+    private static final int MapedFileSize = 1024;
+    private static final int BitMapLength = 64;
+
+
+    private ConsumeQueueExt newConsumeQueueExt() {
+        return new ConsumeQueueExt("topic", 0, StorePath, MapedFileSize, BitMapLength);
+    }
+
+
+    private ConsumeQueueExt.CqExtUnit buildUnit(int i) {
+        byte[] bitMap = new byte[i % BitMapLength];
+        Arrays.fill(bitMap, (byte) i);
+        return new ConsumeQueueExt.CqExtUnit((long) i, System.currentTimeMillis(), bitMap);
+    }
+
+
+    private long[] putUnits(ConsumeQueueExt consumeQueueExt, int count) {
+        long[] addresses = new long[count];
+        for (int i = 0; i < count; i++) {
+            addresses[i] = consumeQueueExt.put(this.buildUnit(i));
+            assertTrue(ConsumeQueueExt.isExtAddr(addresses[i]));
+        }
+        return addresses;
+    }
+
+
+    @Test
+    public void test_put_get() {
+        ConsumeQueueExt consumeQueueExt = this.newConsumeQueueExt();
+
+        // units roll over several files
+        long[] addresses = this.putUnits(consumeQueueExt, 200);
+        for (int i = 0; i < addresses.length; i++) {
+            ConsumeQueueExt.CqExtUnit unit = consumeQueueExt.get(addresses[i]);
+            assertNotNull(unit);
+            assertEquals(i, unit.getTagsCode());
+            ConsumeQueueExt.CqExtUnit expect = this.buildUnit(i);
+            if (expect.getFilterBitMap().length == 0) {
+                assertNull(unit.getFilterBitMap());
+            } else {
+                assertArrayEquals(expect.getFilterBitMap(), unit.getFilterBitMap());
+            }
+        }
+
+        // a real tags code is never taken as an address
+        assertTrue(!ConsumeQueueExt.isExtAddr("TagA".hashCode()));
+        assertTrue(!ConsumeQueueExt.isExtAddr(Integer.MIN_VALUE));
+        assertNull(consumeQueueExt.get(Integer.MIN_VALUE));
+
+        consumeQueueExt.destroy();
+    }
+
+
+    @Test
+    public void test_recover_truncate() {
+        ConsumeQueueExt consumeQueueExt = this.newConsumeQueueExt();
+        long[] addresses = this.putUnits(consumeQueueExt, 100);
+        consumeQueueExt.commit(0);
+
+        consumeQueueExt = this.newConsumeQueueExt();
+        assertTrue(consumeQueueExt.load());
+        consumeQueueExt.recover();
+
+        // appending goes on right after the last unit
+        long address = consumeQueueExt.put(this.buildUnit(100));
+        ConsumeQueueExt.CqExtUnit last = consumeQueueExt.get(addresses[99]);
+        long expect = consumeQueueExt.unDecorate(addresses[99]) + last.getSize();
+        if (expect % MapedFileSize + this.buildUnit(100).getSize() + ConsumeQueueExt.END_BLANK_DATA_LENGTH > MapedFileSize) {
+            expect = expect - expect % MapedFileSize + MapedFileSize;
+        }
+        assertEquals(expect, consumeQueueExt.unDecorate(address));
+
+        consumeQueueExt.truncateByMaxAddress(addresses[49]);
+        long next = consumeQueueExt.put(this.buildUnit(50));
+        assertEquals(50, consumeQueueExt.get(next).getTagsCode());
+        assertTrue(consumeQueueExt.unDecorate(next) <= consumeQueueExt.unDecorate(addresses[50]));
+
+        consumeQueueExt.truncateByMinAddress(addresses[49]);
+        assertNull(consumeQueueExt.get(addresses[0]));
+        assertEquals(49, consumeQueueExt.get(addresses[49]).getTagsCode());
+
+        consumeQueueExt.destroy();
+    }
+}
@@ -17,17 +17,41 @@
 
 package com.alibaba.rocketmq.store;
 
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.UtilAll;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageAccessor;
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+import com.alibaba.rocketmq.common.utils.IOTinyUtils;
 import com.alibaba.rocketmq.store.config.FlushDiskType;
 import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
+import com.alibaba.rocketmq.store.transaction.BatchTransactionCheckExecuter;
+import com.alibaba.rocketmq.store.transaction.PreparedTransaction;
+import com.alibaba.rocketmq.store.transaction.TransactionStateService;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.RandomAccessFile;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 
@@ -126,6 +150,361 @@ public class DefaultMessageStoreTest {
         return msg;
     }
 
+    @Test
+    public void test_concurrent_put() throws Exception {
+        this.concurrentPut(false);
+        this.concurrentPut(true);
+    }
+
+    private void concurrentPut(final boolean useReentrantLock) throws Exception {
+        final int threads = 4;
+        final int msgsPerThread = 250;
+        MessageBody = StoreMessage.getBytes();
+
+        final String storePath = "./unit_test_store/concurrentput";
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(storePath);
+        messageStoreConfig.setStorePathCommitLog(storePath + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setUseReentrantLockWhenPutMessage(useReentrantLock);
+
+        final DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MessageArrivingListener() {
+            @Override
+            public void arriving(String topic, int queueId, long logicOffset, long tagsCode) {
+            }
+        }, null, new BrokerConfig());
+        assertTrue(master.load());
+        master.start();
+
+        final boolean[] offsetTaken = new boolean[threads * msgsPerThread];
+        final AtomicInteger failures = new AtomicInteger(0);
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < msgsPerThread; i++) {
+                            MessageExtBrokerInner msg = buildMessage();
+                            msg.setTopic("LOCK");
+                            msg.setQueueId(0);
+                            msg.setSysFlag(0);
+                            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+                            PutMessageResult result = master.putMessage(msg);
+                            if (!result.isOk()) {
+                                failures.incrementAndGet();
+                                continue;
+                            }
+                            synchronized (offsetTaken) {
+                                offsetTaken[(int) result.getAppendMessageResult().getLogicsOffset()] = true;
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }).start();
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+        for (boolean taken : offsetTaken) {
+            assertTrue(taken);
+        }
+
+        for (int i = 0; i < 100 && master.dispatchBehindBytes() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(threads * msgsPerThread, master.getMaxOffsetInQuque("LOCK", 0));
+        // queue offsets are taken in the lock, in the order of the commit log
+        long lastPhyOffset = -1;
+        for (long offset = 0; offset < threads * msgsPerThread; offset++) {
+            long phyOffset = master.getCommitLogOffsetInQueue("LOCK", 0, offset);
+            assertTrue(phyOffset > lastPhyOffset);
+            lastPhyOffset = phyOffset;
+        }
+
+        master.shutdown();
+        master.destroy();
+        IOTinyUtils.delete(new File(storePath));
+    }
+
+    @Test
+    public void test_put_messages() throws Exception {
+        int batchSize = 10;
+        MessageBody = StoreMessage.getBytes();
+
+        final String storePath = "./unit_test_store/putmessages";
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(storePath);
+        messageStoreConfig.setStorePathCommitLog(storePath + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+
+        MessageStore master = new DefaultMessageStore(messageStoreConfig, null, null, null, null);
+        assertTrue(master.load());
+        master.start();
+
+        long expectedQueueOffset = 0;
+        for (int i = 0; i < 100; i++) {
+            PutMessageResult result = master.putMessages(buildMessageBatch(batchSize));
+            assertTrue(result.isOk());
+            assertEquals(batchSize, result.getAppendMessageResult().getMsgNum());
+            assertEquals(expectedQueueOffset, result.getAppendMessageResult().getLogicsOffset());
+
+            String[] msgIds = result.getAppendMessageResult().getMsgId().split(",");
+            assertEquals(batchSize, msgIds.length);
+            for (int j = 0; j < batchSize; j++) {
+                MessageExt msg = master.lookMessageByOffset(MessageDecoder.decodeMessageId(msgIds[j]).getOffset());
+                assertEquals(expectedQueueOffset + j, msg.getQueueOffset());
+                assertEquals("BATCH", msg.getTopic());
+                assertEquals(String.valueOf(j), msg.getKeys());
+                assertEquals(StoreMessage, new String(msg.getBody()));
+            }
+            expectedQueueOffset += batchSize;
+        }
+
+        // properties only single messages take are not stored as plain messages
+        long maxPhyOffset = master.getMaxPhyOffset();
+        MessageExtBatch delayed = buildMessageBatch(batchSize, MessageConst.PROPERTY_DELAY_TIME_LEVEL, "3");
+        assertEquals(PutMessageStatus.MESSAGE_ILLEGAL, master.putMessages(delayed).getPutMessageStatus());
+        MessageExtBatch prepared = buildMessageBatch(batchSize, MessageConst.PROPERTY_TRANSACTION_PREPARED, "true");
+        assertEquals(PutMessageStatus.MESSAGE_ILLEGAL, master.putMessages(prepared).getPutMessageStatus());
+        MessageExtBatch timed = buildMessageBatch(batchSize, MessageConst.PROPERTY_TIMER_DELAY_MS, "1000");
+        assertEquals(PutMessageStatus.MESSAGE_ILLEGAL, master.putMessages(timed).getPutMessageStatus());
+        timed = buildMessageBatch(batchSize, MessageConst.PROPERTY_TIMER_DELIVER_MS,
+                String.valueOf(System.currentTimeMillis() + 1000));
+        assertEquals(PutMessageStatus.MESSAGE_ILLEGAL, master.putMessages(timed).getPutMessageStatus());
+        assertEquals(maxPhyOffset, master.getMaxPhyOffset());
+
+        master.shutdown();
+        master.destroy();
+        IOTinyUtils.delete(new File(storePath));
+    }
+
+    public MessageExtBatch buildMessageBatch(int size) {
+        return buildMessageBatch(size, null, null);
+    }
+
+    // the property is put on the last message only
+    private MessageExtBatch buildMessageBatch(int size, String name, String value) {
+        List<Message> messages = new ArrayList<Message>(size);
+        for (int i = 0; i < size; i++) {
+            messages.add(new Message("BATCH", "TAG1", String.valueOf(i), MessageBody));
+        }
+        if (name != null) {
+            MessageAccessor.putProperty(messages.get(size - 1), name, value);
+        }
+
+        MessageExtBatch messageExtBatch = new MessageExtBatch();
+        messageExtBatch.setTopic("BATCH");
+        messageExtBatch.setBody(MessageDecoder.encodeMessages(messages));
+        messageExtBatch.setQueueId(0);
+        messageExtBatch.setBornTimestamp(System.currentTimeMillis());
+        messageExtBatch.setStoreHost(StoreHost);
+        messageExtBatch.setBornHost(BornHost);
+
+        return messageExtBatch;
+    }
+
+    @Test
+    public void test_parallel_dispatch() throws Exception {
+        long totalMsgs = 1000;
+        QUEUE_TOTAL = 8;
+        MessageBody = StoreMessage.getBytes();
+
+        final String storePath = "./unit_test_store/paralleldispatch";
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(storePath);
+        messageStoreConfig.setStorePathCommitLog(storePath + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setParallelDispatchEnable(true);
+        messageStoreConfig.setDispatchConsumeQueueThreadNum(3);
+        messageStoreConfig.setDispatchRequestQueueCapacity(16);
+
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MessageArrivingListener() {
+            @Override
+            public void arriving(String topic, int queueId, long logicOffset, long tagsCode) {
+            }
+        }, null, new BrokerConfig());
+        assertTrue(master.load());
+        master.start();
+
+        for (long i = 0; i < totalMsgs; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setSysFlag(0);
+            assertTrue(master.putMessage(msg).isOk());
+        }
+
+        for (int i = 0; i < 100 && master.dispatchBehindBytes() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, master.dispatchBehindBytes());
+
+        for (int queueId = 0; queueId < QUEUE_TOTAL; queueId++) {
+            long maxOffset = master.getMaxOffsetInQuque("AAA", queueId);
+            assertEquals(totalMsgs / QUEUE_TOTAL, maxOffset);
+
+            long lastPhyOffset = -1;
+            for (long offset = 0; offset < maxOffset; offset++) {
+                long phyOffset = master.getCommitLogOffsetInQueue("AAA", queueId, offset);
+                assertTrue(phyOffset > lastPhyOffset);
+                lastPhyOffset = phyOffset;
+            }
+        }
+
+        master.shutdown();
+        master.destroy();
+        IOTinyUtils.delete(new File(storePath));
+    }
+
+    @Test
+    public void test_custom_dispatcher() throws Exception {
+        long totalMsgs = 100;
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+
+        final String storePath = "./unit_test_store/customdispatcher";
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(storePath);
+        messageStoreConfig.setStorePathCommitLog(storePath + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MessageArrivingListener() {
+            @Override
+            public void arriving(String topic, int queueId, long logicOffset, long tagsCode) {
+            }
+        }, null, new BrokerConfig());
+        final List<DispatchRequest> dispatched = Collections.synchronizedList(new ArrayList<DispatchRequest>());
+        CommitLogDispatcher dispatcher = new CommitLogDispatcher() {
+            @Override
+            public void dispatch(DispatchRequest request) {
+                dispatched.add(request);
+            }
+        };
+        master.getDispatcherList().addLast(dispatcher);
+        assertTrue(master.load());
+        master.start();
+
+        for (long i = 0; i < totalMsgs; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setSysFlag(0);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertTrue(master.putMessage(msg).isOk());
+        }
+        for (int i = 0; i < 100 && master.dispatchBehindBytes() > 0; i++) {
+            Thread.sleep(100);
+        }
+
+        assertEquals(totalMsgs, dispatched.size());
+        for (int i = 0; i < totalMsgs; i++) {
+            assertEquals("AAA", dispatched.get(i).getTopic());
+            assertEquals(i, dispatched.get(i).getConsumeQueueOffset());
+        }
+        // the built in dispatchers are timed as well
+        StoreStatsService.DispatchElapsed elapsed = master.getStoreStatsService().getDispatchElapsedTable().get(dispatcher);
+        assertEquals(totalMsgs, elapsed.getTimes());
+        assertEquals(totalMsgs,
+                master.getStoreStatsService().getDispatchElapsedTable().get(master.getBuildConsumeQueueDispatcher()).getTimes());
+
+        master.shutdown();
+        master.destroy();
+        IOTinyUtils.delete(new File(storePath));
+    }
+
+    @Test
+    public void test_get_message_filter_by_bit_map() throws Exception {
+        long totalMsgs = 100;
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+
+        final String storePath = "./unit_test_store/bitmapfilter";
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(storePath);
+        messageStoreConfig.setStorePathCommitLog(storePath + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMapedFileSizeConsumeQueueExt(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setEnableConsumeQueueExt(true);
+        messageStoreConfig.setDiskFallRecorded(false);
+
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MessageArrivingListener() {
+            @Override
+            public void arriving(String topic, int queueId, long logicOffset, long tagsCode) {
+            }
+        }, null, new BrokerConfig());
+        // bit 0 is set for red messages, must run before ConsumeQueue is built
+        master.getDispatcherList().addFirst(new CommitLogDispatcher() {
+            @Override
+            public void dispatch(DispatchRequest request) {
+                boolean red = "red".equals(request.getPropertiesMap().get("color"));
+                request.setBitMap(new byte[]{(byte) (red ? 1 : 0)});
+            }
+        });
+        master.setMessageFilter(new BitMapMessageFilter());
+        assertTrue(master.load());
+        master.start();
+
+        for (long i = 0; i < totalMsgs; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setSysFlag(0);
+            msg.putUserProperty("color", i % 2 == 0 ? "red" : "blue");
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertTrue(master.putMessage(msg).isOk());
+        }
+
+        for (int i = 0; i < 100 && master.dispatchBehindBytes() > 0; i++) {
+            Thread.sleep(100);
+        }
+
+        int found = 0;
+        long offset = 0;
+        while (offset < totalMsgs) {
+            GetMessageResult result = master.getMessage("GROUP_A", "AAA", 0, offset, 32, null);
+            try {
+                for (ByteBuffer buffer : result.getMessageBufferList()) {
+                    MessageExt msg = MessageDecoder.decode(buffer);
+                    assertEquals("red", msg.getProperty("color"));
+                    found++;
+                }
+            } finally {
+                result.release();
+            }
+            offset = result.getNextBeginOffset();
+        }
+        assertEquals(totalMsgs / 2, found);
+
+        master.shutdown();
+        master.destroy();
+        IOTinyUtils.delete(new File(storePath));
+    }
+
+    // red messages have the first bit of their bit map set
+    private static class BitMapMessageFilter extends DefaultMessageFilter implements MessageFilterExt {
+        @Override
+        public boolean isMatchedByConsumeQueueExt(String group, SubscriptionData subscriptionData,
+                                                  ConsumeQueueExt.CqExtUnit cqExtUnit) {
+            return (cqExtUnit.getFilterBitMap()[0] & 1) != 0;
+        }
+
+        @Override
+        public boolean isMatchedByCommitLog(String group, SubscriptionData subscriptionData, ByteBuffer msgBuffer) {
+            return true;
+        }
+    }
+
     @Test
     public void test_group_commit() throws Exception {
         System.out.println("================================================================");
@@ -135,7 +514,12 @@ public class DefaultMessageStoreTest {
 
         MessageBody = StoreMessage.getBytes();
 
+        final String storePath = "./unit_test_store/groupcommit";
         MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(storePath);
+        messageStoreConfig.setStorePathCommitLog(storePath + "/commitlog");
+        messageStoreConfig.setTranStateTableStorePath(storePath + "/statetable");
+        messageStoreConfig.setTranRedoLogStorePath(storePath + "/redolog");
         messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
 
 
@@ -175,6 +559,508 @@ public class DefaultMessageStoreTest {
 
 
         master.destroy();
+        IOTinyUtils.delete(new File(storePath));
         System.out.println("================================================================");
     }
+
+
+    @Test
+    public void test_async_put_message() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+
+        final String storePath = "./unit_test_store/asyncput";
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(storePath);
+        messageStoreConfig.setStorePathCommitLog(storePath + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.SYNC_FLUSH);
+        MessageStore master = new DefaultMessageStore(messageStoreConfig, null, null, null, null);
+        assertTrue(master.load());
+        master.start();
+
+        final int totalMsgs = 100;
+        final CountDownLatch latch = new CountDownLatch(totalMsgs);
+        final AtomicInteger okNums = new AtomicInteger(0);
+        PutMessageCallback callback = new PutMessageCallback() {
+            @Override
+            public void operationComplete(PutMessageResult putMessageResult) {
+                if (PutMessageStatus.PUT_OK == putMessageResult.getPutMessageStatus()) {
+                    okNums.incrementAndGet();
+                }
+                latch.countDown();
+            }
+        };
+        for (int i = 0; i < totalMsgs; i++) {
+            master.asyncPutMessage(buildMessage(), callback);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(totalMsgs, okNums.get());
+
+        // rejected before appending, completed on the calling thread
+        MessageExtBrokerInner illegal = buildMessage();
+        illegal.setTopic(new String(new char[Byte.MAX_VALUE + 1]).replace('\0', 'T'));
+        final AtomicInteger illegalNums = new AtomicInteger(0);
+        master.asyncPutMessage(illegal, new PutMessageCallback() {
+            @Override
+            public void operationComplete(PutMessageResult putMessageResult) {
+                if (PutMessageStatus.MESSAGE_ILLEGAL == putMessageResult.getPutMessageStatus()) {
+                    illegalNums.incrementAndGet();
+                }
+            }
+        });
+        assertEquals(1, illegalNums.get());
+
+        master.shutdown();
+        master.destroy();
+        IOTinyUtils.delete(new File(storePath));
+    }
+
+
+    private void putKeyedMessages(MessageStore master, int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setKeys("K" + (i % 5));
+            msg.setSysFlag(0);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertEquals(PutMessageStatus.PUT_OK, master.putMessage(msg).getPutMessageStatus());
+        }
+        for (int i = 0; i < 100 && master.getMaxOffsetInQuque("AAA", 0) < to; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(to, master.getMaxOffsetInQuque("AAA", 0));
+    }
+
+
+    private List<Long> getQueueOffsets(GetMessageResult result) {
+        List<Long> offsets = new ArrayList<Long>();
+        for (ByteBuffer byteBuffer : result.getMessageBufferList()) {
+            offsets.add(MessageDecoder.decode(byteBuffer).getQueueOffset());
+        }
+        return offsets;
+    }
+
+
+    @Test
+    public void test_compaction() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+
+        final String storePath = "./unit_test_store/compaction";
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(storePath);
+        messageStoreConfig.setStorePathCommitLog(storePath + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setCompactionEnable(true);
+        messageStoreConfig.setCompactionMinNewMessages(1);
+        messageStoreConfig.setDiskFallRecorded(false);
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setLongPollingEnable(false);
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null, null, null, brokerConfig);
+        assertTrue(master.load());
+        master.start();
+        master.updateCompactionTopics(Collections.singleton("AAA"));
+
+        this.putKeyedMessages(master, 0, 30);
+        master.getCompactionService().doCompaction();
+        GetMessageResult result = master.getMessage("GROUP_A", "AAA", 0, 0, 32, null);
+        assertEquals(GetMessageStatus.FOUND, result.getStatus());
+        assertEquals(Arrays.asList(25L, 26L, 27L, 28L, 29L), this.getQueueOffsets(result));
+        assertEquals(30, result.getNextBeginOffset());
+        result.release();
+
+        // K0 is replaced, and the view is kept after restart
+        this.putKeyedMessages(master, 30, 31);
+        master.getCompactionService().doCompaction();
+        master.shutdown();
+
+        master = new DefaultMessageStore(messageStoreConfig, null, null, null, brokerConfig);
+        assertTrue(master.load());
+        master.start();
+        master.updateCompactionTopics(Collections.singleton("AAA"));
+        result = master.getMessage("GROUP_A", "AAA", 0, 0, 3, null);
+        assertEquals(Arrays.asList(26L, 27L), this.getQueueOffsets(result));
+        assertEquals(28, result.getNextBeginOffset());
+        result.release();
+        result = master.getMessage("GROUP_A", "AAA", 0, 28, 32, null);
+        assertEquals(Arrays.asList(28L, 29L, 30L), this.getQueueOffsets(result));
+        assertEquals(31, result.getNextBeginOffset());
+        result.release();
+
+        master.updateCompactionTopics(Collections.<String>emptySet());
+        result = master.getMessage("GROUP_A", "AAA", 0, 0, 32, null);
+        assertEquals(31, result.getMessageCount());
+        result.release();
+
+        master.shutdown();
+        master.destroy();
+        IOTinyUtils.delete(new File(storePath));
+    }
+
+
+    private void waitForMessages(MessageStore master, long count, long timeoutMillis) throws Exception {
+        for (long i = 0; i < timeoutMillis / 10 && master.getMaxOffsetInQuque("AAA", 0) < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, master.getMaxOffsetInQuque("AAA", 0));
+    }
+
+
+    @Test
+    public void test_timer_message() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir("./unit_test_store/timer");
+        messageStoreConfig.setStorePathCommitLog("./unit_test_store/timer/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setTimerWheelEnable(true);
+        messageStoreConfig.setMapedFileSizeTimerLog(1024 * 32);
+        messageStoreConfig.setTimerPrecisionMs(100);
+        // delays over 1 second are rolled over
+        messageStoreConfig.setTimerWheelSlots(10);
+        messageStoreConfig.setTimerDeliverBatchSize(2);
+        messageStoreConfig.setDiskFallRecorded(false);
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setLongPollingEnable(false);
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null, null, null, brokerConfig);
+        assertTrue(master.load());
+        master.start();
+
+        long[] delays = {1250, 150, 600, 2300, 150, 0, 420};
+        long beginTime = System.currentTimeMillis();
+        for (long delay : delays) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setKeys(String.valueOf(delay));
+            msg.setDelayTimeMs(delay);
+            msg.setSysFlag(0);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertEquals(PutMessageStatus.PUT_OK, master.putMessage(msg).getPutMessageStatus());
+        }
+        this.waitForMessages(master, 1, 100);
+        this.waitForMessages(master, delays.length, 5000);
+
+        GetMessageResult result = master.getMessage("GROUP_A", "AAA", 0, 0, 32, null);
+        assertEquals(delays.length, result.getMessageCount());
+        long lastDelay = -1;
+        for (ByteBuffer byteBuffer : result.getMessageBufferList()) {
+            MessageExt msg = MessageDecoder.decode(byteBuffer);
+            long delay = Long.parseLong(msg.getKeys());
+            assertTrue(delay >= lastDelay);
+            // the store timestamp comes from SystemClock, which may lag a few ms behind
+            assertTrue(msg.getStoreTimestamp() >= beginTime + delay - 10);
+            assertEquals(0, msg.getDeliverTimeMs());
+            lastDelay = delay;
+        }
+        result.release();
+
+        // pending messages are kept over restart
+        MessageExtBrokerInner msg = buildMessage();
+        msg.setDelayTimeMs(1500);
+        msg.setSysFlag(0);
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        assertEquals(PutMessageStatus.PUT_OK, master.putMessage(msg).getPutMessageStatus());
+        for (int i = 0; i < 100 && master.getTimerMessageService().getEnqueueOffset() < 3; i++) {
+            Thread.sleep(10);
+        }
+        master.shutdown();
+
+        master = new DefaultMessageStore(messageStoreConfig, null, null, null, brokerConfig);
+        assertTrue(master.load());
+        master.start();
+        this.waitForMessages(master, delays.length + 1, 5000);
+
+        master.shutdown();
+        master.destroy();
+    }
+
+
+    @Test
+    public void test_transaction_check() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+
+        final String storePath = "./unit_test_store/transaction";
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(storePath);
+        messageStoreConfig.setStorePathCommitLog(storePath + "/commitlog");
+        messageStoreConfig.setTranStateTableStorePath(storePath + "/statetable");
+        messageStoreConfig.setTranRedoLogStorePath(storePath + "/redolog");
+        messageStoreConfig.setTranStateTableMapedFileSize(TransactionStateService.TSStoreUnitSize * 1000);
+        messageStoreConfig.setTranRedoLogMapedFileSize(ConsumeQueue.CQStoreUnitSize * 1000);
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setCheckTransactionMessageAtleastInterval(2000);
+        messageStoreConfig.setCheckTransactionMessageTimerInterval(100);
+        messageStoreConfig.setCheckTransactionMessageBatchSize(2);
+        messageStoreConfig.setDiskFallRecorded(false);
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setLongPollingEnable(false);
+
+        final List<Long> checkedOffsets = Collections.synchronizedList(new ArrayList<Long>());
+        BatchTransactionCheckExecuter transactionCheckExecuter = new BatchTransactionCheckExecuter() {
+            @Override
+            public void gotoCheck(int producerGroupHashCode, long tranStateTableOffset, long commitLogOffset,
+                                  int msgSize) {
+                checkedOffsets.add(tranStateTableOffset);
+            }
+
+
+            @Override
+            public void gotoCheck(int producerGroupHashCode, List<PreparedTransaction> transactions) {
+                assertTrue(transactions.size() <= 2);
+                assertEquals("PG".hashCode(), producerGroupHashCode);
+                for (PreparedTransaction transaction : transactions) {
+                    checkedOffsets.add(transaction.getTranStateTableOffset());
+                }
+            }
+        };
+        DefaultMessageStore master =
+                new DefaultMessageStore(messageStoreConfig, null, null, transactionCheckExecuter, brokerConfig);
+        assertTrue(master.load());
+        master.start();
+
+        List<Long> preparedOffsets = new ArrayList<Long>();
+        for (int i = 0; i < 5; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setSysFlag(MessageSysFlag.TransactionPreparedType);
+            MessageAccessor.putProperty(msg, MessageConst.PROPERTY_PRODUCER_GROUP, "PG");
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            PutMessageResult result = master.putMessage(msg);
+            assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+            preparedOffsets.add(result.getAppendMessageResult().getLogicsOffset());
+
+            // commit the even ones
+            if (i % 2 == 0) {
+                MessageExtBrokerInner commit = buildMessage();
+                commit.setSysFlag(MessageSysFlag.TransactionCommitType);
+                commit.setQueueOffset(result.getAppendMessageResult().getLogicsOffset());
+                commit.setPreparedTransactionOffset(result.getAppendMessageResult().getWroteOffset());
+                MessageAccessor.putProperty(commit, MessageConst.PROPERTY_PRODUCER_GROUP, "PG");
+                commit.setPropertiesString(MessageDecoder.messageProperties2String(commit.getProperties()));
+                assertEquals(PutMessageStatus.PUT_OK, master.putMessage(commit).getPutMessageStatus());
+            }
+        }
+
+        for (int i = 0; i < 500 && checkedOffsets.size() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList(preparedOffsets.get(1), preparedOffsets.get(3)),
+                new ArrayList<Long>(checkedOffsets).subList(0, 2));
+        assertEquals("2", master.getRuntimeInfo().get("preparedTransaction_PG"));
+        master.shutdown();
+
+        // the pending ones are indexed again from the state table
+        master = new DefaultMessageStore(messageStoreConfig, null, null, transactionCheckExecuter, brokerConfig);
+        assertTrue(master.load());
+        assertEquals(2, master.getTransactionStateService().getPreparedTransactionIndex().size());
+        master.shutdown();
+        master.destroy();
+        IOTinyUtils.delete(new File(storePath));
+    }
+
+
+    @Test
+    public void test_topic_retention() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+
+        final String storePath = "./unit_test_store/retention";
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(storePath);
+        messageStoreConfig.setStorePathCommitLog(storePath + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setDeleteConsumeQueueFilesInterval(0);
+        messageStoreConfig.setDestroyMapedFileIntervalForcibly(0);
+        messageStoreConfig.setDiskFallRecorded(false);
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setLongPollingEnable(false);
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null, null, null, brokerConfig);
+        assertTrue(master.load());
+        master.start();
+        master.updateTopicRetentionTimes(Collections.singletonMap("AAA", 1000L));
+
+        for (int i = 0; i < 300; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setSysFlag(0);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertEquals(PutMessageStatus.PUT_OK, master.putMessage(msg).getPutMessageStatus());
+        }
+        Thread.sleep(1500);
+        for (int i = 0; i < 10; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setSysFlag(0);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertEquals(PutMessageStatus.PUT_OK, master.putMessage(msg).getPutMessageStatus());
+        }
+        for (int i = 0; i < 500 && master.getMaxOffsetInQuque("AAA", 0) < 310; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, master.getCommitLog().getMinOffset());
+
+        // expired messages are not served even before their units are dropped
+        GetMessageResult result = master.getMessage("GROUP_A", "AAA", 0, 0, 32, null);
+        assertEquals(GetMessageStatus.NO_MATCHED_MESSAGE, result.getStatus());
+        assertEquals(0, result.getMessageCount());
+        assertTrue(result.getNextBeginOffset() > 0);
+
+        master.cleanFilesPeriodically();
+        assertEquals(300, master.getMinOffsetInQuque("AAA", 0));
+        result = master.getMessage("GROUP_A", "AAA", 0, 0, 32, null);
+        assertEquals(GetMessageStatus.OFFSET_TOO_SMALL, result.getStatus());
+        assertEquals(300, result.getNextBeginOffset());
+        result = master.getMessage("GROUP_A", "AAA", 0, 300, 32, null);
+        assertEquals(GetMessageStatus.FOUND, result.getStatus());
+        assertEquals(10, result.getMessageCount());
+        result.release();
+
+        // files before the first message kept are reclaimed
+        long minPhyOffset = master.getCommitLog().getMinOffset();
+        assertTrue(minPhyOffset > 0);
+        assertTrue(minPhyOffset <= master.getCommitLogOffsetInQueue("AAA", 0, 300));
+
+        master.shutdown();
+        master.destroy();
+        IOTinyUtils.delete(new File(storePath));
+    }
+
+
+    @Test
+    public void test_cold_read() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+
+        final String storePath = "./unit_test_store/coldread";
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(storePath);
+        messageStoreConfig.setStorePathCommitLog(storePath + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setDiskFallRecorded(false);
+        // every message but the last is taken as cold
+        messageStoreConfig.setAccessMessageInMemoryMaxRatio(0);
+        messageStoreConfig.setColdReadEnable(true);
+        messageStoreConfig.setColdReadBufferNums(4);
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setLongPollingEnable(false);
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null, null, null, brokerConfig);
+        assertTrue(master.load());
+        master.start();
+
+        for (int i = 0; i < 40; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setSysFlag(0);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertEquals(PutMessageStatus.PUT_OK, master.putMessage(msg).getPutMessageStatus());
+        }
+        for (int i = 0; i < 500 && master.getMaxOffsetInQuque("AAA", 0) < 40; i++) {
+            Thread.sleep(10);
+        }
+
+        // a pull from disk gets maxTransferCountOnMessageInDisk messages, more than pooled buffers, the rest are
+        // read into heap buffers
+        GetMessageResult result = master.getMessage("GROUP_A", "AAA", 0, 0, 32, null);
+        assertEquals(GetMessageStatus.FOUND, result.getStatus());
+        assertEquals(messageStoreConfig.getMaxTransferCountOnMessageInDisk(), result.getMessageCount());
+        for (int i = 0; i < result.getMessageBufferList().size(); i++) {
+            MessageExt msg = MessageDecoder.decode(result.getMessageBufferList().get(i));
+            assertEquals(i, msg.getQueueOffset());
+            assertTrue(Arrays.equals(MessageBody, msg.getBody()));
+        }
+        assertEquals(result.getMessageCount(), master.getStoreStatsService().getGetMessageColdReadTimes().get());
+        assertEquals(0, master.getColdReadBufferPool().remainBufferNums());
+        result.release();
+        assertEquals(4, master.getColdReadBufferPool().remainBufferNums());
+
+        master.shutdown();
+        master.destroy();
+        IOTinyUtils.delete(new File(storePath));
+    }
+
+
+    private long totalMessagesInQueues(MessageStore master) {
+        long total = 0;
+        for (int queueId = 0; queueId < QUEUE_TOTAL; queueId++) {
+            total += master.getMaxOffsetInQuque("AAA", queueId);
+        }
+        return total;
+    }
+
+
+    @Test
+    public void test_recover_abnormally() throws Exception {
+        QUEUE_TOTAL = 4;
+        MessageBody = StoreMessage.getBytes();
+
+        final String storePath = "./unit_test_store/recover";
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(storePath);
+        messageStoreConfig.setStorePathCommitLog(storePath + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setFlushConsumeQueueThoroughInterval(0);
+        messageStoreConfig.setRecoverThreadPoolNums(4);
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setLongPollingEnable(false);
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null, null, null, brokerConfig);
+        assertTrue(master.load());
+        master.start();
+
+        long lastOffset = 0;
+        for (int i = 0; i < 100; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setSysFlag(0);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            lastOffset = master.putMessage(msg).getAppendMessageResult().getWroteOffset();
+        }
+        for (int i = 0; i < 100 && master.dispatchBehindBytes() > 0; i++) {
+            Thread.sleep(10);
+        }
+        final long maxPhyOffset = master.getMaxPhyOffset();
+        master.shutdown();
+        assertEquals(maxPhyOffset, master.getStoreCheckpoint().getMinMsgOffset());
+
+        // crashed, recovered from the checkpoint offset
+        File abortFile = new File(StorePathConfigHelper.getAbortFile(messageStoreConfig.getStorePathRootDir()));
+        assertTrue(abortFile.createNewFile());
+        master = new DefaultMessageStore(messageStoreConfig, null, null, null, brokerConfig);
+        assertTrue(master.load());
+        assertEquals(maxPhyOffset, master.getMaxPhyOffset());
+        assertEquals(100, this.totalMessagesInQueues(master));
+        master.start();
+        master.shutdown();
+
+        // crashed with the body of the last message broken, the index can only tell the time to recover from
+        long fileFromOffset = lastOffset - lastOffset % messageStoreConfig.getMapedFileSizeCommitLog();
+        RandomAccessFile commitLogFile = new RandomAccessFile(messageStoreConfig.getStorePathCommitLog() + File.separator
+                + UtilAll.offset2FileName(fileFromOffset), "rw");
+        long bodyPosition = lastOffset - fileFromOffset + 88;
+        commitLogFile.seek(bodyPosition);
+        int b = commitLogFile.read();
+        commitLogFile.seek(bodyPosition);
+        commitLogFile.write(b + 1);
+        commitLogFile.close();
+
+        assertTrue(abortFile.createNewFile());
+        messageStoreConfig.setMessageIndexSafe(true);
+        master = new DefaultMessageStore(messageStoreConfig, null, null, null, brokerConfig);
+        assertTrue(master.load());
+        assertEquals(lastOffset, master.getMaxPhyOffset());
+        assertEquals(99, this.totalMessagesInQueues(master));
+        master.start();
+
+        master.shutdown();
+        master.destroy();
+        IOTinyUtils.delete(new File(storePath));
+    }
 }
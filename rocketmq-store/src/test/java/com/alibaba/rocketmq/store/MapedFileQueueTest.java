@@ -22,6 +22,8 @@ package com.alibaba.rocketmq.store;
 
 import org.junit.*;
 
+import java.util.List;
+
 import static org.junit.Assert.*;
 
 
@@ -214,4 +216,35 @@ public class MapedFileQueueTest {
         System.out.println("MapedFileQueue.getMapedMemorySize() OK");
     }
 
+
+    @Test
+    public void test_multi_path() {
+        final String fixedMsg = "0123456789abcdef";
+        final String storePath = "./unit_test_store/e1/,./unit_test_store/e2/";
+        MapedFileQueue mapedFileQueue = new MapedFileQueue(storePath, 1024, null);
+
+        for (int i = 0; i < 256; i++) {
+            MapedFile mapedFile = mapedFileQueue.getLastMapedFile();
+            assertTrue(mapedFile != null);
+            assertTrue(mapedFile.appendMessage(fixedMsg.getBytes()));
+        }
+
+        // successive files alternate between the directories
+        List<MapedFile> mapedFiles = mapedFileQueue.getMapedFiles();
+        assertEquals(4, mapedFiles.size());
+        for (int i = 0; i < mapedFiles.size(); i++) {
+            assertTrue(mapedFiles.get(i).getFileName().contains(i % 2 == 0 ? "e1" : "e2"));
+        }
+        mapedFileQueue.shutdown(1000);
+
+        MapedFileQueue loaded = new MapedFileQueue(storePath, 1024, null);
+        assertTrue(loaded.load());
+        assertEquals(4, loaded.getMapedFiles().size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i * 1024, loaded.findMapedFileByOffset(i * 1024 + 100).getFileFromOffset());
+        }
+        loaded.shutdown(1000);
+        loaded.destroy();
+        mapedFileQueue.destroy();
+    }
 }
@@ -25,8 +25,12 @@ import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
 import java.io.IOException;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 
@@ -80,6 +84,60 @@ public class MapedFileTest {
         }
     }
 
+    @Test
+    public void test_write_commit_read_with_transient_store_pool() throws IOException {
+        MessageStoreConfig storeConfig = new MessageStoreConfig();
+        storeConfig.setTransientStorePoolEnable(true);
+        storeConfig.setTransientStorePoolSize(1);
+        storeConfig.setMapedFileSizeCommitLog(1024 * 64);
+        TransientStorePool transientStorePool = new TransientStorePool(storeConfig);
+        transientStorePool.init();
+
+        MapedFile mapedFile = new MapedFile("./unit_test_store/MapedFileTest/001", 1024 * 64, transientStorePool);
+        assertTrue(mapedFile.appendMessage(StoreMessage.getBytes()));
+        assertEquals(0, transientStorePool.remainBufferNumbs());
+
+        // invisible until committed to FileChannel
+        assertNull(mapedFile.selectMapedBuffer(0));
+
+        assertEquals(StoreMessage.length(), mapedFile.commitToChannel(0));
+        SelectMapedBufferResult selectMapedBufferResult = mapedFile.selectMapedBuffer(0);
+        byte[] data = new byte[StoreMessage.length()];
+        selectMapedBufferResult.getByteBuffer().get(data);
+        assertEquals(StoreMessage, new String(data));
+        selectMapedBufferResult.release();
+
+        assertEquals(StoreMessage.length(), mapedFile.commit(0));
+
+        mapedFile.shutdown(1000);
+        assertTrue(mapedFile.destroy(1000));
+        assertEquals(1, transientStorePool.remainBufferNumbs());
+        transientStorePool.destroy();
+    }
+
+    @Test
+    public void test_page_cache_residency() throws IOException {
+        MapedFile mapedFile = new MapedFile("./unit_test_store/MapedFileTest/002", 1024 * 64);
+        assertTrue(mapedFile.appendMessage(StoreMessage.getBytes()));
+
+        // just written, so the first page is in page cache, unless mincore can not tell
+        if (MapedFile.isMincoreSupported()) {
+            assertEquals(Boolean.TRUE, mapedFile.isInPageCache(0, 1000));
+            assertTrue(mapedFile.prefetch(100, 1024 * 8));
+            // sampled again into the same vector
+            assertEquals(Boolean.TRUE, mapedFile.isInPageCache(0, 0));
+        } else {
+            assertNull(mapedFile.isInPageCache(0, 1000));
+        }
+
+        mapedFile.shutdown(1000);
+        if (MapedFile.isMincoreSupported()) {
+            assertEquals(Boolean.FALSE, mapedFile.isInPageCache(0, 0));
+        }
+        assertTrue(!mapedFile.prefetch(0, 1024));
+        assertTrue(mapedFile.destroy(1000));
+    }
+
     @Ignore
     public void test_jvm_crashed() {
         try {
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.utils.IOTinyUtils;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class RecycledFilePoolTest {
+    private static final String StorePath = "./unit_test_store/recycle";
+    private static final int FileSize = 1024;
+
+
+    @After
+    public void tearDown() throws Exception {
+        IOTinyUtils.delete(new File(StorePath));
+    }
+
+
+    @Test
+    public void test_recycle() {
+        RecycledFilePool pool = new RecycledFilePool(StorePath + "/pool", FileSize, 2, true);
+        MapedFileQueue mapedFileQueue = new MapedFileQueue(StorePath + "/queue", FileSize, null, 1.0, pool);
+
+        byte[] data = new byte[FileSize];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 127 + 1);
+        }
+        for (int i = 0; i < 4; i++) {
+            assertTrue(mapedFileQueue.getLastMapedFile().appendMessage(data));
+        }
+        assertEquals(4, mapedFileQueue.getMapedFiles().size());
+
+        // the last file is kept, two of the other three fit in the pool
+        assertEquals(3, mapedFileQueue.deleteExpiredFileByTime(0, 0, 1000, true));
+        assertEquals(2, pool.size());
+        assertEquals(2, new File(StorePath + "/pool").list().length);
+
+        mapedFileQueue.shutdown(1000);
+        mapedFileQueue.destroy();
+
+        pool = new RecycledFilePool(StorePath + "/pool", FileSize, 2, true);
+        pool.load();
+        assertEquals(2, pool.size());
+        assertFalse(pool.prepare(StorePath + "/other/0", FileSize * 2));
+        assertEquals(2, pool.size());
+
+        mapedFileQueue = new MapedFileQueue(StorePath + "/queue", FileSize, null, 1.0, pool);
+        assertTrue(mapedFileQueue.getLastMapedFile().appendMessage(data));
+        assertEquals(1, pool.size());
+
+        // recycled files are zeroed before reused
+        MapedFile mapedFile = mapedFileQueue.getLastMapedFile();
+        assertEquals(0, pool.size());
+        assertEquals(FileSize, mapedFile.getFileFromOffset());
+        ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
+        for (int i = 0; i < FileSize; i++) {
+            assertEquals(0, byteBuffer.get(i));
+        }
+
+        mapedFileQueue.shutdown(1000);
+        mapedFileQueue.destroy();
+        pool.destroy();
+    }
+
+
+    @Test
+    public void test_recycle_multi_path() {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathCommitLog(StorePath + "/a/commitlog" + MessageStoreConfig.MULTI_PATH_SPLITTER
+                + StorePath + "/b/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(FileSize);
+        messageStoreConfig.setRecycleMapedFileEnable(true);
+        RecycledFilePool[] pools = RecycledFilePool.createCommitLogPools(messageStoreConfig);
+        assertEquals(2, pools.length);
+        MapedFileQueue mapedFileQueue = new MapedFileQueue(messageStoreConfig.getStorePathCommitLog(), FileSize,
+                null, 1.0, pools);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(mapedFileQueue.getLastMapedFile().appendMessage(new byte[FileSize]));
+        }
+
+        // each file goes back to the pool next to its own directory
+        assertEquals(3, mapedFileQueue.deleteExpiredFileByTime(0, 0, 1000, true));
+        assertEquals(2, pools[0].size());
+        assertEquals(1, pools[1].size());
+        assertEquals(2, new File(StorePath + "/a/recycle/commitlog").list().length);
+        assertEquals(1, new File(StorePath + "/b/recycle/commitlog").list().length);
+
+        mapedFileQueue.shutdown(1000);
+        mapedFileQueue.destroy();
+        for (RecycledFilePool pool : pools) {
+            pool.destroy();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.ha;
+
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.utils.IOTinyUtils;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageArrivingListener;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.config.BrokerRole;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class HAServiceTest {
+    @Test
+    public void test_quorumOffset() {
+        long[] ackOffsets = new long[]{300, 100, 200};
+        assertEquals(300, HAService.quorumOffset(ackOffsets, 1));
+        // the slowest of the two fastest slaves
+        assertEquals(200, HAService.quorumOffset(ackOffsets, 2));
+        assertEquals(100, HAService.quorumOffset(ackOffsets, 3));
+        assertEquals(-1, HAService.quorumOffset(ackOffsets, 4));
+        // not sorted in place
+        assertEquals(300, ackOffsets[0]);
+    }
+
+
+    @Test
+    public void test_adaptBatchSize() {
+        // doubles while behind, up to the max
+        assertEquals(2048, HAConnection.adaptBatchSize(1024, 4096, 1024, 4096));
+        assertEquals(4096, HAConnection.adaptBatchSize(4096, 8192, 1024, 4096));
+        // kept while a batch is about what is left
+        assertEquals(2048, HAConnection.adaptBatchSize(2048, 1500, 1024, 4096));
+        // halves once caught up, down to the min
+        assertEquals(2048, HAConnection.adaptBatchSize(4096, 100, 1024, 4096));
+        assertEquals(1024, HAConnection.adaptBatchSize(1024, 0, 1024, 4096));
+    }
+
+
+    @Test
+    public void test_replicate_compressed() throws Exception {
+        String stats = replicate(HAService.ProtocolVersion, HAService.ProtocolVersion);
+        assertTrue(stats, stats.startsWith("protocol: " + HAService.ProtocolVersion + " "));
+        // the deflated frames were inflated back to the same CommitLog
+        assertTrue(stats, compressRatio(stats) < 0.5);
+    }
+
+
+    @Test
+    public void test_replicate_master_of_lower_version() throws Exception {
+        String stats = replicate(1, HAService.ProtocolVersion);
+        assertTrue(stats, stats.startsWith("protocol: 1 "));
+        assertTrue(stats, compressRatio(stats) < 0.5);
+    }
+
+
+    @Test
+    public void test_replicate_uncompressed_slave() throws Exception {
+        // a slave of the original framing gets neither batches nor compression
+        String stats = replicate(HAService.ProtocolVersion, 0);
+        assertTrue(stats, stats.startsWith("protocol: 0 "));
+        assertTrue(stats, compressRatio(stats) > 1);
+    }
+
+
+    private static double compressRatio(final String stats) {
+        return Double.parseDouble(stats.substring(stats.indexOf("compressRatio: ") + "compressRatio: ".length()));
+    }
+
+
+    /**
+     * @return running stats of the only slave connected to the master once it caught up
+     */
+    private static String replicate(final int masterVersion, final int slaveVersion) throws Exception {
+        final String storePath = "./unit_test_store/ha";
+        MessageStoreConfig masterConfig = buildStoreConfig(storePath + "/master", BrokerRole.ASYNC_MASTER);
+        masterConfig.setHaProtocolVersion(masterVersion);
+        masterConfig.setHaCompressEnable(true);
+        MessageStoreConfig slaveConfig = buildStoreConfig(storePath + "/slave", BrokerRole.SLAVE);
+        slaveConfig.setHaProtocolVersion(slaveVersion);
+
+        DefaultMessageStore master = buildStore(masterConfig);
+        DefaultMessageStore slave = buildStore(slaveConfig);
+        try {
+            master.start();
+            slave.updateHaMasterAddress("127.0.0.1:" + masterConfig.getHaListenPort());
+            slave.start();
+
+            byte[] body = new byte[1024];
+            for (int i = 0; i < body.length; i++) {
+                body[i] = (byte) ('a' + i % 8);
+            }
+            for (int i = 0; i < 100; i++) {
+                MessageExtBrokerInner msg = new MessageExtBrokerInner();
+                msg.setTopic("HA");
+                msg.setBody(body);
+                msg.setBornTimestamp(System.currentTimeMillis());
+                msg.setBornHost(new InetSocketAddress("127.0.0.1", 0));
+                msg.setStoreHost(new InetSocketAddress("127.0.0.1", 8123));
+                assertEquals(PutMessageStatus.PUT_OK, master.putMessage(msg).getPutMessageStatus());
+            }
+
+            for (int i = 0; i < 1000 && slave.getMaxPhyOffset() < master.getMaxPhyOffset(); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(master.getMaxPhyOffset(), slave.getMaxPhyOffset());
+            SelectMapedBufferResult masterData = master.getCommitLogData(0);
+            SelectMapedBufferResult slaveData = slave.getCommitLogData(0);
+            try {
+                assertEquals(masterData.getByteBuffer(), slaveData.getByteBuffer());
+            } finally {
+                masterData.release();
+                slaveData.release();
+            }
+
+            HashMap<String, String> stats = new HashMap<String, String>();
+            master.getHaService().buildRunningStats(stats);
+            assertEquals(1, stats.size());
+            return stats.values().iterator().next();
+        } finally {
+            slave.shutdown();
+            master.shutdown();
+            slave.destroy();
+            master.destroy();
+            IOTinyUtils.delete(new File(storePath));
+        }
+    }
+
+
+    private static MessageStoreConfig buildStoreConfig(final String storePath, final BrokerRole brokerRole)
+            throws Exception {
+        MessageStoreConfig storeConfig = new MessageStoreConfig();
+        storeConfig.setStorePathRootDir(storePath);
+        storeConfig.setStorePathCommitLog(storePath + "/commitlog");
+        storeConfig.setMapedFileSizeCommitLog(1024 * 1024);
+        storeConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        storeConfig.setMaxHashSlotNum(100);
+        storeConfig.setMaxIndexNum(100 * 10);
+        storeConfig.setDiskFallRecorded(false);
+        storeConfig.setBrokerRole(brokerRole);
+        // small batches so the master has to batch and compress more than one
+        storeConfig.setHaTransferBatchSize(1024 * 4);
+        storeConfig.setHaSendHeartbeatInterval(100);
+        ServerSocket socket = new ServerSocket(0);
+        storeConfig.setHaListenPort(socket.getLocalPort());
+        socket.close();
+        return storeConfig;
+    }
+
+
+    private static DefaultMessageStore buildStore(final MessageStoreConfig storeConfig) throws Exception {
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setLongPollingEnable(false);
+        if (storeConfig.getBrokerRole() == BrokerRole.SLAVE) {
+            // a slave waits for the rest of a message cut by a frame, a master skips it
+            brokerConfig.setBrokerId(1);
+        }
+        DefaultMessageStore store = new DefaultMessageStore(storeConfig, null, new MessageArrivingListener() {
+            @Override
+            public void arriving(String topic, int queueId, long logicOffset, long tagsCode) {
+            }
+        }, null, brokerConfig);
+        assertTrue(store.load());
+        return store;
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.ha;
+
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.utils.IOTinyUtils;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.GetMessageResult;
+import com.alibaba.rocketmq.store.GetMessageStatus;
+import com.alibaba.rocketmq.store.MessageArrivingListener;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.config.BrokerRole;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class HASnapshotClientTest {
+    private static final String StorePath = "./unit_test_store/snapshot";
+    private static final int MapedFileSize = 1024 * 64;
+
+
+    @After
+    public void destroy() throws Exception {
+        IOTinyUtils.delete(new File(StorePath));
+    }
+
+
+    @Test
+    public void test_bootstrap() throws Exception {
+        MessageStoreConfig masterConfig = buildStoreConfig(StorePath + "/master", BrokerRole.ASYNC_MASTER);
+        masterConfig.setHaSnapshotEnable(true);
+        DefaultMessageStore master = buildStore(masterConfig);
+        master.start();
+        DefaultMessageStore slave = null;
+        try {
+            putMessages(master, 200);
+            assertTrue(master.getCommitLog().getMapedFileQueue().getMapedFiles().size() > 2);
+
+            MessageStoreConfig slaveConfig = buildStoreConfig(StorePath + "/slave", BrokerRole.SLAVE);
+            slaveConfig.setHaBootstrapEnable(true);
+            slaveConfig.setHaMasterAddress("127.0.0.1:" + masterConfig.getHaListenPort());
+            // a few chunks a file, over two connections
+            slaveConfig.setHaBootstrapChunkSize(1024 * 16);
+            slaveConfig.setHaSnapshotThreadNums(2);
+            slave = buildStore(slaveConfig);
+
+            // the sealed files are copied on load, the last one is left to streaming
+            long sealedOffset = master.getCommitLog().getMapedFileQueue().getLastMapedFile().getFileFromOffset();
+            assertTrue(slave.getMaxPhyOffset() > sealedOffset - MapedFileSize);
+            assertTrue(slave.getMaxPhyOffset() <= sealedOffset);
+            File bootstrapFile = new File(StorePathConfigHelper.getBootstrapFile(slaveConfig.getStorePathRootDir()));
+            assertTrue(bootstrapFile.exists());
+
+            slave.updateHaMasterAddress(slaveConfig.getHaMasterAddress());
+            slave.start();
+            for (int i = 0; i < 1000 && (bootstrapFile.exists() || slave.getMaxPhyOffset() < master.getMaxPhyOffset()); i++) {
+                Thread.sleep(10);
+            }
+            assertFalse(bootstrapFile.exists());
+            assertEquals(master.getMaxPhyOffset(), slave.getMaxPhyOffset());
+            for (long offset = 0; offset <= sealedOffset; offset += MapedFileSize) {
+                assertSameData(master.getCommitLogData(offset), slave.getCommitLogData(offset));
+            }
+
+            // consume queues of the copied files are built from the first message
+            assertEquals(200, slave.getMaxOffsetInQuque("HA", 0));
+            GetMessageResult result = slave.getMessage("GROUP_A", "HA", 0, 0, 32, null);
+            assertEquals(GetMessageStatus.FOUND, result.getStatus());
+            result.release();
+        } finally {
+            if (slave != null) {
+                slave.shutdown();
+                slave.destroy();
+            }
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+
+    @Test
+    public void test_bootstrap_chunk_failed() throws Exception {
+        final MessageStoreConfig slaveConfig = buildStoreConfig(StorePath + "/slave", BrokerRole.SLAVE);
+        slaveConfig.setHaMasterAddress("127.0.0.1:" + slaveConfig.getHaListenPort());
+        slaveConfig.setHaBootstrapChunkSize(1024 * 16);
+
+        // lists two files, but answers no chunk of them
+        final ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(HASnapshotService.snapshotPort(slaveConfig.getHaListenPort())));
+        Thread server = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!serverSocket.isClosed()) {
+                        Socket socket = serverSocket.accept();
+                        try {
+                            DataInputStream in = new DataInputStream(socket.getInputStream());
+                            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                            if (HASnapshotService.ListFiles == in.readInt()) {
+                                out.writeInt(MapedFileSize);
+                                out.writeInt(2);
+                                out.writeLong(0);
+                                out.writeLong(MapedFileSize);
+                            } else {
+                                in.readLong();
+                                in.readInt();
+                                in.readInt();
+                                out.writeInt(-1);
+                            }
+                            out.flush();
+                        } finally {
+                            socket.close();
+                        }
+                    }
+                } catch (Exception e) {
+                    // closed
+                }
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+        DefaultMessageStore slave = new DefaultMessageStore(slaveConfig, null, null, null, new BrokerConfig());
+        try {
+            assertFalse(new HASnapshotClient(slave).bootstrap());
+        } finally {
+            serverSocket.close();
+        }
+
+        // nothing is moved in, and the slave streams everything from master
+        String[] names = new File(slaveConfig.getStorePathCommitLog()).list();
+        assertTrue(null == names || 0 == names.length);
+        assertFalse(new File(StorePathConfigHelper.getStorePathBootstrap(slaveConfig.getStorePathRootDir())).exists());
+        assertFalse(new File(StorePathConfigHelper.getBootstrapFile(slaveConfig.getStorePathRootDir())).exists());
+    }
+
+
+    @Test
+    public void test_dispatch_again_after_restart() throws Exception {
+        MessageStoreConfig storeConfig = buildStoreConfig(StorePath + "/store", BrokerRole.ASYNC_MASTER);
+        DefaultMessageStore store = buildStore(storeConfig);
+        store.start();
+        putMessages(store, 100);
+        store.shutdown();
+
+        // stopped after the files were moved in, before their consume queues were built
+        IOTinyUtils.delete(new File(StorePathConfigHelper.getStorePathConsumeQueue(storeConfig.getStorePathRootDir())));
+        File bootstrapFile = new File(StorePathConfigHelper.getBootstrapFile(storeConfig.getStorePathRootDir()));
+        assertTrue(bootstrapFile.createNewFile());
+
+        store = buildStore(storeConfig);
+        store.start();
+        try {
+            for (int i = 0; i < 500 && bootstrapFile.exists(); i++) {
+                Thread.sleep(10);
+            }
+            assertFalse(bootstrapFile.exists());
+            assertEquals(100, store.getMaxOffsetInQuque("HA", 0));
+            GetMessageResult result = store.getMessage("GROUP_A", "HA", 0, 0, 32, null);
+            assertEquals(GetMessageStatus.FOUND, result.getStatus());
+            result.release();
+        } finally {
+            store.shutdown();
+            store.destroy();
+        }
+    }
+
+
+    private static void assertSameData(final SelectMapedBufferResult expected, final SelectMapedBufferResult actual) {
+        try {
+            assertEquals(expected.getByteBuffer(), actual.getByteBuffer());
+        } finally {
+            expected.release();
+            actual.release();
+        }
+    }
+
+
+    private static void putMessages(final DefaultMessageStore store, final int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            MessageExtBrokerInner msg = new MessageExtBrokerInner();
+            msg.setTopic("HA");
+            msg.setBody(new byte[1024]);
+            msg.setBornTimestamp(System.currentTimeMillis());
+            msg.setBornHost(new InetSocketAddress("127.0.0.1", 0));
+            msg.setStoreHost(new InetSocketAddress("127.0.0.1", 8123));
+            assertEquals(PutMessageStatus.PUT_OK, store.putMessage(msg).getPutMessageStatus());
+        }
+        for (int i = 0; i < 500 && store.getMaxOffsetInQuque("HA", 0) < count; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+
+    private static MessageStoreConfig buildStoreConfig(final String storePath, final BrokerRole brokerRole)
+            throws Exception {
+        MessageStoreConfig storeConfig = new MessageStoreConfig();
+        storeConfig.setStorePathRootDir(storePath);
+        storeConfig.setStorePathCommitLog(storePath + "/commitlog");
+        storeConfig.setMapedFileSizeCommitLog(MapedFileSize);
+        storeConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        storeConfig.setMaxHashSlotNum(100);
+        storeConfig.setMaxIndexNum(100 * 10);
+        storeConfig.setDiskFallRecorded(false);
+        storeConfig.setBrokerRole(brokerRole);
+        storeConfig.setHaSendHeartbeatInterval(100);
+        storeConfig.setHaListenPort(freePortPair());
+        return storeConfig;
+    }
+
+
+    // the snapshot service listens next to the HA port
+    private static int freePortPair() throws Exception {
+        while (true) {
+            ServerSocket socket = new ServerSocket(0);
+            int port = socket.getLocalPort();
+            socket.close();
+            try {
+                new ServerSocket(HASnapshotService.snapshotPort(port)).close();
+                return port;
+            } catch (Exception e) {
+                // taken, try another one
+            }
+        }
+    }
+
+
+    private static DefaultMessageStore buildStore(final MessageStoreConfig storeConfig) throws Exception {
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setLongPollingEnable(false);
+        if (storeConfig.getBrokerRole() == BrokerRole.SLAVE) {
+            brokerConfig.setBrokerId(1);
+        }
+        DefaultMessageStore store = new DefaultMessageStore(storeConfig, null, new MessageArrivingListener() {
+            @Override
+            public void arriving(String topic, int queueId, long logicOffset, long tagsCode) {
+            }
+        }, null, brokerConfig);
+        assertTrue(store.load());
+        return store;
+    }
+}
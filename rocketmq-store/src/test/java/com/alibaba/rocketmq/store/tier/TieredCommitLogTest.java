@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.alibaba.rocketmq.store.tier;
+
+import com.alibaba.rocketmq.store.MapedFile;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class TieredCommitLogTest {
+    private static final String StorePath = "." + File.separator + "unit_test_store" + File.separator + "tiered";
+    private static final int MapedFileSize = 1024 * 8;
+
+
+    @Test
+    public void test_offload_read() throws Exception {
+        MessageStoreConfig config = new MessageStoreConfig();
+        config.setMapedFileSizeCommitLog(MapedFileSize);
+        config.setTieredStorePath(StorePath + File.separator + "tier");
+        config.setTieredBlockSize(1000);
+        config.setTieredBlockCacheSize(4000);
+
+        MapedFile mapedFile = new MapedFile(StorePath + File.separator + "00000000000000008192", MapedFileSize);
+        byte[] data = new byte[MapedFileSize];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        assertTrue(mapedFile.appendMessage(data));
+        mapedFile.commit(0);
+
+        TieredCommitLog tieredCommitLog = new TieredCommitLog(config, new LocalDirTieredStorage(config));
+        assertTrue(tieredCommitLog.offload(mapedFile));
+        assertEquals(MapedFileSize, tieredCommitLog.getMinOffset());
+        assertEquals(MapedFileSize * 2, tieredCommitLog.getMaxOffset());
+        assertFalse(tieredCommitLog.contains(MapedFileSize - 1));
+
+        // spans three blocks
+        SelectMapedBufferResult result = tieredCommitLog.getMessage(MapedFileSize + 990, 1200);
+        assertEquals(1200, result.getByteBuffer().remaining());
+        for (int i = 0; i < 1200; i++) {
+            assertEquals((byte) (990 + i), result.getByteBuffer().get());
+        }
+        result.release();
+        tieredCommitLog.getMessage(MapedFileSize + 1500, 10).release();
+        assertEquals(1, tieredCommitLog.getBlockCache().getHitTimes());
+        assertNull(tieredCommitLog.getMessage(MapedFileSize * 2 - 10, 20));
+
+        // offloaded files are found again after restart
+        TieredCommitLog reloaded = new TieredCommitLog(config, new LocalDirTieredStorage(config));
+        assertTrue(reloaded.load());
+        assertEquals(MapedFileSize, reloaded.getMinOffset());
+
+        assertEquals(1, reloaded.deleteExpiredFiles(System.currentTimeMillis() + 1000));
+        assertEquals(-1, reloaded.getMinOffset());
+        assertNull(reloaded.getMessage(MapedFileSize, 10));
+
+        mapedFile.shutdown(1000);
+        mapedFile.destroy(1000);
+    }
+}
@@ -87,6 +87,14 @@ public class UpdateTopicSubCommand implements SubCommand {
         opt.setRequired(false);
         options.addOption(opt);
 
+        opt = new Option("m", "compaction", true, "keep only the newest message per key (true|false)");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        opt = new Option("e", "retentionTime", true, "keep messages for milliseconds, 0 for the broker's fileReservedTime");
+        opt.setRequired(false);
+        options.addOption(opt);
+
         return options;
     }
 
@@ -128,6 +136,9 @@ public class UpdateTopicSubCommand implements SubCommand {
             }
 
             int topicCenterSync = TopicSysFlag.buildSysFlag(isUnit, isCenterSync);
+            if (commandLine.hasOption('m') && Boolean.parseBoolean(commandLine.getOptionValue('m').trim())) {
+                topicCenterSync = TopicSysFlag.setCompactionFlag(topicCenterSync);
+            }
             topicConfig.setTopicSysFlag(topicCenterSync);
 
             boolean isOrder = false;
@@ -136,6 +147,11 @@ public class UpdateTopicSubCommand implements SubCommand {
             }
             topicConfig.setOrder(isOrder);
 
+            // retentionTime
+            if (commandLine.hasOption('e')) {
+                topicConfig.setRetentionTime(Long.parseLong(commandLine.getOptionValue('e').trim()));
+            }
+
             if (commandLine.hasOption('b')) {
                 String addr = commandLine.getOptionValue('b').trim();
 